@@ -0,0 +1,70 @@
+package com.nhom33.quanlychungcu.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark ký / kiểm tra chữ ký VNPAY (chạy: mvn -Pbenchmark test-compile exec:java).
+ *
+ * Tham số giống một callback IPN thật; chạy 4 thread để đo cả chi phí ThreadLocal giữ Mac.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class VnPaySignerBenchmark {
+
+    private VnPaySigner signer;
+    private Map<String, String> params;
+    private String query;
+
+    @Setup
+    public void setup() {
+        signer = new VnPaySigner("BENCHMARKSECRETKEY0123456789ABCD");
+        params = new TreeMap<>();
+        params.put("vnp_Amount", "125000000");
+        params.put("vnp_BankCode", "NCB");
+        params.put("vnp_BankTranNo", "VNP14226112");
+        params.put("vnp_CardType", "ATM");
+        params.put("vnp_OrderInfo", "Thanh toan hoa don #1024");
+        params.put("vnp_PayDate", "20261018093000");
+        params.put("vnp_ResponseCode", "00");
+        params.put("vnp_TmnCode", "DEMO1234");
+        params.put("vnp_TransactionNo", "14226112");
+        params.put("vnp_TransactionStatus", "00");
+        params.put("vnp_TxnRef", "1024");
+        query = signer.canonicalQuery(params);
+        params.put(VnPaySigner.SECURE_HASH, signer.sign(query));
+    }
+
+    @Benchmark
+    public String canonicalQuery() {
+        return signer.canonicalQuery(params);
+    }
+
+    @Benchmark
+    public String sign() {
+        return signer.sign(query);
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return signer.verify(params);
+    }
+}
@@ -0,0 +1,110 @@
+package com.nhom33.quanlychungcu.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Cấu hình các thread pool dùng cho xử lý nền.
+ *
+ * Mỗi pool đều có giới hạn số thread và hàng đợi để tránh làm cạn
+ * connection pool của DB khi có nhiều job chạy cùng lúc.
+ */
+@Configuration
+public class ExecutorConfig {
+
+    /**
+     * Pool chốt sổ nhiều tòa nhà: mỗi task = tính tiền 1 đợt thu (1 tòa nhà, 1 transaction).
+     * Khi hàng đợi đầy thì từ chối task (AbortPolicy -> TaskRejectedException): không để thread HTTP
+     * tự chạy cả tòa nhà; BillingCloseJobService kiểm tra chỗ trống trước và controller trả 503.
+     */
+    @Bean(name = "billingCloseExecutor", destroyMethod = "shutdown")
+    public ThreadPoolTaskExecutor billingCloseExecutor(
+            @Value("${app.billing-close.threads:4}") int threads,
+            @Value("${app.billing-close.queue-capacity:200}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("chot-so-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Pool tính lại hóa đơn khi giá mặc định của loại phí đổi (DonGiaRecalcJob): một thread để các lần
+     * tính lại cùng ghi HoaDon không chạy chồng nhau. Hàng đợi đầy thì từ chối (job ghi log).
+     */
+    @Bean(name = "invoiceDeltaExecutor", destroyMethod = "shutdown")
+    public ThreadPoolTaskExecutor invoiceDeltaExecutor(
+            @Value("${app.invoice.delta-recalc-queue-capacity:100}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("tinh-lai-gia-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(60);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Pool worker ghi nhận thanh toán VNPAY từ outbox: mỗi thread là một vòng lặp lấy lô riêng
+     * (VnPayOutboxWorker), nên số thread = số worker, không cần hàng đợi.
+     */
+    @Bean(name = "vnpayOutboxExecutor", destroyMethod = "shutdown")
+    public ThreadPoolTaskExecutor vnpayOutboxExecutor(@Value("${app.vnpay.outbox.workers:2}") int workers) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(0);
+        executor.setThreadNamePrefix("vnpay-outbox-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Pool worker gửi email từ outbox: mỗi thread là một vòng lặp (EmailOutboxWorker) giữ
+     * tối đa một kết nối SMTP, nên số thread = số worker, không cần hàng đợi.
+     */
+    @Bean(name = "emailOutboxExecutor", destroyMethod = "shutdown")
+    public ThreadPoolTaskExecutor emailOutboxExecutor(@Value("${app.email.outbox.workers:2}") int workers) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(0);
+        executor.setThreadNamePrefix("email-outbox-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Pool render hóa đơn hàng loạt (PDF/ZIP của cả đợt thu): việc thuần CPU, không dùng DB,
+     * nên mặc định số thread = số core. Hàng đợi đầy thì thread đang stream tự render
+     * (CallerRunsPolicy), tự nhiên chậm lại thay vì dồn thêm việc vào bộ nhớ.
+     */
+    @Bean(name = "invoiceRenderExecutor", destroyMethod = "shutdown")
+    public ThreadPoolTaskExecutor invoiceRenderExecutor(
+            @Value("${app.invoice.render.threads:0}") int threads,
+            @Value("${app.invoice.render.queue-capacity:16}") int queueCapacity) {
+        int size = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(size);
+        executor.setMaxPoolSize(size);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("in-hoa-don-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        return executor;
+    }
+}
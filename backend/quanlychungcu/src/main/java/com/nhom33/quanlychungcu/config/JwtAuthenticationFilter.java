@@ -1,11 +1,13 @@
 package com.nhom33.quanlychungcu.config;
 
+import com.nhom33.quanlychungcu.entity.UserAccount;
 import io.jsonwebtoken.ExpiredJwtException;
 import io.jsonwebtoken.JwtException;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.lang.NonNull;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -17,15 +19,26 @@ import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
 
+/**
+ * Filter xác thực JWT.
+ * 
+ * CHẾ ĐỘ STATELESS (app.jwt.stateless=true, mặc định):
+ * - Token có claim uid/role -> dựng Authentication trực tiếp từ claim, KHÔNG query DB
+ * - Token bị thu hồi (phiên bản cũ hơn TokenVersionStore) -> 401
+ * - Token cũ không có claim -> fallback load user từ DB như trước
+ */
 @Component
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
     private final JwtService jwtService;
     private final UserDetailsService userDetailsService;
+    private final boolean stateless;
 
-    public JwtAuthenticationFilter(JwtService jwtService, UserDetailsService userDetailsService) {
+    public JwtAuthenticationFilter(JwtService jwtService, UserDetailsService userDetailsService,
+                                   @Value("${app.jwt.stateless:true}") boolean stateless) {
         this.jwtService = jwtService;
         this.userDetailsService = userDetailsService;
+        this.stateless = stateless;
     }
 
     @Override
@@ -43,21 +56,44 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
         jwt = authHeader.substring(7);
         
+        JwtService.TokenPrincipal tokenPrincipal = null;
         try {
-            username = jwtService.extractUsername(jwt);
+            if (stateless) {
+                tokenPrincipal = jwtService.parsePrincipal(jwt);
+            }
+            username = tokenPrincipal != null ? tokenPrincipal.username() : jwtService.extractUsername(jwt);
         } catch (ExpiredJwtException e) {
             response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
             response.setContentType("application/json");
             response.getWriter().write("{\"error\": \"Token expired\", \"message\": \"Please login again\"}");
             return;
-        } catch (JwtException e) {
+        } catch (JwtException | IllegalArgumentException e) {
             response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
             response.setContentType("application/json");
             response.getWriter().write("{\"error\": \"Invalid token\", \"message\": \"Please login again\"}");
             return;
         }
 
-        if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
+        if (tokenPrincipal != null && SecurityContextHolder.getContext().getAuthentication() == null) {
+            if (!jwtService.isNotRevoked(tokenPrincipal)) {
+                response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+                response.setContentType("application/json");
+                response.getWriter().write("{\"error\": \"Token revoked\", \"message\": \"Please login again\"}");
+                return;
+            }
+            // Dựng principal từ claim (chữ ký + hạn đã được verify khi parse)
+            UserAccount user = new UserAccount();
+            user.setId(tokenPrincipal.userId());
+            user.setUsername(tokenPrincipal.username());
+            user.setRole(tokenPrincipal.role());
+            UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
+                    user,
+                    null,
+                    user.getAuthorities()
+            );
+            authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+            SecurityContextHolder.getContext().setAuthentication(authToken);
+        } else if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
             UserDetails userDetails = this.userDetailsService.loadUserByUsername(username);
             if (jwtService.isTokenValid(jwt, userDetails)) {
                 UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
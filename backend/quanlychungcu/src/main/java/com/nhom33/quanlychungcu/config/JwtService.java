@@ -1,6 +1,9 @@
 package com.nhom33.quanlychungcu.config;
 
+import com.nhom33.quanlychungcu.entity.Role;
+import com.nhom33.quanlychungcu.entity.UserAccount;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtBuilder;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import org.springframework.beans.factory.annotation.Value;
@@ -16,12 +19,33 @@ import io.jsonwebtoken.security.Keys;
 @Service
 public class JwtService {
 
+    /** Claim chứa ID user (dùng cho xác thực stateless). */
+    public static final String CLAIM_USER_ID = "uid";
+    /** Claim chứa vai trò (ADMIN, MANAGER, ...). */
+    public static final String CLAIM_ROLE = "role";
+    /** Claim chứa phiên bản token, xem TokenVersionStore. */
+    public static final String CLAIM_VERSION = "ver";
+
     @Value("${app.jwt.secret}")
     private String jwtSecret;
 
     @Value("${app.jwt.expiration-ms}")
     private long jwtExpirationMs;
 
+    private final TokenVersionStore tokenVersionStore;
+
+    /** Key HMAC dựng một lần thay vì mỗi lần ký/verify. */
+    private volatile Key signKey;
+
+    public JwtService(TokenVersionStore tokenVersionStore) {
+        this.tokenVersionStore = tokenVersionStore;
+    }
+
+    /**
+     * Thông tin user lấy trực tiếp từ claim của token đã verify (không query DB).
+     */
+    public record TokenPrincipal(Integer userId, String username, Role role, int version) {}
+
     public String extractUsername(String token) {
         return extractClaim(token, Claims::getSubject);
     }
@@ -31,15 +55,47 @@ public class JwtService {
         return claimsResolver.apply(claims);
     }
 
+    /**
+     * Phát hành token. Với UserAccount, nhúng thêm uid/role/ver để filter
+     * dựng Authentication từ claim mà không cần query user.
+     */
     public String generateToken(UserDetails userDetails) {
         Date now = new Date();
         Date expiry = new Date(now.getTime() + jwtExpirationMs);
-        return Jwts.builder()
+        JwtBuilder builder = Jwts.builder()
                 .setSubject(userDetails.getUsername())
                 .setIssuedAt(now)
-                .setExpiration(expiry)
-                .signWith(getSignKey(), SignatureAlgorithm.HS256)
-                .compact();
+                .setExpiration(expiry);
+        if (userDetails instanceof UserAccount user && user.getId() != null && user.getRole() != null) {
+            builder.claim(CLAIM_USER_ID, user.getId())
+                    .claim(CLAIM_ROLE, user.getRole().name())
+                    .claim(CLAIM_VERSION, tokenVersionStore.currentVersion(user.getId()));
+        }
+        return builder.signWith(getSignKey(), SignatureAlgorithm.HS256).compact();
+    }
+
+    /**
+     * Verify chữ ký + hạn và đọc principal từ claim.
+     * 
+     * @return null nếu token không có đủ claim (token cũ) -> caller fallback load từ DB
+     * @throws io.jsonwebtoken.JwtException nếu token sai chữ ký hoặc hết hạn
+     */
+    public TokenPrincipal parsePrincipal(String token) {
+        Claims claims = extractAllClaims(token);
+        Integer userId = claims.get(CLAIM_USER_ID, Integer.class);
+        String role = claims.get(CLAIM_ROLE, String.class);
+        if (userId == null || role == null) {
+            return null;
+        }
+        Integer version = claims.get(CLAIM_VERSION, Integer.class);
+        return new TokenPrincipal(userId, claims.getSubject(), Role.valueOf(role), version != null ? version : 0);
+    }
+
+    /**
+     * Token còn hiệu lực theo phiên bản (chưa bị thu hồi).
+     */
+    public boolean isNotRevoked(TokenPrincipal principal) {
+        return tokenVersionStore.isCurrent(principal.userId(), principal.version());
     }
 
     public boolean isTokenValid(String token, UserDetails userDetails) {
@@ -64,7 +120,12 @@ public class JwtService {
     }
 
     private Key getSignKey() {
-        byte[] keyBytes = jwtSecret.getBytes(StandardCharsets.UTF_8);
-        return Keys.hmacShaKeyFor(keyBytes);
+        Key key = signKey;
+        if (key == null) {
+            byte[] keyBytes = jwtSecret.getBytes(StandardCharsets.UTF_8);
+            key = Keys.hmacShaKeyFor(keyBytes);
+            signKey = key;
+        }
+        return key;
     }
 }
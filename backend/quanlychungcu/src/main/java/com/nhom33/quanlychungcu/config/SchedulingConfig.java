@@ -0,0 +1,12 @@
+package com.nhom33.quanlychungcu.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Bật các job định kỳ (@Scheduled), ví dụ nhắc nợ tự động (app.reminder.cron).
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -0,0 +1,81 @@
+package com.nhom33.quanlychungcu.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * "Phiên bản token" của từng user để thu hồi JWT stateless.
+ *
+ * LOGIC:
+ * - Khi phát hành token, claim "ver" = phiên bản hiện tại của user
+ * - revoke(userId) tăng Users.TokenVersion -> mọi token cũ của user bị từ chối
+ * - Phiên bản lưu trên dòng Users nên giữ nguyên sau restart và dùng chung giữa các instance
+ * - Mỗi request chỉ đọc qua cache ngắn (app.jwt.version-cache-ms): instance khác thấy lần thu hồi
+ *   chậm nhất sau khoảng đó; instance thực hiện thu hồi xóa cache ngay (và sau commit)
+ * - User không còn trong DB (đã xóa) -> mọi token đều bị từ chối
+ */
+@Component
+public class TokenVersionStore {
+
+    /** Phiên bản của user đã bị xóa: không token nào đạt tới. */
+    private static final int DA_XOA = Integer.MAX_VALUE;
+
+    private record Entry(int version, long hetHan) {}
+
+    private final NamedParameterJdbcTemplate jdbc;
+    private final long cacheNanos;
+    private final Map<Integer, Entry> cache = new ConcurrentHashMap<>();
+
+    public TokenVersionStore(NamedParameterJdbcTemplate jdbc,
+                             @Value("${app.jwt.version-cache-ms:5000}") long cacheMs) {
+        this.jdbc = jdbc;
+        this.cacheNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, cacheMs));
+    }
+
+    public int currentVersion(Integer userId) {
+        if (userId == null) return 0;
+        long now = System.nanoTime();
+        Entry entry = cache.get(userId);
+        if (entry != null && now - entry.hetHan() < 0) {
+            return entry.version();
+        }
+        List<Integer> rows = jdbc.queryForList("SELECT TokenVersion FROM Users WHERE ID = :id",
+            new MapSqlParameterSource("id", userId), Integer.class);
+        int version = rows.isEmpty() ? DA_XOA : rows.get(0);
+        cache.put(userId, new Entry(version, now + cacheNanos));
+        return version;
+    }
+
+    /**
+     * Thu hồi tất cả token đã phát hành của user (đổi mật khẩu, đổi quyền, đăng xuất, xóa user).
+     * Chạy trong transaction của caller nếu có.
+     */
+    public void revoke(Integer userId) {
+        if (userId == null) return;
+        jdbc.update("UPDATE Users SET TokenVersion = TokenVersion + 1 WHERE ID = :id",
+            new MapSqlParameterSource("id", userId));
+        cache.remove(userId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // Request khác có thể đã nạp lại phiên bản cũ trước khi transaction commit
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    cache.remove(userId);
+                }
+            });
+        }
+    }
+
+    public boolean isCurrent(Integer userId, int tokenVersion) {
+        return tokenVersion >= currentVersion(userId);
+    }
+}
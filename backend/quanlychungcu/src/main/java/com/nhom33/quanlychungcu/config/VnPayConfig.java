@@ -1,6 +1,8 @@
 package com.nhom33.quanlychungcu.config;
 
+import com.nhom33.quanlychungcu.util.VnPaySigner;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 /**
@@ -73,4 +75,12 @@ public class VnPayConfig {
     public String getVnpHashSecret() {
         return vnpHashSecret;
     }
+
+    /**
+     * Bộ ký HMAC-SHA512 dùng chung (Mac theo thread, khởi tạo một lần với HashSecret).
+     */
+    @Bean
+    public VnPaySigner vnPaySigner() {
+        return new VnPaySigner(vnpHashSecret);
+    }
 }
@@ -1,25 +1,33 @@
 package com.nhom33.quanlychungcu.controller;
 
 import com.nhom33.quanlychungcu.entity.Role;
+import com.nhom33.quanlychungcu.entity.UserAccount;
+import com.nhom33.quanlychungcu.repository.UserAccountRepository;
 import com.nhom33.quanlychungcu.service.AuthService;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.Email;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Size;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 @RestController
 @RequestMapping("/api/auth")
 public class AuthController {
 
     private final AuthService authService;
-    private final com.nhom33.quanlychungcu.repository.UserAccountRepository userRepo;
-    private final org.springframework.security.crypto.password.PasswordEncoder passwordEncoder;
+    private final UserAccountRepository userRepo;
+    private final PasswordEncoder passwordEncoder;
 
     public AuthController(AuthService authService,
-                          com.nhom33.quanlychungcu.repository.UserAccountRepository userRepo,
-                          org.springframework.security.crypto.password.PasswordEncoder passwordEncoder) {
+                          UserAccountRepository userRepo,
+                          PasswordEncoder passwordEncoder) {
         this.authService = authService;
         this.userRepo = userRepo;
         this.passwordEncoder = passwordEncoder;
@@ -31,7 +39,7 @@ public class AuthController {
      */
     @PostMapping("/reset-seed-users")
     public ResponseEntity<?> resetSeedUsers() {
-        java.util.List<String[]> seedUsers = java.util.List.of(
+        List<String[]> seedUsers = List.of(
             new String[]{"admin", "Admin@123", "ADMIN"},
             new String[]{"manager", "Manager@123", "MANAGER"},
             new String[]{"manager2", "Manager@123", "MANAGER"},
@@ -39,7 +47,7 @@ public class AuthController {
             new String[]{"resident", "Resident@123", "RESIDENT"}
         );
         
-        java.util.List<String> results = new java.util.ArrayList<>();
+        List<String> results = new ArrayList<>();
         
         for (String[] userData : seedUsers) {
             String username = userData[0];
@@ -51,21 +59,22 @@ public class AuthController {
                 var user = userOpt.get();
                 user.setPassword(passwordEncoder.encode(password));
                 userRepo.save(user);
+                authService.revokeTokens(user.getId());
                 results.add(username + ": password reset OK");
             } else {
                 // Tạo user mới
-                var user = new com.nhom33.quanlychungcu.entity.UserAccount();
+                var user = new UserAccount();
                 user.setUsername(username);
                 user.setPassword(passwordEncoder.encode(password));
                 user.setFullName(username);
                 user.setEmail(username + "@example.com");
-                user.setRole(com.nhom33.quanlychungcu.entity.Role.valueOf(roleStr));
+                user.setRole(Role.valueOf(roleStr));
                 userRepo.save(user);
                 results.add(username + ": created new");
             }
         }
         
-        return ResponseEntity.ok(java.util.Map.of("results", results));
+        return ResponseEntity.ok(Map.of("results", results));
     }
 
     /**
@@ -73,14 +82,14 @@ public class AuthController {
      * GET /api/auth/me
      */
     @GetMapping("/me")
-    public ResponseEntity<?> getCurrentUser(org.springframework.security.core.Authentication authentication) {
+    public ResponseEntity<?> getCurrentUser(Authentication authentication) {
         if (authentication == null) {
-            return ResponseEntity.ok(java.util.Map.of(
+            return ResponseEntity.ok(Map.of(
                 "authenticated", false,
                 "message", "No authentication found"
             ));
         }
-        return ResponseEntity.ok(java.util.Map.of(
+        return ResponseEntity.ok(Map.of(
             "authenticated", true,
             "username", authentication.getName(),
             "authorities", authentication.getAuthorities().stream()
@@ -108,6 +117,19 @@ public class AuthController {
         return ResponseEntity.ok(new AuthResponse(result.username(), result.role(), result.token()));
     }
 
+    /**
+     * Đăng xuất: thu hồi tất cả token hiện có của user
+     * POST /api/auth/logout
+     */
+    @PostMapping("/logout")
+    public ResponseEntity<?> logout(Authentication authentication) {
+        if (authentication != null
+                && authentication.getPrincipal() instanceof UserAccount user) {
+            authService.revokeTokens(user.getId());
+        }
+        return ResponseEntity.ok(Map.of("message", "Đã đăng xuất"));
+    }
+
     // ===== DTOs =====
     public record SignupRequest(
             @NotBlank @Size(min = 4, max = 100) String username,
@@ -25,6 +25,7 @@ import java.util.Map;
  * - GET  /api/bang-gia              : Lấy tất cả bảng giá
  * - GET  /api/bang-gia/toa-nha/{id} : Lấy bảng giá của một tòa nhà
  * - GET  /api/bang-gia/don-gia      : Lấy đơn giá áp dụng
+ * - GET  /api/bang-gia/cache-stats  : Thống kê cache đơn giá
  * - DELETE /api/bang-gia/{id}       : Xóa một bảng giá
  */
 @RestController
@@ -161,6 +162,15 @@ public class BangGiaController {
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * Thống kê cache đơn giá áp dụng (số phần tử, hit/miss, tỷ lệ hit %).
+     */
+    @GetMapping("/cache-stats")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> getCacheStatistics() {
+        return ResponseEntity.ok(bangGiaService.getCacheStatistics());
+    }
+
     // ===== DELETE =====
 
     /**
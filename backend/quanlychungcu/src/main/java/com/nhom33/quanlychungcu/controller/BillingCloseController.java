@@ -0,0 +1,79 @@
+package com.nhom33.quanlychungcu.controller;
+
+import com.nhom33.quanlychungcu.dto.ChotSoRequestDTO;
+import com.nhom33.quanlychungcu.service.BillingCloseJobService;
+import jakarta.validation.Valid;
+import lombok.NonNull;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * API job chốt sổ nhiều tòa nhà (chạy nền, song song theo tòa nhà).
+ */
+@RestController
+@RequestMapping("/api/chot-so")
+public class BillingCloseController {
+
+    private final BillingCloseJobService service;
+
+    public BillingCloseController(BillingCloseJobService service) {
+        this.service = service;
+    }
+
+    /**
+     * Gửi job chốt sổ.
+     * Body: { "dotThuIds": [1, 2, 3] } hoặc { "thang": 5, "nam": 2025 }
+     *
+     * @return Trạng thái ban đầu của job (HTTP 202), dùng jobId để theo dõi tiến độ;
+     *         HTTP 503 nếu hàng đợi chốt sổ đang đầy
+     */
+    @PostMapping
+    @PreAuthorize("hasAnyRole('ADMIN','MANAGER')")
+    public ResponseEntity<Map<String, Object>> submit(@Valid @RequestBody ChotSoRequestDTO request) {
+        Map<String, Object> job;
+        if (request.dotThuIds() != null && !request.dotThuIds().isEmpty()) {
+            job = service.submitByIds(request.dotThuIds());
+        } else {
+            if (request.thang() == null || request.nam() == null) {
+                throw new IllegalArgumentException("Phải truyền dotThuIds hoặc thang/nam");
+            }
+            job = service.submitByKy(request.thang(), request.nam());
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(job);
+    }
+
+    /**
+     * Hàng đợi chốt sổ đầy: báo client gửi lại sau thay vì chạy trên thread HTTP.
+     */
+    @ExceptionHandler(TaskRejectedException.class)
+    public ResponseEntity<String> handleRejected(TaskRejectedException ex) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+            .header(HttpHeaders.RETRY_AFTER, "30")
+            .body(ex.getMessage());
+    }
+
+    /**
+     * Trạng thái, tiến độ (số hộ đã xử lý/tổng) và kết quả từng tòa nhà của job.
+     */
+    @GetMapping("/{jobId}")
+    @PreAuthorize("hasAnyRole('ADMIN','MANAGER')")
+    public ResponseEntity<Map<String, Object>> getJob(@PathVariable @NonNull String jobId) {
+        return ResponseEntity.ok(service.getJob(jobId));
+    }
+
+    /**
+     * Danh sách job gần đây (mới nhất trước).
+     */
+    @GetMapping
+    @PreAuthorize("hasAnyRole('ADMIN','MANAGER')")
+    public ResponseEntity<List<Map<String, Object>>> getAllJobs() {
+        return ResponseEntity.ok(service.getAllJobs());
+    }
+}
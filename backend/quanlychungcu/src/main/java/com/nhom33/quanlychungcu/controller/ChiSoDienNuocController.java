@@ -2,13 +2,19 @@ package com.nhom33.quanlychungcu.controller;
 
 import com.nhom33.quanlychungcu.dto.ChiSoInputDTO;
 import com.nhom33.quanlychungcu.dto.SaveChiSoRequestDTO;
+import com.nhom33.quanlychungcu.repository.CanhBaoChiSoRepository;
+import com.nhom33.quanlychungcu.service.CanhBaoChiSoService;
 import com.nhom33.quanlychungcu.service.ChiSoDienNuocService;
+import com.nhom33.quanlychungcu.service.ChiSoHistoryStore;
+import com.nhom33.quanlychungcu.service.TieuThuAnalyticsService;
 
 import jakarta.validation.Valid;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.YearMonth;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -24,6 +30,10 @@ import java.util.Map;
  * - GET /api/chi-so/prepare-input : Lấy danh sách nhập liệu theo Tháng/Năm/Tòa nhà
  * - POST /api/chi-so/save-all     : Lưu chỉ số hàng loạt
  * - GET /api/chi-so/statistics    : Lấy thống kê nhập chỉ số
+ * - GET /api/chi-so/tieu-thu/series  : Chuỗi tiêu thụ theo tháng của tòa nhà (từ bộ nhớ)
+ * - GET /api/chi-so/tieu-thu/phan-vi : Phân vị tiêu thụ một tháng của tòa nhà (từ bộ nhớ)
+ * - GET /api/chi-so/canh-bao         : Danh sách chỉ số bất thường cần xem xét
+ * - PUT /api/chi-so/canh-bao/{id}/xac-nhan : Xác nhận chỉ số bất thường là đúng
  */
 @RestController
 @RequestMapping("/api/chi-so")
@@ -32,9 +42,18 @@ import java.util.Map;
 public class ChiSoDienNuocController {
 
     private final ChiSoDienNuocService service;
+    private final TieuThuAnalyticsService analyticsService;
+    private final ChiSoHistoryStore historyStore;
+    private final CanhBaoChiSoService canhBaoService;
 
-    public ChiSoDienNuocController(ChiSoDienNuocService service) {
+    public ChiSoDienNuocController(ChiSoDienNuocService service,
+                                   TieuThuAnalyticsService analyticsService,
+                                   ChiSoHistoryStore historyStore,
+                                   CanhBaoChiSoService canhBaoService) {
         this.service = service;
+        this.analyticsService = analyticsService;
+        this.historyStore = historyStore;
+        this.canhBaoService = canhBaoService;
     }
 
     /**
@@ -68,12 +87,19 @@ public class ChiSoDienNuocController {
      */
     @PostMapping("/save-all")
     public ResponseEntity<Map<String, Object>> saveAll(@Valid @RequestBody SaveChiSoRequestDTO request) {
-        int savedCount = service.saveAll(request);
+        ChiSoDienNuocService.KetQuaLuuChiSo ketQua = service.saveAll(request);
+        int savedCount = ketQua.savedCount();
         
         Map<String, Object> response = new HashMap<>();
         response.put("success", true);
-        response.put("message", "Đã lưu " + savedCount + " chỉ số thành công");
+        response.put("message", ketQua.danhSachLoi().isEmpty()
+                ? "Đã lưu " + savedCount + " chỉ số thành công"
+                : "Đã lưu " + savedCount + " chỉ số, " + ketQua.danhSachLoi().size() + " dòng bị lỗi");
         response.put("savedCount", savedCount);
+        response.put("soLoi", ketQua.danhSachLoi().size());
+        response.put("danhSachLoi", ketQua.danhSachLoi());
+        response.put("soCanhBao", ketQua.danhSachCanhBao().size());
+        response.put("danhSachCanhBao", ketQua.danhSachCanhBao());
         
         return ResponseEntity.ok(response);
     }
@@ -97,4 +123,71 @@ public class ChiSoDienNuocController {
         Map<String, Object> stats = service.getStatistics(thang, nam, loaiPhiId, toaNhaId);
         return ResponseEntity.ok(stats);
     }
+
+    // ===== Phân tích tiêu thụ (đọc từ bộ nhớ, không query DB) =====
+
+    /**
+     * Chuỗi tiêu thụ theo tháng của tòa nhà.
+     * GET /api/chi-so/tieu-thu/series?toaNhaId=1&loaiPhiId=2&tuThang=2024-01&denThang=2024-12
+     */
+    @GetMapping("/tieu-thu/series")
+    public ResponseEntity<TieuThuAnalyticsService.ChuoiTieuThu> getTieuThuSeries(
+            @RequestParam Integer toaNhaId,
+            @RequestParam Integer loaiPhiId,
+            @RequestParam @DateTimeFormat(pattern = "yyyy-MM") YearMonth tuThang,
+            @RequestParam @DateTimeFormat(pattern = "yyyy-MM") YearMonth denThang) {
+        return ResponseEntity.ok(analyticsService.getChuoi(toaNhaId, loaiPhiId, tuThang, denThang));
+    }
+
+    /**
+     * Phân vị tiêu thụ của tòa nhà trong một tháng.
+     * GET /api/chi-so/tieu-thu/phan-vi?toaNhaId=1&loaiPhiId=2&thang=2024-06&p=50,90,99
+     */
+    @GetMapping("/tieu-thu/phan-vi")
+    public ResponseEntity<TieuThuAnalyticsService.PhanViTieuThu> getTieuThuPhanVi(
+            @RequestParam Integer toaNhaId,
+            @RequestParam Integer loaiPhiId,
+            @RequestParam @DateTimeFormat(pattern = "yyyy-MM") YearMonth thang,
+            @RequestParam(name = "p", required = false) List<Double> phanVi) {
+        return ResponseEntity.ok(analyticsService.getPhanVi(toaNhaId, loaiPhiId, thang, phanVi));
+    }
+
+    /**
+     * Nạp lại kho lịch sử chỉ số trong bộ nhớ (khi dữ liệu bị sửa trực tiếp dưới DB).
+     */
+    @PostMapping("/tieu-thu/reload")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> reloadHistory() {
+        int soBanGhi = historyStore.reload();
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("soBanGhi", soBanGhi);
+        response.put("soHoTheoLoaiPhi", historyStore.soHoTheoPhi());
+        return ResponseEntity.ok(response);
+    }
+
+    // ===== Cảnh báo chỉ số bất thường =====
+
+    /**
+     * Danh sách chỉ số bất thường của tòa nhà trong tháng.
+     * GET /api/chi-so/canh-bao?toaNhaId=1&thang=6&nam=2024&loaiPhiId=2&trangThai=ChoDuyet
+     */
+    @GetMapping("/canh-bao")
+    public ResponseEntity<List<CanhBaoChiSoRepository.CanhBaoRow>> getCanhBao(
+            @RequestParam Integer toaNhaId,
+            @RequestParam Integer thang,
+            @RequestParam Integer nam,
+            @RequestParam(required = false) Integer loaiPhiId,
+            @RequestParam(required = false) String trangThai) {
+        return ResponseEntity.ok(canhBaoService.getDanhSach(toaNhaId, thang, nam, loaiPhiId, trangThai));
+    }
+
+    /**
+     * Xác nhận chỉ số bất thường là đúng (không cần nhập lại).
+     */
+    @PutMapping("/canh-bao/{id}/xac-nhan")
+    @PreAuthorize("hasAnyRole('ADMIN','MANAGER')")
+    public ResponseEntity<CanhBaoChiSoRepository.CanhBaoRow> xacNhanCanhBao(@PathVariable Integer id) {
+        return ResponseEntity.ok(canhBaoService.xacNhan(id));
+    }
 }
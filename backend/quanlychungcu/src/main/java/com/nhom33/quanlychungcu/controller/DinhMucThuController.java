@@ -1,8 +1,10 @@
 package com.nhom33.quanlychungcu.controller;
 
+import com.nhom33.quanlychungcu.dto.DinhMucBulkRequestDTO;
 import com.nhom33.quanlychungcu.entity.DinhMucThu;
 import com.nhom33.quanlychungcu.service.DinhMucThuService;
 import com.nhom33.quanlychungcu.service.DinhMucThuService.DinhMucWithPrice;
+import com.nhom33.quanlychungcu.service.DinhMucThuService.KetQuaDinhMucBulk;
 import jakarta.validation.Valid;
 import lombok.NonNull;
 import org.springframework.data.domain.Page;
@@ -28,6 +30,7 @@ import java.util.Map;
  * - GET    /api/dinh-muc-thu/ho-gia-dinh/{id}     : Lấy định mức của hộ gia đình
  * - GET    /api/dinh-muc-thu/ho-gia-dinh/{id}/with-price : Lấy định mức kèm giá
  * - POST   /api/dinh-muc-thu/bulk/toa-nha/{id}    : Tạo hàng loạt theo tòa nhà
+ * - POST   /api/dinh-muc-thu/bulk                 : Áp dụng quy tắc định mức theo tòa/tầng/danh sách hộ
  */
 @RestController
 @RequestMapping("/api/dinh-muc-thu")
@@ -68,6 +71,24 @@ public class DinhMucThuController {
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * Áp dụng quy tắc định mức (cố định hoặc theo diện tích) cho cả tòa nhà, khoảng tầng
+     * hoặc danh sách hộ bằng một câu MERGE.
+     */
+    @PostMapping("/bulk")
+    @PreAuthorize("hasAnyRole('ADMIN','MANAGER')")
+    public ResponseEntity<Map<String, Object>> apDungHangLoat(@Valid @RequestBody DinhMucBulkRequestDTO request) {
+        KetQuaDinhMucBulk ketQua = service.apDungHangLoat(request);
+        
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("message", "Đã tạo " + ketQua.soThemMoi() + " và cập nhật " + ketQua.soCapNhat() + " định mức");
+        response.put("soThemMoi", ketQua.soThemMoi());
+        response.put("soCapNhat", ketQua.soCapNhat());
+        
+        return ResponseEntity.ok(response);
+    }
+
     // ===== UPDATE =====
 
     @PutMapping("/{id}")
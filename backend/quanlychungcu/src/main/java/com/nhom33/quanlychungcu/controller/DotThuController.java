@@ -1,9 +1,14 @@
 package com.nhom33.quanlychungcu.controller;
 
+import com.nhom33.quanlychungcu.dto.DotThuListDTO;
 import com.nhom33.quanlychungcu.dto.DotThuLoaiPhiDTO;
+import com.nhom33.quanlychungcu.dto.DotThuPhiDTO;
 import com.nhom33.quanlychungcu.entity.DotThu;
-import com.nhom33.quanlychungcu.entity.DotThuLoaiPhi;
+import com.nhom33.quanlychungcu.service.BangKeExportService;
+import com.nhom33.quanlychungcu.service.BangKeService;
 import com.nhom33.quanlychungcu.service.DotThuService;
+import com.nhom33.quanlychungcu.util.KeysetPage;
+import com.nhom33.quanlychungcu.util.TabularWriter;
 import jakarta.validation.Valid;
 import lombok.NonNull;
 import org.springframework.data.domain.Page;
@@ -13,6 +18,7 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.time.LocalDate;
 import java.util.HashMap;
@@ -24,9 +30,14 @@ import java.util.Map;
 public class DotThuController {
 
     private final DotThuService service;
+    private final BangKeService bangKeService;
+    private final BangKeExportService exportService;
 
-    public DotThuController(DotThuService service) {
+    public DotThuController(DotThuService service, BangKeService bangKeService,
+                            BangKeExportService exportService) {
         this.service = service;
+        this.bangKeService = bangKeService;
+        this.exportService = exportService;
     }
 
     @PostMapping
@@ -63,15 +74,24 @@ public class DotThuController {
 
     @GetMapping
     @PreAuthorize("hasAnyRole('ADMIN','MANAGER','ACCOUNTANT','RESIDENT')")
-    public ResponseEntity<Page<DotThu>> findAll(
+    public ResponseEntity<Page<DotThuListDTO>> findAll(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size) {
         
         Pageable pageable = PageRequest.of(page, size);
-        Page<DotThu> result = service.findAll(pageable);
+        Page<DotThuListDTO> result = service.findAll(pageable);
         return ResponseEntity.ok(result);
     }
 
+    @GetMapping("/seek")
+    @PreAuthorize("hasAnyRole('ADMIN','MANAGER','ACCOUNTANT','RESIDENT')")
+    public ResponseEntity<KeysetPage<DotThuListDTO>> seek(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "10") int size,
+            @RequestParam(defaultValue = "false") boolean approxTotal) {
+        return ResponseEntity.ok(service.seek(cursor, size, approxTotal));
+    }
+
     @GetMapping("/search")
     @PreAuthorize("hasAnyRole('ADMIN','MANAGER','ACCOUNTANT')")
     public ResponseEntity<Page<DotThu>> search(
@@ -118,8 +138,8 @@ public class DotThuController {
      */
     @GetMapping("/{id}/utility-fees")
     @PreAuthorize("hasAnyRole('ADMIN','MANAGER','ACCOUNTANT')")
-    public ResponseEntity<List<DotThuLoaiPhi>> getUtilityFees(@PathVariable @NonNull Integer id) {
-        List<DotThuLoaiPhi> fees = service.getUtilityFeesInPeriod(id);
+    public ResponseEntity<List<DotThuPhiDTO>> getUtilityFees(@PathVariable @NonNull Integer id) {
+        List<DotThuPhiDTO> fees = service.getUtilityFeesInPeriod(id);
         return ResponseEntity.ok(fees);
     }
     
@@ -181,35 +201,66 @@ public class DotThuController {
     }
     
     /**
-     * Lấy bảng kê chi tiết các khoản phí cho tất cả hộ trong đợt thu.
+     * Lấy bảng kê chi tiết các khoản phí (hộ × loại phí) của đợt thu.
+     * Không truyền size: trả về tất cả hộ. Có size: phân trang theo mã hộ.
+     * 
+     * GET /api/dot-thu/{id}/bang-ke?page=0&size=50&sortDir=asc
      * 
      * @param id ID đợt thu
-     * @return Bảng kê { dotThuId, tenDotThu, toaNha, danhSach[], tongCong }
+     * @return Bảng kê { dotThuId, tenDotThu, toaNha, cotPhi[], danhSach[], tongCong, soHoaDon, page, totalPages }
      */
     @GetMapping("/{id}/bang-ke")
     @PreAuthorize("hasAnyRole('ADMIN','MANAGER','ACCOUNTANT')")
-    public ResponseEntity<Map<String, Object>> getBangKe(@PathVariable @NonNull Integer id) {
-        Map<String, Object> result = service.getBangKe(id);
+    public ResponseEntity<BangKeService.BangKe> getBangKe(
+            @PathVariable @NonNull Integer id,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(required = false) Integer size,
+            @RequestParam(defaultValue = "asc") String sortDir) {
+        BangKeService.BangKe result = bangKeService.getBangKe(id, page, size, sortDir.equalsIgnoreCase("desc"));
         return ResponseEntity.ok(result);
     }
 
     /**
-     * Export Bảng kê ra file CSV (Excel-compatible).
+     * Export Bảng kê ra file CSV hoặc XLSX (streaming, không dựng cả file trong bộ nhớ).
      * 
      * @param id ID đợt thu
-     * @return File CSV để download
+     * @param format csv (mặc định) hoặc xlsx
+     * @return File để download
      */
     @GetMapping("/{id}/export-excel")
     @PreAuthorize("hasAnyRole('ADMIN','MANAGER','ACCOUNTANT')")
-    public ResponseEntity<byte[]> exportExcel(@PathVariable @NonNull Integer id) {
-        byte[] csvData = service.exportBangKeToCSV(id);
-        
-        String filename = "BangKe_DotThu_" + id + "_" + java.time.LocalDate.now() + ".csv";
-        
+    public ResponseEntity<StreamingResponseBody> exportExcel(
+            @PathVariable @NonNull Integer id,
+            @RequestParam(required = false) String format) {
+        return toResponse(exportService.exportDotThu(id, TabularWriter.Format.from(format)));
+    }
+
+    /**
+     * Export Bảng kê nhiều đợt thu vào một file.
+     * Truyền ids=1,2,3 hoặc thang + nam (tất cả đợt thu của kỳ mà user được xem).
+     */
+    @GetMapping("/export-excel")
+    @PreAuthorize("hasAnyRole('ADMIN','MANAGER','ACCOUNTANT')")
+    public ResponseEntity<StreamingResponseBody> exportExcelNhieuDotThu(
+            @RequestParam(required = false) List<Integer> ids,
+            @RequestParam(required = false) Integer thang,
+            @RequestParam(required = false) Integer nam,
+            @RequestParam(required = false) String format) {
+        TabularWriter.Format f = TabularWriter.Format.from(format);
+        if (ids != null && !ids.isEmpty()) {
+            return toResponse(exportService.exportNhieuDotThu(ids, f));
+        }
+        if (thang == null || nam == null) {
+            throw new IllegalArgumentException("Cần truyền ids hoặc thang + nam");
+        }
+        return toResponse(exportService.exportKy(thang, nam, f));
+    }
+
+    private ResponseEntity<StreamingResponseBody> toResponse(BangKeExportService.ExportFile file) {
         return ResponseEntity.ok()
-            .header("Content-Disposition", "attachment; filename=\"" + filename + "\"")
-            .header("Content-Type", "text/csv; charset=UTF-8")
-            .body(csvData);
+            .header("Content-Disposition", "attachment; filename=\"" + file.filename() + "\"")
+            .header("Content-Type", file.contentType())
+            .body(file.body());
     }
 }
 
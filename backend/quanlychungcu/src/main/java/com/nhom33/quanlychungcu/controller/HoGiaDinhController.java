@@ -1,6 +1,7 @@
 package com.nhom33.quanlychungcu.controller;
 
 import com.nhom33.quanlychungcu.entity.HoGiaDinh;
+import com.nhom33.quanlychungcu.repository.CuDanSearchRepository.HoGiaDinhRow;
 import com.nhom33.quanlychungcu.service.HoGiaDinhService;
 import jakarta.validation.Valid;
 import lombok.NonNull;
@@ -13,6 +14,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -144,6 +146,17 @@ public class HoGiaDinhController {
         return ResponseEntity.ok(result);
     }
 
+    /**
+     * Gợi ý khi gõ: mã hộ, tên chủ hộ hoặc số căn hộ (không dấu, theo tiền tố)
+     * GET /api/ho-gia-dinh/search/goi-y?q=nguyen a1&limit=10
+     */
+    @GetMapping("/search/goi-y")
+    public ResponseEntity<List<HoGiaDinhRow>> suggest(
+            @RequestParam String q,
+            @RequestParam(defaultValue = "10") int limit) {
+        return ResponseEntity.ok(service.goiY(q, limit));
+    }
+
     /**
      * Tìm kiếm đa điều kiện
      * GET /api/ho-gia-dinh/search?maHo=HO001&tenChuHo=Nguyen&soCanHo=101&trangThai=Hoat dong
@@ -1,8 +1,10 @@
 package com.nhom33.quanlychungcu.controller;
 
+import com.nhom33.quanlychungcu.dto.HoaDonListDTO;
 import com.nhom33.quanlychungcu.entity.HoaDon;
 import com.nhom33.quanlychungcu.entity.LichSuThanhToan;
 import com.nhom33.quanlychungcu.service.HoaDonService;
+import com.nhom33.quanlychungcu.util.KeysetPage;
 import lombok.NonNull;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
@@ -50,6 +52,7 @@ public class HoaDonController {
     @PreAuthorize("hasAnyRole('ADMIN','MANAGER','ACCOUNTANT')")
     public ResponseEntity<LichSuThanhToan> addPayment(
             @PathVariable @NonNull Integer id,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
             @RequestBody Map<String, Object> request) {
         
         BigDecimal soTien = new BigDecimal(request.get("soTien").toString());
@@ -57,7 +60,8 @@ public class HoaDonController {
         String nguoiNop = (String) request.get("nguoiNop");
         String ghiChu = (String) request.get("ghiChu");
         
-        LichSuThanhToan thanhToan = service.addPayment(id, soTien, hinhThuc, nguoiNop, ghiChu);
+        // Gửi lại cùng Idempotency-Key (mạng chập chờn, bấm 2 lần) -> trả về giao dịch đã ghi
+        LichSuThanhToan thanhToan = service.addPayment(id, soTien, hinhThuc, nguoiNop, ghiChu, idempotencyKey);
         return ResponseEntity.status(HttpStatus.CREATED).body(thanhToan);
     }
 
@@ -70,15 +74,31 @@ public class HoaDonController {
 
     @GetMapping
     @PreAuthorize("hasAnyRole('ADMIN','MANAGER','ACCOUNTANT')")
-    public ResponseEntity<Page<HoaDon>> findAll(
+    public ResponseEntity<Page<HoaDonListDTO>> findAll(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size) {
         
         Pageable pageable = PageRequest.of(page, size);
-        Page<HoaDon> result = service.findAll(pageable);
+        Page<HoaDonListDTO> result = service.findAll(pageable);
         return ResponseEntity.ok(result);
     }
 
+    /**
+     * Phân trang theo con trỏ (cho danh sách rất dài): gửi lại nextCursor để lấy trang sau.
+     * GET /api/hoa-don/seek?size=50&cursor=...&idDotThu=...
+     */
+    @GetMapping("/seek")
+    @PreAuthorize("hasAnyRole('ADMIN','MANAGER','ACCOUNTANT')")
+    public ResponseEntity<KeysetPage<HoaDonListDTO>> seek(
+            @RequestParam(required = false) Integer idHoGiaDinh,
+            @RequestParam(required = false) Integer idDotThu,
+            @RequestParam(required = false) String trangThai,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "10") int size,
+            @RequestParam(defaultValue = "false") boolean approxTotal) {
+        return ResponseEntity.ok(service.seek(idHoGiaDinh, idDotThu, trangThai, cursor, size, approxTotal));
+    }
+
     @GetMapping("/ho-gia-dinh/{idHoGiaDinh}")
     @PreAuthorize("hasAnyRole('ADMIN','MANAGER','ACCOUNTANT','RESIDENT')")
     public ResponseEntity<Page<HoaDon>> findByHoGiaDinh(
@@ -118,7 +138,7 @@ public class HoaDonController {
 
     @GetMapping("/search")
     @PreAuthorize("hasAnyRole('ADMIN','MANAGER','ACCOUNTANT')")
-    public ResponseEntity<Page<HoaDon>> search(
+    public ResponseEntity<Page<HoaDonListDTO>> search(
             @RequestParam(required = false) Integer idHoGiaDinh,
             @RequestParam(required = false) Integer idDotThu,
             @RequestParam(required = false) String trangThai,
@@ -126,7 +146,7 @@ public class HoaDonController {
             @RequestParam(defaultValue = "10") int size) {
         
         Pageable pageable = PageRequest.of(page, size);
-        Page<HoaDon> result = service.search(idHoGiaDinh, idDotThu, trangThai, pageable);
+        Page<HoaDonListDTO> result = service.search(idHoGiaDinh, idDotThu, trangThai, pageable);
         return ResponseEntity.ok(result);
     }
 }
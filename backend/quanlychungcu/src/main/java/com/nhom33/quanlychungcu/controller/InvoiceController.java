@@ -1,5 +1,6 @@
 package com.nhom33.quanlychungcu.controller;
 
+import com.nhom33.quanlychungcu.service.BangKeExportService;
 import com.nhom33.quanlychungcu.service.InvoiceService;
 import lombok.NonNull;
 import org.springframework.http.HttpHeaders;
@@ -7,8 +8,7 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
-
-import java.io.IOException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RequestMapping("/api/invoice")
@@ -31,11 +31,28 @@ public class InvoiceController {
 
     @GetMapping("/{idHoaDon}/pdf")
     @PreAuthorize("hasAnyRole('ADMIN','ACCOUNTANT')")
-    public ResponseEntity<byte[]> getInvoicePdf(@PathVariable @NonNull Integer idHoaDon) throws IOException {
+    public ResponseEntity<byte[]> getInvoicePdf(@PathVariable @NonNull Integer idHoaDon) {
         byte[] pdf = service.generateInvoicePdf(idHoaDon);
         return ResponseEntity.ok()
                 .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_PDF_VALUE)
                 .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=hoa-don-" + idHoaDon + ".pdf")
                 .body(pdf);
     }
+
+    /**
+     * In tất cả hóa đơn của một đợt thu (streaming).
+     *
+     * @param format pdf (mặc định, một file nhiều trang) hoặc zip (mỗi hóa đơn một file PDF)
+     */
+    @GetMapping("/dot-thu/{idDotThu}")
+    @PreAuthorize("hasAnyRole('ADMIN','ACCOUNTANT')")
+    public ResponseEntity<StreamingResponseBody> exportDotThu(
+            @PathVariable @NonNull Integer idDotThu,
+            @RequestParam(required = false) String format) {
+        BangKeExportService.ExportFile file = service.exportDotThu(idDotThu, InvoiceService.BatchFormat.from(format));
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_TYPE, file.contentType())
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + file.filename() + "\"")
+                .body(file.body());
+    }
 }
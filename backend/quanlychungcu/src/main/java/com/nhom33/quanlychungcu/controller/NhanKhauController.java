@@ -1,7 +1,11 @@
 package com.nhom33.quanlychungcu.controller;
 
+import com.nhom33.quanlychungcu.dto.NhanKhauListDTO;
 import com.nhom33.quanlychungcu.entity.NhanKhau;
+import com.nhom33.quanlychungcu.repository.CuDanSearchRepository.NhanKhauRow;
+import com.nhom33.quanlychungcu.service.CuDanSearchIndex;
 import com.nhom33.quanlychungcu.service.NhanKhauService;
+import com.nhom33.quanlychungcu.util.KeysetPage;
 import jakarta.validation.Valid;
 import lombok.NonNull;
 import org.springframework.data.domain.Page;
@@ -10,6 +14,7 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.HashMap;
@@ -21,9 +26,11 @@ import java.util.Map;
 public class NhanKhauController {
 
     private final NhanKhauService service;
+    private final CuDanSearchIndex searchIndex;
 
-    public NhanKhauController(NhanKhauService service) {
+    public NhanKhauController(NhanKhauService service, CuDanSearchIndex searchIndex) {
         this.service = service;
+        this.searchIndex = searchIndex;
     }
 
     /**
@@ -85,7 +92,7 @@ public class NhanKhauController {
      * GET /api/nhan-khau?page=0&size=10&sort=id,desc
      */
     @GetMapping
-    public ResponseEntity<Page<NhanKhau>> findAll(
+    public ResponseEntity<Page<NhanKhauListDTO>> findAll(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size,
             @RequestParam(defaultValue = "id") String sortBy,
@@ -96,17 +103,30 @@ public class NhanKhauController {
             : Sort.by(sortBy).ascending();
         
         Pageable pageable = PageRequest.of(page, size, sort);
-        Page<NhanKhau> result = service.findAll(pageable);
+        Page<NhanKhauListDTO> result = service.findAll(pageable);
         return ResponseEntity.ok(result);
     }
 
+    /**
+     * Lấy danh sách nhân khẩu theo con trỏ (không đếm tổng, không OFFSET)
+     * GET /api/nhan-khau/seek?size=50&sortBy=hoTen&cursor=...
+     */
+    @GetMapping("/seek")
+    public ResponseEntity<KeysetPage<NhanKhauListDTO>> seek(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "10") int size,
+            @RequestParam(defaultValue = "id") String sortBy,
+            @RequestParam(defaultValue = "false") boolean approxTotal) {
+        return ResponseEntity.ok(service.seek(sortBy, cursor, size, approxTotal));
+    }
+
     /**
      * Lấy danh sách nhân khẩu theo hộ gia đình
      * GET /api/nhan-khau/ho-gia-dinh/{idHoGiaDinh}
      */
     @GetMapping("/ho-gia-dinh/{idHoGiaDinh}")
-    public ResponseEntity<List<NhanKhau>> getByHoGiaDinh(@PathVariable @NonNull Integer idHoGiaDinh) {
-        List<NhanKhau> result = service.findByHoGiaDinh(idHoGiaDinh);
+    public ResponseEntity<List<NhanKhauListDTO>> getByHoGiaDinh(@PathVariable @NonNull Integer idHoGiaDinh) {
+        List<NhanKhauListDTO> result = service.findByHoGiaDinh(idHoGiaDinh);
         return ResponseEntity.ok(result);
     }
 
@@ -115,22 +135,47 @@ public class NhanKhauController {
      * GET /api/nhan-khau/search/ho-ten?hoTen=Nguyen&page=0&size=10
      */
     @GetMapping("/search/ho-ten")
-    public ResponseEntity<Page<NhanKhau>> searchByHoTen(
+    public ResponseEntity<Page<NhanKhauListDTO>> searchByHoTen(
             @RequestParam(required = false) String hoTen,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size) {
         
         Pageable pageable = PageRequest.of(page, size);
-        Page<NhanKhau> result = service.searchByHoTen(hoTen, pageable);
+        Page<NhanKhauListDTO> result = service.searchByHoTen(hoTen, pageable);
         return ResponseEntity.ok(result);
     }
 
+    /**
+     * Gợi ý khi gõ: họ tên hoặc số CCCD (không dấu, theo tiền tố)
+     * GET /api/nhan-khau/search/goi-y?q=nguyen van&limit=10
+     */
+    @GetMapping("/search/goi-y")
+    public ResponseEntity<List<NhanKhauRow>> suggest(
+            @RequestParam String q,
+            @RequestParam(defaultValue = "10") int limit) {
+        return ResponseEntity.ok(service.goiY(q, limit));
+    }
+
+    /**
+     * Nạp lại chỉ mục tìm kiếm nhân khẩu / hộ gia đình (khi dữ liệu bị sửa trực tiếp dưới DB)
+     * POST /api/nhan-khau/search/reload
+     */
+    @PostMapping("/search/reload")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> reloadSearchIndex() {
+        int soBanGhi = searchIndex.reload();
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("soBanGhi", soBanGhi);
+        return ResponseEntity.ok(response);
+    }
+
     /**
      * Tìm kiếm đa điều kiện
      * GET /api/nhan-khau/search?hoTen=Nguyen&soCCCD=123456789012&gioiTinh=Nam
      */
     @GetMapping("/search")
-    public ResponseEntity<Page<NhanKhau>> search(
+    public ResponseEntity<Page<NhanKhauListDTO>> search(
             @RequestParam(required = false) String hoTen,
             @RequestParam(required = false) String soCCCD,
             @RequestParam(required = false) String gioiTinh,
@@ -140,7 +185,7 @@ public class NhanKhauController {
             @RequestParam(defaultValue = "10") int size) {
         
         Pageable pageable = PageRequest.of(page, size);
-        Page<NhanKhau> result = service.search(hoTen, soCCCD, gioiTinh, trangThai, idHoGiaDinh, pageable);
+        Page<NhanKhauListDTO> result = service.search(hoTen, soCCCD, gioiTinh, trangThai, idHoGiaDinh, pageable);
         return ResponseEntity.ok(result);
     }
 
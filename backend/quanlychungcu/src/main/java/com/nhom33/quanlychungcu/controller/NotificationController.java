@@ -1,7 +1,11 @@
 package com.nhom33.quanlychungcu.controller;
 
 import com.nhom33.quanlychungcu.entity.ThongBao;
+import com.nhom33.quanlychungcu.repository.NhacNoRepository.CongNoHo;
+import com.nhom33.quanlychungcu.service.EmailDispatchService;
+import com.nhom33.quanlychungcu.service.NhacNoService;
 import com.nhom33.quanlychungcu.service.NotificationService;
+import com.nhom33.quanlychungcu.util.KeysetPage;
 import lombok.NonNull;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
@@ -13,6 +17,7 @@ import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -20,9 +25,14 @@ import java.util.Map;
 public class NotificationController {
 
     private final NotificationService service;
+    private final EmailDispatchService emailDispatchService;
+    private final NhacNoService nhacNoService;
 
-    public NotificationController(NotificationService service) {
+    public NotificationController(NotificationService service, EmailDispatchService emailDispatchService,
+                                  NhacNoService nhacNoService) {
         this.service = service;
+        this.emailDispatchService = emailDispatchService;
+        this.nhacNoService = nhacNoService;
     }
 
     // ===== CRUD Thông báo =====
@@ -38,6 +48,17 @@ public class NotificationController {
         return ResponseEntity.ok(service.findAll(pageable));
     }
 
+    /**
+     * Lấy danh sách thông báo theo con trỏ (mới nhất trước).
+     */
+    @GetMapping("/seek")
+    public ResponseEntity<KeysetPage<ThongBao>> seek(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "10") int size,
+            @RequestParam(defaultValue = "false") boolean approxTotal) {
+        return ResponseEntity.ok(service.seek(cursor, size, approxTotal));
+    }
+
     /**
      * Tìm kiếm thông báo.
      */
@@ -116,13 +137,73 @@ public class NotificationController {
         return ResponseEntity.ok(response);
     }
 
+    // ===== Nhắc nợ theo từng hộ (tính từ công nợ thực tế) =====
+
+    /**
+     * Gửi thông báo + email nhắc nợ riêng cho từng hộ còn nợ của một đợt thu hoặc một tòa nhà.
+     * Hộ đã được nhắc gần đây (app.reminder.min-interval-days) sẽ bỏ qua.
+     */
+    @PostMapping("/nhac-no")
+    @PreAuthorize("hasAnyRole('ADMIN', 'MANAGER')")
+    public ResponseEntity<NhacNoService.KetQuaNhacNo> sendDebtReminder(
+            @RequestParam(required = false) Integer dotThuId,
+            @RequestParam(required = false) Integer toaNhaId) {
+        if (dotThuId != null) {
+            return ResponseEntity.ok(nhacNoService.nhacNoDotThu(dotThuId));
+        }
+        if (toaNhaId == null) {
+            throw new IllegalArgumentException("Cần truyền dotThuId hoặc toaNhaId");
+        }
+        return ResponseEntity.ok(nhacNoService.nhacNoToaNha(toaNhaId));
+    }
+
+    /**
+     * Danh sách hộ sẽ được nhắc nợ (xem trước, không gửi).
+     */
+    @GetMapping("/nhac-no/xem-truoc")
+    @PreAuthorize("hasAnyRole('ADMIN', 'MANAGER')")
+    public ResponseEntity<List<CongNoHo>> previewDebtReminder(
+            @RequestParam(required = false) Integer dotThuId,
+            @RequestParam(required = false) Integer toaNhaId) {
+        return ResponseEntity.ok(nhacNoService.xemTruoc(dotThuId, toaNhaId));
+    }
+
+    // ===== Gửi hóa đơn qua email (hàng đợi, gửi ở nền) =====
+
     @PostMapping("/gui-hoa-don/{idHoaDon}")
     @PreAuthorize("hasAnyRole('ADMIN', 'MANAGER')")
-    public ResponseEntity<Map<String, String>> sendInvoiceByEmail(@PathVariable @NonNull Integer idHoaDon) {
-        service.sendInvoiceByEmail(idHoaDon);
-        Map<String, String> response = new HashMap<>();
-        response.put("message", "Đã gửi hóa đơn qua email");
-        return ResponseEntity.ok(response);
+    public ResponseEntity<Map<String, Object>> sendInvoiceByEmail(@PathVariable @NonNull Integer idHoaDon) {
+        long emailId = service.sendInvoiceByEmail(idHoaDon);
+        Map<String, Object> response = new HashMap<>();
+        response.put("message", "Đã đưa hóa đơn vào hàng đợi gửi email");
+        response.put("emailId", emailId);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
+    }
+
+    /**
+     * Gửi hóa đơn của cả đợt thu cho các hộ có email. Trả về ngay với tiến độ ban đầu.
+     */
+    @PostMapping("/gui-hoa-don/dot-thu/{dotThuId}")
+    @PreAuthorize("hasAnyRole('ADMIN', 'MANAGER')")
+    public ResponseEntity<EmailDispatchService.TienDoGui> sendInvoicesOfDotThu(@PathVariable @NonNull Integer dotThuId) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(emailDispatchService.guiHoaDonDotThu(dotThuId));
     }
-}
 
+    /**
+     * Tiến độ một đợt gửi email.
+     */
+    @GetMapping("/email-batch/{batchId}")
+    @PreAuthorize("hasAnyRole('ADMIN', 'MANAGER', 'ACCOUNTANT')")
+    public ResponseEntity<EmailDispatchService.TienDoGui> getEmailBatch(@PathVariable long batchId) {
+        return ResponseEntity.ok(emailDispatchService.getTienDo(batchId));
+    }
+
+    /**
+     * Các đợt gửi email gần nhất của một đợt thu.
+     */
+    @GetMapping("/email-batch")
+    @PreAuthorize("hasAnyRole('ADMIN', 'MANAGER', 'ACCOUNTANT')")
+    public ResponseEntity<List<EmailDispatchService.TienDoGui>> getEmailBatches(@RequestParam @NonNull Integer dotThuId) {
+        return ResponseEntity.ok(emailDispatchService.getTienDoByDotThu(dotThuId));
+    }
+}
@@ -3,6 +3,7 @@ package com.nhom33.quanlychungcu.controller;
 import com.nhom33.quanlychungcu.entity.PhanAnh;
 import com.nhom33.quanlychungcu.entity.PhanHoi;
 import com.nhom33.quanlychungcu.service.PhanAnhService;
+import com.nhom33.quanlychungcu.util.KeysetPage;
 import lombok.NonNull;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
@@ -21,6 +22,7 @@ import java.util.Map;
  * ENDPOINTS:
  * - POST /api/phan-anh : User gửi phản ánh (cho tòa nhà mình thuộc)
  * - GET /api/phan-anh : Lấy danh sách phản ánh (theo role)
+ * - GET /api/phan-anh/seek : Như trên, phân trang theo con trỏ
  * - GET /api/phan-anh/my : User lấy phản ánh của mình
  * - GET /api/phan-anh/toa-nha/{id} : Manager lấy phản ánh của tòa nhà
  * - PUT /api/phan-anh/{id}/trang-thai : Manager cập nhật trạng thái
@@ -95,6 +97,18 @@ public class PhanAnhController {
         return ResponseEntity.ok(result);
     }
 
+    /**
+     * Lấy danh sách phản ánh (theo role), phân trang theo con trỏ.
+     */
+    @GetMapping("/seek")
+    @PreAuthorize("hasAnyRole('ADMIN','MANAGER','RESIDENT','ACCOUNTANT')")
+    public ResponseEntity<KeysetPage<PhanAnh>> seek(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "10") int size,
+            @RequestParam(defaultValue = "false") boolean approxTotal) {
+        return ResponseEntity.ok(service.seek(cursor, size, approxTotal));
+    }
+
     /**
      * User lấy phản ánh của mình.
      */
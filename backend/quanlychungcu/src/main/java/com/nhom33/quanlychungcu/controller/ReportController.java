@@ -1,21 +1,31 @@
 package com.nhom33.quanlychungcu.controller;
 
+import com.nhom33.quanlychungcu.service.DashboardAnalyticsService;
 import com.nhom33.quanlychungcu.service.ReportService;
 import lombok.NonNull;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
+import java.time.YearMonth;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/api/report")
 public class ReportController {
 
     private final ReportService service;
+    private final DashboardAnalyticsService dashboardService;
 
-    public ReportController(ReportService service) {
+    public ReportController(ReportService service, DashboardAnalyticsService dashboardService) {
         this.service = service;
+        this.dashboardService = dashboardService;
     }
 
     @GetMapping("/dot-thu/{idDotThu}")
@@ -40,5 +50,41 @@ public class ReportController {
         Map<String, Object> result = service.getStatisticsByMonth(year, month);
         return ResponseEntity.ok(result);
     }
+
+    /**
+     * Xây lại bảng thống kê đợt thu từ HoaDon (khi dữ liệu bị sửa trực tiếp dưới DB).
+     */
+    @PostMapping("/thong-ke/rebuild")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> rebuildStatistics() {
+        return ResponseEntity.ok(service.rebuildStatistics());
+    }
+
+    /**
+     * Dashboard toàn bộ tòa nhà theo tháng: tỷ lệ thu, công nợ, tiền thực nhận.
+     * GET /api/report/dashboard?tuThang=2024-01&denThang=2025-12&toaNhaIds=1,2
+     * 
+     * Trả ETag theo phiên bản dữ liệu thống kê: client gửi If-None-Match sẽ nhận 304 nếu chưa có gì thay đổi.
+     */
+    @GetMapping("/dashboard")
+    @PreAuthorize("hasAnyRole('ADMIN','MANAGER','ACCOUNTANT')")
+    public ResponseEntity<DashboardAnalyticsService.DashboardDanhMuc> getDashboard(
+            @RequestParam @DateTimeFormat(pattern = "yyyy-MM") YearMonth tuThang,
+            @RequestParam @DateTimeFormat(pattern = "yyyy-MM") YearMonth denThang,
+            @RequestParam(required = false) List<Integer> toaNhaIds,
+            WebRequest webRequest) {
+        DashboardAnalyticsService.DashboardDanhMuc result = dashboardService.getDashboard(tuThang, denThang, toaNhaIds);
+
+        String etag = "\"" + result.phienBan() + "-" + Integer.toHexString(Objects.hash(
+            result.tuThang(), result.denThang(),
+            result.toaNha().stream().map(DashboardAnalyticsService.ChuoiToaNha::toaNhaId).toList())) + "\"";
+        if (webRequest.checkNotModified(etag)) {
+            return null;
+        }
+        return ResponseEntity.ok()
+            .eTag(etag)
+            .cacheControl(CacheControl.maxAge(60, TimeUnit.SECONDS).cachePrivate())
+            .body(result);
+    }
 }
 
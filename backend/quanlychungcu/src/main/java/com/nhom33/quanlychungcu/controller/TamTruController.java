@@ -1,5 +1,6 @@
 package com.nhom33.quanlychungcu.controller;
 
+import com.nhom33.quanlychungcu.dto.TamTruListDTO;
 import com.nhom33.quanlychungcu.entity.TamTru;
 import com.nhom33.quanlychungcu.service.TamTruService;
 import lombok.NonNull;
@@ -39,7 +40,7 @@ public class TamTruController {
     }
 
     @GetMapping
-    public Page<TamTru> search(
+    public Page<TamTruListDTO> search(
             @RequestParam(required = false) String hoTen,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size) {
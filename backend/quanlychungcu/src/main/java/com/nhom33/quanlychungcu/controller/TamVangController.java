@@ -1,5 +1,6 @@
 package com.nhom33.quanlychungcu.controller;
 
+import com.nhom33.quanlychungcu.dto.TamVangListDTO;
 import com.nhom33.quanlychungcu.entity.TamVang;
 import com.nhom33.quanlychungcu.service.TamVangService;
 import lombok.NonNull;
@@ -39,7 +40,7 @@ public class TamVangController {
     }
 
     @GetMapping
-    public Page<TamVang> search(
+    public Page<TamVangListDTO> search(
             @RequestParam(required = false) String noiDen,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size) {
@@ -3,6 +3,7 @@ package com.nhom33.quanlychungcu.controller;
 import com.github.javafaker.Faker;
 import com.nhom33.quanlychungcu.entity.*;
 import com.nhom33.quanlychungcu.repository.*;
+import com.nhom33.quanlychungcu.service.BatchWriter;
 import com.nhom33.quanlychungcu.service.HoaDonService;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -33,13 +34,15 @@ public class TestController {
     
     private final PasswordEncoder passwordEncoder;
     private final HoaDonService hoaDonService;
+    private final BatchWriter batchWriter;
 
     public TestController(HoGiaDinhRepository hoGiaDinhRepo, NhanKhauRepository nhanKhauRepo,
                           UserAccountRepository userRepo, LoaiPhiRepository loaiPhiRepo,
                           DotThuRepository dotThuRepo, HoaDonRepository hoaDonRepo,
                           ChiTietHoaDonRepository chiTietRepo, DinhMucThuRepository dinhMucRepo,
                           TamTruRepository tamTruRepo, TamVangRepository tamVangRepo,
-                          PasswordEncoder passwordEncoder, HoaDonService hoaDonService) {
+                          PasswordEncoder passwordEncoder, HoaDonService hoaDonService,
+                          BatchWriter batchWriter) {
         this.hoGiaDinhRepo = hoGiaDinhRepo;
         this.nhanKhauRepo = nhanKhauRepo;
         this.userRepo = userRepo;
@@ -52,6 +55,7 @@ public class TestController {
         this.tamVangRepo = tamVangRepo;
         this.passwordEncoder = passwordEncoder;
         this.hoaDonService = hoaDonService;
+        this.batchWriter = batchWriter;
     }
 
     @PostMapping("/reset-data")
@@ -235,6 +239,9 @@ public class TestController {
 
     private void seedInvoices(List<HoGiaDinh> households, List<DotThu> dotThus, List<LoaiPhi> loaiPhis) {
         DotThu phiThang11 = dotThus.get(0);
+        // Build everything in memory, then persist in JDBC batches (HoaDon/ChiTietHoaDon use sequence IDs)
+        List<HoaDon> invoices = new ArrayList<>();
+        List<ChiTietHoaDon> details = new ArrayList<>();
         
         for (HoGiaDinh h : households) {
             // Generate invoice for Month 11
@@ -242,11 +249,9 @@ public class TestController {
             hd.setHoGiaDinh(h);
             hd.setDotThu(phiThang11);
             hd.setTrangThai("Chưa đóng");
-            hd = hoaDonRepo.save(hd); // Save to get ID
 
             // Calculate details
             BigDecimal total = BigDecimal.ZERO;
-            List<ChiTietHoaDon> details = new ArrayList<>();
 
             // 1. Service Fee (Area * 5000)
             LoaiPhi phiDichVu = loaiPhis.get(0);
@@ -276,7 +281,6 @@ public class TestController {
                 total = total.add(parkingFee);
             }
 
-            chiTietRepo.saveAll(details);
             hd.setTongTienPhaiThu(total);
             hd.setSoTienDaDong(BigDecimal.ZERO);
             
@@ -285,7 +289,10 @@ public class TestController {
                 hd.setTrangThai("Đã đóng");
                 hd.setSoTienDaDong(total);
             }
-            hoaDonRepo.save(hd);
+            invoices.add(hd);
         }
+
+        batchWriter.persistAll(invoices);
+        batchWriter.persistAll(details);
     }
 }
@@ -20,6 +20,7 @@ import java.util.Map;
  * ENDPOINTS:
  * - POST /api/payment/vnpay/create/{hoaDonId}: Tạo URL thanh toán
  * - GET  /api/payment/vnpay-return: VNPAY callback (redirect user về đây sau khi thanh toán)
+ * - GET  /api/payment/vnpay/status/{hoaDonId}: Trạng thái ghi nhận thanh toán (polling)
  */
 @RestController
 @RequestMapping("/api/payment")
@@ -90,10 +91,11 @@ public class VnPayController {
             // Build redirect URL cho Frontend
             String redirectUrl;
             if (result.isSuccess()) {
-                // THÀNH CÔNG
-                redirectUrl = String.format("%s/payment-result?status=success&hoaDonId=%d&message=%s",
+                // THÀNH CÔNG (đã vào outbox) - frontend hỏi /vnpay/status để biết khi nào ghi nhận xong
+                redirectUrl = String.format("%s/payment-result?status=success&hoaDonId=%d&maGiaoDich=%s&message=%s",
                     frontendUrl,
                     result.getHoaDonId(),
+                    URLEncoder.encode(result.getMaGiaoDich(), StandardCharsets.UTF_8),
                     URLEncoder.encode(result.getMessage(), StandardCharsets.UTF_8));
             } else {
                 // THẤT BẠI
@@ -121,15 +123,15 @@ public class VnPayController {
     }
 
     /**
-     * API kiểm tra trạng thái thanh toán (Optional).
-     * Frontend có thể gọi để verify sau khi thanh toán.
+     * API kiểm tra trạng thái ghi nhận thanh toán (frontend polling sau khi VNPAY redirect về).
+     * GET /api/payment/vnpay/status/{hoaDonId}?maGiaoDich=14123456
+     *
+     * dangXuLy = true: giao dịch còn trong outbox, chưa cộng vào hóa đơn.
      */
     @GetMapping("/vnpay/status/{hoaDonId}")
-    public ResponseEntity<Map<String, Object>> checkPaymentStatus(@PathVariable Integer hoaDonId) {
-        // TODO: Implement nếu cần query VNPAY API để check status
-        Map<String, Object> response = new HashMap<>();
-        response.put("hoaDonId", hoaDonId);
-        response.put("message", "Use invoice API to check payment status");
-        return ResponseEntity.ok(response);
+    public ResponseEntity<Map<String, Object>> checkPaymentStatus(
+            @PathVariable Integer hoaDonId,
+            @RequestParam(required = false) String maGiaoDich) {
+        return ResponseEntity.ok(vnPayService.getTrangThai(hoaDonId, maGiaoDich));
     }
 }
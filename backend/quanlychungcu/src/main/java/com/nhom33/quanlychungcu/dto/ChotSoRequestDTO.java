@@ -0,0 +1,18 @@
+package com.nhom33.quanlychungcu.dto;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+
+import java.util.List;
+
+/**
+ * Yêu cầu gửi job chốt sổ: danh sách đợt thu, hoặc tất cả đợt thu của một kỳ.
+ *
+ * @param dotThuIds có giá trị thì bỏ qua thang/nam
+ * @param thang     dùng cùng nam khi không truyền dotThuIds
+ */
+public record ChotSoRequestDTO(
+        List<Integer> dotThuIds,
+        @Min(value = 1, message = "Tháng phải từ 1 đến 12") @Max(value = 12, message = "Tháng phải từ 1 đến 12") Integer thang,
+        Integer nam) {
+}
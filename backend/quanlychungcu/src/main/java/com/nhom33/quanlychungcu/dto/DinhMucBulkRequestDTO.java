@@ -0,0 +1,37 @@
+package com.nhom33.quanlychungcu.dto;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.PositiveOrZero;
+import jakarta.validation.constraints.Size;
+
+import java.util.List;
+
+/**
+ * Áp dụng một quy tắc định mức cho nhiều hộ trong tòa nhà (một câu MERGE).
+ *
+ * Phạm vi hộ: toàn tòa nhà, thu hẹp bởi các điều kiện không null (tuTang..denTang, trangThaiHo, hoGiaDinhIds).
+ *
+ * @param quyTac  CO_DINH: SoLuong = soLuong; DIEN_TICH: SoLuong = HoGiaDinh.DienTich x heSo (hộ chưa có diện tích bị bỏ qua)
+ * @param cheDo   THEM_MOI: chỉ tạo cho hộ chưa có định mức; CAP_NHAT: chỉ sửa định mức đã có; GHI_DE: cả hai
+ * @param ghiChu  null = giữ ghi chú cũ khi cập nhật
+ */
+public record DinhMucBulkRequestDTO(
+        @NotNull(message = "Tòa nhà không được để trống") Integer toaNhaId,
+        @NotNull(message = "Loại phí không được để trống") Integer loaiPhiId,
+        String quyTac,
+        @PositiveOrZero(message = "Số lượng phải >= 0") Double soLuong,
+        @PositiveOrZero(message = "Hệ số phải >= 0") Double heSo,
+        String cheDo,
+        Integer tuTang,
+        Integer denTang,
+        String trangThaiHo,
+        List<Integer> hoGiaDinhIds,
+        @Size(max = 255, message = "Ghi chú không được vượt quá 255 ký tự") String ghiChu) {
+
+    public static final String QUY_TAC_CO_DINH = "CO_DINH";
+    public static final String QUY_TAC_DIEN_TICH = "DIEN_TICH";
+
+    public static final String CHE_DO_THEM_MOI = "THEM_MOI";
+    public static final String CHE_DO_CAP_NHAT = "CAP_NHAT";
+    public static final String CHE_DO_GHI_DE = "GHI_DE";
+}
@@ -0,0 +1,19 @@
+package com.nhom33.quanlychungcu.dto;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Một dòng danh sách đợt thu, kèm tên tòa nhà (LEFT JOIN, một câu SQL cho cả trang).
+ */
+public record DotThuListDTO(Integer id, String tenDotThu, String loaiDotThu, LocalDate ngayBatDau,
+                            LocalDate ngayKetThuc, Integer thang, Integer nam, LocalDateTime ngayTao,
+                            ToaNhaRefDTO toaNha) {
+
+    public DotThuListDTO(Integer id, String tenDotThu, String loaiDotThu, LocalDate ngayBatDau,
+                         LocalDate ngayKetThuc, Integer thang, Integer nam, LocalDateTime ngayTao,
+                         Integer toaNhaId, String tenToaNha) {
+        this(id, tenDotThu, loaiDotThu, ngayBatDau, ngayKetThuc, thang, nam, ngayTao,
+            ToaNhaRefDTO.of(toaNhaId, tenToaNha));
+    }
+}
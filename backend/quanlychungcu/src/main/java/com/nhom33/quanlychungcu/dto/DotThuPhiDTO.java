@@ -0,0 +1,16 @@
+package com.nhom33.quanlychungcu.dto;
+
+import java.math.BigDecimal;
+
+/**
+ * Một loại phí được cấu hình trong đợt thu (DotThu_LoaiPhi + LoaiPhi), không kèm entity DotThu.
+ */
+public record DotThuPhiDTO(Integer id, LoaiPhiRef loaiPhi) {
+
+    public record LoaiPhiRef(Integer id, String tenLoaiPhi, String donViTinh, BigDecimal donGia, String loaiThu) {}
+
+    public DotThuPhiDTO(Integer id, Integer loaiPhiId, String tenLoaiPhi, String donViTinh, BigDecimal donGia,
+                        String loaiThu) {
+        this(id, new LoaiPhiRef(loaiPhiId, tenLoaiPhi, donViTinh, donGia, loaiThu));
+    }
+}
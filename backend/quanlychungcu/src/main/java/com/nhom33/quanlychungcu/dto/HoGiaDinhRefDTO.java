@@ -0,0 +1,7 @@
+package com.nhom33.quanlychungcu.dto;
+
+/**
+ * Hộ gia đình rút gọn, nhúng trong các DTO danh sách (nhân khẩu, tạm trú, tạm vắng).
+ */
+public record HoGiaDinhRefDTO(Integer id, String maHoGiaDinh, String tenChuHo, String soCanHo, ToaNhaRefDTO toaNha) {
+}
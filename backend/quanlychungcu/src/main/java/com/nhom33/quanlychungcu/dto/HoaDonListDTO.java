@@ -0,0 +1,30 @@
+package com.nhom33.quanlychungcu.dto;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Một dòng danh sách hóa đơn.
+ *
+ * Đọc bằng một câu JOIN HoaDon + HoGiaDinh + DotThu (constructor expression), không nạp entity
+ * nên không kéo theo danhSachChiTiet / các quan hệ lazy khi serialize.
+ * Tên trường giữ như JSON của entity HoaDon để Frontend không phải đổi.
+ */
+public record HoaDonListDTO(Integer id, Integer idHoGiaDinh, String maHoGiaDinh, String tenChuHo, String soCanHo,
+                            DotThuRef dotThu, BigDecimal tongTienPhaiThu, BigDecimal soTienDaDong,
+                            BigDecimal soTienConNo, String trangThai, LocalDateTime ngayTao) {
+
+    public record DotThuRef(Integer id, String tenDotThu, Integer thang, Integer nam) {}
+
+    public HoaDonListDTO(Integer id, Integer idHoGiaDinh, String maHoGiaDinh, String tenChuHo, String soCanHo,
+                         Integer dotThuId, String tenDotThu, Integer thang, Integer nam,
+                         BigDecimal tongTienPhaiThu, BigDecimal soTienDaDong, String trangThai,
+                         LocalDateTime ngayTao) {
+        this(id, idHoGiaDinh, maHoGiaDinh, tenChuHo, soCanHo, new DotThuRef(dotThuId, tenDotThu, thang, nam),
+            tongTienPhaiThu, soTienDaDong, conNo(tongTienPhaiThu, soTienDaDong), trangThai, ngayTao);
+    }
+
+    private static BigDecimal conNo(BigDecimal phaiThu, BigDecimal daDong) {
+        return (phaiThu != null ? phaiThu : BigDecimal.ZERO).subtract(daDong != null ? daDong : BigDecimal.ZERO);
+    }
+}
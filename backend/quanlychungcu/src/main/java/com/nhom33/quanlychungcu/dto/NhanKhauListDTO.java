@@ -0,0 +1,24 @@
+package com.nhom33.quanlychungcu.dto;
+
+import java.time.LocalDate;
+
+/**
+ * Một dòng danh sách nhân khẩu, kèm hộ gia đình + tòa nhà rút gọn.
+ *
+ * Đọc bằng một câu JOIN NhanKhau + HoGiaDinh + ToaNha thay vì nạp entity
+ * (trước đây hoGiaDinh và hoGiaDinh.toaNha là EAGER, mỗi dòng kéo thêm select phụ).
+ */
+public record NhanKhauListDTO(Integer id, String hoTen, LocalDate ngaySinh, String gioiTinh, String soCCCD,
+                              String soDienThoai, String email, String quanHeVoiChuHo, Boolean laChuHo,
+                              LocalDate ngayChuyenDen, String trangThai, HoGiaDinhRefDTO hoGiaDinh) {
+
+    public NhanKhauListDTO(Integer id, String hoTen, LocalDate ngaySinh, String gioiTinh, String soCCCD,
+                           String soDienThoai, String email, String quanHeVoiChuHo, Boolean laChuHo,
+                           LocalDate ngayChuyenDen, String trangThai,
+                           Integer hoGiaDinhId, String maHoGiaDinh, String tenChuHo, String soCanHo,
+                           Integer toaNhaId, String tenToaNha) {
+        this(id, hoTen, ngaySinh, gioiTinh, soCCCD, soDienThoai, email, quanHeVoiChuHo, laChuHo, ngayChuyenDen,
+            trangThai, new HoGiaDinhRefDTO(hoGiaDinhId, maHoGiaDinh, tenChuHo, soCanHo,
+                ToaNhaRefDTO.of(toaNhaId, tenToaNha)));
+    }
+}
@@ -0,0 +1,24 @@
+package com.nhom33.quanlychungcu.dto;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Một dòng danh sách tạm trú, kèm nhân khẩu (và hộ gia đình) rút gọn.
+ */
+public record TamTruListDTO(Integer id, NhanKhauListDTO nhanKhau, String maGiayTamTru, String diaChiThuongTru,
+                            LocalDate ngayBatDau, LocalDate ngayKetThuc, String lyDo, LocalDateTime ngayDangKy) {
+
+    public TamTruListDTO(Integer id, String maGiayTamTru, String diaChiThuongTru, LocalDate ngayBatDau,
+                         LocalDate ngayKetThuc, String lyDo, LocalDateTime ngayDangKy,
+                         Integer nhanKhauId, String hoTen, LocalDate ngaySinh, String gioiTinh, String soCCCD,
+                         String soDienThoai, String email, String quanHeVoiChuHo, Boolean laChuHo,
+                         LocalDate ngayChuyenDen, String trangThai,
+                         Integer hoGiaDinhId, String maHoGiaDinh, String tenChuHo, String soCanHo,
+                         Integer toaNhaId, String tenToaNha) {
+        this(id, new NhanKhauListDTO(nhanKhauId, hoTen, ngaySinh, gioiTinh, soCCCD, soDienThoai, email,
+                quanHeVoiChuHo, laChuHo, ngayChuyenDen, trangThai,
+                hoGiaDinhId, maHoGiaDinh, tenChuHo, soCanHo, toaNhaId, tenToaNha),
+            maGiayTamTru, diaChiThuongTru, ngayBatDau, ngayKetThuc, lyDo, ngayDangKy);
+    }
+}
@@ -0,0 +1,21 @@
+package com.nhom33.quanlychungcu.dto;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Một dòng danh sách tạm vắng, kèm nhân khẩu rút gọn.
+ */
+public record TamVangListDTO(Integer id, NhanKhauRef nhanKhau, LocalDate ngayBatDau, LocalDate ngayKetThuc,
+                             String noiDen, String lyDo, LocalDateTime ngayDangKy) {
+
+    public record NhanKhauRef(Integer id, String hoTen, String soCCCD, HoGiaDinhRefDTO hoGiaDinh) {}
+
+    public TamVangListDTO(Integer id, LocalDate ngayBatDau, LocalDate ngayKetThuc, String noiDen, String lyDo,
+                          LocalDateTime ngayDangKy, Integer nhanKhauId, String hoTen, String soCCCD,
+                          Integer hoGiaDinhId, String maHoGiaDinh, String tenChuHo, String soCanHo) {
+        this(id, new NhanKhauRef(nhanKhauId, hoTen, soCCCD,
+                new HoGiaDinhRefDTO(hoGiaDinhId, maHoGiaDinh, tenChuHo, soCanHo, null)),
+            ngayBatDau, ngayKetThuc, noiDen, lyDo, ngayDangKy);
+    }
+}
@@ -0,0 +1,11 @@
+package com.nhom33.quanlychungcu.dto;
+
+/**
+ * Tòa nhà rút gọn, nhúng trong các DTO danh sách.
+ */
+public record ToaNhaRefDTO(Integer id, String tenToaNha) {
+
+    public static ToaNhaRefDTO of(Integer id, String tenToaNha) {
+        return id != null ? new ToaNhaRefDTO(id, tenToaNha) : null;
+    }
+}
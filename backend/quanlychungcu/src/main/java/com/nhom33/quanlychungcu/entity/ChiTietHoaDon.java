@@ -2,6 +2,7 @@ package com.nhom33.quanlychungcu.entity;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.nhom33.quanlychungcu.util.SequenceBlock;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.*;
 import java.math.BigDecimal;
@@ -11,7 +12,8 @@ import java.math.BigDecimal;
 public class ChiTietHoaDon {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "chiTietHoaDonSeq")
+    @SequenceGenerator(name = "chiTietHoaDonSeq", sequenceName = "ChiTietHoaDon_SEQ", allocationSize = SequenceBlock.ALLOCATION_SIZE)
     @Column(name = "ID_ChiTiet")
     private Integer id;
 
@@ -1,5 +1,6 @@
 package com.nhom33.quanlychungcu.entity;
 
+import com.nhom33.quanlychungcu.util.SequenceBlock;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.*;
 import java.util.Objects;
@@ -9,7 +10,8 @@ import java.util.Objects;
 public class DinhMucThu {
  
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "dinhMucThuSeq")
+    @SequenceGenerator(name = "dinhMucThuSeq", sequenceName = "DinhMucThu_SEQ", allocationSize = SequenceBlock.ALLOCATION_SIZE)
     @Column(name = "ID_DinhMuc")
     private Integer id;
 
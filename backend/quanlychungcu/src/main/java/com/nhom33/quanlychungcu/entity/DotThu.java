@@ -48,7 +48,7 @@ public class DotThu {
     private LocalDateTime ngayTao;
 
     // ===== Relationship: Tòa nhà =====
-    @ManyToOne(fetch = FetchType.EAGER)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "ID_ToaNha")
     @JsonIgnoreProperties({"danhSachHoGiaDinh", "hibernateLazyInitializer", "handler"})
     private ToaNha toaNha;
@@ -77,8 +77,9 @@ public class HoGiaDinh {
     // PhanAnh đã được chuyển sang liên kết với User và ToaNha (không còn liên kết với HoGiaDinh)
 
     @NotNull(message = "Tòa nhà không được để trống")
-    @ManyToOne(fetch = FetchType.EAGER)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "ID_ToaNha", nullable = false)
+    @JsonIgnoreProperties({"hibernateLazyInitializer", "handler"})
     private ToaNha toaNha;
 
     // ===== Lifecycle Callbacks =====
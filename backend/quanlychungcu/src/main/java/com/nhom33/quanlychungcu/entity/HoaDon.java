@@ -1,5 +1,6 @@
 package com.nhom33.quanlychungcu.entity;
 
+import com.nhom33.quanlychungcu.util.SequenceBlock;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.*;
 import java.math.BigDecimal;
@@ -11,8 +12,11 @@ import java.util.List;
 @Table(name = "HoaDon")
 public class HoaDon {
 
+    // Sequence cấp sẵn 50 ID mỗi lần gọi (pooled): Hibernate biết ID trước khi INSERT nên gom được batch,
+    // IDENTITY thì phải INSERT từng dòng để lấy ID. INSERT bằng JDBC cấp ID theo cùng khối (SequenceBlock).
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "hoaDonSeq")
+    @SequenceGenerator(name = "hoaDonSeq", sequenceName = "HoaDon_SEQ", allocationSize = SequenceBlock.ALLOCATION_SIZE)
     @Column(name = "ID_HoaDon")
     private Integer id;
 
@@ -45,6 +49,11 @@ public class HoaDon {
     @Column(name = "NgayTao")
     private LocalDateTime ngayTao;
 
+    // Optimistic locking: ghi thanh toán đồng thời trên cùng hóa đơn -> bên commit sau phải đọc lại
+    @Version
+    @Column(name = "Version", nullable = false)
+    private Long version = 0L;
+
     // Relationships - orphanRemoval=true để cascade delete hoạt động đúng
     @OneToMany(mappedBy = "hoaDon", cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.LAZY)
     @com.fasterxml.jackson.annotation.JsonIgnoreProperties({"hoaDon", "hibernateLazyInitializer", "handler"})
@@ -127,6 +136,14 @@ public class HoaDon {
         this.ngayTao = ngayTao;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     public List<ChiTietHoaDon> getDanhSachChiTiet() {
         return danhSachChiTiet;
     }
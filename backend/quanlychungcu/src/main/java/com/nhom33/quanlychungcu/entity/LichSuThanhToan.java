@@ -1,6 +1,7 @@
 package com.nhom33.quanlychungcu.entity;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.nhom33.quanlychungcu.util.SequenceBlock;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.*;
 import java.math.BigDecimal;
@@ -11,7 +12,8 @@ import java.time.LocalDateTime;
 public class LichSuThanhToan {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "lichSuThanhToanSeq")
+    @SequenceGenerator(name = "lichSuThanhToanSeq", sequenceName = "LichSuThanhToan_SEQ", allocationSize = SequenceBlock.ALLOCATION_SIZE)
     @Column(name = "ID_GiaoDich")
     private Integer id;
 
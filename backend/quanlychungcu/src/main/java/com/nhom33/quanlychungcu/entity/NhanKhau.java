@@ -61,9 +61,10 @@ public class NhanKhau {
 
     // ===== Relationships =====
 
-    @ManyToOne(fetch = FetchType.EAGER)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "ID_HoGiaDinh", nullable = false)
-    @JsonIgnoreProperties({"danhSachNhanKhau", "danhSachHoaDon", "danhSachDinhMuc", "danhSachPhanAnh"})
+    @JsonIgnoreProperties({"danhSachNhanKhau", "danhSachHoaDon", "danhSachDinhMuc", "danhSachPhanAnh",
+                           "hibernateLazyInitializer", "handler"})
     private HoGiaDinh hoGiaDinh;
 
     @OneToMany(mappedBy = "nhanKhau", cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.LAZY)
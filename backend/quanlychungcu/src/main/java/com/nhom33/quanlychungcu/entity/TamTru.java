@@ -30,9 +30,9 @@ public class TamTru {
      * Bắt buộc: Người tạm trú phải được insert vào bảng NhanKhau trước.
      */
     @NotNull(message = "Nhân khẩu tạm trú không được để trống")
-    @ManyToOne(fetch = FetchType.EAGER)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "ID_NhanKhau", nullable = false)
-    @JsonIgnoreProperties({"danhSachTamVang", "hoGiaDinh"})
+    @JsonIgnoreProperties({"danhSachTamVang", "hoGiaDinh", "hibernateLazyInitializer", "handler"})
     private NhanKhau nhanKhau;
 
     /**
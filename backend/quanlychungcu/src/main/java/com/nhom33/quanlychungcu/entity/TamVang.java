@@ -17,7 +17,7 @@ public class TamVang {
     private Integer id;
 
     @NotNull(message = "Nhân khẩu không được để trống")
-    @ManyToOne(fetch = FetchType.EAGER)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "ID_NhanKhau", nullable = false)
     private NhanKhau nhanKhau;
 
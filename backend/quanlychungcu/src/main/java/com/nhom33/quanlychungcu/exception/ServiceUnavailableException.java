@@ -0,0 +1,8 @@
+package com.nhom33.quanlychungcu.exception;
+
+/**
+ * Chức năng tạm thời chưa dùng được (ví dụ chỉ mục tìm kiếm đang nạp) -> 503, client thử lại sau.
+ */
+public class ServiceUnavailableException extends RuntimeException {
+    public ServiceUnavailableException(String message) { super(message); }
+}
@@ -0,0 +1,191 @@
+package com.nhom33.quanlychungcu.repository;
+
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Repository JDBC cho bảng kê đợt thu (HoaDon + ChiTietHoaDon + LoaiPhi).
+ *
+ * Dữ liệu được đọc bằng MỘT câu JOIN duy nhất, sắp xếp theo đợt thu → mã hộ → hóa đơn,
+ * để caller gom các dòng chi tiết liên tiếp thành một hộ mà không cần giữ cả bảng kê trong bộ nhớ.
+ */
+@Repository
+public class BangKeRepository {
+
+    private final NamedParameterJdbcTemplate jdbc;
+
+    public BangKeRepository(NamedParameterJdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    // ===== Kiểu dữ liệu đọc ra =====
+
+    public record KyThuRow(int dotThuId, String tenDotThu, Integer toaNhaId, String tenToaNha) {}
+
+    public record PhiCotRow(int dotThuId, int loaiPhiId, String tenLoaiPhi, String donViTinh) {}
+
+    /**
+     * Một dòng của JOIN: thông tin hóa đơn + một chi tiết (loaiPhiId = null nếu hóa đơn chưa có chi tiết).
+     */
+    public record BangKeLine(int dotThuId, int hoaDonId, String maHoGiaDinh, String soCanHo, String chuHo,
+                             BigDecimal tongTien, BigDecimal daDong, String trangThai,
+                             Integer loaiPhiId, String tenLoaiPhi, String donViTinh,
+                             Double soLuong, BigDecimal donGia, BigDecimal thanhTien) {}
+
+    /**
+     * Một trang bảng kê: các dòng JOIN của các hóa đơn trong trang + tổng của TOÀN BỘ đợt thu.
+     */
+    public record BangKeTrang(List<BangKeLine> lines, int tongSoHoaDon, BigDecimal tongPhaiThu, BigDecimal tongDaDong) {}
+
+    // ===== READ =====
+
+    /**
+     * Thông tin đợt thu + tòa nhà của các đợt thu.
+     */
+    public List<KyThuRow> findKyThu(Collection<Integer> dotThuIds) {
+        String sql = """
+            SELECT d.ID_DotThu, d.TenDotThu, d.ID_ToaNha, t.TenToaNha
+            FROM DotThu d
+            LEFT JOIN ToaNha t ON t.ID_ToaNha = d.ID_ToaNha
+            WHERE d.ID_DotThu IN (:dotThuIds)
+            ORDER BY d.ID_DotThu
+            """;
+        return jdbc.query(sql, new MapSqlParameterSource("dotThuIds", dotThuIds),
+            (rs, i) -> new KyThuRow(rs.getInt(1), rs.getString(2),
+                (Integer) rs.getObject(3, Integer.class), rs.getString(4)));
+    }
+
+    /**
+     * Các đợt thu của kỳ (tháng/năm), mọi tòa nhà.
+     */
+    public List<KyThuRow> findKyThuByKy(int thang, int nam) {
+        String sql = """
+            SELECT d.ID_DotThu, d.TenDotThu, d.ID_ToaNha, t.TenToaNha
+            FROM DotThu d
+            LEFT JOIN ToaNha t ON t.ID_ToaNha = d.ID_ToaNha
+            WHERE d.Thang = :thang AND d.Nam = :nam
+            ORDER BY t.TenToaNha, d.ID_DotThu
+            """;
+        return jdbc.query(sql, new MapSqlParameterSource("thang", thang).addValue("nam", nam),
+            (rs, i) -> new KyThuRow(rs.getInt(1), rs.getString(2),
+                (Integer) rs.getObject(3, Integer.class), rs.getString(4)));
+    }
+
+    /**
+     * Các loại phí (cột của bảng kê) của các đợt thu, theo thứ tự cấu hình.
+     */
+    public List<PhiCotRow> findPhiCot(Collection<Integer> dotThuIds) {
+        String sql = """
+            SELECT c.ID_DotThu, lp.ID_LoaiPhi, lp.TenLoaiPhi, lp.DonViTinh
+            FROM DotThu_LoaiPhi c
+            JOIN LoaiPhi lp ON lp.ID_LoaiPhi = c.ID_LoaiPhi
+            WHERE c.ID_DotThu IN (:dotThuIds)
+            ORDER BY c.ID_DotThu, c.ID_Config
+            """;
+        return jdbc.query(sql, new MapSqlParameterSource("dotThuIds", dotThuIds),
+            (rs, i) -> new PhiCotRow(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getString(4)));
+    }
+
+    /**
+     * Đọc tuần tự (streaming) toàn bộ bảng kê của các đợt thu.
+     * Mỗi dòng ResultSet được chuyển ngay cho consumer, không tích lũy trong List.
+     */
+    public void streamBangKe(Collection<Integer> dotThuIds, Consumer<BangKeLine> consumer) {
+        String sql = """
+            SELECT hd.ID_DotThu, hd.ID_HoaDon, h.MaHoGiaDinh, h.SoCanHo, h.TenChuHo,
+                   hd.TongTienPhaiThu, hd.SoTienDaDong, hd.TrangThai,
+                   ct.ID_LoaiPhi, lp.TenLoaiPhi, lp.DonViTinh, ct.SoLuong, ct.DonGia, ct.ThanhTien
+            FROM HoaDon hd
+            JOIN HoGiaDinh h ON h.ID_HoGiaDinh = hd.ID_HoGiaDinh
+            LEFT JOIN ChiTietHoaDon ct ON ct.ID_HoaDon = hd.ID_HoaDon
+            LEFT JOIN LoaiPhi lp ON lp.ID_LoaiPhi = ct.ID_LoaiPhi
+            WHERE hd.ID_DotThu IN (:dotThuIds)
+            ORDER BY hd.ID_DotThu, h.MaHoGiaDinh, hd.ID_HoaDon
+            """;
+        jdbc.query(sql, new MapSqlParameterSource("dotThuIds", dotThuIds),
+            (RowCallbackHandler) rs -> consumer.accept(mapLine(rs)));
+    }
+
+    /**
+     * Một trang bảng kê trong MỘT câu SQL.
+     *
+     * CTE chọn các hóa đơn của trang (sắp xếp theo mã hộ, OFFSET/FETCH), đồng thời tính
+     * số hóa đơn và tổng tiền của cả đợt thu bằng window function (tính trước khi phân trang),
+     * rồi JOIN sang ChiTietHoaDon + LoaiPhi để lấy chi tiết từng khoản.
+     *
+     * @param limit null = lấy tất cả (không phân trang)
+     */
+    public BangKeTrang findBangKeTrang(int dotThuId, int offset, Integer limit, boolean giamDan) {
+        String dir = giamDan ? "DESC" : "ASC";
+        // SQL Server chỉ cho ORDER BY trong CTE khi có OFFSET
+        String paging = limit != null ? "OFFSET :offset ROWS FETCH NEXT :limit ROWS ONLY" : "OFFSET 0 ROWS";
+        String sql = """
+            WITH trang AS (
+                SELECT hd.ID_DotThu, hd.ID_HoaDon, h.MaHoGiaDinh, h.SoCanHo, h.TenChuHo,
+                       hd.TongTienPhaiThu, hd.SoTienDaDong, hd.TrangThai,
+                       COUNT(*) OVER () AS TongSoHoaDon,
+                       SUM(hd.TongTienPhaiThu) OVER () AS TongPhaiThu,
+                       SUM(hd.SoTienDaDong) OVER () AS TongDaDong
+                FROM HoaDon hd
+                JOIN HoGiaDinh h ON h.ID_HoGiaDinh = hd.ID_HoGiaDinh
+                WHERE hd.ID_DotThu = :dotThuId
+                ORDER BY h.MaHoGiaDinh %1$s, hd.ID_HoaDon
+                %2$s
+            )
+            SELECT t.*, ct.ID_LoaiPhi, lp.TenLoaiPhi, lp.DonViTinh, ct.SoLuong, ct.DonGia, ct.ThanhTien
+            FROM trang t
+            LEFT JOIN ChiTietHoaDon ct ON ct.ID_HoaDon = t.ID_HoaDon
+            LEFT JOIN LoaiPhi lp ON lp.ID_LoaiPhi = ct.ID_LoaiPhi
+            ORDER BY t.MaHoGiaDinh %1$s, t.ID_HoaDon, ct.ID_ChiTiet
+            """.formatted(dir, paging);
+        MapSqlParameterSource params = new MapSqlParameterSource("dotThuId", dotThuId)
+            .addValue("offset", offset)
+            .addValue("limit", limit);
+
+        BangKeTrang trang = jdbc.query(sql, params, (ResultSetExtractor<BangKeTrang>) rs -> {
+            List<BangKeLine> lines = new ArrayList<>();
+            int tongSo = 0;
+            BigDecimal tongPhaiThu = BigDecimal.ZERO;
+            BigDecimal tongDaDong = BigDecimal.ZERO;
+            while (rs.next()) {
+                if (lines.isEmpty()) {
+                    tongSo = rs.getInt("TongSoHoaDon");
+                    tongPhaiThu = rs.getBigDecimal("TongPhaiThu");
+                    tongDaDong = rs.getBigDecimal("TongDaDong");
+                }
+                lines.add(mapLine(rs));
+            }
+            return new BangKeTrang(lines, tongSo, tongPhaiThu, tongDaDong);
+        });
+
+        // Trang nằm ngoài phạm vi: không có dòng nào để đọc tổng -> tính riêng
+        if (trang != null && trang.lines().isEmpty() && offset > 0) {
+            return jdbc.queryForObject("""
+                SELECT COUNT(*), COALESCE(SUM(TongTienPhaiThu), 0), COALESCE(SUM(SoTienDaDong), 0)
+                FROM HoaDon WHERE ID_DotThu = :dotThuId
+                """, params, (rs, i) -> new BangKeTrang(List.of(), rs.getInt(1), rs.getBigDecimal(2), rs.getBigDecimal(3)));
+        }
+        return trang;
+    }
+
+    static BangKeLine mapLine(ResultSet rs) throws SQLException {
+        return new BangKeLine(
+            rs.getInt("ID_DotThu"), rs.getInt("ID_HoaDon"),
+            rs.getString("MaHoGiaDinh"), rs.getString("SoCanHo"), rs.getString("TenChuHo"),
+            rs.getBigDecimal("TongTienPhaiThu"), rs.getBigDecimal("SoTienDaDong"), rs.getString("TrangThai"),
+            (Integer) rs.getObject("ID_LoaiPhi", Integer.class), rs.getString("TenLoaiPhi"),
+            rs.getString("DonViTinh"), (Double) rs.getObject("SoLuong", Double.class),
+            rs.getBigDecimal("DonGia"), rs.getBigDecimal("ThanhTien"));
+    }
+}
@@ -0,0 +1,199 @@
+package com.nhom33.quanlychungcu.repository;
+
+import com.nhom33.quanlychungcu.util.JdbcBatch;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Repository JDBC cho bảng CanhBaoChiSo (chỉ số bất thường chờ duyệt).
+ *
+ * Ghi theo đợt nhập liệu của một tòa nhà: MERGE các dòng bất thường bằng JDBC batch,
+ * xóa cảnh báo CHỜ DUYỆT của các hộ vừa nhập lại chỉ số hợp lệ bằng một câu DELETE
+ * (cảnh báo đã xác nhận được giữ làm lịch sử duyệt).
+ */
+@Repository
+public class CanhBaoChiSoRepository {
+
+    /** Số dòng tối đa trong một lần gửi batch. */
+    public static final int BATCH_SIZE = 500;
+
+    /** Số ID tối đa trong một mệnh đề IN. */
+    private static final int IN_CHUNK_SIZE = 1000;
+
+    public static final String CHO_DUYET = "ChoDuyet";
+    public static final String DA_XAC_NHAN = "DaXacNhan";
+
+    private final NamedParameterJdbcTemplate jdbc;
+
+    public CanhBaoChiSoRepository(NamedParameterJdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    // ===== Kiểu dữ liệu =====
+
+    public record CanhBaoWrite(int hoGiaDinhId, int chiSoCu, int chiSoMoi, int tieuThu,
+                               double trungVi, double mad, double diemBatThuong) {}
+
+    public record CanhBaoRow(int canhBaoId, int hoGiaDinhId, String maHoGiaDinh, String soCanHo,
+                             int loaiPhiId, String tenLoaiPhi, int thang, int nam,
+                             int chiSoCu, int chiSoMoi, int tieuThu, double trungVi, double mad,
+                             double diemBatThuong, String trangThai, LocalDateTime ngayTao,
+                             String nguoiDuyet, LocalDateTime ngayDuyet, int toaNhaId) {}
+
+    // ===== WRITE =====
+
+    /**
+     * Ghi cảnh báo của một đợt nhập liệu.
+     * Cảnh báo đã có cùng (hộ, loại phí, tháng) được ghi đè và đưa về ChoDuyet khi chỉ số mới khác chỉ số đã duyệt.
+     * @return số lần gửi batch xuống DB
+     */
+    public int upsert(int loaiPhiId, int thang, int nam, List<CanhBaoWrite> rows) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        String sql = """
+            MERGE CanhBaoChiSo AS t
+            USING (SELECT :hoGiaDinhId AS ID_HoGiaDinh) AS s
+               ON t.ID_HoGiaDinh = s.ID_HoGiaDinh AND t.ID_LoaiPhi = :loaiPhiId
+              AND t.Thang = :thang AND t.Nam = :nam
+            WHEN MATCHED AND t.ChiSoMoi <> :chiSoMoi THEN
+                UPDATE SET ChiSoCu = :chiSoCu, ChiSoMoi = :chiSoMoi, TieuThu = :tieuThu,
+                           TrungVi = :trungVi, MAD = :mad, DiemBatThuong = :diem,
+                           TrangThai = :choDuyet, NgayTao = :ngayTao, NguoiDuyet = NULL, NgayDuyet = NULL
+            WHEN NOT MATCHED THEN
+                INSERT (ID_HoGiaDinh, ID_LoaiPhi, Thang, Nam, ChiSoCu, ChiSoMoi, TieuThu,
+                        TrungVi, MAD, DiemBatThuong, TrangThai, NgayTao)
+                VALUES (:hoGiaDinhId, :loaiPhiId, :thang, :nam, :chiSoCu, :chiSoMoi, :tieuThu,
+                        :trungVi, :mad, :diem, :choDuyet, :ngayTao);
+            """;
+        List<SqlParameterSource> params = rows.stream()
+            .map(r -> (SqlParameterSource) new MapSqlParameterSource("hoGiaDinhId", r.hoGiaDinhId())
+                .addValue("loaiPhiId", loaiPhiId)
+                .addValue("thang", thang)
+                .addValue("nam", nam)
+                .addValue("chiSoCu", r.chiSoCu())
+                .addValue("chiSoMoi", r.chiSoMoi())
+                .addValue("tieuThu", r.tieuThu())
+                .addValue("trungVi", r.trungVi())
+                .addValue("mad", r.mad())
+                .addValue("diem", r.diemBatThuong())
+                .addValue("choDuyet", CHO_DUYET)
+                .addValue("ngayTao", now))
+            .toList();
+        return JdbcBatch.execute(jdbc, sql, params, BATCH_SIZE);
+    }
+
+    /**
+     * Xóa cảnh báo CHỜ DUYỆT (hộ, loại phí, tháng) của các hộ vừa nhập chỉ số hợp lệ.
+     */
+    public int deleteByHo(int loaiPhiId, int thang, int nam, Collection<Integer> hoGiaDinhIds) {
+        String sql = """
+            DELETE FROM CanhBaoChiSo
+            WHERE ID_LoaiPhi = :loaiPhiId AND Thang = :thang AND Nam = :nam
+              AND TrangThai = :choDuyet
+              AND ID_HoGiaDinh IN (:hoIds)
+            """;
+        List<Integer> ids = new ArrayList<>(hoGiaDinhIds);
+        int deleted = 0;
+        for (int from = 0; from < ids.size(); from += IN_CHUNK_SIZE) {
+            deleted += jdbc.update(sql, new MapSqlParameterSource("loaiPhiId", loaiPhiId)
+                .addValue("thang", thang)
+                .addValue("nam", nam)
+                .addValue("choDuyet", CHO_DUYET)
+                .addValue("hoIds", ids.subList(from, Math.min(from + IN_CHUNK_SIZE, ids.size()))));
+        }
+        return deleted;
+    }
+
+    /**
+     * Đánh dấu cảnh báo đã được xem xét (chỉ số đúng).
+     */
+    public int xacNhan(int canhBaoId, String nguoiDuyet) {
+        return jdbc.update("""
+            UPDATE CanhBaoChiSo SET TrangThai = :daXacNhan, NguoiDuyet = :nguoiDuyet, NgayDuyet = :ngayDuyet
+            WHERE ID_CanhBao = :id
+            """, new MapSqlParameterSource("id", canhBaoId)
+            .addValue("daXacNhan", DA_XAC_NHAN)
+            .addValue("nguoiDuyet", nguoiDuyet)
+            .addValue("ngayDuyet", Timestamp.valueOf(LocalDateTime.now())));
+    }
+
+    // ===== READ =====
+
+    /**
+     * Cảnh báo của tòa nhà trong tháng, điểm bất thường cao nhất trước.
+     *
+     * @param loaiPhiId null = mọi loại phí
+     * @param trangThai null = mọi trạng thái
+     */
+    public List<CanhBaoRow> findByToaNha(int toaNhaId, int thang, int nam, Integer loaiPhiId, String trangThai) {
+        String sql = SELECT_CANH_BAO + """
+            WHERE h.ID_ToaNha = :toaNhaId AND cb.Thang = :thang AND cb.Nam = :nam
+            """
+            + (loaiPhiId != null ? " AND cb.ID_LoaiPhi = :loaiPhiId" : "")
+            + (trangThai != null ? " AND cb.TrangThai = :trangThai" : "")
+            + " ORDER BY ABS(cb.DiemBatThuong) DESC, h.MaHoGiaDinh";
+        MapSqlParameterSource params = new MapSqlParameterSource("toaNhaId", toaNhaId)
+            .addValue("thang", thang)
+            .addValue("nam", nam)
+            .addValue("loaiPhiId", loaiPhiId)
+            .addValue("trangThai", trangThai);
+        return jdbc.query(sql, params, (rs, i) -> mapRow(rs));
+    }
+
+    /**
+     * Trong các hộ cho trước, những hộ đang có cảnh báo chờ duyệt của (loại phí, tháng).
+     */
+    public Set<Integer> findHoChoDuyet(int loaiPhiId, int thang, int nam, Collection<Integer> hoGiaDinhIds) {
+        String sql = """
+            SELECT ID_HoGiaDinh FROM CanhBaoChiSo
+            WHERE ID_LoaiPhi = :loaiPhiId AND Thang = :thang AND Nam = :nam
+              AND TrangThai = :choDuyet
+              AND ID_HoGiaDinh IN (:hoIds)
+            """;
+        List<Integer> ids = new ArrayList<>(hoGiaDinhIds);
+        Set<Integer> result = new HashSet<>();
+        for (int from = 0; from < ids.size(); from += IN_CHUNK_SIZE) {
+            result.addAll(jdbc.queryForList(sql, new MapSqlParameterSource("loaiPhiId", loaiPhiId)
+                .addValue("thang", thang)
+                .addValue("nam", nam)
+                .addValue("choDuyet", CHO_DUYET)
+                .addValue("hoIds", ids.subList(from, Math.min(from + IN_CHUNK_SIZE, ids.size()))), Integer.class));
+        }
+        return result;
+    }
+
+    public Optional<CanhBaoRow> findById(int canhBaoId) {
+        List<CanhBaoRow> rows = jdbc.query(SELECT_CANH_BAO + " WHERE cb.ID_CanhBao = :id",
+            new MapSqlParameterSource("id", canhBaoId), (rs, i) -> mapRow(rs));
+        return rows.stream().findFirst();
+    }
+
+    private static final String SELECT_CANH_BAO = """
+        SELECT cb.ID_CanhBao, cb.ID_HoGiaDinh, h.MaHoGiaDinh, h.SoCanHo, cb.ID_LoaiPhi, lp.TenLoaiPhi,
+               cb.Thang, cb.Nam, cb.ChiSoCu, cb.ChiSoMoi, cb.TieuThu, cb.TrungVi, cb.MAD, cb.DiemBatThuong,
+               cb.TrangThai, cb.NgayTao, cb.NguoiDuyet, cb.NgayDuyet, h.ID_ToaNha
+        FROM CanhBaoChiSo cb
+        JOIN HoGiaDinh h ON h.ID_HoGiaDinh = cb.ID_HoGiaDinh
+        JOIN LoaiPhi lp ON lp.ID_LoaiPhi = cb.ID_LoaiPhi
+        """;
+
+    private static CanhBaoRow mapRow(java.sql.ResultSet rs) throws java.sql.SQLException {
+        Timestamp ngayTao = rs.getTimestamp(16);
+        Timestamp ngayDuyet = rs.getTimestamp(18);
+        return new CanhBaoRow(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getString(4),
+            rs.getInt(5), rs.getString(6), rs.getInt(7), rs.getInt(8),
+            rs.getInt(9), rs.getInt(10), rs.getInt(11), rs.getDouble(12), rs.getDouble(13), rs.getDouble(14),
+            rs.getString(15), ngayTao != null ? ngayTao.toLocalDateTime() : null,
+            rs.getString(17), ngayDuyet != null ? ngayDuyet.toLocalDateTime() : null, rs.getInt(19));
+    }
+}
@@ -0,0 +1,105 @@
+package com.nhom33.quanlychungcu.repository;
+
+import com.nhom33.quanlychungcu.util.JdbcBatch;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Repository JDBC cho nhập chỉ số điện nước hàng loạt theo tòa nhà.
+ *
+ * Đọc toàn bộ dữ liệu cần thiết của tòa nhà trong MỘT câu SQL
+ * và ghi bằng JDBC batch (không query/save từng hộ).
+ */
+@Repository
+public class ChiSoBulkRepository {
+
+    /** Số dòng tối đa trong một lần gửi batch. */
+    public static final int BATCH_SIZE = 500;
+
+    private final NamedParameterJdbcTemplate jdbc;
+
+    public ChiSoBulkRepository(NamedParameterJdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    /**
+     * Trạng thái nhập chỉ số của một hộ trong tháng.
+     *
+     * @param chiSoId    ID bản ghi tháng hiện tại (null nếu chưa nhập)
+     * @param chiSoTruoc ChiSoMoi của bản ghi gần nhất TRƯỚC tháng (null nếu chưa có lịch sử)
+     */
+    public record HoChiSoRow(int hoGiaDinhId, String maHoGiaDinh, Integer chiSoId, Integer chiSoTruoc) {}
+
+    public record ChiSoWrite(Integer chiSoId, int hoGiaDinhId, int chiSoCu, int chiSoMoi) {}
+
+    /**
+     * Tất cả hộ của tòa nhà kèm bản ghi tháng (thang, nam) và chỉ số gần nhất trước đó.
+     * Chỉ số trước = tháng T-1 nếu có, nếu không thì bản ghi mới nhất trước tháng T.
+     */
+    public List<HoChiSoRow> findHoWithChiSo(int toaNhaId, int loaiPhiId, int thang, int nam) {
+        String sql = """
+            SELECT h.ID_HoGiaDinh, h.MaHoGiaDinh, cur.ID_ChiSo, prev.ChiSoMoi AS ChiSoTruoc
+            FROM HoGiaDinh h
+            LEFT JOIN ChiSoDienNuoc cur
+                   ON cur.ID_HoGiaDinh = h.ID_HoGiaDinh AND cur.ID_LoaiPhi = :loaiPhiId
+                  AND cur.Thang = :thang AND cur.Nam = :nam
+            OUTER APPLY (
+                SELECT TOP 1 p.ChiSoMoi
+                FROM ChiSoDienNuoc p
+                WHERE p.ID_HoGiaDinh = h.ID_HoGiaDinh
+                  AND p.ID_LoaiPhi = :loaiPhiId
+                  AND (p.Nam < :nam OR (p.Nam = :nam AND p.Thang < :thang))
+                ORDER BY p.Nam DESC, p.Thang DESC
+            ) prev
+            WHERE h.ID_ToaNha = :toaNhaId
+            """;
+        MapSqlParameterSource params = new MapSqlParameterSource("toaNhaId", toaNhaId)
+            .addValue("loaiPhiId", loaiPhiId)
+            .addValue("thang", thang)
+            .addValue("nam", nam);
+        return jdbc.query(sql, params, (rs, i) -> new HoChiSoRow(
+            rs.getInt(1), rs.getString(2),
+            (Integer) rs.getObject(3, Integer.class),
+            (Integer) rs.getObject(4, Integer.class)));
+    }
+
+    /**
+     * Thêm mới chỉ số tháng.
+     * @return số lần gửi batch xuống DB
+     */
+    public int insertChiSo(int loaiPhiId, int thang, int nam, List<ChiSoWrite> rows) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        String sql = """
+            INSERT INTO ChiSoDienNuoc (ID_HoGiaDinh, ID_LoaiPhi, Thang, Nam, ChiSoCu, ChiSoMoi, NgayChot)
+            VALUES (:hoGiaDinhId, :loaiPhiId, :thang, :nam, :chiSoCu, :chiSoMoi, :ngayChot)
+            """;
+        return JdbcBatch.execute(jdbc, sql, rows.stream()
+            .map(r -> (SqlParameterSource) new MapSqlParameterSource("hoGiaDinhId", r.hoGiaDinhId())
+                .addValue("loaiPhiId", loaiPhiId)
+                .addValue("thang", thang)
+                .addValue("nam", nam)
+                .addValue("chiSoCu", r.chiSoCu())
+                .addValue("chiSoMoi", r.chiSoMoi())
+                .addValue("ngayChot", now))
+            .toList(), BATCH_SIZE);
+    }
+
+    /**
+     * Cập nhật chỉ số tháng đã có (theo ID_ChiSo lấy từ findHoWithChiSo).
+     * @return số lần gửi batch xuống DB
+     */
+    public int updateChiSo(List<ChiSoWrite> rows) {
+        String sql = "UPDATE ChiSoDienNuoc SET ChiSoCu = :chiSoCu, ChiSoMoi = :chiSoMoi WHERE ID_ChiSo = :chiSoId";
+        return JdbcBatch.execute(jdbc, sql, rows.stream()
+            .map(r -> (SqlParameterSource) new MapSqlParameterSource("chiSoId", r.chiSoId())
+                .addValue("chiSoCu", r.chiSoCu())
+                .addValue("chiSoMoi", r.chiSoMoi()))
+            .toList(), BATCH_SIZE);
+    }
+}
@@ -0,0 +1,55 @@
+package com.nhom33.quanlychungcu.repository;
+
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.function.Consumer;
+
+/**
+ * Repository JDBC đọc tuần tự NhanKhau / HoGiaDinh để nạp chỉ mục tìm kiếm trong bộ nhớ.
+ * Chỉ đọc các cột cần cho tìm kiếm và lọc, theo thứ tự ID.
+ */
+@Repository
+public class CuDanSearchRepository {
+
+    private final NamedParameterJdbcTemplate jdbc;
+
+    public CuDanSearchRepository(NamedParameterJdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    // ===== Kiểu dữ liệu =====
+
+    public record NhanKhauRow(int id, int hoGiaDinhId, Integer toaNhaId, String hoTen, String soCCCD,
+                              String gioiTinh, String trangThai) {}
+
+    public record HoGiaDinhRow(int id, Integer toaNhaId, String maHoGiaDinh, String tenChuHo, String soCanHo,
+                               String trangThai) {}
+
+    // ===== READ =====
+
+    public void streamNhanKhau(Consumer<NhanKhauRow> consumer) {
+        String sql = """
+            SELECT n.ID_NhanKhau, n.ID_HoGiaDinh, h.ID_ToaNha, n.HoTen, n.SoCCCD, n.GioiTinh, n.TrangThai
+            FROM NhanKhau n
+            JOIN HoGiaDinh h ON h.ID_HoGiaDinh = n.ID_HoGiaDinh
+            ORDER BY n.ID_NhanKhau
+            """;
+        jdbc.query(sql, new MapSqlParameterSource(), (RowCallbackHandler) rs -> consumer.accept(new NhanKhauRow(
+            rs.getInt(1), rs.getInt(2), (Integer) rs.getObject(3, Integer.class), rs.getString(4),
+            rs.getString(5), rs.getString(6), rs.getString(7))));
+    }
+
+    public void streamHoGiaDinh(Consumer<HoGiaDinhRow> consumer) {
+        String sql = """
+            SELECT ID_HoGiaDinh, ID_ToaNha, MaHoGiaDinh, TenChuHo, SoCanHo, TrangThai
+            FROM HoGiaDinh
+            ORDER BY ID_HoGiaDinh
+            """;
+        jdbc.query(sql, new MapSqlParameterSource(), (RowCallbackHandler) rs -> consumer.accept(new HoGiaDinhRow(
+            rs.getInt(1), (Integer) rs.getObject(2, Integer.class), rs.getString(3), rs.getString(4),
+            rs.getString(5), rs.getString(6))));
+    }
+}
@@ -0,0 +1,140 @@
+package com.nhom33.quanlychungcu.repository;
+
+import com.nhom33.quanlychungcu.util.SequenceBlock;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Repository JDBC cấp định mức thu hàng loạt.
+ *
+ * Một câu MERGE trên DinhMucThu: nguồn là các hộ của tòa nhà thỏa điều kiện lọc, số lượng tính ngay trong SQL
+ * (cố định hoặc theo thuộc tính của hộ), khớp theo (ID_HoGiaDinh, ID_LoaiPhi) — không kiểm tra/lưu từng hộ.
+ * OUTPUT trả về các hộ thực sự được thêm/sửa để tính lại hóa đơn đúng những hộ đó.
+ * ID của định mức mới được cấp theo khối từ DinhMucThu_SEQ ngay trong câu lệnh (cùng quy ước với SequenceBlock).
+ */
+@Repository
+public class DinhMucBulkRepository {
+
+    /** Số ID hộ tối đa trong điều kiện IN (SQL Server giới hạn 2100 tham số mỗi câu). */
+    public static final int MAX_HO_GIA_DINH_IDS = 2000;
+
+    private final NamedParameterJdbcTemplate jdbc;
+
+    public DinhMucBulkRepository(NamedParameterJdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    /**
+     * Phạm vi hộ: các điều kiện null bị bỏ qua.
+     */
+    public record PhamVi(int toaNhaId, Integer tuTang, Integer denTang, String trangThai,
+                         Collection<Integer> hoGiaDinhIds) {}
+
+    /**
+     * Một dòng đã ghi.
+     *
+     * @param themMoi true = INSERT, false = UPDATE
+     */
+    public record DongGhi(int hoGiaDinhId, boolean themMoi) {}
+
+    /**
+     * MERGE định mức của loại phí cho các hộ trong phạm vi.
+     *
+     * @param theoDienTich true: SoLuong = ROUND(DienTich * heSo, 2), hộ có DienTich NULL bị bỏ qua;
+     *                     false: SoLuong = soLuong
+     * @param themMoi      tạo định mức cho hộ chưa có
+     * @param capNhat      sửa định mức đã có (chỉ khi số lượng/ghi chú thực sự đổi)
+     * @param ghiChu       null = giữ ghi chú cũ khi cập nhật
+     *
+     * Phải chạy trong transaction: khóa UPDLOCK/HOLDLOCK khi đánh số hộ chưa có định mức giữ nguyên
+     * tập hộ đó tới lúc MERGE, nên mỗi hộ được thêm có đúng một ID trong khối đã cấp.
+     */
+    public List<DongGhi> merge(int loaiPhiId, PhamVi phamVi, boolean theoDienTich, double soLuong, double heSo,
+                               boolean themMoi, boolean capNhat, String ghiChu) {
+        MapSqlParameterSource params = new MapSqlParameterSource("loaiPhiId", loaiPhiId)
+            .addValue("toaNhaId", phamVi.toaNhaId())
+            .addValue("soLuong", soLuong)
+            .addValue("heSo", heSo)
+            .addValue("ghiChu", ghiChu);
+
+        List<String> dk = new ArrayList<>();
+        dk.add("h.ID_ToaNha = :toaNhaId");
+        if (phamVi.tuTang() != null) {
+            dk.add("h.SoTang >= :tuTang");
+            params.addValue("tuTang", phamVi.tuTang());
+        }
+        if (phamVi.denTang() != null) {
+            dk.add("h.SoTang <= :denTang");
+            params.addValue("denTang", phamVi.denTang());
+        }
+        if (phamVi.trangThai() != null) {
+            dk.add("h.TrangThai = :trangThai");
+            params.addValue("trangThai", phamVi.trangThai());
+        }
+        if (phamVi.hoGiaDinhIds() != null) {
+            dk.add("h.ID_HoGiaDinh IN (:hoGiaDinhIds)");
+            params.addValue("hoGiaDinhIds", phamVi.hoGiaDinhIds());
+        }
+        if (theoDienTich) {
+            dk.add("h.DienTich IS NOT NULL");
+        }
+
+        // Nguồn: các hộ trong phạm vi, hộ chưa có định mức được đánh số Stt = 1..n để nhận ID trong khối
+        StringBuilder sql = new StringBuilder()
+            .append("SET NOCOUNT ON;\n")
+            .append("DECLARE @s TABLE (ID_HoGiaDinh INT PRIMARY KEY, SoLuong FLOAT, Stt INT);\n")
+            .append("INSERT INTO @s (ID_HoGiaDinh, SoLuong, Stt)\n")
+            .append("SELECT h.ID_HoGiaDinh, ")
+            .append(theoDienTich ? "ROUND(h.DienTich * :heSo, 2)" : "CAST(:soLuong AS FLOAT)")
+            .append(",\n")
+            .append("       CASE WHEN dm.ID_DinhMuc IS NULL THEN ROW_NUMBER() OVER (\n")
+            .append("           PARTITION BY CASE WHEN dm.ID_DinhMuc IS NULL THEN 1 ELSE 0 END")
+            .append(" ORDER BY h.ID_HoGiaDinh) END\n")
+            .append("FROM HoGiaDinh h\n")
+            .append("LEFT JOIN DinhMucThu dm WITH (UPDLOCK, HOLDLOCK)\n")
+            .append("    ON dm.ID_HoGiaDinh = h.ID_HoGiaDinh AND dm.ID_LoaiPhi = :loaiPhiId\n")
+            .append("WHERE ").append(String.join(" AND ", dk)).append(";\n");
+        if (themMoi) {
+            // Một giá trị sequence giữ khối ALLOCATION_SIZE ID: [v - ALLOCATION_SIZE + 1, v]
+            sql.append("""
+                DECLARE @soMoi INT = (SELECT COUNT(Stt) FROM @s), @dau SQL_VARIANT, @idDau INT = 0;
+                IF @soMoi > 0
+                BEGIN
+                    DECLARE @soKhoi INT = (@soMoi + :khoi - 1) / :khoi;
+                    EXEC sys.sp_sequence_get_range @sequence_name = N'DinhMucThu_SEQ', @range_size = @soKhoi,
+                                                   @range_first_value = @dau OUTPUT;
+                    SET @idDau = CAST(@dau AS INT) - :khoi + 1;
+                END
+                """);
+            params.addValue("khoi", SequenceBlock.ALLOCATION_SIZE);
+        }
+        sql.append("""
+                MERGE DinhMucThu WITH (HOLDLOCK) AS t
+                USING @s AS s
+                ON t.ID_HoGiaDinh = s.ID_HoGiaDinh AND t.ID_LoaiPhi = :loaiPhiId
+                """);
+        if (capNhat) {
+            sql.append("""
+                WHEN MATCHED AND (t.SoLuong IS NULL OR t.SoLuong <> s.SoLuong
+                                  OR (:ghiChu IS NOT NULL AND (t.GhiChu IS NULL OR t.GhiChu <> :ghiChu))) THEN
+                    UPDATE SET SoLuong = s.SoLuong, GhiChu = COALESCE(:ghiChu, t.GhiChu)
+                """);
+        }
+        if (themMoi) {
+            sql.append("""
+                WHEN NOT MATCHED BY TARGET THEN
+                    INSERT (ID_DinhMuc, ID_HoGiaDinh, ID_LoaiPhi, SoLuong, GhiChu)
+                    VALUES (@idDau + s.Stt - 1, s.ID_HoGiaDinh, :loaiPhiId, s.SoLuong, :ghiChu)
+                """);
+        }
+        sql.append("OUTPUT $action, inserted.ID_HoGiaDinh;");
+
+        return jdbc.query(sql.toString(), params,
+            (rs, i) -> new DongGhi(rs.getInt(2), "INSERT".equals(rs.getString(1))));
+    }
+}
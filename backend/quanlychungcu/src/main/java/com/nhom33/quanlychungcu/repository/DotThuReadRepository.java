@@ -0,0 +1,45 @@
+package com.nhom33.quanlychungcu.repository;
+
+import com.nhom33.quanlychungcu.dto.DotThuListDTO;
+import com.nhom33.quanlychungcu.dto.DotThuPhiDTO;
+import com.nhom33.quanlychungcu.entity.DotThu;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Read model cho danh sách đợt thu và các loại phí trong đợt thu.
+ * Tòa nhà được LEFT JOIN ngay trong câu SELECT (DotThu.toaNha là LAZY).
+ */
+@Repository
+public interface DotThuReadRepository extends org.springframework.data.repository.Repository<DotThu, Integer> {
+
+    String SELECT_DTO = "SELECT new com.nhom33.quanlychungcu.dto.DotThuListDTO(" +
+            "d.id, d.tenDotThu, d.loaiDotThu, d.ngayBatDau, d.ngayKetThuc, d.thang, d.nam, d.ngayTao, " +
+            "t.id, t.tenToaNha) " +
+            "FROM DotThu d LEFT JOIN d.toaNha t ";
+
+    @Query(value = SELECT_DTO,
+           countQuery = "SELECT COUNT(d) FROM DotThu d")
+    Page<DotThuListDTO> findAllList(Pageable pageable);
+
+    @Query(value = SELECT_DTO + "WHERE d.toaNha.id IN :toaNhaIds",
+           countQuery = "SELECT COUNT(d) FROM DotThu d WHERE d.toaNha.id IN :toaNhaIds")
+    Page<DotThuListDTO> findListByToaNhaIdIn(@Param("toaNhaIds") Collection<Integer> toaNhaIds, Pageable pageable);
+
+    @Query(SELECT_DTO + "WHERE d.id IN :ids")
+    List<DotThuListDTO> findByIds(@Param("ids") Collection<Integer> ids);
+
+    /**
+     * Loại phí của đợt thu theo thứ tự cấu hình, một câu JOIN DotThu_LoaiPhi + LoaiPhi.
+     */
+    @Query("SELECT new com.nhom33.quanlychungcu.dto.DotThuPhiDTO(" +
+           "c.id, l.id, l.tenLoaiPhi, l.donViTinh, l.donGia, l.loaiThu) " +
+           "FROM DotThuLoaiPhi c JOIN c.loaiPhi l WHERE c.dotThu.id = :dotThuId ORDER BY c.id")
+    List<DotThuPhiDTO> findPhiByDotThuId(@Param("dotThuId") Integer dotThuId);
+}
@@ -0,0 +1,250 @@
+package com.nhom33.quanlychungcu.repository;
+
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Repository JDBC cho hàng đợi email (EmailOutbox) và đợt gửi hàng loạt (EmailBatch).
+ *
+ * - enqueueHoaDonDotThu: MỘT câu INSERT ... SELECT cho cả đợt thu, không lặp từng hóa đơn
+ * - claim: UPDATE TOP (n) ... OUTPUT với READPAST, chỉ lấy email đã tới hạn thử (LanThuTiep);
+ *   dòng DangGui quá hạn (worker chết giữa chừng) được lấy lại
+ * - markBatch: cập nhật kết quả cả lô bằng JDBC batch
+ */
+@Repository
+public class EmailOutboxRepository {
+
+    public static final String CHO_GUI = "ChoGui";
+    public static final String DANG_GUI = "DangGui";
+    public static final String DA_GUI = "DaGui";
+    public static final String LOI = "Loi";
+
+    public static final String LOAI_HOA_DON = "HoaDon";
+    public static final String LOAI_THONG_BAO = "ThongBao";
+    public static final String LOAI_NHAC_NO = "NhacNo";
+
+    private static final int BATCH_SIZE = 500;
+
+    private final NamedParameterJdbcTemplate jdbc;
+
+    public EmailOutboxRepository(NamedParameterJdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    // ===== Kiểu dữ liệu =====
+
+    public record EmailRow(long id, Long batchId, Integer hoaDonId, String nguoiNhan, String tieuDe,
+                           String noiDung, int soLanThu) {}
+
+    /**
+     * Kết quả gửi một email.
+     * trangThai = ChoGui nghĩa là trả lại hàng đợi, thử lại từ lanThuTiep.
+     */
+    public record KetQuaGui(long id, String trangThai, String loi, LocalDateTime lanThuTiep) {}
+
+    public record EmailWrite(String nguoiNhan, String tieuDe, String noiDung) {}
+
+    public record BatchRow(long batchId, String loaiEmail, Integer dotThuId, int tongSo, int soBoQua,
+                           String nguoiTao, LocalDateTime ngayTao,
+                           int choGui, int dangGui, int daGui, int loi) {}
+
+    // ===== WRITE =====
+
+    public long taoBatch(String loaiEmail, Integer dotThuId, String nguoiTao) {
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbc.update("""
+            INSERT INTO EmailBatch (LoaiEmail, ID_DotThu, NguoiTao, NgayTao)
+            VALUES (:loai, :dotThuId, :nguoiTao, :now)
+            """, new MapSqlParameterSource("loai", loaiEmail)
+                .addValue("dotThuId", dotThuId)
+                .addValue("nguoiTao", nguoiTao)
+                .addValue("now", Timestamp.valueOf(LocalDateTime.now())),
+            keyHolder, new String[] {"ID_Batch"});
+        return keyHolder.getKey().longValue();
+    }
+
+    /**
+     * Đưa hóa đơn của tất cả hộ có email trong đợt thu vào hàng đợi (một câu SQL),
+     * rồi ghi số email / số hộ bỏ qua vào EmailBatch.
+     *
+     * @return số email đã đưa vào hàng đợi
+     */
+    public int enqueueHoaDonDotThu(long batchId, int dotThuId, String tieuDePrefix) {
+        MapSqlParameterSource params = new MapSqlParameterSource("batchId", batchId)
+            .addValue("dotThuId", dotThuId)
+            .addValue("prefix", tieuDePrefix)
+            .addValue("choGui", CHO_GUI)
+            .addValue("now", Timestamp.valueOf(LocalDateTime.now()));
+        int soEmail = jdbc.update("""
+            INSERT INTO EmailOutbox (ID_Batch, ID_HoaDon, NguoiNhan, TieuDe, TrangThai, LanThuTiep, NgayTao)
+            SELECT :batchId, hd.ID_HoaDon, LTRIM(RTRIM(h.EmailLienHe)),
+                   CONCAT(:prefix, RIGHT('000000' + CAST(hd.ID_HoaDon AS VARCHAR(10)), 6)),
+                   :choGui, :now, :now
+            FROM HoaDon hd
+            JOIN HoGiaDinh h ON h.ID_HoGiaDinh = hd.ID_HoGiaDinh
+            WHERE hd.ID_DotThu = :dotThuId
+              AND h.EmailLienHe IS NOT NULL AND LTRIM(RTRIM(h.EmailLienHe)) <> ''
+            """, params);
+        jdbc.update("""
+            UPDATE EmailBatch
+            SET TongSo = :soEmail,
+                SoBoQua = (SELECT COUNT(*) FROM HoaDon WHERE ID_DotThu = :dotThuId) - :soEmail
+            WHERE ID_Batch = :batchId
+            """, params.addValue("soEmail", soEmail));
+        return soEmail;
+    }
+
+    /**
+     * Đưa một email vào hàng đợi.
+     */
+    public long enqueue(Long batchId, Integer hoaDonId, String nguoiNhan, String tieuDe, String noiDung) {
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        jdbc.update("""
+            INSERT INTO EmailOutbox (ID_Batch, ID_HoaDon, NguoiNhan, TieuDe, NoiDung, TrangThai, LanThuTiep, NgayTao)
+            VALUES (:batchId, :hoaDonId, :nguoiNhan, :tieuDe, :noiDung, :choGui, :now, :now)
+            """, new MapSqlParameterSource("batchId", batchId)
+                .addValue("hoaDonId", hoaDonId)
+                .addValue("nguoiNhan", nguoiNhan)
+                .addValue("tieuDe", tieuDe)
+                .addValue("noiDung", noiDung)
+                .addValue("choGui", CHO_GUI)
+                .addValue("now", now),
+            keyHolder, new String[] {"ID_Email"});
+        return keyHolder.getKey().longValue();
+    }
+
+    /**
+     * Đưa nhiều email văn bản vào hàng đợi của một đợt gửi (JDBC batch, chia lô BATCH_SIZE)
+     * và ghi tổng số vào EmailBatch.
+     */
+    public int enqueueBatch(long batchId, List<EmailWrite> rows, int soBoQua) {
+        String sql = """
+            INSERT INTO EmailOutbox (ID_Batch, NguoiNhan, TieuDe, NoiDung, TrangThai, LanThuTiep, NgayTao)
+            VALUES (:batchId, :nguoiNhan, :tieuDe, :noiDung, :choGui, :now, :now)
+            """;
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        for (int from = 0; from < rows.size(); from += BATCH_SIZE) {
+            List<EmailWrite> chunk = rows.subList(from, Math.min(from + BATCH_SIZE, rows.size()));
+            jdbc.batchUpdate(sql, chunk.stream()
+                .map(r -> (SqlParameterSource) new MapSqlParameterSource("batchId", batchId)
+                    .addValue("nguoiNhan", r.nguoiNhan())
+                    .addValue("tieuDe", r.tieuDe())
+                    .addValue("noiDung", r.noiDung())
+                    .addValue("choGui", CHO_GUI)
+                    .addValue("now", now))
+                .toArray(SqlParameterSource[]::new));
+        }
+        jdbc.update("UPDATE EmailBatch SET TongSo = :tongSo, SoBoQua = :soBoQua WHERE ID_Batch = :batchId",
+            new MapSqlParameterSource("batchId", batchId)
+                .addValue("tongSo", rows.size())
+                .addValue("soBoQua", soBoQua));
+        return rows.size();
+    }
+
+    /**
+     * Lấy (và đánh dấu DangGui) tối đa batchSize email đã tới hạn gửi, cũ nhất trước.
+     *
+     * @param quaHan dòng DangGui có NgayGui trước mốc này được coi là bị bỏ dở
+     */
+    public List<EmailRow> claim(int batchSize, LocalDateTime quaHan) {
+        LocalDateTime now = LocalDateTime.now();
+        String sql = """
+            WITH lo AS (
+                SELECT TOP (:batchSize) *
+                FROM EmailOutbox WITH (ROWLOCK, UPDLOCK, READPAST)
+                WHERE (TrangThai = :choGui AND LanThuTiep <= :now)
+                   OR (TrangThai = :dangGui AND NgayGui < :quaHan)
+                ORDER BY LanThuTiep, ID_Email
+            )
+            UPDATE lo SET TrangThai = :dangGui, SoLanThu = SoLanThu + 1, NgayGui = :now
+            OUTPUT inserted.ID_Email, inserted.ID_Batch, inserted.ID_HoaDon, inserted.NguoiNhan,
+                   inserted.TieuDe, inserted.NoiDung, inserted.SoLanThu;
+            """;
+        MapSqlParameterSource params = new MapSqlParameterSource("batchSize", batchSize)
+            .addValue("choGui", CHO_GUI)
+            .addValue("dangGui", DANG_GUI)
+            .addValue("quaHan", Timestamp.valueOf(quaHan))
+            .addValue("now", Timestamp.valueOf(now));
+        List<EmailRow> rows = jdbc.query(sql, params, ROW_MAPPER);
+        return rows.stream().sorted((a, b) -> Long.compare(a.id(), b.id())).toList();
+    }
+
+    /**
+     * Ghi kết quả gửi của cả lô (một batch).
+     */
+    public void markBatch(List<KetQuaGui> rows) {
+        if (rows.isEmpty()) return;
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        String sql = """
+            UPDATE EmailOutbox
+            SET TrangThai = :trangThai, Loi = :loi, NgayGui = :now,
+                LanThuTiep = COALESCE(:lanThuTiep, LanThuTiep)
+            WHERE ID_Email = :id
+            """;
+        jdbc.batchUpdate(sql, rows.stream()
+            .map(r -> (SqlParameterSource) new MapSqlParameterSource("id", r.id())
+                .addValue("trangThai", r.trangThai())
+                .addValue("loi", r.loi())
+                .addValue("lanThuTiep", r.lanThuTiep() != null ? Timestamp.valueOf(r.lanThuTiep()) : null,
+                    Types.TIMESTAMP)
+                .addValue("now", now))
+            .toArray(SqlParameterSource[]::new));
+    }
+
+    // ===== READ =====
+
+    /**
+     * Đợt gửi + số email theo từng trạng thái (tiến độ).
+     */
+    public Optional<BatchRow> findBatch(long batchId) {
+        List<BatchRow> rows = jdbc.query(BATCH_SQL + " WHERE b.ID_Batch = :batchId",
+            new MapSqlParameterSource("batchId", batchId), BATCH_MAPPER);
+        return rows.stream().findFirst();
+    }
+
+    /**
+     * Các đợt gửi gần nhất của một đợt thu (mới nhất trước).
+     */
+    public List<BatchRow> findBatchByDotThu(int dotThuId, int limit) {
+        return jdbc.query("SELECT TOP (:limit) * FROM (" + BATCH_SQL + " WHERE b.ID_DotThu = :dotThuId) x ORDER BY x.ID_Batch DESC",
+            new MapSqlParameterSource("dotThuId", dotThuId).addValue("limit", limit), BATCH_MAPPER);
+    }
+
+    private static final String BATCH_SQL = """
+        SELECT b.ID_Batch, b.LoaiEmail, b.ID_DotThu, b.TongSo, b.SoBoQua, b.NguoiTao, b.NgayTao,
+               COALESCE(c.ChoGui, 0) AS ChoGui, COALESCE(c.DangGui, 0) AS DangGui,
+               COALESCE(c.DaGui, 0) AS DaGui, COALESCE(c.Loi, 0) AS Loi
+        FROM EmailBatch b
+        OUTER APPLY (
+            SELECT SUM(CASE WHEN e.TrangThai = 'ChoGui' THEN 1 ELSE 0 END) AS ChoGui,
+                   SUM(CASE WHEN e.TrangThai = 'DangGui' THEN 1 ELSE 0 END) AS DangGui,
+                   SUM(CASE WHEN e.TrangThai = 'DaGui' THEN 1 ELSE 0 END) AS DaGui,
+                   SUM(CASE WHEN e.TrangThai = 'Loi' THEN 1 ELSE 0 END) AS Loi
+            FROM EmailOutbox e
+            WHERE e.ID_Batch = b.ID_Batch
+        ) c""";
+
+    private static final RowMapper<BatchRow> BATCH_MAPPER = (rs, i) -> {
+        Timestamp ngayTao = rs.getTimestamp("NgayTao");
+        return new BatchRow(rs.getLong("ID_Batch"), rs.getString("LoaiEmail"),
+            (Integer) rs.getObject("ID_DotThu", Integer.class), rs.getInt("TongSo"), rs.getInt("SoBoQua"),
+            rs.getString("NguoiTao"), ngayTao != null ? ngayTao.toLocalDateTime() : null,
+            rs.getInt("ChoGui"), rs.getInt("DangGui"), rs.getInt("DaGui"), rs.getInt("Loi"));
+    };
+
+    private static final RowMapper<EmailRow> ROW_MAPPER = (rs, i) -> new EmailRow(
+        rs.getLong(1), (Long) rs.getObject(2, Long.class), (Integer) rs.getObject(3, Integer.class),
+        rs.getString(4), rs.getString(5), rs.getString(6), rs.getInt(7));
+}
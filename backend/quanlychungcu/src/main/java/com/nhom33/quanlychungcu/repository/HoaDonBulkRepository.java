@@ -0,0 +1,255 @@
+package com.nhom33.quanlychungcu.repository;
+
+import com.nhom33.quanlychungcu.util.JdbcBatch;
+import com.nhom33.quanlychungcu.util.SequenceBlock;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Repository JDBC cho các thao tác tính tiền hàng loạt theo đợt thu.
+ *
+ * Khác với các JpaRepository khác, mỗi method ở đây là MỘT câu SQL set-based
+ * trên cả tòa nhà / đợt thu (không query theo từng hộ).
+ * Ghi dữ liệu bằng JDBC batch để tránh round-trip từng dòng.
+ * ID của dòng mới được cấp theo khối từ sequence (SequenceBlock), dùng chung với entity JPA.
+ */
+@Repository
+public class HoaDonBulkRepository {
+
+    /** Số dòng tối đa trong một lần gửi batch xuống SQL Server. */
+    public static final int BATCH_SIZE = 500;
+
+    private final NamedParameterJdbcTemplate jdbc;
+
+    public HoaDonBulkRepository(NamedParameterJdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    // ===== Kiểu dữ liệu đọc ra =====
+
+    public record HoRow(int hoGiaDinhId, String maHoGiaDinh) {}
+
+    public record PhiRow(int loaiPhiId, String tenLoaiPhi, BigDecimal donGiaApDung) {}
+
+    public record DinhMucRow(int hoGiaDinhId, int loaiPhiId, Double soLuong) {}
+
+    public record HoaDonRow(int hoaDonId, int hoGiaDinhId, BigDecimal soTienDaDong) {}
+
+    public record ChiTietRow(int chiTietId, int hoaDonId, int loaiPhiId) {}
+
+    public record ChiTietWrite(Integer chiTietId, int hoaDonId, int loaiPhiId,
+                               double soLuong, BigDecimal donGia, BigDecimal thanhTien) {}
+
+    public record HoaDonTotalWrite(int hoaDonId, BigDecimal tongTienPhaiThu) {}
+
+    public record DotThuRow(int dotThuId, String tenDotThu, Integer toaNhaId, int soHo) {}
+
+    // ===== READ (set-based) =====
+
+    /**
+     * Các đợt thu theo danh sách ID, kèm số hộ của tòa nhà (dùng cho job chốt sổ).
+     */
+    public List<DotThuRow> findDotThuByIds(Collection<Integer> dotThuIds) {
+        String sql = """
+            SELECT d.ID_DotThu, d.TenDotThu, d.ID_ToaNha,
+                   (SELECT COUNT(*) FROM HoGiaDinh h WHERE h.ID_ToaNha = d.ID_ToaNha) AS SoHo
+            FROM DotThu d
+            WHERE d.ID_DotThu IN (:dotThuIds)
+            ORDER BY d.ID_DotThu
+            """;
+        return jdbc.query(sql, new MapSqlParameterSource("dotThuIds", dotThuIds), this::mapDotThuRow);
+    }
+
+    /**
+     * Tất cả đợt thu của kỳ (thang, nam) trên mọi tòa nhà, kèm số hộ.
+     */
+    public List<DotThuRow> findDotThuByKy(int thang, int nam) {
+        String sql = """
+            SELECT d.ID_DotThu, d.TenDotThu, d.ID_ToaNha,
+                   (SELECT COUNT(*) FROM HoGiaDinh h WHERE h.ID_ToaNha = d.ID_ToaNha) AS SoHo
+            FROM DotThu d
+            WHERE d.Thang = :thang AND d.Nam = :nam
+            ORDER BY d.ID_DotThu
+            """;
+        return jdbc.query(sql, new MapSqlParameterSource("thang", thang).addValue("nam", nam), this::mapDotThuRow);
+    }
+
+    private DotThuRow mapDotThuRow(ResultSet rs, int rowNum) throws SQLException {
+        return new DotThuRow(rs.getInt(1), rs.getString(2), (Integer) rs.getObject(3, Integer.class), rs.getInt(4));
+    }
+
+    /**
+     * Tất cả hộ gia đình của tòa nhà.
+     */
+    public List<HoRow> findHoByToaNha(int toaNhaId) {
+        return jdbc.query(
+            "SELECT ID_HoGiaDinh, MaHoGiaDinh FROM HoGiaDinh WHERE ID_ToaNha = :toaNhaId ORDER BY ID_HoGiaDinh",
+            new MapSqlParameterSource("toaNhaId", toaNhaId),
+            (rs, i) -> new HoRow(rs.getInt(1), rs.getString(2)));
+    }
+
+    /**
+     * Các loại phí của đợt thu kèm đơn giá áp dụng.
+     * Ưu tiên giá giống BangGiaService.getDonGiaApDung: BangGiaDichVu > LoaiPhi.DonGia > 0.
+     */
+    public List<PhiRow> findPhiWithDonGia(int dotThuId, int toaNhaId) {
+        String sql = """
+            SELECT lp.ID_LoaiPhi, lp.TenLoaiPhi, COALESCE(bg.DonGia, lp.DonGia, 0) AS DonGiaApDung
+            FROM DotThu_LoaiPhi c
+            JOIN LoaiPhi lp ON lp.ID_LoaiPhi = c.ID_LoaiPhi
+            LEFT JOIN BangGiaDichVu bg ON bg.ID_LoaiPhi = lp.ID_LoaiPhi AND bg.ID_ToaNha = :toaNhaId
+            WHERE c.ID_DotThu = :dotThuId
+            ORDER BY c.ID_Config
+            """;
+        return jdbc.query(sql,
+            new MapSqlParameterSource("dotThuId", dotThuId).addValue("toaNhaId", toaNhaId),
+            (rs, i) -> new PhiRow(rs.getInt(1), rs.getString(2), rs.getBigDecimal(3)));
+    }
+
+    /**
+     * Định mức của tất cả hộ trong tòa nhà cho các loại phí cho trước.
+     */
+    public List<DinhMucRow> findDinhMucByToaNha(int toaNhaId, Collection<Integer> loaiPhiIds) {
+        String sql = """
+            SELECT dm.ID_HoGiaDinh, dm.ID_LoaiPhi, dm.SoLuong
+            FROM DinhMucThu dm
+            JOIN HoGiaDinh h ON h.ID_HoGiaDinh = dm.ID_HoGiaDinh
+            WHERE h.ID_ToaNha = :toaNhaId AND dm.ID_LoaiPhi IN (:loaiPhiIds)
+            ORDER BY dm.ID_DinhMuc
+            """;
+        return jdbc.query(sql,
+            new MapSqlParameterSource("toaNhaId", toaNhaId).addValue("loaiPhiIds", loaiPhiIds),
+            (rs, i) -> new DinhMucRow(rs.getInt(1), rs.getInt(2), (Double) rs.getObject(3, Double.class)));
+    }
+
+    /**
+     * Tất cả hóa đơn đã có của đợt thu.
+     */
+    public List<HoaDonRow> findHoaDonByDotThu(int dotThuId) {
+        return jdbc.query(
+            "SELECT ID_HoaDon, ID_HoGiaDinh, SoTienDaDong FROM HoaDon WHERE ID_DotThu = :dotThuId",
+            new MapSqlParameterSource("dotThuId", dotThuId),
+            (rs, i) -> new HoaDonRow(rs.getInt(1), rs.getInt(2), rs.getBigDecimal(3)));
+    }
+
+    /**
+     * Tất cả chi tiết hóa đơn đã có của đợt thu.
+     */
+    public List<ChiTietRow> findChiTietByDotThu(int dotThuId) {
+        String sql = """
+            SELECT ct.ID_ChiTiet, ct.ID_HoaDon, ct.ID_LoaiPhi
+            FROM ChiTietHoaDon ct
+            JOIN HoaDon hd ON hd.ID_HoaDon = ct.ID_HoaDon
+            WHERE hd.ID_DotThu = :dotThuId
+            """;
+        return jdbc.query(sql, new MapSqlParameterSource("dotThuId", dotThuId),
+            (rs, i) -> new ChiTietRow(rs.getInt(1), rs.getInt(2), rs.getInt(3)));
+    }
+
+    // ===== WRITE (JDBC batch) =====
+
+    /**
+     * Tạo hóa đơn rỗng cho các hộ chưa có hóa đơn trong đợt thu (gửi theo lô BATCH_SIZE).
+     * @return ID hóa đơn vừa tạo theo ID hộ (ID cấp trước từ sequence nên không cần đọc lại)
+     */
+    public Map<Integer, Integer> insertHoaDonRong(int dotThuId, List<Integer> hoGiaDinhIds, String trangThai) {
+        if (hoGiaDinhIds.isEmpty()) return Map.of();
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        String sql = """
+            INSERT INTO HoaDon (ID_HoaDon, ID_HoGiaDinh, ID_DotThu, TongTienPhaiThu, SoTienDaDong, TrangThai, NgayTao)
+            VALUES (:hoaDonId, :hoGiaDinhId, :dotThuId, 0, 0, :trangThai, :ngayTao)
+            """;
+        int id = SequenceBlock.capId(jdbc, "HoaDon_SEQ", hoGiaDinhIds.size());
+        Map<Integer, Integer> hoaDonIdTheoHo = new LinkedHashMap<>();
+        List<SqlParameterSource> params = new ArrayList<>(hoGiaDinhIds.size());
+        for (Integer hoId : hoGiaDinhIds) {
+            hoaDonIdTheoHo.put(hoId, id);
+            params.add(new MapSqlParameterSource("hoaDonId", id++)
+                .addValue("hoGiaDinhId", hoId)
+                .addValue("dotThuId", dotThuId)
+                .addValue("trangThai", trangThai)
+                .addValue("ngayTao", now));
+        }
+        JdbcBatch.execute(jdbc, sql, params, BATCH_SIZE);
+        return hoaDonIdTheoHo;
+    }
+
+    /**
+     * Thêm mới chi tiết hóa đơn.
+     * @return số lần gửi batch xuống DB
+     */
+    public int insertChiTiet(List<ChiTietWrite> rows) {
+        if (rows.isEmpty()) return 0;
+        String sql = """
+            INSERT INTO ChiTietHoaDon (ID_ChiTiet, ID_HoaDon, ID_LoaiPhi, SoLuong, DonGia, ThanhTien)
+            VALUES (:chiTietId, :hoaDonId, :loaiPhiId, :soLuong, :donGia, :thanhTien)
+            """;
+        int id = SequenceBlock.capId(jdbc, "ChiTietHoaDon_SEQ", rows.size());
+        List<SqlParameterSource> params = new ArrayList<>(rows.size());
+        for (ChiTietWrite r : rows) {
+            params.add(toParams(r).addValue("chiTietId", id++));
+        }
+        return JdbcBatch.execute(jdbc, sql, params, BATCH_SIZE);
+    }
+
+    /**
+     * Cập nhật chi tiết hóa đơn đã có.
+     * @return số lần gửi batch xuống DB
+     */
+    public int updateChiTiet(List<ChiTietWrite> rows) {
+        String sql = """
+            UPDATE ChiTietHoaDon SET SoLuong = :soLuong, DonGia = :donGia, ThanhTien = :thanhTien
+            WHERE ID_ChiTiet = :chiTietId
+            """;
+        return JdbcBatch.execute(jdbc, sql, rows.stream().map(this::toParams).toList(), BATCH_SIZE);
+    }
+
+    /**
+     * Cập nhật tổng tiền và trạng thái hóa đơn.
+     *
+     * Trạng thái tính ngay trong câu UPDATE từ SoTienDaDong hiện tại của dòng (không dùng số đã đọc trước đó):
+     * thanh toán commit sau lúc đọc nhưng trước UPDATE vẫn được tính, hóa đơn đã đóng đủ không bị
+     * ghi đè về trạng thái cũ. Quy tắc: tổng > 0 và đã đóng >= tổng -> DaThanhToan;
+     * đã đóng > 0 -> ThanhToanMotPhan; còn lại ChuaThanhToan.
+     * Tăng Version để thanh toán đang đọc hóa đơn cũ (JPA @Version) phải đọc lại.
+     * @return số lần gửi batch xuống DB
+     */
+    public int updateHoaDonTotals(List<HoaDonTotalWrite> rows) {
+        String sql = """
+            UPDATE HoaDon SET TongTienPhaiThu = :tongTien,
+                TrangThai = CASE
+                    WHEN :tongTien > 0 AND COALESCE(SoTienDaDong, 0) >= :tongTien THEN 'DaThanhToan'
+                    WHEN COALESCE(SoTienDaDong, 0) > 0 THEN 'ThanhToanMotPhan'
+                    ELSE 'ChuaThanhToan'
+                END,
+                Version = Version + 1
+            WHERE ID_HoaDon = :hoaDonId
+            """;
+        return JdbcBatch.execute(jdbc, sql, rows.stream()
+            .map(r -> (SqlParameterSource) new MapSqlParameterSource("hoaDonId", r.hoaDonId())
+                .addValue("tongTien", r.tongTienPhaiThu()))
+            .toList(), BATCH_SIZE);
+    }
+
+    private MapSqlParameterSource toParams(ChiTietWrite r) {
+        return new MapSqlParameterSource("chiTietId", r.chiTietId())
+            .addValue("hoaDonId", r.hoaDonId())
+            .addValue("loaiPhiId", r.loaiPhiId())
+            .addValue("soLuong", r.soLuong())
+            .addValue("donGia", r.donGia())
+            .addValue("thanhTien", r.thanhTien());
+    }
+}
@@ -0,0 +1,44 @@
+package com.nhom33.quanlychungcu.repository;
+
+import com.nhom33.quanlychungcu.dto.HoaDonListDTO;
+import com.nhom33.quanlychungcu.entity.HoaDon;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Read model cho các màn danh sách hóa đơn.
+ *
+ * Mỗi trang là MỘT câu JOIN HoaDon + HoGiaDinh + DotThu trả thẳng HoaDonListDTO (+ một câu COUNT),
+ * không nạp entity nên không có select phụ cho quan hệ lazy khi Jackson serialize.
+ */
+@Repository
+public interface HoaDonReadRepository extends org.springframework.data.repository.Repository<HoaDon, Integer> {
+
+    String SELECT_DTO = "SELECT new com.nhom33.quanlychungcu.dto.HoaDonListDTO(" +
+            "hd.id, h.id, h.maHoGiaDinh, h.tenChuHo, h.soCanHo, d.id, d.tenDotThu, d.thang, d.nam, " +
+            "hd.tongTienPhaiThu, hd.soTienDaDong, hd.trangThai, hd.ngayTao) " +
+            "FROM HoaDon hd JOIN hd.hoGiaDinh h JOIN hd.dotThu d ";
+
+    String FILTER = "WHERE (:idHoGiaDinh IS NULL OR hd.hoGiaDinh.id = :idHoGiaDinh) AND " +
+            "(:idDotThu IS NULL OR hd.dotThu.id = :idDotThu) AND " +
+            "(:trangThai IS NULL OR hd.trangThai = :trangThai)";
+
+    @Query(value = SELECT_DTO + FILTER,
+           countQuery = "SELECT COUNT(hd) FROM HoaDon hd " + FILTER)
+    Page<HoaDonListDTO> search(@Param("idHoGiaDinh") Integer idHoGiaDinh,
+                               @Param("idDotThu") Integer idDotThu,
+                               @Param("trangThai") String trangThai,
+                               Pageable pageable);
+
+    /**
+     * Các dòng theo ID (thứ tự tùy ý) — dùng cho trang keyset.
+     */
+    @Query(SELECT_DTO + "WHERE hd.id IN :ids")
+    List<HoaDonListDTO> findByIds(@Param("ids") Collection<Integer> ids);
+}
@@ -0,0 +1,211 @@
+package com.nhom33.quanlychungcu.repository;
+
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Repository JDBC cho tính lại hóa đơn theo thay đổi (delta).
+ *
+ * Khi MỘT đầu vào thay đổi (chỉ số, định mức, đơn giá của một loại phí), chỉ đọc các ô
+ * (hóa đơn × loại phí) bị ảnh hưởng, kèm đủ dữ liệu để tính lại thành tiền trong CÙNG một câu SQL:
+ * chi tiết hiện có, đơn giá áp dụng, chỉ số tháng + chỉ số trước, định mức.
+ */
+@Repository
+public class InvoiceDeltaRepository {
+
+    /** Số ID tối đa trong một mệnh đề IN (SQL Server giới hạn 2100 tham số / câu lệnh). */
+    public static final int IN_CHUNK_SIZE = 1000;
+
+    /**
+     * Chỉ tính lại hóa đơn của đợt thu chưa kết thúc và chưa đóng đủ (hóa đơn đã thanh toán giữ nguyên số tiền).
+     */
+    private static final String CON_MO = """
+        d.NgayKetThuc >= :homNay
+          AND (hd.TrangThai IS NULL OR hd.TrangThai NOT IN ('DaThanhToan', N'Đã đóng'))
+        """;
+
+    private final NamedParameterJdbcTemplate jdbc;
+
+    public InvoiceDeltaRepository(NamedParameterJdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    // ===== Kiểu dữ liệu đọc ra =====
+
+    /**
+     * Một ô (hóa đơn × loại phí) cần tính lại.
+     *
+     * @param chiTietId  null nếu hóa đơn chưa có dòng chi tiết cho loại phí này
+     * @param chiSoMoi   chỉ số tháng của đợt thu (null = chưa nhập)
+     * @param chiSoTruoc chỉ số gần nhất trước tháng của đợt thu (null = chưa có lịch sử)
+     * @param dinhMuc    số lượng định mức (null = không có định mức hoặc để trống)
+     */
+    public record DeltaRow(int dotThuId, int hoaDonId, int hoGiaDinhId,
+                           int loaiPhiId, String tenLoaiPhi, BigDecimal donGiaApDung,
+                           Integer chiTietId, Double soLuongCu, BigDecimal donGiaCu, BigDecimal thanhTienCu,
+                           Integer chiSoMoi, Integer chiSoTruoc, Double dinhMuc) {}
+
+    /**
+     * Tổng các dòng chi tiết (thuộc loại phí của đợt thu) của một hóa đơn.
+     */
+    public record TongHoaDonRow(int hoaDonId, BigDecimal tongTienCu, BigDecimal soTienDaDong,
+                                String trangThaiCu, BigDecimal tongChiTiet) {}
+
+    // ===== READ =====
+
+    /**
+     * Các ô bị ảnh hưởng khi chỉ số tháng (ky = nam * 100 + thang) của các hộ thay đổi:
+     * đợt thu của chính tháng đó, và đợt thu sau đó dùng chỉ số này làm chỉ số cũ
+     * (không có chỉ số nào nằm giữa). Chỉ đợt thu chưa kết thúc, hóa đơn chưa đóng đủ.
+     */
+    public List<DeltaRow> findTheoChiSo(int loaiPhiId, int ky, Collection<Integer> hoGiaDinhIds, LocalDate homNay) {
+        String filter = CON_MO + """
+              AND hd.ID_HoGiaDinh IN (:hoIds)
+              AND (d.Nam * 100 + d.Thang) >= :ky
+              AND NOT EXISTS (
+                  SELECT 1 FROM ChiSoDienNuoc x
+                  WHERE x.ID_HoGiaDinh = hd.ID_HoGiaDinh AND x.ID_LoaiPhi = lp.ID_LoaiPhi
+                    AND (x.Nam * 100 + x.Thang) > :ky
+                    AND (x.Nam * 100 + x.Thang) < (d.Nam * 100 + d.Thang))
+            """;
+        List<DeltaRow> result = new ArrayList<>();
+        for (List<Integer> chunk : chunks(hoGiaDinhIds)) {
+            MapSqlParameterSource params = new MapSqlParameterSource("loaiPhiId", loaiPhiId)
+                .addValue("ky", ky)
+                .addValue("homNay", Date.valueOf(homNay))
+                .addValue("hoIds", chunk);
+            result.addAll(jdbc.query(deltaSql(filter), params, this::mapDeltaRow));
+        }
+        return result;
+    }
+
+    /**
+     * Các ô bị ảnh hưởng khi định mức của các hộ thay đổi (chỉ đợt thu chưa kết thúc, hóa đơn chưa đóng đủ).
+     */
+    public List<DeltaRow> findTheoDinhMuc(int loaiPhiId, Collection<Integer> hoGiaDinhIds, LocalDate homNay) {
+        String filter = CON_MO + " AND hd.ID_HoGiaDinh IN (:hoIds)";
+        List<DeltaRow> result = new ArrayList<>();
+        for (List<Integer> chunk : chunks(hoGiaDinhIds)) {
+            MapSqlParameterSource params = new MapSqlParameterSource("loaiPhiId", loaiPhiId)
+                .addValue("homNay", Date.valueOf(homNay))
+                .addValue("hoIds", chunk);
+            result.addAll(jdbc.query(deltaSql(filter), params, this::mapDeltaRow));
+        }
+        return result;
+    }
+
+    /**
+     * Các ô bị ảnh hưởng khi đơn giá thay đổi (chỉ đợt thu chưa kết thúc, hóa đơn chưa đóng đủ).
+     *
+     * @param toaNhaId null = giá mặc định của loại phí (mọi tòa nhà)
+     */
+    public List<DeltaRow> findTheoDonGia(int loaiPhiId, Integer toaNhaId, LocalDate homNay) {
+        String filter = CON_MO + (toaNhaId != null ? " AND d.ID_ToaNha = :toaNhaId" : "");
+        MapSqlParameterSource params = new MapSqlParameterSource("loaiPhiId", loaiPhiId)
+            .addValue("homNay", Date.valueOf(homNay))
+            .addValue("toaNhaId", toaNhaId);
+        return jdbc.query(deltaSql(filter), params, this::mapDeltaRow);
+    }
+
+    /**
+     * Tổng thành tiền hiện tại của các hóa đơn (chỉ tính loại phí có trong cấu hình đợt thu).
+     */
+    public List<TongHoaDonRow> findTongHoaDon(Collection<Integer> hoaDonIds) {
+        String sql = """
+            SELECT hd.ID_HoaDon, hd.TongTienPhaiThu, hd.SoTienDaDong, hd.TrangThai,
+                   COALESCE(SUM(ct.ThanhTien), 0) AS TongChiTiet
+            FROM HoaDon hd
+            LEFT JOIN ChiTietHoaDon ct ON ct.ID_HoaDon = hd.ID_HoaDon
+                AND EXISTS (SELECT 1 FROM DotThu_LoaiPhi c
+                            WHERE c.ID_DotThu = hd.ID_DotThu AND c.ID_LoaiPhi = ct.ID_LoaiPhi)
+            WHERE hd.ID_HoaDon IN (:hoaDonIds)
+            GROUP BY hd.ID_HoaDon, hd.TongTienPhaiThu, hd.SoTienDaDong, hd.TrangThai
+            """;
+        List<TongHoaDonRow> result = new ArrayList<>();
+        for (List<Integer> chunk : chunks(hoaDonIds)) {
+            result.addAll(jdbc.query(sql, new MapSqlParameterSource("hoaDonIds", chunk),
+                (rs, i) -> new TongHoaDonRow(rs.getInt(1), rs.getBigDecimal(2), rs.getBigDecimal(3),
+                    rs.getString(4), rs.getBigDecimal(5))));
+        }
+        return result;
+    }
+
+    /**
+     * Số câu SQL cần cho n ID (mỗi khối IN_CHUNK_SIZE ID một câu).
+     */
+    public static int soKhoi(int n) {
+        return (n + IN_CHUNK_SIZE - 1) / IN_CHUNK_SIZE;
+    }
+
+    // ===== Helpers =====
+
+    /**
+     * Câu SQL chung: hóa đơn × loại phí (đã cấu hình trong đợt thu) + dữ liệu đầu vào, lọc theo filter.
+     * Đơn giá áp dụng giống engine: BangGiaDichVu (theo tòa nhà của đợt thu) > LoaiPhi.DonGia > 0.
+     */
+    private static String deltaSql(String filter) {
+        return """
+            SELECT hd.ID_DotThu, hd.ID_HoaDon, hd.ID_HoGiaDinh,
+                   lp.ID_LoaiPhi, lp.TenLoaiPhi, COALESCE(bg.DonGia, lp.DonGia, 0) AS DonGiaApDung,
+                   ct.ID_ChiTiet, ct.SoLuong, ct.DonGia, ct.ThanhTien,
+                   cur.ChiSoMoi, prev.ChiSoMoi AS ChiSoTruoc,
+                   dm.SoLuong AS DinhMuc
+            FROM HoaDon hd
+            JOIN DotThu d ON d.ID_DotThu = hd.ID_DotThu
+            JOIN DotThu_LoaiPhi c ON c.ID_DotThu = d.ID_DotThu AND c.ID_LoaiPhi = :loaiPhiId
+            JOIN LoaiPhi lp ON lp.ID_LoaiPhi = c.ID_LoaiPhi
+            LEFT JOIN BangGiaDichVu bg ON bg.ID_LoaiPhi = lp.ID_LoaiPhi AND bg.ID_ToaNha = d.ID_ToaNha
+            LEFT JOIN ChiTietHoaDon ct ON ct.ID_HoaDon = hd.ID_HoaDon AND ct.ID_LoaiPhi = lp.ID_LoaiPhi
+            OUTER APPLY (
+                SELECT cs.ChiSoMoi FROM ChiSoDienNuoc cs
+                WHERE cs.ID_HoGiaDinh = hd.ID_HoGiaDinh AND cs.ID_LoaiPhi = lp.ID_LoaiPhi
+                  AND cs.Thang = d.Thang AND cs.Nam = d.Nam
+            ) cur
+            OUTER APPLY (
+                SELECT TOP 1 p.ChiSoMoi FROM ChiSoDienNuoc p
+                WHERE p.ID_HoGiaDinh = hd.ID_HoGiaDinh AND p.ID_LoaiPhi = lp.ID_LoaiPhi
+                  AND (p.Nam < d.Nam OR (p.Nam = d.Nam AND p.Thang < d.Thang))
+                ORDER BY p.Nam DESC, p.Thang DESC
+            ) prev
+            OUTER APPLY (
+                SELECT TOP 1 m.SoLuong FROM DinhMucThu m
+                WHERE m.ID_HoGiaDinh = hd.ID_HoGiaDinh AND m.ID_LoaiPhi = lp.ID_LoaiPhi
+                ORDER BY m.ID_DinhMuc
+            ) dm
+            WHERE d.Thang IS NOT NULL AND d.Nam IS NOT NULL
+              AND %s
+            ORDER BY hd.ID_DotThu, hd.ID_HoaDon, ct.ID_ChiTiet
+            """.formatted(filter);
+    }
+
+    private DeltaRow mapDeltaRow(ResultSet rs, int rowNum) throws SQLException {
+        return new DeltaRow(
+            rs.getInt("ID_DotThu"), rs.getInt("ID_HoaDon"), rs.getInt("ID_HoGiaDinh"),
+            rs.getInt("ID_LoaiPhi"), rs.getString("TenLoaiPhi"), rs.getBigDecimal("DonGiaApDung"),
+            (Integer) rs.getObject("ID_ChiTiet", Integer.class),
+            (Double) rs.getObject("SoLuong", Double.class),
+            rs.getBigDecimal("DonGia"), rs.getBigDecimal("ThanhTien"),
+            (Integer) rs.getObject("ChiSoMoi", Integer.class),
+            (Integer) rs.getObject("ChiSoTruoc", Integer.class),
+            (Double) rs.getObject("DinhMuc", Double.class));
+    }
+
+    private static List<List<Integer>> chunks(Collection<Integer> ids) {
+        List<Integer> list = new ArrayList<>(ids);
+        List<List<Integer>> result = new ArrayList<>();
+        for (int from = 0; from < list.size(); from += IN_CHUNK_SIZE) {
+            result.add(list.subList(from, Math.min(from + IN_CHUNK_SIZE, list.size())));
+        }
+        return result;
+    }
+}
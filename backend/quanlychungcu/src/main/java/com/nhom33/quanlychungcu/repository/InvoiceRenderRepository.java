@@ -0,0 +1,144 @@
+package com.nhom33.quanlychungcu.repository;
+
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Repository JDBC đọc dữ liệu in hóa đơn (HoaDon + HoGiaDinh + DotThu + ToaNha + ChiTietHoaDon + LoaiPhi).
+ *
+ * Mỗi hóa đơn (hoặc một trang hóa đơn của đợt thu) được đọc bằng MỘT câu JOIN, không lazy load từng quan hệ.
+ * Kết quả sắp xếp theo mã hộ → hóa đơn → chi tiết, các dòng liên tiếp của cùng hóa đơn
+ * được gom lại thành một {@link HoaDonIn} ngay khi đọc xong.
+ */
+@Repository
+public class InvoiceRenderRepository {
+
+    private final NamedParameterJdbcTemplate jdbc;
+
+    public InvoiceRenderRepository(NamedParameterJdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    // ===== Kiểu dữ liệu đọc ra =====
+
+    public record DongIn(String tenLoaiPhi, String donViTinh, Double soLuong, BigDecimal donGia, BigDecimal thanhTien) {}
+
+    public record HoaDonIn(int hoaDonId, int dotThuId, String tenDotThu, Integer toaNhaId, String tenToaNha,
+                           String maHoGiaDinh, String soCanHo, String chuHo, LocalDateTime ngayTao,
+                           BigDecimal tongTien, BigDecimal daDong, String trangThai, List<DongIn> dong) {}
+
+    private static final String SELECT = """
+        SELECT hd.ID_HoaDon, hd.ID_DotThu, d.TenDotThu, d.ID_ToaNha, t.TenToaNha,
+               h.MaHoGiaDinh, h.SoCanHo, h.TenChuHo, hd.NgayTao,
+               hd.TongTienPhaiThu, hd.SoTienDaDong, hd.TrangThai,
+               lp.TenLoaiPhi, lp.DonViTinh, ct.SoLuong, ct.DonGia, ct.ThanhTien, ct.ID_ChiTiet
+        FROM HoaDon hd
+        JOIN HoGiaDinh h ON h.ID_HoGiaDinh = hd.ID_HoGiaDinh
+        JOIN DotThu d ON d.ID_DotThu = hd.ID_DotThu
+        LEFT JOIN ToaNha t ON t.ID_ToaNha = d.ID_ToaNha
+        LEFT JOIN ChiTietHoaDon ct ON ct.ID_HoaDon = hd.ID_HoaDon
+        LEFT JOIN LoaiPhi lp ON lp.ID_LoaiPhi = ct.ID_LoaiPhi
+        """;
+
+    // ===== READ =====
+
+    public Optional<HoaDonIn> findHoaDon(int hoaDonId) {
+        List<HoaDonIn> result = new ArrayList<>(1);
+        Assembler assembler = new Assembler(result::add);
+        jdbc.query(SELECT + " WHERE hd.ID_HoaDon = :hoaDonId ORDER BY ct.ID_ChiTiet",
+            new MapSqlParameterSource("hoaDonId", hoaDonId), assembler);
+        assembler.flush();
+        return result.stream().findFirst();
+    }
+
+    public int countByDotThu(int dotThuId) {
+        Integer n = jdbc.queryForObject("SELECT COUNT(*) FROM HoaDon WHERE ID_DotThu = :dotThuId",
+            new MapSqlParameterSource("dotThuId", dotThuId), Integer.class);
+        return n != null ? n : 0;
+    }
+
+    /**
+     * Một trang hóa đơn của đợt thu theo (mã hộ, ID hóa đơn), sau hóa đơn {@code sau} (null = trang đầu).
+     *
+     * Cả trang được đọc vào List rồi mới trả về, nên kết nối được trả lại pool trước khi caller ghi ra
+     * client (tải file chậm không giữ kết nối). Phân trang keyset: trang sau không đắt hơn trang đầu.
+     */
+    public List<HoaDonIn> findPageByDotThu(int dotThuId, HoaDonIn sau, int soHoaDon) {
+        MapSqlParameterSource params = new MapSqlParameterSource("dotThuId", dotThuId)
+            .addValue("soHoaDon", soHoaDon);
+        String sauCursor = "";
+        if (sau != null) {
+            sauCursor = """
+                      AND (h.MaHoGiaDinh > :sauMaHo OR (h.MaHoGiaDinh = :sauMaHo AND hd.ID_HoaDon > :sauId))
+                """;
+            params.addValue("sauMaHo", sau.maHoGiaDinh()).addValue("sauId", sau.hoaDonId());
+        }
+        String sql = SELECT + """
+            WHERE hd.ID_HoaDon IN (
+                SELECT TOP (:soHoaDon) hd.ID_HoaDon
+                FROM HoaDon hd
+                JOIN HoGiaDinh h ON h.ID_HoGiaDinh = hd.ID_HoGiaDinh
+                WHERE hd.ID_DotThu = :dotThuId
+            %s    ORDER BY h.MaHoGiaDinh, hd.ID_HoaDon
+            )
+            ORDER BY h.MaHoGiaDinh, hd.ID_HoaDon, ct.ID_ChiTiet
+            """.formatted(sauCursor);
+
+        List<HoaDonIn> result = new ArrayList<>(soHoaDon);
+        Assembler assembler = new Assembler(result::add);
+        jdbc.query(sql, params, assembler);
+        assembler.flush();
+        return result;
+    }
+
+    /**
+     * Gom các dòng JOIN liên tiếp của cùng một hóa đơn.
+     */
+    private static final class Assembler implements RowCallbackHandler {
+
+        private final Consumer<HoaDonIn> consumer;
+        private HoaDonIn current;
+
+        Assembler(Consumer<HoaDonIn> consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            int hoaDonId = rs.getInt(1);
+            if (current == null || current.hoaDonId() != hoaDonId) {
+                flush();
+                Timestamp ngayTao = rs.getTimestamp(9);
+                current = new HoaDonIn(hoaDonId, rs.getInt(2), rs.getString(3),
+                    (Integer) rs.getObject(4, Integer.class), rs.getString(5),
+                    rs.getString(6), rs.getString(7), rs.getString(8),
+                    ngayTao != null ? ngayTao.toLocalDateTime() : null,
+                    rs.getBigDecimal(10), rs.getBigDecimal(11), rs.getString(12), new ArrayList<>());
+            }
+            // LEFT JOIN: hóa đơn chưa có chi tiết -> ID_ChiTiet null
+            if (rs.getObject(18) != null) {
+                current.dong().add(new DongIn(rs.getString(13), rs.getString(14),
+                    (Double) rs.getObject(15, Double.class), rs.getBigDecimal(16), rs.getBigDecimal(17)));
+            }
+        }
+
+        void flush() {
+            if (current == null) return;
+            HoaDonIn done = current;
+            current = null;
+            consumer.accept(done);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.nhom33.quanlychungcu.repository;
+
+import com.nhom33.quanlychungcu.util.KeysetCursor;
+import com.nhom33.quanlychungcu.util.KeysetPage.Key;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Repository JDBC cho phân trang keyset (seek) các danh sách lớn.
+ *
+ * Mỗi truy vấn chỉ đọc (ID, khóa sắp xếp) của limit + 1 dòng NGAY SAU con trỏ bằng điều kiện
+ * (khóa, ID) đứng sau (khóa cuối, ID cuối) trên index — không COUNT(*), không OFFSET, nên trang thứ 5000
+ * tốn như trang đầu. Entity của trang được nạp sau đó theo khóa chính.
+ *
+ * Tổng ước lượng lấy từ sys.partitions (số dòng SQL Server lưu sẵn), không quét bảng.
+ */
+@Repository
+public class KeysetRepository {
+
+    private final NamedParameterJdbcTemplate jdbc;
+
+    public KeysetRepository(NamedParameterJdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    // ===== HoaDon: ID giảm dần (mới nhất trước) =====
+
+    public List<Key> seekHoaDon(Integer hoGiaDinhId, Integer dotThuId, String trangThai,
+                                KeysetCursor after, int limit) {
+        Where w = new Where()
+            .eq("hd.ID_HoGiaDinh", "hoGiaDinhId", hoGiaDinhId)
+            .eq("hd.ID_DotThu", "dotThuId", dotThuId)
+            .eq("hd.TrangThai", "trangThai", trangThai)
+            .afterIdDesc("hd.ID_HoaDon", after);
+        return queryIds("SELECT TOP (:limit) hd.ID_HoaDon FROM HoaDon hd" + w.sql()
+            + " ORDER BY hd.ID_HoaDon DESC", w, limit);
+    }
+
+    // ===== NhanKhau: ID tăng dần, hoặc (HoTen, ID) tăng dần =====
+
+    public List<Key> seekNhanKhau(boolean theoHoTen, KeysetCursor after, int limit) {
+        Where w = new Where();
+        if (!theoHoTen) {
+            w.afterIdAsc("n.ID_NhanKhau", after);
+            return queryIds("SELECT TOP (:limit) n.ID_NhanKhau FROM NhanKhau n" + w.sql()
+                + " ORDER BY n.ID_NhanKhau", w, limit);
+        }
+        if (after != null) {
+            w.and("(n.HoTen > :sortKey OR (n.HoTen = :sortKey AND n.ID_NhanKhau > :afterId))")
+                .param("sortKey", after.sortKey() != null ? after.sortKey() : "")
+                .param("afterId", after.id());
+        }
+        String sql = "SELECT TOP (:limit) n.ID_NhanKhau, n.HoTen FROM NhanKhau n" + w.sql()
+            + " ORDER BY n.HoTen, n.ID_NhanKhau";
+        return jdbc.query(sql, w.params.addValue("limit", limit + 1),
+            (rs, i) -> new Key(rs.getInt(1), rs.getString(2)));
+    }
+
+    // ===== PhanAnh: ID giảm dần (thứ tự gửi) =====
+
+    /**
+     * @param toaNhaIds null = mọi tòa nhà
+     * @param userId    null = mọi người gửi
+     */
+    public List<Key> seekPhanAnh(Collection<Integer> toaNhaIds, Integer userId, KeysetCursor after, int limit) {
+        Where w = new Where()
+            .in("p.ID_ToaNha", "toaNhaIds", toaNhaIds)
+            .eq("p.ID_User", "userId", userId)
+            .afterIdDesc("p.ID_PhanAnh", after);
+        return queryIds("SELECT TOP (:limit) p.ID_PhanAnh FROM PhanAnh p" + w.sql()
+            + " ORDER BY p.ID_PhanAnh DESC", w, limit);
+    }
+
+    // ===== ThongBao: ID giảm dần (NgayTao mặc định GETDATE() nên cùng thứ tự với ID) =====
+
+    public List<Key> seekThongBao(Collection<Integer> toaNhaIds, KeysetCursor after, int limit) {
+        Where w = new Where()
+            .in("tb.ID_ToaNha", "toaNhaIds", toaNhaIds)
+            .afterIdDesc("tb.ID_ThongBao", after);
+        return queryIds("SELECT TOP (:limit) tb.ID_ThongBao FROM ThongBao tb" + w.sql()
+            + " ORDER BY tb.ID_ThongBao DESC", w, limit);
+    }
+
+    // ===== DotThu: (NgayBatDau, ID) giảm dần =====
+
+    /**
+     * @param after con trỏ từ KeysetCursor.decodeNgay (khóa là ngày hợp lệ)
+     */
+    public List<Key> seekDotThu(Collection<Integer> toaNhaIds, KeysetCursor after, int limit) {
+        Where w = new Where().in("d.ID_ToaNha", "toaNhaIds", toaNhaIds);
+        if (after != null) {
+            w.and("(d.NgayBatDau < :sortKey OR (d.NgayBatDau = :sortKey AND d.ID_DotThu < :afterId))")
+                .param("sortKey", Date.valueOf(after.sortKey()))
+                .param("afterId", after.id());
+        }
+        String sql = "SELECT TOP (:limit) d.ID_DotThu, d.NgayBatDau FROM DotThu d" + w.sql()
+            + " ORDER BY d.NgayBatDau DESC, d.ID_DotThu DESC";
+        return jdbc.query(sql, w.params.addValue("limit", limit + 1),
+            (rs, i) -> new Key(rs.getInt(1), rs.getDate(2).toLocalDate().toString()));
+    }
+
+    // ===== Tổng ước lượng =====
+
+    /**
+     * Số dòng của bảng theo metadata (heap hoặc clustered index), không quét bảng.
+     * Chỉ chính xác sau khi các giao dịch đang chạy đã commit — đủ cho "khoảng N bản ghi".
+     */
+    public long approxRowCount(String table) {
+        Long n = jdbc.queryForObject("""
+            SELECT COALESCE(SUM(p.rows), 0)
+            FROM sys.partitions p
+            WHERE p.object_id = OBJECT_ID(:table) AND p.index_id IN (0, 1)
+            """, new MapSqlParameterSource("table", table), Long.class);
+        return n != null ? n : 0L;
+    }
+
+    // ===== Helpers =====
+
+    private List<Key> queryIds(String sql, Where w, int limit) {
+        return jdbc.query(sql, w.params.addValue("limit", limit + 1), (rs, i) -> new Key(rs.getInt(1), null));
+    }
+
+    /**
+     * Ghép điều kiện WHERE; điều kiện có giá trị null bị bỏ qua thay vì "(:x IS NULL OR ...)"
+     * để SQL Server chọn được index seek.
+     */
+    private static final class Where {
+        private final List<String> dk = new ArrayList<>();
+        private final MapSqlParameterSource params = new MapSqlParameterSource();
+
+        Where and(String sql) {
+            dk.add(sql);
+            return this;
+        }
+
+        Where param(String name, Object value) {
+            params.addValue(name, value);
+            return this;
+        }
+
+        Where eq(String column, String name, Object value) {
+            return value == null ? this : and(column + " = :" + name).param(name, value);
+        }
+
+        Where in(String column, String name, Collection<Integer> values) {
+            return values == null ? this : and(column + " IN (:" + name + ")").param(name, values);
+        }
+
+        Where afterIdDesc(String column, KeysetCursor after) {
+            return after == null ? this : and(column + " < :afterId").param("afterId", after.id());
+        }
+
+        Where afterIdAsc(String column, KeysetCursor after) {
+            return after == null ? this : and(column + " > :afterId").param("afterId", after.id());
+        }
+
+        String sql() {
+            return dk.isEmpty() ? "" : " WHERE " + String.join(" AND ", dk);
+        }
+    }
+}
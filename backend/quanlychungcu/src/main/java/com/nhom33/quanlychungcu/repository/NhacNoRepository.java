@@ -0,0 +1,140 @@
+package com.nhom33.quanlychungcu.repository;
+
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Repository JDBC cho nhắc nợ: tìm hộ còn nợ bằng một câu GROUP BY và ghi thông báo theo batch.
+ */
+@Repository
+public class NhacNoRepository {
+
+    public static final String LOAI_NHAC_NO = "Nhắc nợ";
+
+    private static final int BATCH_SIZE = 500;
+
+    /** Tên khóa ứng dụng (sp_getapplock) của job nhắc nợ định kỳ. */
+    private static final String KHOA_CHAY_THEO_LICH = "NhacNo.chayTheoLich";
+
+    private final NamedParameterJdbcTemplate jdbc;
+
+    public NhacNoRepository(NamedParameterJdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    // ===== Kiểu dữ liệu =====
+
+    /**
+     * Công nợ của một hộ (cộng các hóa đơn còn nợ trong phạm vi lọc).
+     *
+     * @param hanSomNhat ngày kết thúc sớm nhất trong các đợt thu còn nợ
+     */
+    public record CongNoHo(int hoGiaDinhId, int toaNhaId, String maHoGiaDinh, String chuHo, String email,
+                           int soHoaDon, BigDecimal tongNo, LocalDate hanSomNhat) {}
+
+    public record ThongBaoWrite(int toaNhaId, int hoGiaDinhId, String tieuDe, String noiDung, String nguoiTao) {}
+
+    // ===== Khóa chạy =====
+
+    /**
+     * Giữ khóa chạy job định kỳ trên SQL Server (sp_getapplock, chủ sở hữu là transaction hiện tại,
+     * tự nhả khi commit/rollback). Không chờ: instance khác đang giữ khóa -> false.
+     * Phải gọi trong transaction.
+     */
+    public boolean tryKhoaChayTheoLich() {
+        Integer ketQua = jdbc.queryForObject("""
+            SET NOCOUNT ON;
+            DECLARE @r INT;
+            EXEC @r = sp_getapplock @Resource = :resource, @LockMode = 'Exclusive',
+                                    @LockOwner = 'Transaction', @LockTimeout = 0;
+            SELECT @r;
+            """, new MapSqlParameterSource("resource", KHOA_CHAY_THEO_LICH), Integer.class);
+        // 0 = có ngay, 1 = có sau khi chờ; âm = không lấy được
+        return ketQua != null && ketQua >= 0;
+    }
+
+    // ===== READ =====
+
+    /**
+     * Các hộ còn nợ (TongTienPhaiThu - SoTienDaDong > 0) trong MỘT câu SQL tổng hợp.
+     *
+     * @param dotThuId null = mọi đợt thu
+     * @param toaNhaId null = mọi tòa nhà
+     * @param toiThieu chỉ lấy hộ có tổng nợ lớn hơn mức này
+     * @param boQuaTu bỏ qua hộ đã nhận thông báo nhắc nợ từ thời điểm này (null = không bỏ qua)
+     */
+    public List<CongNoHo> findHoConNo(Integer dotThuId, Integer toaNhaId, BigDecimal toiThieu, LocalDateTime boQuaTu) {
+        String sql = """
+            SELECT h.ID_HoGiaDinh, h.ID_ToaNha, h.MaHoGiaDinh, h.TenChuHo, h.EmailLienHe,
+                   COUNT(*) AS SoHoaDon,
+                   SUM(hd.TongTienPhaiThu - ISNULL(hd.SoTienDaDong, 0)) AS TongNo,
+                   MIN(d.NgayKetThuc) AS HanSomNhat
+            FROM HoaDon hd
+            JOIN HoGiaDinh h ON h.ID_HoGiaDinh = hd.ID_HoGiaDinh
+            JOIN DotThu d ON d.ID_DotThu = hd.ID_DotThu
+            WHERE hd.TongTienPhaiThu - ISNULL(hd.SoTienDaDong, 0) > 0
+              AND (:dotThuId IS NULL OR hd.ID_DotThu = :dotThuId)
+              AND (:toaNhaId IS NULL OR h.ID_ToaNha = :toaNhaId)
+              AND (:boQuaTu IS NULL OR NOT EXISTS (
+                    SELECT 1 FROM ThongBao tb
+                    WHERE tb.ID_HoGiaDinh = h.ID_HoGiaDinh AND tb.LoaiThongBao = :loai AND tb.NgayTao >= :boQuaTu))
+            GROUP BY h.ID_HoGiaDinh, h.ID_ToaNha, h.MaHoGiaDinh, h.TenChuHo, h.EmailLienHe
+            HAVING SUM(hd.TongTienPhaiThu - ISNULL(hd.SoTienDaDong, 0)) > :toiThieu
+            ORDER BY h.ID_ToaNha, h.MaHoGiaDinh
+            """;
+        MapSqlParameterSource params = new MapSqlParameterSource()
+            .addValue("dotThuId", dotThuId, Types.INTEGER)
+            .addValue("toaNhaId", toaNhaId, Types.INTEGER)
+            .addValue("toiThieu", toiThieu)
+            .addValue("loai", LOAI_NHAC_NO)
+            .addValue("boQuaTu", boQuaTu != null ? Timestamp.valueOf(boQuaTu) : null, Types.TIMESTAMP);
+        return jdbc.query(sql, params, (rs, i) -> {
+            Date han = rs.getDate("HanSomNhat");
+            return new CongNoHo(rs.getInt("ID_HoGiaDinh"), rs.getInt("ID_ToaNha"), rs.getString("MaHoGiaDinh"),
+                rs.getString("TenChuHo"), rs.getString("EmailLienHe"), rs.getInt("SoHoaDon"),
+                rs.getBigDecimal("TongNo"), han != null ? han.toLocalDate() : null);
+        });
+    }
+
+    // ===== WRITE =====
+
+    /**
+     * Ghi thông báo nhắc nợ riêng cho từng hộ (JDBC batch, chia lô BATCH_SIZE).
+     */
+    public int insertThongBao(List<ThongBaoWrite> rows) {
+        if (rows.isEmpty()) return 0;
+        String sql = """
+            INSERT INTO ThongBao (TieuDe, NoiDung, NgayTao, NguoiTao, LoaiThongBao, ID_HoGiaDinh, ID_ToaNha, DaXem)
+            VALUES (:tieuDe, :noiDung, :now, :nguoiTao, :loai, :hoGiaDinhId, :toaNhaId, 0)
+            """;
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        int total = 0;
+        for (int from = 0; from < rows.size(); from += BATCH_SIZE) {
+            List<ThongBaoWrite> chunk = rows.subList(from, Math.min(from + BATCH_SIZE, rows.size()));
+            List<SqlParameterSource> batch = new ArrayList<>(chunk.size());
+            for (ThongBaoWrite r : chunk) {
+                batch.add(new MapSqlParameterSource("tieuDe", r.tieuDe())
+                    .addValue("noiDung", r.noiDung())
+                    .addValue("now", now)
+                    .addValue("nguoiTao", r.nguoiTao())
+                    .addValue("loai", LOAI_NHAC_NO)
+                    .addValue("hoGiaDinhId", r.hoGiaDinhId())
+                    .addValue("toaNhaId", r.toaNhaId()));
+            }
+            jdbc.batchUpdate(sql, batch.toArray(SqlParameterSource[]::new));
+            total += chunk.size();
+        }
+        return total;
+    }
+}
@@ -1,5 +1,6 @@
 package com.nhom33.quanlychungcu.repository;
 
+import com.nhom33.quanlychungcu.dto.NhanKhauListDTO;
 import com.nhom33.quanlychungcu.entity.NhanKhau;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -8,6 +9,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -85,4 +87,52 @@ public interface NhanKhauRepository extends JpaRepository<NhanKhau, Integer> {
      * Lấy danh sách nhân khẩu là chủ hộ
      */
     Page<NhanKhau> findByLaChuHo(Boolean laChuHo, Pageable pageable);
+
+    // ===== Read model cho màn danh sách (một câu JOIN, không nạp entity) =====
+
+    String SELECT_LIST_DTO = "SELECT new com.nhom33.quanlychungcu.dto.NhanKhauListDTO(" +
+           "n.id, n.hoTen, n.ngaySinh, n.gioiTinh, n.soCCCD, n.soDienThoai, n.email, n.quanHeVoiChuHo, " +
+           "n.laChuHo, n.ngayChuyenDen, n.trangThai, h.id, h.maHoGiaDinh, h.tenChuHo, h.soCanHo, t.id, t.tenToaNha) " +
+           "FROM NhanKhau n JOIN n.hoGiaDinh h LEFT JOIN h.toaNha t ";
+
+    /**
+     * Danh sách nhân khẩu (sắp xếp theo Pageable, thuộc tính của NhanKhau)
+     */
+    @Query(value = SELECT_LIST_DTO,
+           countQuery = "SELECT COUNT(n) FROM NhanKhau n")
+    Page<NhanKhauListDTO> findAllList(Pageable pageable);
+
+    /**
+     * Tìm kiếm đa điều kiện, trả read model
+     */
+    @Query(value = SELECT_LIST_DTO + "WHERE " +
+           "(:hoTen IS NULL OR n.hoTen LIKE %:hoTen%) AND " +
+           "(:soCCCD IS NULL OR n.soCCCD = :soCCCD) AND " +
+           "(:gioiTinh IS NULL OR n.gioiTinh = :gioiTinh) AND " +
+           "(:trangThai IS NULL OR n.trangThai = :trangThai) AND " +
+           "(:idHoGiaDinh IS NULL OR n.hoGiaDinh.id = :idHoGiaDinh)",
+           countQuery = "SELECT COUNT(n) FROM NhanKhau n WHERE " +
+           "(:hoTen IS NULL OR n.hoTen LIKE %:hoTen%) AND " +
+           "(:soCCCD IS NULL OR n.soCCCD = :soCCCD) AND " +
+           "(:gioiTinh IS NULL OR n.gioiTinh = :gioiTinh) AND " +
+           "(:trangThai IS NULL OR n.trangThai = :trangThai) AND " +
+           "(:idHoGiaDinh IS NULL OR n.hoGiaDinh.id = :idHoGiaDinh)")
+    Page<NhanKhauListDTO> searchList(@Param("hoTen") String hoTen,
+                                     @Param("soCCCD") String soCCCD,
+                                     @Param("gioiTinh") String gioiTinh,
+                                     @Param("trangThai") String trangThai,
+                                     @Param("idHoGiaDinh") Integer idHoGiaDinh,
+                                     Pageable pageable);
+
+    /**
+     * Các nhân khẩu của một hộ, trả read model
+     */
+    @Query(SELECT_LIST_DTO + "WHERE n.hoGiaDinh.id = :idHoGiaDinh ORDER BY n.laChuHo DESC, n.id")
+    List<NhanKhauListDTO> findListByHoGiaDinhId(@Param("idHoGiaDinh") Integer idHoGiaDinh);
+
+    /**
+     * Các dòng theo ID (thứ tự tùy ý) — dùng khi danh sách ID đến từ chỉ mục tìm kiếm / keyset
+     */
+    @Query(SELECT_LIST_DTO + "WHERE n.id IN :ids")
+    List<NhanKhauListDTO> findListByIds(@Param("ids") Collection<Integer> ids);
 }
@@ -1,9 +1,12 @@
 package com.nhom33.quanlychungcu.repository;
 
+import com.nhom33.quanlychungcu.dto.TamTruListDTO;
 import com.nhom33.quanlychungcu.entity.TamTru;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 @Repository
@@ -19,4 +22,18 @@ public interface TamTruRepository extends JpaRepository<TamTru, Integer> {
      * Tìm các TamTru theo số CCCD chính xác
      */
     Page<TamTru> findBySoCCCD(String soCCCD, Pageable pageable);
+
+    /**
+     * Danh sách tạm trú kèm nhân khẩu + hộ + tòa nhà trong một câu JOIN.
+     * Lọc theo họ tên của nhân khẩu (TamTru không có cột họ tên riêng).
+     */
+    @Query(value = "SELECT new com.nhom33.quanlychungcu.dto.TamTruListDTO(" +
+           "tt.id, tt.maGiayTamTru, tt.diaChiThuongTru, tt.ngayBatDau, tt.ngayKetThuc, tt.lyDo, tt.ngayDangKy, " +
+           "n.id, n.hoTen, n.ngaySinh, n.gioiTinh, n.soCCCD, n.soDienThoai, n.email, n.quanHeVoiChuHo, " +
+           "n.laChuHo, n.ngayChuyenDen, n.trangThai, h.id, h.maHoGiaDinh, h.tenChuHo, h.soCanHo, t.id, t.tenToaNha) " +
+           "FROM TamTru tt JOIN tt.nhanKhau n JOIN n.hoGiaDinh h LEFT JOIN h.toaNha t " +
+           "WHERE (:hoTen IS NULL OR n.hoTen LIKE %:hoTen%)",
+           countQuery = "SELECT COUNT(tt) FROM TamTru tt JOIN tt.nhanKhau n " +
+           "WHERE (:hoTen IS NULL OR n.hoTen LIKE %:hoTen%)")
+    Page<TamTruListDTO> searchList(@Param("hoTen") String hoTen, Pageable pageable);
 }
@@ -1,9 +1,12 @@
 package com.nhom33.quanlychungcu.repository;
 
+import com.nhom33.quanlychungcu.dto.TamVangListDTO;
 import com.nhom33.quanlychungcu.entity.TamVang;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 @Repository
@@ -11,4 +14,16 @@ public interface TamVangRepository extends JpaRepository<TamVang, Integer> {
 
     // Phương thức search theo 'noiDen' (không phân biệt hoa thường)
     Page<TamVang> findByNoiDenContainingIgnoreCase(String noiDen, Pageable pageable);
+
+    /**
+     * Danh sách tạm vắng kèm nhân khẩu + hộ trong một câu JOIN, lọc theo nơi đến.
+     */
+    @Query(value = "SELECT new com.nhom33.quanlychungcu.dto.TamVangListDTO(" +
+           "tv.id, tv.ngayBatDau, tv.ngayKetThuc, tv.noiDen, tv.lyDo, tv.ngayDangKy, " +
+           "n.id, n.hoTen, n.soCCCD, h.id, h.maHoGiaDinh, h.tenChuHo, h.soCanHo) " +
+           "FROM TamVang tv JOIN tv.nhanKhau n JOIN n.hoGiaDinh h " +
+           "WHERE (:noiDen IS NULL OR LOWER(tv.noiDen) LIKE LOWER(CONCAT('%', :noiDen, '%')))",
+           countQuery = "SELECT COUNT(tv) FROM TamVang tv " +
+           "WHERE (:noiDen IS NULL OR LOWER(tv.noiDen) LIKE LOWER(CONCAT('%', :noiDen, '%')))")
+    Page<TamVangListDTO> searchList(@Param("noiDen") String noiDen, Pageable pageable);
 }
@@ -0,0 +1,76 @@
+package com.nhom33.quanlychungcu.repository;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Repository JDBC cho bảng ThanhToanIdempotency (khóa chống ghi nhận thanh toán hai lần).
+ *
+ * Khóa được INSERT ở đầu transaction ghi thanh toán:
+ * - INSERT thành công -> request này là request đầu tiên, tiếp tục ghi
+ * - Trùng PRIMARY KEY -> đã (hoặc vừa) có request cùng khóa commit; request đồng thời
+ *   chờ trên khóa dòng của SQL Server cho tới khi request kia commit/rollback
+ *
+ * Khóa chỉ cần giữ trong cửa sổ gửi lại; IdempotencyPurgeJob xóa khóa cũ hơn theo NgayTao.
+ */
+@Repository
+public class ThanhToanIdempotencyRepository {
+
+    private final NamedParameterJdbcTemplate jdbc;
+
+    public ThanhToanIdempotencyRepository(NamedParameterJdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    /**
+     * @param thanhToanId null nếu request giữ khóa chưa ghi xong (không xảy ra sau khi commit)
+     */
+    public record IdempotencyRow(String key, int hoaDonId, Integer thanhToanId) {}
+
+    /**
+     * Giữ khóa cho hóa đơn.
+     * @return false nếu khóa đã tồn tại
+     */
+    public boolean tryClaim(String key, int hoaDonId) {
+        try {
+            jdbc.update("INSERT INTO ThanhToanIdempotency (IdempotencyKey, ID_HoaDon) VALUES (:key, :hoaDonId)",
+                new MapSqlParameterSource("key", key).addValue("hoaDonId", hoaDonId));
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Gắn giao dịch đã ghi vào khóa (cùng transaction với tryClaim).
+     */
+    public void ganThanhToan(String key, int thanhToanId) {
+        jdbc.update("UPDATE ThanhToanIdempotency SET ID_GiaoDich = :thanhToanId WHERE IdempotencyKey = :key",
+            new MapSqlParameterSource("key", key).addValue("thanhToanId", thanhToanId));
+    }
+
+    /**
+     * Xóa tối đa soDong khóa tạo trước moc (dùng IX_Idempotency_NgayTao).
+     *
+     * @return số dòng đã xóa; nhỏ hơn soDong nghĩa là đã hết khóa cũ
+     */
+    public int deleteTruoc(LocalDateTime moc, int soDong) {
+        return jdbc.update("DELETE TOP (:soDong) FROM ThanhToanIdempotency WHERE NgayTao < :moc",
+            new MapSqlParameterSource("soDong", soDong).addValue("moc", Timestamp.valueOf(moc)));
+    }
+
+    public Optional<IdempotencyRow> findByKey(String key) {
+        List<IdempotencyRow> rows = jdbc.query("""
+            SELECT IdempotencyKey, ID_HoaDon, ID_GiaoDich FROM ThanhToanIdempotency WHERE IdempotencyKey = :key
+            """, new MapSqlParameterSource("key", key),
+            (rs, i) -> new IdempotencyRow(rs.getString(1), rs.getInt(2), (Integer) rs.getObject(3, Integer.class)));
+        return rows.stream().findFirst();
+    }
+}
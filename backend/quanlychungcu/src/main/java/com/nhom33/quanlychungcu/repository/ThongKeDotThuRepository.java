@@ -0,0 +1,286 @@
+package com.nhom33.quanlychungcu.repository;
+
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Repository JDBC cho bảng thống kê đợt thu (ThongKeDotThu).
+ *
+ * Mỗi đợt thu có MỘT dòng tổng hợp: tổng phải thu, tổng đã thu, số hóa đơn theo nhóm trạng thái,
+ * số hộ của tòa nhà. Dòng được cập nhật trong cùng transaction với thao tác ghi:
+ * - applyDelta: cộng/trừ chênh lệch (thanh toán, đổi trạng thái, thêm hóa đơn)
+ * - refresh: tính lại từ HoaDon (tạo đợt thu, sau khi tính tiền cả đợt thu)
+ * - applySoHoDelta: thêm/xóa hộ gia đình trong tòa nhà
+ * Đọc không bao giờ ghi: đợt thu chưa có dòng (dữ liệu cũ) được bổ sung khi khởi động (createMissingAll).
+ */
+@Repository
+public class ThongKeDotThuRepository {
+
+    /**
+     * Gom 2 bộ trạng thái đang dùng (HoaDonService: "Đã đóng"..., VNPAY/tính tiền: "DaThanhToan"...)
+     * về 3 nhóm: đã đóng / đang nợ / chưa đóng.
+     */
+    private static final String AGGREGATE_SELECT = """
+        SELECT COUNT(*) AS SoHoaDon,
+               (SELECT COUNT(*) FROM HoGiaDinh h JOIN DotThu d ON d.ID_ToaNha = h.ID_ToaNha
+                WHERE d.ID_DotThu = :dotThuId) AS SoHo,
+               COALESCE(SUM(TongTienPhaiThu), 0) AS TongPhaiThu,
+               COALESCE(SUM(SoTienDaDong), 0) AS TongDaThu,
+               COALESCE(SUM(CASE WHEN TrangThai IN (N'Đã đóng', 'DaThanhToan') THEN 1 ELSE 0 END), 0) AS SoDaDong,
+               COALESCE(SUM(CASE WHEN TrangThai IN (N'Đang nợ', 'ThanhToanMotPhan') THEN 1 ELSE 0 END), 0) AS SoDangNo,
+               COALESCE(SUM(CASE WHEN TrangThai IN (N'Đã đóng', 'DaThanhToan', N'Đang nợ', 'ThanhToanMotPhan')
+                        THEN 0 ELSE 1 END), 0) AS SoChuaDong
+        FROM HoaDon
+        """;
+
+    private final NamedParameterJdbcTemplate jdbc;
+
+    public ThongKeDotThuRepository(NamedParameterJdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    /**
+     * @param soHo số hộ của tòa nhà (đợt thu đã kết thúc giữ số hộ tại thời điểm kết thúc)
+     */
+    public record ThongKeRow(int soHoaDon, BigDecimal tongPhaiThu, BigDecimal tongDaThu,
+                             int soChuaDong, int soDangNo, int soDaDong, int soHo) {
+        public static final ThongKeRow EMPTY = new ThongKeRow(0, BigDecimal.ZERO, BigDecimal.ZERO, 0, 0, 0, 0);
+    }
+
+    /**
+     * Tổng hợp của một tòa nhà trong một tháng (kyThang = nam * 100 + thang).
+     */
+    public record ToaNhaThangRow(int toaNhaId, String tenToaNha, int kyThang,
+                                 BigDecimal tongPhaiThu, BigDecimal tongDaThu, int soHoaDon) {}
+
+    /**
+     * Tiền thực nhận (LichSuThanhToan) của một tòa nhà trong một tháng theo ngày nộp.
+     */
+    public record ThanhToanThangRow(int toaNhaId, String tenToaNha, int kyThang, BigDecimal soTien, int soGiaoDich) {}
+
+    private static final RowMapper<ThongKeRow> MAPPER = (rs, i) -> new ThongKeRow(
+        rs.getInt("SoHoaDon"),
+        nz(rs.getBigDecimal("TongPhaiThu")),
+        nz(rs.getBigDecimal("TongDaThu")),
+        rs.getInt("SoChuaDong"),
+        rs.getInt("SoDangNo"),
+        rs.getInt("SoDaDong"),
+        rs.getInt("SoHo"));
+
+    // ===== READ =====
+
+    public Optional<ThongKeRow> findByDotThu(int dotThuId) {
+        String sql = """
+            SELECT SoHoaDon, TongPhaiThu, TongDaThu, SoChuaDong, SoDangNo, SoDaDong, SoHo
+            FROM ThongKeDotThu WHERE ID_DotThu = :dotThuId
+            """;
+        List<ThongKeRow> rows = jdbc.query(sql, new MapSqlParameterSource("dotThuId", dotThuId), MAPPER);
+        return rows.stream().findFirst();
+    }
+
+    /**
+     * Phiên bản của cả bảng: số dòng + ROWVERSION lớn nhất. Mọi INSERT/UPDATE tăng PhienBan,
+     * DELETE (xóa đợt thu, xây lại) đổi số dòng; chỉ thấy thay đổi đã commit.
+     */
+    public String phienBan() {
+        return jdbc.getJdbcTemplate().queryForObject(
+            "SELECT CONCAT(COUNT_BIG(*), '.', CAST(MAX(PhienBan) AS BIGINT)) FROM ThongKeDotThu", String.class);
+    }
+
+    /**
+     * Tổng các đợt thu có thời gian giao với khoảng [tuNgay, denNgay].
+     */
+    public ThongKeRow sumByKhoangNgay(LocalDate tuNgay, LocalDate denNgay) {
+        String sql = """
+            SELECT COALESCE(SUM(t.SoHoaDon), 0) AS SoHoaDon,
+                   COALESCE(SUM(t.TongPhaiThu), 0) AS TongPhaiThu,
+                   COALESCE(SUM(t.TongDaThu), 0) AS TongDaThu,
+                   COALESCE(SUM(t.SoChuaDong), 0) AS SoChuaDong,
+                   COALESCE(SUM(t.SoDangNo), 0) AS SoDangNo,
+                   COALESCE(SUM(t.SoDaDong), 0) AS SoDaDong,
+                   COALESCE(SUM(t.SoHo), 0) AS SoHo
+            FROM ThongKeDotThu t
+            JOIN DotThu d ON d.ID_DotThu = t.ID_DotThu
+            WHERE d.NgayBatDau <= :denNgay AND d.NgayKetThuc >= :tuNgay
+            """;
+        return jdbc.queryForObject(sql, new MapSqlParameterSource("tuNgay", tuNgay).addValue("denNgay", denNgay), MAPPER);
+    }
+
+    /**
+     * Phải thu / đã thu theo tòa nhà × tháng hạch toán của đợt thu, trong MỘT câu GROUP BY
+     * trên bảng thống kê (không quét HoaDon).
+     * Tháng hạch toán = DotThu.Thang/Nam, nếu NULL thì lấy theo NgayBatDau.
+     *
+     * @param toaNhaIds null = tất cả tòa nhà
+     */
+    public List<ToaNhaThangRow> sumTheoToaNhaThang(int tuKy, int denKy, Collection<Integer> toaNhaIds) {
+        String sql = """
+            SELECT d.ID_ToaNha, tn.TenToaNha, k.KyThang,
+                   SUM(t.TongPhaiThu) AS TongPhaiThu, SUM(t.TongDaThu) AS TongDaThu, SUM(t.SoHoaDon) AS SoHoaDon
+            FROM ThongKeDotThu t
+            JOIN DotThu d ON d.ID_DotThu = t.ID_DotThu
+            JOIN ToaNha tn ON tn.ID_ToaNha = d.ID_ToaNha
+            CROSS APPLY (SELECT COALESCE(d.Nam, YEAR(d.NgayBatDau)) * 100
+                              + COALESCE(d.Thang, MONTH(d.NgayBatDau)) AS KyThang) k
+            WHERE k.KyThang BETWEEN :tuKy AND :denKy
+            %s
+            GROUP BY d.ID_ToaNha, tn.TenToaNha, k.KyThang
+            """.formatted(toaNhaIds != null ? "AND d.ID_ToaNha IN (:toaNhaIds)" : "");
+        MapSqlParameterSource params = new MapSqlParameterSource("tuKy", tuKy)
+            .addValue("denKy", denKy)
+            .addValue("toaNhaIds", toaNhaIds);
+        return jdbc.query(sql, params, (rs, i) -> new ToaNhaThangRow(
+            rs.getInt("ID_ToaNha"), rs.getString("TenToaNha"), rs.getInt("KyThang"),
+            nz(rs.getBigDecimal("TongPhaiThu")), nz(rs.getBigDecimal("TongDaThu")), rs.getInt("SoHoaDon")));
+    }
+
+    /**
+     * Tiền thực nhận theo tòa nhà × tháng nộp trong [tuNgay, denNgay), một câu GROUP BY.
+     *
+     * @param toaNhaIds null = tất cả tòa nhà
+     */
+    public List<ThanhToanThangRow> sumThanhToanTheoToaNhaThang(LocalDate tuNgay, LocalDate denNgay,
+                                                              Collection<Integer> toaNhaIds) {
+        String sql = """
+            SELECT d.ID_ToaNha, tn.TenToaNha, YEAR(l.NgayNop) * 100 + MONTH(l.NgayNop) AS KyThang,
+                   SUM(l.SoTien) AS SoTien, COUNT(*) AS SoGiaoDich
+            FROM LichSuThanhToan l
+            JOIN HoaDon hd ON hd.ID_HoaDon = l.ID_HoaDon
+            JOIN DotThu d ON d.ID_DotThu = hd.ID_DotThu
+            JOIN ToaNha tn ON tn.ID_ToaNha = d.ID_ToaNha
+            WHERE l.NgayNop >= :tuNgay AND l.NgayNop < :denNgay
+            %s
+            GROUP BY d.ID_ToaNha, tn.TenToaNha, YEAR(l.NgayNop) * 100 + MONTH(l.NgayNop)
+            """.formatted(toaNhaIds != null ? "AND d.ID_ToaNha IN (:toaNhaIds)" : "");
+        MapSqlParameterSource params = new MapSqlParameterSource("tuNgay", tuNgay)
+            .addValue("denNgay", denNgay)
+            .addValue("toaNhaIds", toaNhaIds);
+        return jdbc.query(sql, params, (rs, i) -> new ThanhToanThangRow(
+            rs.getInt("ID_ToaNha"), rs.getString("TenToaNha"), rs.getInt("KyThang"),
+            nz(rs.getBigDecimal("SoTien")), rs.getInt("SoGiaoDich")));
+    }
+
+    // ===== WRITE =====
+
+    /**
+     * Cộng chênh lệch vào dòng thống kê (UPDATE nguyên tử, an toàn khi nhiều giao dịch song song).
+     * @return số dòng bị ảnh hưởng (0 nếu đợt thu chưa có dòng thống kê)
+     */
+    public int applyDelta(int dotThuId, int soHoaDon, BigDecimal phaiThu, BigDecimal daThu,
+                          int chuaDong, int dangNo, int daDong) {
+        String sql = """
+            UPDATE ThongKeDotThu
+            SET SoHoaDon = SoHoaDon + :soHoaDon,
+                TongPhaiThu = TongPhaiThu + :phaiThu,
+                TongDaThu = TongDaThu + :daThu,
+                SoChuaDong = SoChuaDong + :chuaDong,
+                SoDangNo = SoDangNo + :dangNo,
+                SoDaDong = SoDaDong + :daDong,
+                NgayCapNhat = GETDATE()
+            WHERE ID_DotThu = :dotThuId
+            """;
+        return jdbc.update(sql, new MapSqlParameterSource("dotThuId", dotThuId)
+            .addValue("soHoaDon", soHoaDon)
+            .addValue("phaiThu", phaiThu)
+            .addValue("daThu", daThu)
+            .addValue("chuaDong", chuaDong)
+            .addValue("dangNo", dangNo)
+            .addValue("daDong", daDong));
+    }
+
+    /**
+     * Cộng số hộ vào dòng thống kê của các đợt thu CHƯA KẾT THÚC của tòa nhà (thêm/xóa hộ).
+     * @return số dòng bị ảnh hưởng
+     */
+    public int applySoHoDelta(int toaNhaId, int soHo) {
+        String sql = """
+            UPDATE t
+            SET SoHo = t.SoHo + :soHo, NgayCapNhat = GETDATE()
+            FROM ThongKeDotThu t
+            JOIN DotThu d ON d.ID_DotThu = t.ID_DotThu
+            WHERE d.ID_ToaNha = :toaNhaId AND d.NgayKetThuc >= CAST(GETDATE() AS DATE)
+            """;
+        return jdbc.update(sql, new MapSqlParameterSource("toaNhaId", toaNhaId).addValue("soHo", soHo));
+    }
+
+    /**
+     * Tính lại dòng thống kê của một đợt thu từ HoaDon (insert nếu chưa có).
+     * Không làm gì nếu đợt thu không tồn tại.
+     */
+    public void refresh(int dotThuId) {
+        String sql = """
+            MERGE ThongKeDotThu WITH (HOLDLOCK) AS t
+            USING (
+                SELECT a.* FROM (%s WHERE ID_DotThu = :dotThuId) a
+                WHERE EXISTS (SELECT 1 FROM DotThu WHERE ID_DotThu = :dotThuId)
+            ) AS s
+            ON t.ID_DotThu = :dotThuId
+            WHEN MATCHED THEN UPDATE SET
+                SoHoaDon = s.SoHoaDon, TongPhaiThu = s.TongPhaiThu, TongDaThu = s.TongDaThu,
+                SoChuaDong = s.SoChuaDong, SoDangNo = s.SoDangNo, SoDaDong = s.SoDaDong, SoHo = s.SoHo,
+                NgayCapNhat = GETDATE()
+            WHEN NOT MATCHED THEN
+                INSERT (ID_DotThu, SoHoaDon, TongPhaiThu, TongDaThu, SoChuaDong, SoDangNo, SoDaDong, SoHo, NgayCapNhat)
+                VALUES (:dotThuId, s.SoHoaDon, s.TongPhaiThu, s.TongDaThu, s.SoChuaDong, s.SoDangNo, s.SoDaDong, s.SoHo,
+                        GETDATE());
+            """.formatted(AGGREGATE_SELECT);
+        jdbc.update(sql, new MapSqlParameterSource("dotThuId", dotThuId));
+    }
+
+    /**
+     * Tạo dòng thống kê cho các đợt thu (giao với khoảng ngày) chưa có, bằng một câu INSERT...SELECT.
+     * @return số dòng được tạo
+     */
+    public int createMissing(LocalDate tuNgay, LocalDate denNgay) {
+        String sql = """
+            INSERT INTO ThongKeDotThu (ID_DotThu, SoHoaDon, TongPhaiThu, TongDaThu, SoChuaDong, SoDangNo, SoDaDong, SoHo,
+                                       NgayCapNhat)
+            SELECT d.ID_DotThu,
+                   COUNT(hd.ID_HoaDon),
+                   COALESCE(SUM(hd.TongTienPhaiThu), 0),
+                   COALESCE(SUM(hd.SoTienDaDong), 0),
+                   SUM(CASE WHEN hd.ID_HoaDon IS NOT NULL AND (hd.TrangThai IS NULL OR hd.TrangThai NOT IN
+                       (N'Đã đóng', 'DaThanhToan', N'Đang nợ', 'ThanhToanMotPhan')) THEN 1 ELSE 0 END),
+                   SUM(CASE WHEN hd.TrangThai IN (N'Đang nợ', 'ThanhToanMotPhan') THEN 1 ELSE 0 END),
+                   SUM(CASE WHEN hd.TrangThai IN (N'Đã đóng', 'DaThanhToan') THEN 1 ELSE 0 END),
+                   MAX(sh.SoHo),
+                   GETDATE()
+            FROM DotThu d
+            CROSS APPLY (SELECT COUNT(*) AS SoHo FROM HoGiaDinh h WHERE h.ID_ToaNha = d.ID_ToaNha) sh
+            LEFT JOIN HoaDon hd ON hd.ID_DotThu = d.ID_DotThu
+            WHERE d.NgayBatDau <= :denNgay AND d.NgayKetThuc >= :tuNgay
+              AND NOT EXISTS (SELECT 1 FROM ThongKeDotThu t WITH (UPDLOCK, HOLDLOCK) WHERE t.ID_DotThu = d.ID_DotThu)
+            GROUP BY d.ID_DotThu
+            """;
+        return jdbc.update(sql, new MapSqlParameterSource("tuNgay", tuNgay).addValue("denNgay", denNgay));
+    }
+
+    /**
+     * Xây lại toàn bộ bảng thống kê từ HoaDon.
+     * @return số đợt thu
+     */
+    public int rebuildAll() {
+        jdbc.getJdbcTemplate().update("DELETE FROM ThongKeDotThu");
+        return createMissingAll();
+    }
+
+    /**
+     * Tạo dòng thống kê cho mọi đợt thu chưa có.
+     * @return số dòng được tạo
+     */
+    public int createMissingAll() {
+        return createMissing(LocalDate.of(1900, 1, 1), LocalDate.of(9999, 12, 31));
+    }
+
+    private static BigDecimal nz(BigDecimal value) {
+        return value != null ? value : BigDecimal.ZERO;
+    }
+}
@@ -0,0 +1,159 @@
+package com.nhom33.quanlychungcu.repository;
+
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Repository JDBC tính chỉ số hiện tại, chỉ số trước và tiêu thụ điện/nước bằng window function.
+ *
+ * Với mỗi (hộ, loại phí), chỉ lấy các bản ghi có kỳ <= (nam, thang):
+ * - ROW_NUMBER() theo kỳ giảm dần chọn bản ghi mới nhất (rn = 1)
+ * - LAG(ChiSoMoi) cho chỉ số của bản ghi liền trước nó
+ * Nếu bản ghi mới nhất đúng là kỳ (nam, thang) -> đó là chỉ số hiện tại, chỉ số trước = LAG;
+ * ngược lại hộ chưa nhập tháng này và bản ghi mới nhất chính là chỉ số trước.
+ * Cả tòa nhà chỉ cần MỘT câu SQL (thay vì 2-3 query mỗi hộ).
+ */
+@Repository
+public class TieuThuRepository {
+
+    private final NamedParameterJdbcTemplate jdbc;
+
+    public TieuThuRepository(NamedParameterJdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    // ===== Kiểu dữ liệu đọc ra =====
+
+    /**
+     * Chỉ số của một (hộ, loại phí) tại kỳ.
+     *
+     * @param chiSoId    ID bản ghi của kỳ (null nếu chưa nhập)
+     * @param chiSoMoi   chỉ số của kỳ (null nếu chưa nhập)
+     * @param chiSoTruoc chỉ số gần nhất trước kỳ (null nếu chưa có lịch sử)
+     */
+    public record ChiSoKyRow(int hoGiaDinhId, int loaiPhiId, Integer chiSoId, Integer chiSoMoi, Integer chiSoTruoc) {}
+
+    /**
+     * Một hộ trên màn hình nhập chỉ số (có cả hộ chưa từng nhập).
+     */
+    public record NhapLieuRow(int hoGiaDinhId, String maHoGiaDinh, String tenChuHo, String soCanHo,
+                              Integer chiSoId, Integer chiSoMoi, Integer chiSoTruoc) {}
+
+    /**
+     * Một bản ghi lịch sử chỉ số (dùng để nạp ChiSoHistoryStore).
+     */
+    public record LichSuRow(int loaiPhiId, int hoGiaDinhId, int toaNhaId, int thang, int nam, int chiSoMoi) {}
+
+    // ===== READ =====
+
+    /**
+     * Chỉ số kỳ (thang, nam) của các hộ trong tòa nhà cho các loại phí.
+     * Chỉ trả về (hộ, loại phí) đã có ít nhất một bản ghi đến kỳ này.
+     */
+    public List<ChiSoKyRow> findByToaNha(int toaNhaId, Collection<Integer> loaiPhiIds, int thang, int nam) {
+        String sql = lichSuCte("h.ID_ToaNha = :toaNhaId") + """
+            SELECT ls.ID_HoGiaDinh, ls.ID_LoaiPhi, %s
+            FROM ls
+            WHERE ls.rn = 1
+            """.formatted(COT_KY);
+        MapSqlParameterSource params = new MapSqlParameterSource("toaNhaId", toaNhaId)
+            .addValue("loaiPhiIds", loaiPhiIds)
+            .addValue("thang", thang)
+            .addValue("nam", nam);
+        return jdbc.query(sql, params, (rs, i) -> new ChiSoKyRow(rs.getInt(1), rs.getInt(2),
+            (Integer) rs.getObject(3, Integer.class),
+            (Integer) rs.getObject(4, Integer.class),
+            (Integer) rs.getObject(5, Integer.class)));
+    }
+
+    /**
+     * Chỉ số kỳ (thang, nam) của một hộ cho một loại phí.
+     */
+    public List<ChiSoKyRow> findByHo(int hoGiaDinhId, int loaiPhiId, int thang, int nam) {
+        String sql = lichSuCte("h.ID_HoGiaDinh = :hoGiaDinhId") + """
+            SELECT ls.ID_HoGiaDinh, ls.ID_LoaiPhi, %s
+            FROM ls
+            WHERE ls.rn = 1
+            """.formatted(COT_KY);
+        MapSqlParameterSource params = new MapSqlParameterSource("hoGiaDinhId", hoGiaDinhId)
+            .addValue("loaiPhiIds", List.of(loaiPhiId))
+            .addValue("thang", thang)
+            .addValue("nam", nam);
+        return jdbc.query(sql, params, (rs, i) -> new ChiSoKyRow(rs.getInt(1), rs.getInt(2),
+            (Integer) rs.getObject(3, Integer.class),
+            (Integer) rs.getObject(4, Integer.class),
+            (Integer) rs.getObject(5, Integer.class)));
+    }
+
+    /**
+     * Tất cả hộ của tòa nhà (kể cả chưa có lịch sử) kèm chỉ số kỳ của một loại phí,
+     * sắp xếp theo mã hộ. Dùng cho màn hình nhập chỉ số.
+     */
+    public List<NhapLieuRow> findNhapLieu(int toaNhaId, int loaiPhiId, int thang, int nam) {
+        String sql = lichSuCte("h.ID_ToaNha = :toaNhaId") + """
+            SELECT h.ID_HoGiaDinh, h.MaHoGiaDinh, h.TenChuHo, h.SoCanHo, %s
+            FROM HoGiaDinh h
+            LEFT JOIN ls ON ls.ID_HoGiaDinh = h.ID_HoGiaDinh AND ls.rn = 1
+            WHERE h.ID_ToaNha = :toaNhaId
+            ORDER BY h.MaHoGiaDinh
+            """.formatted(COT_KY);
+        MapSqlParameterSource params = new MapSqlParameterSource("toaNhaId", toaNhaId)
+            .addValue("loaiPhiIds", List.of(loaiPhiId))
+            .addValue("thang", thang)
+            .addValue("nam", nam);
+        return jdbc.query(sql, params, (rs, i) -> new NhapLieuRow(rs.getInt(1),
+            rs.getString(2), rs.getString(3), rs.getString(4),
+            (Integer) rs.getObject(5, Integer.class),
+            (Integer) rs.getObject(6, Integer.class),
+            (Integer) rs.getObject(7, Integer.class)));
+    }
+
+    /**
+     * Đọc tuần tự toàn bộ lịch sử chỉ số kèm tòa nhà của hộ, không tích lũy trong List.
+     */
+    public void streamLichSu(Consumer<LichSuRow> consumer) {
+        String sql = """
+            SELECT cs.ID_LoaiPhi, cs.ID_HoGiaDinh, h.ID_ToaNha, cs.Thang, cs.Nam, cs.ChiSoMoi
+            FROM ChiSoDienNuoc cs
+            JOIN HoGiaDinh h ON h.ID_HoGiaDinh = cs.ID_HoGiaDinh
+            """;
+        jdbc.query(sql, new MapSqlParameterSource(), (RowCallbackHandler) rs -> consumer.accept(new LichSuRow(
+            rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getInt(4), rs.getInt(5), rs.getInt(6))));
+    }
+
+    // ===== Helpers =====
+
+    /**
+     * ID bản ghi, chỉ số hiện tại, chỉ số trước (từ CTE ls, đã lọc rn = 1).
+     */
+    private static final String COT_KY = """
+        CASE WHEN ls.Nam = :nam AND ls.Thang = :thang THEN ls.ID_ChiSo END AS ChiSoId,
+        CASE WHEN ls.Nam = :nam AND ls.Thang = :thang THEN ls.ChiSoMoi END AS ChiSoMoi,
+        CASE WHEN ls.Nam = :nam AND ls.Thang = :thang THEN ls.ChiSoTruoc ELSE ls.ChiSoMoi END AS ChiSoTruoc""";
+
+    /**
+     * CTE lịch sử chỉ số đến kỳ (nam, thang) của các hộ thỏa điều kiện, kèm LAG và thứ tự mới nhất.
+     */
+    private static String lichSuCte(String hoFilter) {
+        return """
+            WITH ls AS (
+                SELECT cs.ID_HoGiaDinh, cs.ID_LoaiPhi, cs.ID_ChiSo, cs.ChiSoMoi, cs.Thang, cs.Nam,
+                       LAG(cs.ChiSoMoi) OVER (PARTITION BY cs.ID_HoGiaDinh, cs.ID_LoaiPhi
+                                              ORDER BY cs.Nam, cs.Thang) AS ChiSoTruoc,
+                       ROW_NUMBER() OVER (PARTITION BY cs.ID_HoGiaDinh, cs.ID_LoaiPhi
+                                          ORDER BY cs.Nam DESC, cs.Thang DESC) AS rn
+                FROM ChiSoDienNuoc cs
+                JOIN HoGiaDinh h ON h.ID_HoGiaDinh = cs.ID_HoGiaDinh
+                WHERE %s
+                  AND cs.ID_LoaiPhi IN (:loaiPhiIds)
+                  AND (cs.Nam < :nam OR (cs.Nam = :nam AND cs.Thang <= :thang))
+            )
+            """.formatted(hoFilter);
+    }
+}
@@ -0,0 +1,40 @@
+package com.nhom33.quanlychungcu.repository;
+
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * Repository JDBC chỉ đọc ID tòa nhà phục vụ phân quyền (SecurityHelper).
+ *
+ * Chỉ SELECT cột ID, không nạp entity ToaNha (EAGER NguoiQuanLy...) như
+ * ToaNhaRepository.findAll() / findByNguoiQuanLyId().
+ */
+@Repository
+public class ToaNhaAclRepository {
+
+    private final NamedParameterJdbcTemplate jdbc;
+
+    public ToaNhaAclRepository(NamedParameterJdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    /**
+     * ID tất cả tòa nhà (cho ADMIN).
+     */
+    public List<Integer> findAllIds() {
+        return jdbc.queryForList("SELECT ID_ToaNha FROM ToaNha ORDER BY ID_ToaNha",
+            new MapSqlParameterSource(), Integer.class);
+    }
+
+    /**
+     * ID các tòa nhà do user quản lý (cho MANAGER).
+     */
+    public List<Integer> findIdsByNguoiQuanLy(Integer userId) {
+        return jdbc.queryForList(
+            "SELECT ID_ToaNha FROM ToaNha WHERE ID_NguoiQuanLy = :userId ORDER BY ID_ToaNha",
+            new MapSqlParameterSource("userId", userId), Integer.class);
+    }
+}
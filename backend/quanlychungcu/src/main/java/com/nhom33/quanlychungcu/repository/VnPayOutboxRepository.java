@@ -0,0 +1,162 @@
+package com.nhom33.quanlychungcu.repository;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Repository JDBC cho bảng VnPayCallbackOutbox (hàng đợi kết quả thanh toán VNPAY).
+ *
+ * - enqueue: một INSERT, trùng vnp_TransactionNo thì bỏ qua
+ * - claim: UPDATE TOP (n) ... OUTPUT với READPAST để nhiều worker lấy lô khác nhau
+ *   mà không chờ khóa của nhau; dòng DangXuLy quá hạn (worker chết) được lấy lại
+ * - markBatch: cập nhật kết quả cả lô bằng JDBC batch
+ */
+@Repository
+public class VnPayOutboxRepository {
+
+    public static final String CHO_XU_LY = "ChoXuLy";
+    public static final String DANG_XU_LY = "DangXuLy";
+    public static final String THANH_CONG = "ThanhCong";
+    public static final String TRUNG_LAP = "TrungLap";
+    public static final String LOI = "Loi";
+
+    private final NamedParameterJdbcTemplate jdbc;
+
+    public VnPayOutboxRepository(NamedParameterJdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    // ===== Kiểu dữ liệu =====
+
+    public record OutboxWrite(String maGiaoDich, String maThamChieu, int hoaDonId, BigDecimal soTien,
+                              String maNganHang, String maPhanHoi, String thongTin) {}
+
+    public record OutboxRow(long id, String maGiaoDich, String maThamChieu, int hoaDonId, BigDecimal soTien,
+                            String maNganHang, String maPhanHoi, String thongTin, String trangThai,
+                            int soLanThu, String loi, LocalDateTime ngayTao, LocalDateTime ngayXuLy) {}
+
+    /**
+     * Kết quả xử lý một dòng (trangThai = ChoXuLy nghĩa là trả lại hàng đợi để thử lại).
+     */
+    public record KetQuaWrite(long id, String trangThai, String loi) {}
+
+    // ===== WRITE =====
+
+    /**
+     * Ghi kết quả thanh toán vào hàng đợi.
+     * @return false nếu vnp_TransactionNo đã có trong hàng đợi
+     */
+    public boolean enqueue(OutboxWrite w) {
+        String sql = """
+            INSERT INTO VnPayCallbackOutbox (MaGiaoDichVNPAY, MaThamChieu, ID_HoaDon, SoTien,
+                                             MaNganHang, MaPhanHoi, ThongTin, TrangThai, NgayTao)
+            SELECT :maGiaoDich, :maThamChieu, :hoaDonId, :soTien, :maNganHang, :maPhanHoi, :thongTin, :choXuLy, :ngayTao
+            WHERE NOT EXISTS (SELECT 1 FROM VnPayCallbackOutbox WHERE MaGiaoDichVNPAY = :maGiaoDich)
+            """;
+        MapSqlParameterSource params = new MapSqlParameterSource("maGiaoDich", w.maGiaoDich())
+            .addValue("maThamChieu", w.maThamChieu())
+            .addValue("hoaDonId", w.hoaDonId())
+            .addValue("soTien", w.soTien())
+            .addValue("maNganHang", w.maNganHang())
+            .addValue("maPhanHoi", w.maPhanHoi())
+            .addValue("thongTin", w.thongTin())
+            .addValue("choXuLy", CHO_XU_LY)
+            .addValue("ngayTao", Timestamp.valueOf(LocalDateTime.now()));
+        try {
+            return jdbc.update(sql, params) > 0;
+        } catch (DuplicateKeyException e) {
+            // Hai callback cùng mã chen nhau giữa NOT EXISTS và INSERT
+            return false;
+        }
+    }
+
+    /**
+     * Lấy (và đánh dấu DangXuLy) tối đa batchSize dòng chờ xử lý, cũ nhất trước.
+     *
+     * @param quaHan dòng DangXuLy có NgayXuLy trước mốc này được coi là bị bỏ dở
+     */
+    public List<OutboxRow> claim(int batchSize, LocalDateTime quaHan) {
+        String sql = """
+            WITH lo AS (
+                SELECT TOP (:batchSize) *
+                FROM VnPayCallbackOutbox WITH (ROWLOCK, UPDLOCK, READPAST)
+                WHERE TrangThai = :choXuLy OR (TrangThai = :dangXuLy AND NgayXuLy < :quaHan)
+                ORDER BY ID_Outbox
+            )
+            UPDATE lo SET TrangThai = :dangXuLy, SoLanThu = SoLanThu + 1, NgayXuLy = :now
+            OUTPUT inserted.ID_Outbox, inserted.MaGiaoDichVNPAY, inserted.MaThamChieu, inserted.ID_HoaDon,
+                   inserted.SoTien, inserted.MaNganHang, inserted.MaPhanHoi, inserted.ThongTin,
+                   inserted.TrangThai, inserted.SoLanThu, inserted.Loi, inserted.NgayTao, inserted.NgayXuLy;
+            """;
+        MapSqlParameterSource params = new MapSqlParameterSource("batchSize", batchSize)
+            .addValue("choXuLy", CHO_XU_LY)
+            .addValue("dangXuLy", DANG_XU_LY)
+            .addValue("quaHan", Timestamp.valueOf(quaHan))
+            .addValue("now", Timestamp.valueOf(LocalDateTime.now()));
+        List<OutboxRow> rows = jdbc.query(sql, params, ROW_MAPPER);
+        return rows.stream().sorted((a, b) -> Long.compare(a.id(), b.id())).toList();
+    }
+
+    /**
+     * Ghi kết quả xử lý của cả lô (một batch).
+     */
+    public void markBatch(List<KetQuaWrite> rows) {
+        if (rows.isEmpty()) return;
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        String sql = "UPDATE VnPayCallbackOutbox SET TrangThai = :trangThai, Loi = :loi, NgayXuLy = :now WHERE ID_Outbox = :id";
+        jdbc.batchUpdate(sql, rows.stream()
+            .map(r -> (SqlParameterSource) new MapSqlParameterSource("id", r.id())
+                .addValue("trangThai", r.trangThai())
+                .addValue("loi", r.loi())
+                .addValue("now", now))
+            .toArray(SqlParameterSource[]::new));
+    }
+
+    // ===== READ =====
+
+    public Optional<OutboxRow> findByMaGiaoDich(String maGiaoDich) {
+        List<OutboxRow> rows = jdbc.query("SELECT " + COLUMNS + " FROM VnPayCallbackOutbox WHERE MaGiaoDichVNPAY = :ma",
+            new MapSqlParameterSource("ma", maGiaoDich), ROW_MAPPER);
+        return rows.stream().findFirst();
+    }
+
+    /**
+     * Các giao dịch gần nhất của một hóa đơn (mới nhất trước).
+     */
+    public List<OutboxRow> findByHoaDon(int hoaDonId, int limit) {
+        return jdbc.query("SELECT TOP (:limit) " + COLUMNS + """
+             FROM VnPayCallbackOutbox WHERE ID_HoaDon = :hoaDonId ORDER BY ID_Outbox DESC
+            """, new MapSqlParameterSource("hoaDonId", hoaDonId).addValue("limit", limit), ROW_MAPPER);
+    }
+
+    /**
+     * Số dòng chưa xử lý xong (ChoXuLy + DangXuLy), để theo dõi độ trễ hàng đợi.
+     */
+    public long countChuaXong() {
+        Long n = jdbc.queryForObject("SELECT COUNT_BIG(*) FROM VnPayCallbackOutbox WHERE TrangThai IN (:ds)",
+            new MapSqlParameterSource("ds", List.of(CHO_XU_LY, DANG_XU_LY)), Long.class);
+        return n != null ? n : 0;
+    }
+
+    private static final String COLUMNS = """
+        ID_Outbox, MaGiaoDichVNPAY, MaThamChieu, ID_HoaDon, SoTien, MaNganHang, MaPhanHoi, ThongTin,
+        TrangThai, SoLanThu, Loi, NgayTao, NgayXuLy""";
+
+    private static final RowMapper<OutboxRow> ROW_MAPPER = (rs, i) -> {
+        Timestamp ngayTao = rs.getTimestamp(12);
+        Timestamp ngayXuLy = rs.getTimestamp(13);
+        return new OutboxRow(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getInt(4), rs.getBigDecimal(5),
+            rs.getString(6), rs.getString(7), rs.getString(8), rs.getString(9), rs.getInt(10), rs.getString(11),
+            ngayTao != null ? ngayTao.toLocalDateTime() : null, ngayXuLy != null ? ngayXuLy.toLocalDateTime() : null);
+    };
+}
@@ -1,6 +1,7 @@
 package com.nhom33.quanlychungcu.service;
 
 import com.nhom33.quanlychungcu.config.JwtService;
+import com.nhom33.quanlychungcu.config.TokenVersionStore;
 import com.nhom33.quanlychungcu.entity.Role;
 import com.nhom33.quanlychungcu.entity.UserAccount;
 import com.nhom33.quanlychungcu.repository.UserAccountRepository;
@@ -20,15 +21,18 @@ public class AuthService implements UserDetailsService {
     private final PasswordEncoder passwordEncoder;
     private final AuthenticationManager authenticationManager;
     private final JwtService jwtService;
+    private final TokenVersionStore tokenVersionStore;
 
     public AuthService(UserAccountRepository userRepo,
                        PasswordEncoder passwordEncoder,
                        AuthenticationManager authenticationManager,
-                       JwtService jwtService) {
+                       JwtService jwtService,
+                       TokenVersionStore tokenVersionStore) {
         this.userRepo = userRepo;
         this.passwordEncoder = passwordEncoder;
         this.authenticationManager = authenticationManager;
         this.jwtService = jwtService;
+        this.tokenVersionStore = tokenVersionStore;
     }
 
     @Transactional
@@ -61,6 +65,13 @@ public class AuthService implements UserDetailsService {
         return new LoginResult(user.getUsername(), user.getRole(), token);
     }
 
+    /**
+     * Thu hồi mọi token đã phát hành của user (đăng xuất khỏi tất cả thiết bị, reset mật khẩu).
+     */
+    public void revokeTokens(Integer userId) {
+        tokenVersionStore.revoke(userId);
+    }
+
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
         return userRepo.findByUsername(username)
@@ -34,16 +34,25 @@ public class BangGiaService {
     private final LoaiPhiRepository loaiPhiRepository;
     private final ToaNhaRepository toaNhaRepository;
     private final SecurityHelper securityHelper;
+    private final DonGiaCache donGiaCache;
+    private final InvoiceDeltaService invoiceDeltaService;
+    private final DonGiaRecalcJob donGiaRecalcJob;
 
     public BangGiaService(
             BangGiaDichVuRepository bangGiaRepository,
             LoaiPhiRepository loaiPhiRepository,
             ToaNhaRepository toaNhaRepository,
-            SecurityHelper securityHelper) {
+            SecurityHelper securityHelper,
+            DonGiaCache donGiaCache,
+            InvoiceDeltaService invoiceDeltaService,
+            DonGiaRecalcJob donGiaRecalcJob) {
         this.bangGiaRepository = bangGiaRepository;
         this.loaiPhiRepository = loaiPhiRepository;
         this.toaNhaRepository = toaNhaRepository;
         this.securityHelper = securityHelper;
+        this.donGiaCache = donGiaCache;
+        this.invoiceDeltaService = invoiceDeltaService;
+        this.donGiaRecalcJob = donGiaRecalcJob;
     }
 
     // ===== CORE: Lấy giá với logic ưu tiên =====
@@ -56,6 +65,8 @@ public class BangGiaService {
      * 2. Nếu không có -> trả về giá mặc định từ LoaiPhi.donGia.
      * 3. Nếu không có cả hai -> trả về 0 (để tránh NPE).
      * 
+     * Kết quả được cache theo (loaiPhiId, toaNhaId) trong DonGiaCache.
+     * 
      * @param loaiPhiId ID loại phí
      * @param toaNhaId  ID tòa nhà (có thể null)
      * @return Đơn giá áp dụng, hoặc BigDecimal.ZERO nếu không tìm thấy
@@ -66,6 +77,13 @@ public class BangGiaService {
             return BigDecimal.ZERO;
         }
         
+        return donGiaCache.get(loaiPhiId, toaNhaId, () -> loadDonGiaApDung(loaiPhiId, toaNhaId));
+    }
+
+    /**
+     * Query DB để resolve đơn giá (khi cache miss).
+     */
+    private BigDecimal loadDonGiaApDung(Integer loaiPhiId, Integer toaNhaId) {
         // Ưu tiên 1: Tìm giá riêng trong BangGiaDichVu (nếu có toaNhaId)
         if (toaNhaId != null) {
             Optional<BigDecimal> giaRieng = bangGiaRepository.findDonGiaByLoaiPhiAndToaNha(loaiPhiId, toaNhaId);
@@ -138,6 +156,8 @@ public class BangGiaService {
      * - Với mỗi (loaiPhiId, donGiaRieng) trong danh sách:
      *   + Nếu đã có bảng giá -> Update donGia.
      *   + Nếu chưa có -> Insert mới.
+     * - Bảng giá hiện có của tòa nhà đọc một lần; ghi một lần cuối (UPDATE gom batch, không có query
+     *   xen giữa gây auto-flush từng dòng), rồi mới xóa cache và tính lại hóa đơn cho từng loại phí.
      * 
      * @param cauHinhGiaDTO DTO chứa toaNhaId và danh sách giá
      * @return Số lượng bản ghi được upsert
@@ -150,13 +170,29 @@ public class BangGiaService {
         ToaNha toaNha = toaNhaRepository.findById(toaNhaId)
                 .orElseThrow(() -> new RuntimeException("Không tìm thấy tòa nhà với ID: " + toaNhaId));
 
-        int count = 0;
+        Map<Integer, BangGiaDichVu> hienCo = new HashMap<>();
+        for (BangGiaDichVu bg : bangGiaRepository.findByToaNhaId(toaNhaId)) {
+            hienCo.put(bg.getLoaiPhi().getId(), bg);
+        }
+
+        List<BangGiaDichVu> danhSach = new ArrayList<>();
         for (ChiTietGiaDTO chiTiet : cauHinhGiaDTO.getDanhSachGia()) {
-            upsertBangGia(chiTiet.getLoaiPhiId(), toaNha, chiTiet.getDonGiaRieng(), chiTiet.getGhiChu());
-            count++;
+            Integer loaiPhiId = chiTiet.getLoaiPhiId();
+            BangGiaDichVu bangGia = ganGia(loaiPhiId, toaNha, chiTiet.getDonGiaRieng(), chiTiet.getGhiChu(),
+                    Optional.ofNullable(hienCo.get(loaiPhiId)));
+            hienCo.put(loaiPhiId, bangGia);
+            danhSach.add(bangGia);
+        }
+
+        bangGiaRepository.saveAll(danhSach);
+        bangGiaRepository.flush();
+        for (BangGiaDichVu bangGia : danhSach) {
+            Integer loaiPhiId = bangGia.getLoaiPhi().getId();
+            donGiaCache.evict(loaiPhiId, toaNhaId);
+            invoiceDeltaService.onDonGiaChanged(loaiPhiId, toaNhaId);
         }
 
-        return count;
+        return danhSach.size();
     }
 
     /**
@@ -172,17 +208,27 @@ public class BangGiaService {
 
     /**
      * Upsert một bảng giá với ToaNha entity.
+     * Hóa đơn của các đợt thu chưa kết thúc trong tòa nhà được tính lại theo giá mới.
      */
     @Transactional
     public BangGiaDichVu upsertBangGia(Integer loaiPhiId, ToaNha toaNha, BigDecimal donGia, String ghiChu) {
+        Optional<BangGiaDichVu> existingOpt = bangGiaRepository
+                .findByLoaiPhiIdAndToaNhaId(loaiPhiId, toaNha.getId());
+        BangGiaDichVu saved = bangGiaRepository.saveAndFlush(ganGia(loaiPhiId, toaNha, donGia, ghiChu, existingOpt));
+        donGiaCache.evict(loaiPhiId, toaNha.getId());
+        invoiceDeltaService.onDonGiaChanged(loaiPhiId, toaNha.getId());
+        return saved;
+    }
+
+    /**
+     * Gán giá vào bảng giá hiện có (existingOpt) hoặc tạo bảng giá mới (chưa lưu).
+     */
+    private BangGiaDichVu ganGia(Integer loaiPhiId, ToaNha toaNha, BigDecimal donGia, String ghiChu,
+                                 Optional<BangGiaDichVu> existingOpt) {
         // Validate loại phí
         LoaiPhi loaiPhi = loaiPhiRepository.findById(loaiPhiId)
                 .orElseThrow(() -> new RuntimeException("Không tìm thấy loại phí với ID: " + loaiPhiId));
 
-        // Tìm bảng giá hiện có
-        Optional<BangGiaDichVu> existingOpt = bangGiaRepository
-                .findByLoaiPhiIdAndToaNhaId(loaiPhiId, toaNha.getId());
-
         BangGiaDichVu bangGia;
         if (existingOpt.isPresent()) {
             // Update
@@ -201,8 +247,7 @@ public class BangGiaService {
             bangGia.setNgayApDung(LocalDateTime.now());
             bangGia.setGhiChu(ghiChu);
         }
-
-        return bangGiaRepository.save(bangGia);
+        return bangGia;
     }
 
     // ===== DELETE =====
@@ -212,7 +257,13 @@ public class BangGiaService {
      */
     @Transactional
     public void deleteById(Integer id) {
+        Optional<BangGiaDichVu> existing = bangGiaRepository.findById(id);
         bangGiaRepository.deleteById(id);
+        existing.ifPresent(bg -> {
+            bangGiaRepository.flush();
+            donGiaCache.evict(bg.getLoaiPhi().getId(), bg.getToaNha().getId());
+            invoiceDeltaService.onDonGiaChanged(bg.getLoaiPhi().getId(), bg.getToaNha().getId());
+        });
     }
 
     /**
@@ -221,6 +272,9 @@ public class BangGiaService {
     @Transactional
     public void deleteByLoaiPhiAndToaNha(Integer loaiPhiId, Integer toaNhaId) {
         bangGiaRepository.deleteByLoaiPhiIdAndToaNhaId(loaiPhiId, toaNhaId);
+        bangGiaRepository.flush();
+        donGiaCache.evict(loaiPhiId, toaNhaId);
+        invoiceDeltaService.onDonGiaChanged(loaiPhiId, toaNhaId);
     }
 
     /**
@@ -229,6 +283,10 @@ public class BangGiaService {
     @Transactional
     public void deleteByLoaiPhi(Integer loaiPhiId) {
         bangGiaRepository.deleteByLoaiPhiId(loaiPhiId);
+        bangGiaRepository.flush();
+        donGiaCache.evictLoaiPhi(loaiPhiId);
+        // Mọi tòa nhà quay về giá mặc định: tính lại sau khi commit, không chặn request
+        donGiaRecalcJob.schedule(loaiPhiId);
     }
 
     /**
@@ -236,7 +294,22 @@ public class BangGiaService {
      */
     @Transactional
     public void deleteByToaNha(Integer toaNhaId) {
+        List<Integer> loaiPhiIds = bangGiaRepository.findByToaNhaId(toaNhaId).stream()
+                .map(bg -> bg.getLoaiPhi().getId())
+                .toList();
         bangGiaRepository.deleteByToaNhaId(toaNhaId);
+        bangGiaRepository.flush();
+        donGiaCache.evictToaNha(toaNhaId);
+        for (Integer loaiPhiId : loaiPhiIds) {
+            invoiceDeltaService.onDonGiaChanged(loaiPhiId, toaNhaId);
+        }
+    }
+
+    /**
+     * Thống kê cache đơn giá (hit/miss).
+     */
+    public Map<String, Object> getCacheStatistics() {
+        return donGiaCache.getStatistics();
     }
 
     // ===== RESPONSE BUILDERS =====
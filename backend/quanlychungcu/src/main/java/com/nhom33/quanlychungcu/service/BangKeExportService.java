@@ -0,0 +1,272 @@
+package com.nhom33.quanlychungcu.service;
+
+import com.nhom33.quanlychungcu.exception.ResourceNotFoundException;
+import com.nhom33.quanlychungcu.repository.BangKeRepository;
+import com.nhom33.quanlychungcu.repository.BangKeRepository.BangKeLine;
+import com.nhom33.quanlychungcu.repository.BangKeRepository.KyThuRow;
+import com.nhom33.quanlychungcu.repository.BangKeRepository.PhiCotRow;
+import com.nhom33.quanlychungcu.util.TabularWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Service: Export bảng kê đợt thu (CSV / XLSX) theo kiểu streaming.
+ *
+ * - Kiểm tra đợt thu + quyền truy cập NGAY trong request (trước khi trả header)
+ * - Dữ liệu đọc bằng một câu JOIN duy nhất (BangKeRepository.streamBangKe),
+ *   mỗi hóa đơn được ghi ra response ngay khi đọc xong các dòng chi tiết của nó
+ * - Bộ nhớ chỉ giữ một hóa đơn tại một thời điểm, không phụ thuộc số hộ
+ * - Hỗ trợ export nhiều đợt thu (nhiều tòa nhà) vào một file
+ */
+@Service
+public class BangKeExportService {
+
+    private static final Logger log = LoggerFactory.getLogger(BangKeExportService.class);
+
+    private final BangKeRepository bangKeRepo;
+    private final SecurityHelper securityHelper;
+
+    public BangKeExportService(BangKeRepository bangKeRepo, SecurityHelper securityHelper) {
+        this.bangKeRepo = bangKeRepo;
+        this.securityHelper = securityHelper;
+    }
+
+    /**
+     * File export đã sẵn sàng để stream.
+     */
+    public record ExportFile(String filename, String contentType, StreamingResponseBody body) {}
+
+    /**
+     * Cột loại phí của bảng kê (gộp theo ID loại phí nếu export nhiều đợt thu).
+     */
+    private record CotPhi(int loaiPhiId, String tieuDe) {}
+
+    // ===== Public API =====
+
+    /**
+     * Export bảng kê của một đợt thu.
+     */
+    public ExportFile exportDotThu(Integer dotThuId, TabularWriter.Format format) {
+        List<KyThuRow> kyThu = bangKeRepo.findKyThu(List.of(dotThuId));
+        if (kyThu.isEmpty()) {
+            throw new ResourceNotFoundException("Không tìm thấy đợt thu với ID: " + dotThuId);
+        }
+        KyThuRow dotThu = kyThu.get(0);
+        if (dotThu.toaNhaId() == null) {
+            throw new IllegalStateException("Đợt thu chưa được gán tòa nhà");
+        }
+        checkAccess(kyThu);
+
+        String filename = "BangKe_DotThu_" + dotThuId + "_" + LocalDate.now() + "." + format.getExtension();
+        return new ExportFile(filename, format.getContentType(), stream(kyThu, format, false));
+    }
+
+    /**
+     * Export bảng kê của nhiều đợt thu vào một file (thêm cột Đợt thu / Tòa nhà).
+     */
+    public ExportFile exportNhieuDotThu(Collection<Integer> dotThuIds, TabularWriter.Format format) {
+        if (dotThuIds == null || dotThuIds.isEmpty()) {
+            throw new IllegalArgumentException("Danh sách đợt thu không được rỗng");
+        }
+        Set<Integer> ids = new LinkedHashSet<>(dotThuIds);
+        List<KyThuRow> kyThu = bangKeRepo.findKyThu(ids);
+        if (kyThu.size() < ids.size()) {
+            Set<Integer> missing = new LinkedHashSet<>(ids);
+            kyThu.forEach(k -> missing.remove(k.dotThuId()));
+            throw new ResourceNotFoundException("Không tìm thấy đợt thu với ID: " + missing);
+        }
+        checkAccess(kyThu);
+
+        String filename = "BangKe_" + kyThu.size() + "_DotThu_" + LocalDate.now() + "." + format.getExtension();
+        return new ExportFile(filename, format.getContentType(), stream(kyThu, format, true));
+    }
+
+    /**
+     * Export bảng kê của tất cả đợt thu trong kỳ mà user được phép xem.
+     */
+    public ExportFile exportKy(int thang, int nam, TabularWriter.Format format) {
+        List<KyThuRow> kyThu = bangKeRepo.findKyThuByKy(thang, nam).stream()
+            .filter(k -> k.toaNhaId() != null && canView(k.toaNhaId()))
+            .toList();
+        if (kyThu.isEmpty()) {
+            throw new ResourceNotFoundException("Không có đợt thu nào trong kỳ " + thang + "/" + nam);
+        }
+
+        String filename = "BangKe_" + nam + "_" + String.format("%02d", thang) + "_" + LocalDate.now()
+            + "." + format.getExtension();
+        return new ExportFile(filename, format.getContentType(), stream(kyThu, format, true));
+    }
+
+    // ===== Streaming =====
+
+    private StreamingResponseBody stream(List<KyThuRow> kyThu, TabularWriter.Format format, boolean nhieuDotThu) {
+        List<Integer> dotThuIds = kyThu.stream().map(KyThuRow::dotThuId).toList();
+        Map<Integer, KyThuRow> kyThuById = new HashMap<>();
+        kyThu.forEach(k -> kyThuById.put(k.dotThuId(), k));
+
+        // Cột loại phí: theo thứ tự cấu hình, gộp trùng theo ID loại phí
+        Map<Integer, Integer> cotIndex = new LinkedHashMap<>();
+        List<CotPhi> cotPhi = new ArrayList<>();
+        for (PhiCotRow p : bangKeRepo.findPhiCot(dotThuIds)) {
+            if (!cotIndex.containsKey(p.loaiPhiId())) {
+                cotIndex.put(p.loaiPhiId(), cotPhi.size());
+                cotPhi.add(new CotPhi(p.loaiPhiId(), p.tenLoaiPhi()));
+            }
+        }
+
+        String sheetName = nhieuDotThu ? "Bảng kê" : kyThu.get(0).tenDotThu();
+
+        return out -> {
+            long start = System.currentTimeMillis();
+            try (TabularWriter writer = TabularWriter.open(format, out, sheetName)) {
+                List<Object> header = new ArrayList<>();
+                header.add("STT");
+                if (nhieuDotThu) {
+                    header.add("Đợt thu");
+                    header.add("Tòa nhà");
+                }
+                header.addAll(List.of("Mã hộ", "Căn hộ", "Chủ hộ"));
+                cotPhi.forEach(c -> header.add(c.tieuDe()));
+                header.addAll(List.of("Tổng tiền", "Đã đóng", "Còn nợ", "Trạng thái"));
+                writer.writeRow(header);
+
+                RowAssembler assembler = new RowAssembler(writer, kyThuById, cotIndex, cotPhi.size(), nhieuDotThu);
+                try {
+                    bangKeRepo.streamBangKe(dotThuIds, assembler::accept);
+                    assembler.flush();
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+
+                // Dòng tổng cộng (cách một dòng trống, giống bản CSV cũ)
+                writer.writeRow(List.of());
+                List<Object> tong = new ArrayList<>();
+                tong.addAll(Collections.nCopies(nhieuDotThu ? 5 : 3, null));
+                tong.add("TỔNG CỘNG");
+                tong.addAll(Collections.nCopies(cotPhi.size(), null));
+                tong.add(assembler.tongPhaiThu);
+                tong.add(assembler.tongDaDong);
+                tong.add(assembler.tongPhaiThu.subtract(assembler.tongDaDong));
+                tong.add(null);
+                writer.writeRow(tong);
+
+                log.info("Export bảng kê {} ({} đợt thu, {} hóa đơn) trong {} ms",
+                    format, dotThuIds.size(), assembler.stt, System.currentTimeMillis() - start);
+            }
+        };
+    }
+
+    /**
+     * Gom các dòng JOIN liên tiếp của cùng một hóa đơn thành một dòng bảng kê.
+     * Kết quả JOIN đã sắp xếp theo hóa đơn nên chỉ cần giữ hóa đơn đang đọc.
+     */
+    private static final class RowAssembler {
+
+        private final TabularWriter writer;
+        private final Map<Integer, KyThuRow> kyThuById;
+        private final Map<Integer, Integer> cotIndex;
+        private final int soCot;
+        private final boolean nhieuDotThu;
+
+        private BangKeLine current;
+        private BigDecimal[] phi;
+        private int stt = 0;
+        private BigDecimal tongPhaiThu = BigDecimal.ZERO;
+        private BigDecimal tongDaDong = BigDecimal.ZERO;
+
+        RowAssembler(TabularWriter writer, Map<Integer, KyThuRow> kyThuById,
+                     Map<Integer, Integer> cotIndex, int soCot, boolean nhieuDotThu) {
+            this.writer = writer;
+            this.kyThuById = kyThuById;
+            this.cotIndex = cotIndex;
+            this.soCot = soCot;
+            this.nhieuDotThu = nhieuDotThu;
+        }
+
+        void accept(BangKeLine line) {
+            if (current == null || current.hoaDonId() != line.hoaDonId()) {
+                flush();
+                current = line;
+                phi = new BigDecimal[soCot];
+            }
+            if (line.loaiPhiId() != null && line.thanhTien() != null) {
+                Integer idx = cotIndex.get(line.loaiPhiId());
+                if (idx != null) {
+                    phi[idx] = phi[idx] == null ? line.thanhTien() : phi[idx].add(line.thanhTien());
+                }
+            }
+        }
+
+        void flush() {
+            if (current == null) return;
+
+            BigDecimal tongTien = nz(current.tongTien());
+            BigDecimal daDong = nz(current.daDong());
+
+            List<Object> row = new ArrayList<>(soCot + 10);
+            row.add(++stt);
+            if (nhieuDotThu) {
+                KyThuRow k = kyThuById.get(current.dotThuId());
+                row.add(k != null ? k.tenDotThu() : null);
+                row.add(k != null ? k.tenToaNha() : null);
+            }
+            row.add(current.maHoGiaDinh());
+            row.add(current.soCanHo());
+            row.add(current.chuHo());
+            for (BigDecimal p : phi) {
+                row.add(p != null ? p : BigDecimal.ZERO);
+            }
+            row.add(tongTien);
+            row.add(daDong);
+            row.add(tongTien.subtract(daDong));
+            row.add(trangThaiLabel(current.trangThai()));
+
+            try {
+                writer.writeRow(row);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            tongPhaiThu = tongPhaiThu.add(tongTien);
+            tongDaDong = tongDaDong.add(daDong);
+            current = null;
+        }
+    }
+
+    // ===== Helpers =====
+
+    private boolean canView(Integer toaNhaId) {
+        return securityHelper.canViewAll() || securityHelper.canAccessBuilding(toaNhaId);
+    }
+
+    private void checkAccess(List<KyThuRow> kyThu) {
+        for (KyThuRow k : kyThu) {
+            if (k.toaNhaId() != null && !canView(k.toaNhaId())) {
+                throw new AccessDeniedException("Bạn không có quyền truy cập đợt thu của tòa nhà này");
+            }
+        }
+    }
+
+    private static BigDecimal nz(BigDecimal value) {
+        return value != null ? value : BigDecimal.ZERO;
+    }
+
+    static String trangThaiLabel(String trangThai) {
+        if (trangThai == null) return null;
+        return switch (trangThai) {
+            case "DaThanhToan" -> "Đã thanh toán";
+            case "ThanhToanMotPhan" -> "Thanh toán một phần";
+            case "ChuaThanhToan" -> "Chưa thanh toán";
+            default -> trangThai;
+        };
+    }
+}
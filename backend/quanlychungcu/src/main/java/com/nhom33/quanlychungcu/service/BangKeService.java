@@ -0,0 +1,165 @@
+package com.nhom33.quanlychungcu.service;
+
+import com.nhom33.quanlychungcu.exception.ResourceNotFoundException;
+import com.nhom33.quanlychungcu.repository.BangKeRepository;
+import com.nhom33.quanlychungcu.repository.BangKeRepository.BangKeLine;
+import com.nhom33.quanlychungcu.repository.BangKeRepository.BangKeTrang;
+import com.nhom33.quanlychungcu.repository.BangKeRepository.KyThuRow;
+import com.nhom33.quanlychungcu.repository.BangKeRepository.PhiCotRow;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * Service: Bảng kê đợt thu (hộ × loại phí).
+ *
+ * - Dữ liệu của một trang được đọc bằng MỘT câu SQL (BangKeRepository.findBangKeTrang),
+ *   kèm tổng số hóa đơn và tổng tiền của cả đợt thu (window function)
+ * - Phân trang + sắp xếp theo mã hộ làm ở DB, không sort trong Java
+ * - Pivot (mỗi hộ một dòng, mỗi loại phí một cột) dựng từ kết quả JOIN theo thứ tự cột cấu hình
+ * - Trả về DTO record có kiểu thay cho Map<String, Object>
+ */
+@Service
+public class BangKeService {
+
+    /** Kích thước trang tối đa cho màn hình bảng kê. */
+    public static final int MAX_PAGE_SIZE = 500;
+
+    private final BangKeRepository bangKeRepo;
+    private final SecurityHelper securityHelper;
+
+    public BangKeService(BangKeRepository bangKeRepo, SecurityHelper securityHelper) {
+        this.bangKeRepo = bangKeRepo;
+        this.securityHelper = securityHelper;
+    }
+
+    // ===== DTO =====
+
+    /**
+     * Cột loại phí của bảng kê.
+     */
+    public record CotPhi(int loaiPhiId, String tenLoaiPhi, String donViTinh) {}
+
+    /**
+     * Một khoản phí của hộ.
+     */
+    public record ChiTietPhi(int loaiPhiId, String tenLoaiPhi, String donViTinh,
+                             Double soLuong, BigDecimal donGia, BigDecimal thanhTien) {}
+
+    /**
+     * Một dòng bảng kê (một hóa đơn).
+     *
+     * @param phi thành tiền theo từng cột trong {@link BangKe#cotPhi()} (0 nếu hộ không có khoản đó)
+     */
+    public record DongBangKe(int hoaDonId, String maHoGiaDinh, String soCanHo, String chuHo,
+                             List<BigDecimal> phi, List<ChiTietPhi> chiTiet,
+                             BigDecimal tongTien, BigDecimal daDong, BigDecimal conNo, String trangThai) {}
+
+    /**
+     * Bảng kê (một trang). Các tổng tính trên toàn bộ đợt thu, không chỉ trang hiện tại.
+     */
+    public record BangKe(int dotThuId, String tenDotThu, String toaNha,
+                         List<String> loaiPhiOrder, List<CotPhi> cotPhi, List<DongBangKe> danhSach,
+                         BigDecimal tongCong, BigDecimal tongDaDong, BigDecimal tongConNo, int soHoaDon,
+                         int page, int size, int totalPages) {}
+
+    // ===== Public API =====
+
+    /**
+     * Lấy toàn bộ bảng kê (không phân trang), sắp xếp theo mã hộ tăng dần.
+     */
+    public BangKe getBangKe(Integer dotThuId) {
+        return getBangKe(dotThuId, 0, null, false);
+    }
+
+    /**
+     * Lấy một trang bảng kê.
+     *
+     * @param page    trang (0-based)
+     * @param size    số hộ mỗi trang; null = tất cả
+     * @param giamDan true: sắp xếp mã hộ giảm dần
+     */
+    public BangKe getBangKe(Integer dotThuId, int page, Integer size, boolean giamDan) {
+        if (page < 0) {
+            throw new IllegalArgumentException("Số trang không hợp lệ: " + page);
+        }
+        if (size != null && (size < 1 || size > MAX_PAGE_SIZE)) {
+            throw new IllegalArgumentException("Kích thước trang phải từ 1 đến " + MAX_PAGE_SIZE);
+        }
+
+        List<KyThuRow> kyThu = bangKeRepo.findKyThu(List.of(dotThuId));
+        if (kyThu.isEmpty()) {
+            throw new ResourceNotFoundException("Không tìm thấy đợt thu với ID: " + dotThuId);
+        }
+        KyThuRow dotThu = kyThu.get(0);
+        if (dotThu.toaNhaId() == null) {
+            throw new IllegalStateException("Đợt thu chưa được gán tòa nhà");
+        }
+        if (!securityHelper.canViewAll() && !securityHelper.canAccessBuilding(dotThu.toaNhaId())) {
+            throw new AccessDeniedException("Bạn không có quyền truy cập đợt thu của tòa nhà này");
+        }
+
+        // Cột loại phí theo thứ tự cấu hình của đợt thu
+        List<CotPhi> cotPhi = new ArrayList<>();
+        Map<Integer, Integer> cotIndex = new HashMap<>();
+        for (PhiCotRow p : bangKeRepo.findPhiCot(List.of(dotThuId))) {
+            if (cotIndex.putIfAbsent(p.loaiPhiId(), cotPhi.size()) == null) {
+                cotPhi.add(new CotPhi(p.loaiPhiId(), p.tenLoaiPhi(), p.donViTinh()));
+            }
+        }
+
+        int offset = size != null ? page * size : 0;
+        BangKeTrang trang = bangKeRepo.findBangKeTrang(dotThuId, offset, size, giamDan);
+        List<DongBangKe> danhSach = pivot(trang.lines(), cotIndex, cotPhi.size());
+
+        BigDecimal tongCong = nz(trang.tongPhaiThu());
+        BigDecimal tongDaDong = nz(trang.tongDaDong());
+        int soHoaDon = trang.tongSoHoaDon();
+        int pageSize = size != null ? size : soHoaDon;
+        int totalPages = size != null ? (soHoaDon + size - 1) / size : (soHoaDon > 0 ? 1 : 0);
+
+        return new BangKe(dotThu.dotThuId(), dotThu.tenDotThu(), dotThu.tenToaNha(),
+            cotPhi.stream().map(CotPhi::tenLoaiPhi).toList(), cotPhi, danhSach,
+            tongCong, tongDaDong, tongCong.subtract(tongDaDong), soHoaDon,
+            page, pageSize, totalPages);
+    }
+
+    // ===== Pivot =====
+
+    /**
+     * Gom các dòng JOIN (đã sắp xếp theo hóa đơn) thành một dòng bảng kê mỗi hóa đơn.
+     */
+    private static List<DongBangKe> pivot(List<BangKeLine> lines, Map<Integer, Integer> cotIndex, int soCot) {
+        List<DongBangKe> result = new ArrayList<>();
+        int i = 0;
+        while (i < lines.size()) {
+            BangKeLine head = lines.get(i);
+            BigDecimal[] phi = new BigDecimal[soCot];
+            Arrays.fill(phi, BigDecimal.ZERO);
+            List<ChiTietPhi> chiTiet = new ArrayList<>();
+
+            for (; i < lines.size() && lines.get(i).hoaDonId() == head.hoaDonId(); i++) {
+                BangKeLine line = lines.get(i);
+                if (line.loaiPhiId() == null) continue;
+                chiTiet.add(new ChiTietPhi(line.loaiPhiId(), line.tenLoaiPhi(), line.donViTinh(),
+                    line.soLuong(), line.donGia(), line.thanhTien()));
+                Integer idx = cotIndex.get(line.loaiPhiId());
+                if (idx != null && line.thanhTien() != null) {
+                    phi[idx] = phi[idx].add(line.thanhTien());
+                }
+            }
+
+            BigDecimal tongTien = nz(head.tongTien());
+            BigDecimal daDong = nz(head.daDong());
+            result.add(new DongBangKe(head.hoaDonId(), head.maHoGiaDinh(), head.soCanHo(), head.chuHo(),
+                Arrays.asList(phi), chiTiet, tongTien, daDong, tongTien.subtract(daDong), head.trangThai()));
+        }
+        return result;
+    }
+
+    private static BigDecimal nz(BigDecimal value) {
+        return value != null ? value : BigDecimal.ZERO;
+    }
+}
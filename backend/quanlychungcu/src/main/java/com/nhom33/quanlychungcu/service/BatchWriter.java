@@ -0,0 +1,73 @@
+package com.nhom33.quanlychungcu.service;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * Ghi hàng loạt entity qua JPA với bộ nhớ giới hạn.
+ *
+ * Hibernate gom các câu INSERT/UPDATE cùng bảng thành batch JDBC (hibernate.jdbc.batch_size,
+ * order_inserts/order_updates). Khi persist, cứ mỗi flushInterval entity thì flush rồi clear persistence
+ * context, nên số entity được quản lý không tăng theo kích thước dữ liệu.
+ *
+ * Sau khi clear, mọi entity đã nạp trước đó (kể cả entity caller đang giữ) ở trạng thái detached:
+ * caller không được sửa tiếp chúng mà mong được lưu, và phải nạp lại nếu cần quan hệ LAZY.
+ * Mỗi hàm flush phần còn lại trước khi trả về, nên câu SQL/JDBC chạy sau trong cùng transaction thấy dữ liệu mới.
+ * Entity dùng ID IDENTITY không gom được INSERT (Hibernate phải INSERT ngay để lấy ID).
+ */
+@Component
+public class BatchWriter {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final int flushInterval;
+
+    public BatchWriter(@Value("${app.batch-writer.flush-interval:500}") int flushInterval) {
+        this.flushInterval = Math.max(1, flushInterval);
+    }
+
+    /**
+     * Persist các entity mới (chưa có ID).
+     *
+     * @return số entity đã ghi
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public int persistAll(Collection<?> entities) {
+        return forEach(entities, entityManager::persist, true);
+    }
+
+    /**
+     * Áp dụng thay đổi cho các entity đang được quản lý (đã nạp trong transaction này),
+     * flush theo lô để UPDATE được gom batch. Không clear: các entity phía sau trong danh sách
+     * phải còn managed thì thay đổi mới được ghi (danh sách vốn đã nằm trong bộ nhớ của caller).
+     *
+     * @return số entity đã ghi
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public <T> int updateAll(Collection<T> entities, Consumer<T> change) {
+        return forEach(entities, change, false);
+    }
+
+    private <T> int forEach(Collection<T> entities, Consumer<T> action, boolean clear) {
+        int count = 0;
+        for (T entity : entities) {
+            action.accept(entity);
+            if (++count % flushInterval == 0) {
+                entityManager.flush();
+                if (clear) {
+                    entityManager.clear();
+                }
+            }
+        }
+        entityManager.flush();
+        return count;
+    }
+}
@@ -0,0 +1,323 @@
+package com.nhom33.quanlychungcu.service;
+
+import com.nhom33.quanlychungcu.exception.ResourceNotFoundException;
+import com.nhom33.quanlychungcu.repository.HoaDonBulkRepository;
+import com.nhom33.quanlychungcu.repository.HoaDonBulkRepository.DotThuRow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Service: Job chốt sổ (tính tiền) nhiều tòa nhà song song.
+ *
+ * LOGIC:
+ * - Nhận danh sách ID đợt thu, hoặc "tất cả đợt thu của tháng/năm"
+ * - Mỗi đợt thu (= 1 tòa nhà) là một task trên billingCloseExecutor,
+ *   chạy trong transaction RIÊNG qua DotThuService.calculateInvoicesWithMetrics
+ * - Tòa nhà lỗi không làm rollback các tòa khác, lỗi được ghi vào kết quả của tòa đó
+ * - Hàng đợi của executor không đủ chỗ cho cả job -> từ chối ngay (TaskRejectedException),
+ *   controller trả 503 để client gửi lại sau, thay vì chạy trên thread HTTP
+ * - Tiến độ (số hộ đã xử lý) cập nhật sau mỗi khối hộ engine ghi xong, không chờ hết tòa nhà
+ * - Trạng thái job giữ trong bộ nhớ, job đã xong bị xóa sau JOB_RETENTION
+ *
+ * MULTI-TENANCY:
+ * - Kiểm tra quyền quản lý tòa nhà NGAY KHI gửi job (trên thread HTTP),
+ *   vì SecurityContext không có trên thread của executor
+ * - Xem job: chỉ job mà mọi tòa nhà trong đó đều do người dùng quản lý
+ */
+@Service
+public class BillingCloseJobService {
+
+    private static final Logger log = LoggerFactory.getLogger(BillingCloseJobService.class);
+
+    /** Thời gian giữ job đã hoàn thành để client còn xem kết quả. */
+    private static final Duration JOB_RETENTION = Duration.ofHours(24);
+
+    private final DotThuService dotThuService;
+    private final HoaDonBulkRepository bulkRepo;
+    private final SecurityHelper securityHelper;
+    private final ThreadPoolTaskExecutor executor;
+
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    public BillingCloseJobService(DotThuService dotThuService,
+                                  HoaDonBulkRepository bulkRepo,
+                                  SecurityHelper securityHelper,
+                                  @Qualifier("billingCloseExecutor") ThreadPoolTaskExecutor executor) {
+        this.dotThuService = dotThuService;
+        this.bulkRepo = bulkRepo;
+        this.securityHelper = securityHelper;
+        this.executor = executor;
+    }
+
+    // ===== Trạng thái job =====
+
+    public enum TrangThaiJob { DANG_CHO, DANG_CHAY, HOAN_THANH, HOAN_THANH_CO_LOI }
+
+    /**
+     * Kết quả của một tòa nhà (một đợt thu) trong job.
+     */
+    public static class KetQuaToaNha {
+        private final int dotThuId;
+        private final String tenDotThu;
+        private final Integer toaNhaId;
+        private final int soHo;
+        private final AtomicInteger soHoDaXuLy = new AtomicInteger();
+        private volatile TrangThaiJob trangThai = TrangThaiJob.DANG_CHO;
+        private volatile Map<String, Object> ketQua;
+        private volatile String loi;
+        private volatile long thoiGianXuLyMs;
+
+        KetQuaToaNha(DotThuRow row) {
+            this.dotThuId = row.dotThuId();
+            this.tenDotThu = row.tenDotThu();
+            this.toaNhaId = row.toaNhaId();
+            this.soHo = row.soHo();
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("dotThuId", dotThuId);
+            map.put("tenDotThu", tenDotThu);
+            map.put("toaNhaId", toaNhaId);
+            map.put("soHo", soHo);
+            map.put("soHoDaXuLy", Math.min(soHoDaXuLy.get(), soHo));
+            map.put("trangThai", trangThai);
+            map.put("thoiGianXuLyMs", thoiGianXuLyMs);
+            if (ketQua != null) {
+                map.put("soHoaDonTao", ketQua.get("soHoaDonTao"));
+                map.put("soHoThieuChiSo", ketQua.get("soHoThieuChiSo"));
+                map.put("danhSachThieuChiSo", ketQua.get("danhSachThieuChiSo"));
+            }
+            map.put("loi", loi);
+            return map;
+        }
+    }
+
+    /**
+     * Một job chốt sổ gồm nhiều tòa nhà.
+     */
+    public static class Job {
+        private final String jobId = UUID.randomUUID().toString();
+        private final String nguoiTao;
+        private final LocalDateTime thoiGianTao = LocalDateTime.now();
+        private volatile LocalDateTime thoiGianKetThuc;
+        private final List<KetQuaToaNha> danhSachToaNha;
+        private final int tongSoHo;
+        private final AtomicInteger soHoDaXuLy = new AtomicInteger();
+        private final AtomicInteger soToaNhaConLai;
+
+        Job(String nguoiTao, List<KetQuaToaNha> danhSachToaNha) {
+            this.nguoiTao = nguoiTao;
+            this.danhSachToaNha = danhSachToaNha;
+            this.tongSoHo = danhSachToaNha.stream().mapToInt(t -> t.soHo).sum();
+            this.soToaNhaConLai = new AtomicInteger(danhSachToaNha.size());
+        }
+
+        public String getJobId() {
+            return jobId;
+        }
+
+        TrangThaiJob getTrangThai() {
+            if (thoiGianKetThuc != null) {
+                boolean coLoi = danhSachToaNha.stream().anyMatch(t -> t.loi != null);
+                return coLoi ? TrangThaiJob.HOAN_THANH_CO_LOI : TrangThaiJob.HOAN_THANH;
+            }
+            boolean daBatDau = danhSachToaNha.stream().anyMatch(t -> t.trangThai != TrangThaiJob.DANG_CHO);
+            return daBatDau ? TrangThaiJob.DANG_CHAY : TrangThaiJob.DANG_CHO;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("jobId", jobId);
+            map.put("trangThai", getTrangThai());
+            map.put("nguoiTao", nguoiTao);
+            map.put("thoiGianTao", thoiGianTao);
+            map.put("thoiGianKetThuc", thoiGianKetThuc);
+            map.put("tongSoToaNha", danhSachToaNha.size());
+            map.put("soToaNhaDaXong", danhSachToaNha.size() - soToaNhaConLai.get());
+            map.put("tongSoHo", tongSoHo);
+            map.put("soHoDaXuLy", Math.min(soHoDaXuLy.get(), tongSoHo));
+            map.put("danhSachToaNha", danhSachToaNha.stream().map(KetQuaToaNha::toMap).toList());
+            return map;
+        }
+    }
+
+    // ===== Gửi job =====
+
+    /**
+     * Gửi job chốt sổ cho danh sách đợt thu.
+     * @throws AccessDeniedException nếu có đợt thu thuộc tòa nhà không được quản lý
+     */
+    public Map<String, Object> submitByIds(List<Integer> dotThuIds) {
+        if (dotThuIds == null || dotThuIds.isEmpty()) {
+            throw new IllegalArgumentException("Danh sách đợt thu không được để trống");
+        }
+        Set<Integer> ids = new LinkedHashSet<>(dotThuIds);
+        List<DotThuRow> rows = bulkRepo.findDotThuByIds(ids);
+        if (rows.size() < ids.size()) {
+            Set<Integer> found = new HashSet<>();
+            rows.forEach(r -> found.add(r.dotThuId()));
+            ids.removeAll(found);
+            throw new ResourceNotFoundException("Không tìm thấy đợt thu với ID: " + ids);
+        }
+        for (DotThuRow row : rows) {
+            if (row.toaNhaId() == null) {
+                throw new IllegalArgumentException("Đợt thu '" + row.tenDotThu() + "' chưa được gán tòa nhà");
+            }
+            if (!securityHelper.canManageBuilding(row.toaNhaId())) {
+                throw new AccessDeniedException("Bạn không có quyền chốt sổ đợt thu '" + row.tenDotThu() + "'");
+            }
+        }
+        return submit(rows);
+    }
+
+    /**
+     * Gửi job chốt sổ cho tất cả đợt thu của tháng/năm.
+     * MANAGER chỉ chốt các tòa nhà mình quản lý.
+     */
+    public Map<String, Object> submitByKy(Integer thang, Integer nam) {
+        if (thang == null || nam == null || thang < 1 || thang > 12) {
+            throw new IllegalArgumentException("Tháng/Năm không hợp lệ");
+        }
+        List<DotThuRow> rows = bulkRepo.findDotThuByKy(thang, nam).stream()
+            .filter(r -> r.toaNhaId() != null && securityHelper.canManageBuilding(r.toaNhaId()))
+            .toList();
+        if (rows.isEmpty()) {
+            throw new ResourceNotFoundException("Không có đợt thu nào của tháng " + thang + "/" + nam);
+        }
+        return submit(rows);
+    }
+
+    private Map<String, Object> submit(List<DotThuRow> rows) {
+        evictExpiredJobs();
+        kiemTraChoTrong(rows.size());
+
+        String nguoiTao = Optional.ofNullable(securityHelper.getCurrentUser())
+            .map(u -> u.getUsername()).orElse(null);
+        List<KetQuaToaNha> danhSach = rows.stream().map(KetQuaToaNha::new).toList();
+        Job job = new Job(nguoiTao, danhSach);
+        jobs.put(job.getJobId(), job);
+
+        log.info("Job chốt sổ {}: {} tòa nhà, {} hộ (gửi bởi {})",
+            job.getJobId(), danhSach.size(), job.tongSoHo, nguoiTao);
+
+        for (int i = 0; i < danhSach.size(); i++) {
+            KetQuaToaNha toaNha = danhSach.get(i);
+            try {
+                executor.execute(() -> runToaNha(job, toaNha));
+            } catch (TaskRejectedException e) {
+                // Job khác vừa chiếm chỗ sau lần kiểm tra: các tòa chưa gửi được ghi lỗi, client gửi lại riêng
+                log.warn("Job chốt sổ {}: hàng đợi đầy, {} tòa nhà không được gửi",
+                    job.getJobId(), danhSach.size() - i);
+                for (KetQuaToaNha conLai : danhSach.subList(i, danhSach.size())) {
+                    conLai.loi = "Hàng đợi chốt sổ đầy, vui lòng gửi lại đợt thu này sau";
+                    conLai.trangThai = TrangThaiJob.HOAN_THANH_CO_LOI;
+                    ketThucToaNha(job, conLai);
+                }
+                break;
+            }
+        }
+        return job.toMap();
+    }
+
+    /**
+     * Từ chối cả job nếu executor không còn đủ chỗ (thread rảnh + hàng đợi) cho mọi tòa nhà.
+     *
+     * @throws TaskRejectedException controller trả 503 kèm Retry-After
+     */
+    private void kiemTraChoTrong(int soTask) {
+        ThreadPoolExecutor pool = executor.getThreadPoolExecutor();
+        int choTrong = pool.getQueue().remainingCapacity()
+            + Math.max(0, pool.getMaximumPoolSize() - pool.getActiveCount());
+        if (soTask > choTrong) {
+            throw new TaskRejectedException("Hệ thống đang chốt sổ quá nhiều tòa nhà (còn chỗ cho "
+                + choTrong + "/" + soTask + "), vui lòng thử lại sau");
+        }
+    }
+
+    /**
+     * Tính tiền một tòa nhà. Transaction được mở/đóng bên trong DotThuService.
+     */
+    private void runToaNha(Job job, KetQuaToaNha toaNha) {
+        toaNha.trangThai = TrangThaiJob.DANG_CHAY;
+        try {
+            InvoiceCalculationEngine.KetQuaTinhTien ketQua =
+                dotThuService.calculateInvoicesWithMetrics(toaNha.dotThuId, soHo -> {
+                    toaNha.soHoDaXuLy.addAndGet(soHo);
+                    job.soHoDaXuLy.addAndGet(soHo);
+                });
+            toaNha.ketQua = ketQua.ketQua();
+            toaNha.thoiGianXuLyMs = ketQua.thoiGianXuLyMs();
+            toaNha.trangThai = TrangThaiJob.HOAN_THANH;
+        } catch (Exception e) {
+            log.error("Job chốt sổ {}: lỗi tính tiền đợt thu {}", job.getJobId(), toaNha.dotThuId, e);
+            toaNha.loi = e.getMessage();
+            toaNha.trangThai = TrangThaiJob.HOAN_THANH_CO_LOI;
+        } finally {
+            ketThucToaNha(job, toaNha);
+        }
+    }
+
+    /**
+     * Tòa nhà đã xong (thành công hoặc lỗi): tính phần hộ chưa báo vào tiến độ, đóng job nếu là tòa cuối.
+     */
+    private void ketThucToaNha(Job job, KetQuaToaNha toaNha) {
+        int conLai = toaNha.soHo - toaNha.soHoDaXuLy.get();
+        if (conLai > 0) {
+            toaNha.soHoDaXuLy.addAndGet(conLai);
+            job.soHoDaXuLy.addAndGet(conLai);
+        }
+        if (job.soToaNhaConLai.decrementAndGet() == 0) {
+            job.thoiGianKetThuc = LocalDateTime.now();
+            log.info("Job chốt sổ {} kết thúc: {}", job.getJobId(), job.getTrangThai());
+        }
+    }
+
+    // ===== Tra cứu job =====
+
+    /**
+     * @throws AccessDeniedException nếu job có tòa nhà không được quản lý
+     */
+    public Map<String, Object> getJob(String jobId) {
+        Job job = jobs.get(jobId);
+        if (job == null) {
+            throw new ResourceNotFoundException("Không tìm thấy job chốt sổ: " + jobId);
+        }
+        if (!duocXem(job)) {
+            throw new AccessDeniedException("Bạn không có quyền xem job chốt sổ này");
+        }
+        return job.toMap();
+    }
+
+    /**
+     * Các job mà người dùng quản lý mọi tòa nhà trong job (ADMIN: tất cả).
+     */
+    public List<Map<String, Object>> getAllJobs() {
+        return jobs.values().stream()
+            .filter(this::duocXem)
+            .sorted(Comparator.comparing((Job j) -> j.thoiGianTao).reversed())
+            .map(Job::toMap)
+            .toList();
+    }
+
+    private boolean duocXem(Job job) {
+        return job.danhSachToaNha.stream().allMatch(t -> securityHelper.canManageBuilding(t.toaNhaId));
+    }
+
+    private void evictExpiredJobs() {
+        LocalDateTime nguong = LocalDateTime.now().minus(JOB_RETENTION);
+        jobs.values().removeIf(j -> j.thoiGianKetThuc != null && j.thoiGianKetThuc.isBefore(nguong));
+    }
+}
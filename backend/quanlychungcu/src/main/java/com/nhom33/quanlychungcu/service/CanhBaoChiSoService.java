@@ -0,0 +1,214 @@
+package com.nhom33.quanlychungcu.service;
+
+import com.nhom33.quanlychungcu.exception.ResourceNotFoundException;
+import com.nhom33.quanlychungcu.repository.CanhBaoChiSoRepository;
+import com.nhom33.quanlychungcu.repository.CanhBaoChiSoRepository.CanhBaoRow;
+import com.nhom33.quanlychungcu.repository.CanhBaoChiSoRepository.CanhBaoWrite;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+
+/**
+ * Service: Phát hiện chỉ số điện/nước bất thường khi nhập liệu.
+ *
+ * Với mỗi hộ vừa nhập, so tiêu thụ tháng này với lịch sử tiêu thụ của chính hộ đó
+ * (lấy từ ChiSoHistoryStore, không query DB) bằng trung vị và MAD (median absolute deviation):
+ *     diem = 0.6745 * (tieuThu - trungVi) / MAD
+ * |diem| > nguong và lệch trung vị ít nhất minChenhLech -> cảnh báo (ví dụ gõ thừa một chữ số).
+ * Hộ có ít hơn minLichSu tháng lịch sử không được kiểm tra.
+ *
+ * Cảnh báo không chặn việc lưu chỉ số: được trả về trong kết quả saveAll và lưu vào
+ * bảng CanhBaoChiSo để kế toán/quản lý xem xét. Hộ có cảnh báo chờ duyệt chưa được tính lại hóa đơn;
+ * khi cảnh báo được xác nhận, hóa đơn của hộ mới được tính lại theo chỉ số đó.
+ */
+@Service
+public class CanhBaoChiSoService {
+
+    /** Hệ số đưa MAD về cùng thang độ lệch chuẩn (phân phối chuẩn). */
+    private static final double HE_SO_MAD = 0.6745;
+
+    /** MAD tối thiểu theo tỷ lệ trung vị, tránh chia cho 0 khi lịch sử đều nhau. */
+    private static final double MAD_TOI_THIEU = 0.1;
+
+    private final CanhBaoChiSoRepository repo;
+    private final ChiSoHistoryStore store;
+    private final SecurityHelper securityHelper;
+    private final InvoiceDeltaService invoiceDeltaService;
+    private final int soThang;
+    private final int minLichSu;
+    private final double nguong;
+    private final int minChenhLech;
+
+    public CanhBaoChiSoService(CanhBaoChiSoRepository repo,
+                               ChiSoHistoryStore store,
+                               SecurityHelper securityHelper,
+                               InvoiceDeltaService invoiceDeltaService,
+                               @Value("${app.chi-so.anomaly.so-thang:12}") int soThang,
+                               @Value("${app.chi-so.anomaly.min-lich-su:3}") int minLichSu,
+                               @Value("${app.chi-so.anomaly.nguong:3.5}") double nguong,
+                               @Value("${app.chi-so.anomaly.min-chenh-lech:10}") int minChenhLech) {
+        this.repo = repo;
+        this.store = store;
+        this.securityHelper = securityHelper;
+        this.invoiceDeltaService = invoiceDeltaService;
+        this.soThang = soThang;
+        this.minLichSu = minLichSu;
+        this.nguong = nguong;
+        this.minChenhLech = minChenhLech;
+    }
+
+    // ===== DTO =====
+
+    /**
+     * Một chỉ số bất thường trong đợt nhập.
+     */
+    public record CanhBaoTieuThu(int hoGiaDinhId, String maHoGiaDinh, int chiSoCu, int chiSoMoi,
+                                 int tieuThu, double trungVi, double mad, double diem) {}
+
+    // ===== Phát hiện (gọi từ ChiSoDienNuocService.saveAll) =====
+
+    /**
+     * Kiểm tra các chỉ số hợp lệ vừa nhập (mảng song song) và ghi/xóa cảnh báo tương ứng.
+     * Kho lịch sử chưa nạp xong -> bỏ qua kiểm tra (không chặn nhập liệu).
+     *
+     * @return các dòng bất thường, điểm cao nhất trước
+     */
+    @Transactional
+    public List<CanhBaoTieuThu> kiemTraVaLuu(int loaiPhiId, int thang, int nam, int[] hoIds,
+                                             String[] maHo, int[] chiSoCu, int[] chiSoMoi) {
+        if (hoIds.length == 0 || !store.isSanSang()) {
+            return List.of();
+        }
+        int[][] lichSu = store.lichSuTieuThu(loaiPhiId, hoIds, thang, nam, soThang);
+
+        List<CanhBaoTieuThu> result = new ArrayList<>();
+        List<Integer> hoBinhThuong = new ArrayList<>();
+        for (int i = 0; i < hoIds.length; i++) {
+            CanhBaoTieuThu canhBao = danhGia(hoIds[i], maHo[i], chiSoCu[i], chiSoMoi[i], lichSu[i]);
+            if (canhBao != null) {
+                result.add(canhBao);
+            } else {
+                hoBinhThuong.add(hoIds[i]);
+            }
+        }
+
+        // Hộ đã sửa lại chỉ số hợp lý -> cảnh báo cũ (nếu có) không còn giá trị
+        if (!hoBinhThuong.isEmpty()) {
+            repo.deleteByHo(loaiPhiId, thang, nam, hoBinhThuong);
+        }
+        if (!result.isEmpty()) {
+            repo.upsert(loaiPhiId, thang, nam, result.stream()
+                .map(c -> new CanhBaoWrite(c.hoGiaDinhId(), c.chiSoCu(), c.chiSoMoi(), c.tieuThu(),
+                    c.trungVi(), c.mad(), c.diem()))
+                .toList());
+        }
+        result.sort(Comparator.comparingDouble((CanhBaoTieuThu c) -> Math.abs(c.diem())).reversed());
+        return result;
+    }
+
+    /**
+     * Trong các hộ vừa nhập, những hộ đang có cảnh báo chờ duyệt (gọi sau kiemTraVaLuu).
+     * Gồm cả cảnh báo còn lại từ lần nhập trước khi kho lịch sử chưa sẵn sàng để kiểm tra lại.
+     */
+    @Transactional(readOnly = true)
+    public Set<Integer> hoChoDuyet(int loaiPhiId, int thang, int nam, Collection<Integer> hoGiaDinhIds) {
+        if (hoGiaDinhIds.isEmpty()) {
+            return Set.of();
+        }
+        return repo.findHoChoDuyet(loaiPhiId, thang, nam, hoGiaDinhIds);
+    }
+
+    // ===== Xem xét cảnh báo =====
+
+    /**
+     * Danh sách cảnh báo của tòa nhà trong tháng.
+     *
+     * @param loaiPhiId null = mọi loại phí
+     * @param trangThai null = mọi trạng thái (ChoDuyet / DaXacNhan)
+     */
+    @Transactional(readOnly = true)
+    public List<CanhBaoRow> getDanhSach(int toaNhaId, int thang, int nam, Integer loaiPhiId, String trangThai) {
+        if (thang < 1 || thang > 12) {
+            throw new IllegalArgumentException("Tháng phải từ 1-12");
+        }
+        if (trangThai != null
+                && !CanhBaoChiSoRepository.CHO_DUYET.equals(trangThai)
+                && !CanhBaoChiSoRepository.DA_XAC_NHAN.equals(trangThai)) {
+            throw new IllegalArgumentException("Trạng thái không hợp lệ: " + trangThai);
+        }
+        kiemTraQuyen(toaNhaId);
+        return repo.findByToaNha(toaNhaId, thang, nam, loaiPhiId, trangThai);
+    }
+
+    /**
+     * Xác nhận chỉ số là đúng (cảnh báo chuyển sang DaXacNhan) và tính lại hóa đơn đang mở của hộ
+     * theo chỉ số đã xác nhận (saveAll bỏ qua hộ này khi cảnh báo còn chờ duyệt).
+     * Nếu chỉ số sai, người dùng nhập lại qua save-all; cảnh báo sẽ tự xóa hoặc cập nhật.
+     */
+    @Transactional
+    public CanhBaoRow xacNhan(int canhBaoId) {
+        CanhBaoRow canhBao = repo.findById(canhBaoId)
+            .orElseThrow(() -> new ResourceNotFoundException("Không tìm thấy cảnh báo với ID: " + canhBaoId));
+        kiemTraQuyen(canhBao.toaNhaId());
+        repo.xacNhan(canhBaoId, securityHelper.getPrincipal().username());
+        if (CanhBaoChiSoRepository.CHO_DUYET.equals(canhBao.trangThai())) {
+            invoiceDeltaService.onChiSoChanged(canhBao.loaiPhiId(), canhBao.thang(), canhBao.nam(),
+                List.of(canhBao.hoGiaDinhId()));
+        }
+        return repo.findById(canhBaoId).orElseThrow();
+    }
+
+    // ===== Helpers =====
+
+    /**
+     * Đánh giá một hộ; null nếu bình thường hoặc chưa đủ lịch sử.
+     */
+    private CanhBaoTieuThu danhGia(int hoId, String maHo, int chiSoCu, int chiSoMoi, int[] lichSu) {
+        if (lichSu.length < minLichSu) {
+            return null;
+        }
+        int tieuThu = chiSoMoi - chiSoCu;
+        int[] sorted = lichSu.clone();
+        Arrays.sort(sorted);
+        double trungVi = trungVi(sorted);
+
+        double[] doLech = new double[sorted.length];
+        for (int k = 0; k < sorted.length; k++) {
+            doLech[k] = Math.abs(sorted[k] - trungVi);
+        }
+        Arrays.sort(doLech);
+        double mad = trungVi(doLech);
+
+        double chenhLech = tieuThu - trungVi;
+        if (Math.abs(chenhLech) < minChenhLech) {
+            return null;
+        }
+        // Lịch sử gần như không dao động (MAD = 0) -> dùng MAD tối thiểu 10% trung vị
+        double madTinh = Math.max(mad, Math.max(1.0, trungVi * MAD_TOI_THIEU));
+        double diem = HE_SO_MAD * chenhLech / madTinh;
+        if (Math.abs(diem) <= nguong) {
+            return null;
+        }
+        return new CanhBaoTieuThu(hoId, maHo, chiSoCu, chiSoMoi, tieuThu, trungVi, mad,
+            Math.round(diem * 100) / 100.0);
+    }
+
+    private static double trungVi(int[] sorted) {
+        int n = sorted.length;
+        return n % 2 == 1 ? sorted[n / 2] : (sorted[n / 2 - 1] + sorted[n / 2]) / 2.0;
+    }
+
+    private static double trungVi(double[] sorted) {
+        int n = sorted.length;
+        return n % 2 == 1 ? sorted[n / 2] : (sorted[n / 2 - 1] + sorted[n / 2]) / 2.0;
+    }
+
+    private void kiemTraQuyen(int toaNhaId) {
+        if (!securityHelper.canViewAll() && !securityHelper.canAccessBuilding(toaNhaId)) {
+            throw new AccessDeniedException("Bạn không có quyền xem dữ liệu của tòa nhà này");
+        }
+    }
+}
@@ -28,16 +28,31 @@ public class ChiSoDienNuocService {
     private final HoGiaDinhRepository hoGiaDinhRepository;
     private final LoaiPhiRepository loaiPhiRepository;
     private final ToaNhaRepository toaNhaRepository;
+    private final ChiSoBulkRepository chiSoBulkRepository;
+    private final InvoiceDeltaService invoiceDeltaService;
+    private final TieuThuService tieuThuService;
+    private final ChiSoHistoryStore historyStore;
+    private final CanhBaoChiSoService canhBaoChiSoService;
 
     public ChiSoDienNuocService(
             ChiSoDienNuocRepository chiSoRepository,
             HoGiaDinhRepository hoGiaDinhRepository,
             LoaiPhiRepository loaiPhiRepository,
-            ToaNhaRepository toaNhaRepository) {
+            ToaNhaRepository toaNhaRepository,
+            ChiSoBulkRepository chiSoBulkRepository,
+            InvoiceDeltaService invoiceDeltaService,
+            TieuThuService tieuThuService,
+            ChiSoHistoryStore historyStore,
+            CanhBaoChiSoService canhBaoChiSoService) {
         this.chiSoRepository = chiSoRepository;
         this.hoGiaDinhRepository = hoGiaDinhRepository;
         this.loaiPhiRepository = loaiPhiRepository;
         this.toaNhaRepository = toaNhaRepository;
+        this.chiSoBulkRepository = chiSoBulkRepository;
+        this.invoiceDeltaService = invoiceDeltaService;
+        this.tieuThuService = tieuThuService;
+        this.historyStore = historyStore;
+        this.canhBaoChiSoService = canhBaoChiSoService;
     }
 
     // ===== Chuẩn bị danh sách nhập liệu =====
@@ -65,126 +80,36 @@ public class ChiSoDienNuocService {
         loaiPhiRepository.findById(loaiPhiId)
                 .orElseThrow(() -> new ResourceNotFoundException("Không tìm thấy loại phí với ID: " + loaiPhiId));
 
-        // Lấy danh sách hộ gia đình thuộc tòa nhà
-        List<HoGiaDinh> danhSachHo = hoGiaDinhRepository.findByToaNhaId(toaNhaId);
-
-        // Lấy các chỉ số đã nhập trong tháng này
-        Map<Integer, ChiSoDienNuoc> chiSoHienTai = new HashMap<>();
-        List<ChiSoDienNuoc> existingRecords = chiSoRepository.findByThangNamAndLoaiPhiAndToaNha(
-                thang, nam, loaiPhiId, toaNhaId);
-        
-        for (ChiSoDienNuoc cs : existingRecords) {
-            chiSoHienTai.put(cs.getHoGiaDinh().getId(), cs);
-        }
-
-        // Build danh sách kết quả
+        // Hộ của tòa + chỉ số tháng này + chỉ số cũ (bản ghi gần nhất trước tháng) trong 1 query,
+        // đã sắp xếp theo mã hộ. Chỉ số cũ chưa có lịch sử -> 0
         List<ChiSoInputDTO> result = new ArrayList<>();
-        
-        for (HoGiaDinh ho : danhSachHo) {
-            Integer hoId = ho.getId();
-            
-            Integer chiSoCu;
-            Integer chiSoMoi = null;
-            
-            if (chiSoHienTai.containsKey(hoId)) {
-                // Đã có bản ghi trong tháng này
-                ChiSoDienNuoc cs = chiSoHienTai.get(hoId);
-                chiSoMoi = cs.getChiSoMoi();
-            }
-            
-            // Lấy chỉ số cũ = ChiSoMoi của tháng T-1 (truyền tháng hiện tại, method tự tính T-1)
-            chiSoCu = findPreviousMonthChiSo(hoId, loaiPhiId, thang, nam);
-            
-            ChiSoInputDTO dto = new ChiSoInputDTO(
-                    hoId,
-                    ho.getMaHoGiaDinh(),
-                    ho.getTenChuHo(),
-                    ho.getSoCanHo(),
-                    chiSoCu,
-                    chiSoMoi
-            );
-            
-            result.add(dto);
+        for (TieuThuRepository.NhapLieuRow row : tieuThuService.nhapLieu(toaNhaId, loaiPhiId, thang, nam)) {
+            result.add(new ChiSoInputDTO(
+                    row.hoGiaDinhId(),
+                    row.maHoGiaDinh(),
+                    row.tenChuHo(),
+                    row.soCanHo(),
+                    row.chiSoTruoc() != null ? row.chiSoTruoc() : 0,
+                    row.chiSoMoi()
+            ));
         }
         
-        // Sắp xếp theo mã hộ
-        result.sort(Comparator.comparing(ChiSoInputDTO::getMaHoGiaDinh));
-        
         return result;
     }
 
+    // ===== Lưu chỉ số hàng loạt =====
+
     /**
-     * Lấy ChiSoMoi của tháng T-1 (tháng trước tháng hiện tại).
-     * Dùng làm ChiSoCu khi hiển thị form nhập chỉ số tháng T.
-     * 
-     * @param hoGiaDinhId ID hộ gia đình
-     * @param loaiPhiId   ID loại phí
-     * @param thangHienTai Tháng hiện tại (T) - sẽ tìm chỉ số của T-1
-     * @param namHienTai   Năm hiện tại
-     * @return ChiSoMoi của tháng T-1, hoặc 0 nếu chưa có
+     * Lỗi validate của một dòng chỉ số (không chặn các dòng hợp lệ khác).
      */
-    private Integer findPreviousMonthChiSo(Integer hoGiaDinhId, Integer loaiPhiId, Integer thangHienTai, Integer namHienTai) {
-        // Tính tháng trước (T-1)
-        int thangTruoc = thangHienTai == 1 ? 12 : thangHienTai - 1;
-        int namTruoc = thangHienTai == 1 ? namHienTai - 1 : namHienTai;
-        
-        // Tìm bản ghi của tháng T-1
-        Optional<ChiSoDienNuoc> prev = chiSoRepository.findByHoGiaDinhIdAndLoaiPhiIdAndThangAndNam(
-                hoGiaDinhId, loaiPhiId, thangTruoc, namTruoc);
-        
-        if (prev.isPresent()) {
-            return prev.get().getChiSoMoi();
-        }
-        
-        // Không có tháng T-1 -> tìm bản ghi mới nhất TRƯỚC tháng T (không lấy tháng T hoặc sau)
-        List<ChiSoDienNuoc> allRecords = chiSoRepository.findLatestByHoGiaDinhAndLoaiPhi(hoGiaDinhId, loaiPhiId);
-        for (ChiSoDienNuoc record : allRecords) {
-            // Chỉ lấy bản ghi TRƯỚC tháng hiện tại
-            if (record.getNam() < namHienTai || 
-                (record.getNam().equals(namHienTai) && record.getThang() < thangHienTai)) {
-                return record.getChiSoMoi();
-            }
-        }
-        
-        return 0; // Chưa có lịch sử -> bắt đầu từ 0
-    }
+    public record LoiChiSo(Integer hoGiaDinhId, String maHoGiaDinh, Integer chiSoCu, Integer chiSoMoi, String loi) {}
 
     /**
-     * Lấy ChiSoCu cho tháng T (= ChiSoMoi của tháng T-1).
-     * Dùng khi tạo bản ghi mới cho tháng T.
-     * 
-     * @param hoGiaDinhId ID hộ gia đình
-     * @param loaiPhiId   ID loại phí
-     * @param thang       Tháng hiện tại (T)
-     * @param nam         Năm hiện tại
-     * @return ChiSoMoi của tháng T-1, hoặc 0 nếu chưa có lịch sử
+     * Kết quả lưu chỉ số hàng loạt.
+     * danhSachCanhBao: dòng đã lưu nhưng tiêu thụ bất thường so với lịch sử của hộ (cần xem xét).
      */
-    private Integer getChiSoCu(Integer hoGiaDinhId, Integer loaiPhiId, Integer thang, Integer nam) {
-        // Tính tháng trước (T-1)
-        int thangTruoc = thang == 1 ? 12 : thang - 1;
-        int namTruoc = thang == 1 ? nam - 1 : nam;
-        
-        // Tìm bản ghi tháng T-1
-        Optional<ChiSoDienNuoc> prevOpt = chiSoRepository.findByHoGiaDinhIdAndLoaiPhiIdAndThangAndNam(
-                hoGiaDinhId, loaiPhiId, thangTruoc, namTruoc);
-        
-        if (prevOpt.isPresent()) {
-            return prevOpt.get().getChiSoMoi();
-        }
-        
-        // Không có tháng T-1 -> tìm bản ghi mới nhất TRƯỚC tháng T
-        List<ChiSoDienNuoc> allRecords = chiSoRepository.findLatestByHoGiaDinhAndLoaiPhi(hoGiaDinhId, loaiPhiId);
-        for (ChiSoDienNuoc record : allRecords) {
-            // Kiểm tra record này có phải TRƯỚC tháng T không
-            if (record.getNam() < nam || (record.getNam().equals(nam) && record.getThang() < thang)) {
-                return record.getChiSoMoi();
-            }
-        }
-        
-        return 0; // Chưa có lịch sử -> bắt đầu từ 0
-    }
-
-    // ===== Lưu chỉ số hàng loạt =====
+    public record KetQuaLuuChiSo(int savedCount, List<LoiChiSo> danhSachLoi,
+                                 List<CanhBaoChiSoService.CanhBaoTieuThu> danhSachCanhBao) {}
 
     /**
      * Lưu danh sách chỉ số cho tháng/năm.
@@ -192,13 +117,22 @@ public class ChiSoDienNuocService {
      * 
      * QUAN TRỌNG: Logic Insert-or-Update dựa trên (HoGiaDinh, LoaiPhi, Thang, Nam)
      * - KHÔNG dùng ID từ request để tránh ghi đè nhầm tháng khác
-     * - Luôn query DB bằng unique key (HoGiaDinh + LoaiPhi + Thang + Nam)
+     * - Bản ghi hiện có được xác định bằng unique key (HoGiaDinh + LoaiPhi + Thang + Nam)
+     * 
+     * HIỆU NĂNG (nhập cả tòa nhà):
+     * - MỘT query đọc tất cả hộ của tòa + bản ghi tháng này + chỉ số cũ (tháng trước)
+     * - Validate ChiSoMoi >= ChiSoCu trong bộ nhớ
+     * - Ghi bằng JDBC batch insert/update
+     * - Dòng sai được trả về trong danhSachLoi, các dòng hợp lệ vẫn được lưu
+     * - Tiêu thụ lệch xa lịch sử của hộ (trung vị/MAD) được trả về trong danhSachCanhBao (CanhBaoChiSoService)
+     * - Hóa đơn đã tính của các hộ vừa sửa chỉ số được tính lại theo delta (InvoiceDeltaService)
+     * - Kho lịch sử trong bộ nhớ (ChiSoHistoryStore) được cập nhật khi transaction commit
      * 
      * @param request Request chứa tháng, năm, tòa nhà, loại phí và danh sách chỉ số
-     * @return Số bản ghi đã lưu thành công
+     * @return Số bản ghi đã lưu, danh sách dòng lỗi và danh sách cảnh báo
      */
     @Transactional
-    public int saveAll(SaveChiSoRequestDTO request) {
+    public KetQuaLuuChiSo saveAll(SaveChiSoRequestDTO request) {
         Integer thang = request.getThang();
         Integer nam = request.getNam();
         Integer toaNhaId = request.getToaNhaId();
@@ -215,68 +149,100 @@ public class ChiSoDienNuocService {
         toaNhaRepository.findById(toaNhaId)
                 .orElseThrow(() -> new ResourceNotFoundException("Không tìm thấy tòa nhà với ID: " + toaNhaId));
         
-        LoaiPhi loaiPhi = loaiPhiRepository.findById(loaiPhiId)
+        loaiPhiRepository.findById(loaiPhiId)
                 .orElseThrow(() -> new ResourceNotFoundException("Không tìm thấy loại phí với ID: " + loaiPhiId));
 
         if (request.getDanhSachChiSo() == null || request.getDanhSachChiSo().isEmpty()) {
-            return 0;
+            return new KetQuaLuuChiSo(0, List.of(), List.of());
         }
 
-        int savedCount = 0;
-        
+        // === PRELOAD: hộ của tòa + bản ghi tháng này + chỉ số cũ (1 query) ===
+        Map<Integer, ChiSoBulkRepository.HoChiSoRow> hoMap = new HashMap<>();
+        for (ChiSoBulkRepository.HoChiSoRow row : chiSoBulkRepository.findHoWithChiSo(toaNhaId, loaiPhiId, thang, nam)) {
+            hoMap.put(row.hoGiaDinhId(), row);
+        }
+
+        // Nếu một hộ xuất hiện nhiều lần trong request -> dòng sau ghi đè dòng trước
+        Map<Integer, Integer> chiSoMoiTheoHo = new LinkedHashMap<>();
         for (SaveChiSoRequestDTO.ChiSoItemDTO item : request.getDanhSachChiSo()) {
-            Integer hoGiaDinhId = item.getHoGiaDinhId();
-            Integer chiSoMoi = item.getChiSoMoi();
-            
             // Bỏ qua nếu chưa nhập chỉ số mới
-            if (chiSoMoi == null) {
+            if (item.getHoGiaDinhId() == null || item.getChiSoMoi() == null) {
                 continue;
             }
+            chiSoMoiTheoHo.put(item.getHoGiaDinhId(), item.getChiSoMoi());
+        }
+
+        List<ChiSoBulkRepository.ChiSoWrite> themMoi = new ArrayList<>();
+        List<ChiSoBulkRepository.ChiSoWrite> capNhat = new ArrayList<>();
+        List<LoiChiSo> danhSachLoi = new ArrayList<>();
+
+        for (Map.Entry<Integer, Integer> entry : chiSoMoiTheoHo.entrySet()) {
+            Integer hoGiaDinhId = entry.getKey();
+            Integer chiSoMoi = entry.getValue();
             
-            // Lấy hộ gia đình
-            HoGiaDinh hoGiaDinh = hoGiaDinhRepository.findById(hoGiaDinhId)
-                    .orElseThrow(() -> new ResourceNotFoundException("Không tìm thấy hộ gia đình với ID: " + hoGiaDinhId));
+            ChiSoBulkRepository.HoChiSoRow ho = hoMap.get(hoGiaDinhId);
+            if (ho == null) {
+                danhSachLoi.add(new LoiChiSo(hoGiaDinhId, null, null, chiSoMoi,
+                        "Không tìm thấy hộ gia đình với ID: " + hoGiaDinhId + " trong tòa nhà"));
+                continue;
+            }
             
-            // === LẤY CHỈ SỐ CŨ (từ tháng T-1) ===
-            Integer chiSoCu = getChiSoCu(hoGiaDinhId, loaiPhiId, thang, nam);
+            // === CHỈ SỐ CŨ (từ tháng T-1 hoặc bản ghi gần nhất trước T, mặc định 0) ===
+            int chiSoCu = ho.chiSoTruoc() != null ? ho.chiSoTruoc() : 0;
             
             // === VALIDATE: ChiSoMoi >= ChiSoCu ===
             if (chiSoMoi < chiSoCu) {
-                throw new IllegalArgumentException(
-                        String.format("Chỉ số mới (%d) phải >= chỉ số cũ (%d) cho hộ %s", 
-                                chiSoMoi, chiSoCu, hoGiaDinh.getMaHoGiaDinh()));
+                danhSachLoi.add(new LoiChiSo(hoGiaDinhId, ho.maHoGiaDinh(), chiSoCu, chiSoMoi,
+                        String.format("Chỉ số mới (%d) phải >= chỉ số cũ (%d) cho hộ %s",
+                                chiSoMoi, chiSoCu, ho.maHoGiaDinh())));
+                continue;
             }
             
-            // === QUERY DB BẰNG UNIQUE KEY (HoGiaDinh + LoaiPhi + Thang + Nam) ===
-            // KHÔNG dùng ID từ request để tránh ghi đè nhầm tháng khác!
-            Optional<ChiSoDienNuoc> existingOpt = chiSoRepository
-                    .findByHoGiaDinhIdAndLoaiPhiIdAndThangAndNam(hoGiaDinhId, loaiPhiId, thang, nam);
-            
-            ChiSoDienNuoc chiSo;
-            
-            if (existingOpt.isPresent()) {
-                // === ĐÃ CÓ bản ghi cho (HoGiaDinh, LoaiPhi, Thang, Nam) -> UPDATE ===
-                chiSo = existingOpt.get();
-                chiSo.setChiSoCu(chiSoCu);
-                chiSo.setChiSoMoi(chiSoMoi);
-                // Không cần set HoGiaDinh, LoaiPhi, Thang, Nam vì đã đúng
+            ChiSoBulkRepository.ChiSoWrite write =
+                    new ChiSoBulkRepository.ChiSoWrite(ho.chiSoId(), hoGiaDinhId, chiSoCu, chiSoMoi);
+            if (ho.chiSoId() != null) {
+                capNhat.add(write);   // ĐÃ CÓ bản ghi (HoGiaDinh, LoaiPhi, Thang, Nam) -> UPDATE
             } else {
-                // === CHƯA CÓ -> TẠO MỚI ===
-                chiSo = new ChiSoDienNuoc();
-                chiSo.setHoGiaDinh(hoGiaDinh);
-                chiSo.setLoaiPhi(loaiPhi);
-                chiSo.setThang(thang);
-                chiSo.setNam(nam);
-                chiSo.setChiSoCu(chiSoCu);
-                chiSo.setChiSoMoi(chiSoMoi);
+                themMoi.add(write);   // CHƯA CÓ -> INSERT
             }
-            
-            // Lưu vào DB
-            chiSoRepository.save(chiSo);
-            savedCount++;
         }
+
+        // === GHI BATCH ===
+        chiSoBulkRepository.insertChiSo(loaiPhiId, thang, nam, themMoi);
+        chiSoBulkRepository.updateChiSo(capNhat);
+
+        // === KIỂM TRA BẤT THƯỜNG (so với lịch sử trong bộ nhớ, trước khi kho được cập nhật) ===
+        int n = themMoi.size() + capNhat.size();
+        int[] hoIds = new int[n];
+        String[] maHo = new String[n];
+        int[] chiSoCuArr = new int[n];
+        int[] giaTri = new int[n];
+        int i = 0;
+        for (List<ChiSoBulkRepository.ChiSoWrite> ds : List.of(themMoi, capNhat)) {
+            for (ChiSoBulkRepository.ChiSoWrite w : ds) {
+                hoIds[i] = w.hoGiaDinhId();
+                maHo[i] = hoMap.get(w.hoGiaDinhId()).maHoGiaDinh();
+                chiSoCuArr[i] = w.chiSoCu();
+                giaTri[i++] = w.chiSoMoi();
+            }
+        }
+        List<CanhBaoChiSoService.CanhBaoTieuThu> danhSachCanhBao =
+                canhBaoChiSoService.kiemTraVaLuu(loaiPhiId, thang, nam, hoIds, maHo, chiSoCuArr, giaTri);
+
+        // === TÍNH LẠI HÓA ĐƠN ĐÃ TÍNH (các hộ vừa ghi, trừ hộ có cảnh báo chờ duyệt) ===
+        // Hộ chờ duyệt được tính lại khi cảnh báo được xác nhận (CanhBaoChiSoService.xacNhan)
+        List<Integer> hoDaGhi = new ArrayList<>(n);
+        for (int hoId : hoIds) {
+            hoDaGhi.add(hoId);
+        }
+        Set<Integer> hoChoDuyet = canhBaoChiSoService.hoChoDuyet(loaiPhiId, thang, nam, hoDaGhi);
+        hoDaGhi.removeIf(hoChoDuyet::contains);
+        invoiceDeltaService.onChiSoChanged(loaiPhiId, thang, nam, hoDaGhi);
+
+        // === CẬP NHẬT KHO LỊCH SỬ TRONG BỘ NHỚ (sau khi commit) ===
+        historyStore.ghiSauCommit(loaiPhiId, toaNhaId, thang, nam, hoIds, giaTri);
         
-        return savedCount;
+        return new KetQuaLuuChiSo(n, danhSachLoi, danhSachCanhBao);
     }
 
     // ===== Thống kê =====
@@ -327,7 +293,8 @@ public class ChiSoDienNuocService {
     }
 
     /**
-     * Tính lượng tiêu thụ (ChiSo tháng T - ChiSo tháng T-1).
+     * Tính lượng tiêu thụ (ChiSo tháng T - ChiSo gần nhất trước T), một câu SQL.
+     * Tính cả tòa nhà: dùng TieuThuService.tieuThuToaNha.
      * 
      * @param hoGiaDinhId ID hộ gia đình
      * @param loaiPhiId   ID loại phí
@@ -336,27 +303,6 @@ public class ChiSoDienNuocService {
      * @return Lượng tiêu thụ, hoặc null nếu thiếu dữ liệu
      */
     public Integer getTieuThu(Integer hoGiaDinhId, Integer loaiPhiId, Integer thang, Integer nam) {
-        Integer chiSoHienTai = getChiSo(hoGiaDinhId, loaiPhiId, thang, nam);
-        if (chiSoHienTai == null) {
-            return null; // Chưa ghi chỉ số tháng này
-        }
-        
-        // Tính tháng trước
-        int thangTruoc = thang == 1 ? 12 : thang - 1;
-        int namTruoc = thang == 1 ? nam - 1 : nam;
-        
-        Integer chiSoThangTruoc = getChiSo(hoGiaDinhId, loaiPhiId, thangTruoc, namTruoc);
-        if (chiSoThangTruoc == null) {
-            // Không có chỉ số tháng trước -> tìm bản ghi cũ nhất trước tháng hiện tại
-            Optional<ChiSoDienNuoc> prevRecord = chiSoRepository.findPreviousMonth(hoGiaDinhId, loaiPhiId, thang, nam);
-            if (prevRecord.isPresent()) {
-                chiSoThangTruoc = prevRecord.get().getChiSoMoi();
-            } else {
-                // Đây là tháng đầu tiên ghi chỉ số -> tiêu thụ = chỉ số mới (bắt đầu từ 0)
-                chiSoThangTruoc = 0;
-            }
-        }
-        
-        return Math.max(0, chiSoHienTai - chiSoThangTruoc);
+        return tieuThuService.getTieuThu(hoGiaDinhId, loaiPhiId, thang, nam);
     }
 }
@@ -0,0 +1,366 @@
+package com.nhom33.quanlychungcu.service;
+
+import com.nhom33.quanlychungcu.repository.TieuThuRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Kho lịch sử chỉ số điện/nước trong bộ nhớ, lưu dạng cột bằng mảng int nguyên thủy.
+ *
+ * CẤU TRÚC (mỗi loại phí một bảng):
+ * - Mỗi hộ một dòng: int[] chỉ số theo tháng, chỉ số cột = số tháng kể từ tháng đầu tiên có dữ liệu
+ * - Ô chưa có chỉ số = TRONG (-1)
+ * - Danh sách dòng theo tòa nhà để duyệt cả tòa mà không lọc toàn bảng
+ *
+ * VÒNG ĐỜI:
+ * - Nạp toàn bộ ChiSoDienNuoc khi ứng dụng sẵn sàng (một câu SQL đọc tuần tự)
+ * - ChiSoDienNuocService.saveAll ghi thêm SAU KHI transaction commit
+ * - reload() để nạp lại khi dữ liệu bị sửa ngoài ứng dụng
+ *
+ * Đọc song song dưới read lock; ghi (ít, theo đợt nhập liệu) dưới write lock.
+ */
+@Component
+public class ChiSoHistoryStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ChiSoHistoryStore.class);
+
+    /** Ô chưa có chỉ số (chỉ số thật luôn >= 0). */
+    public static final int TRONG = -1;
+
+    private final TieuThuRepository repo;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** loaiPhiId -> bảng chỉ số. Được bảo vệ bởi lock. */
+    private Map<Integer, BangChiSo> theoPhi = new HashMap<>();
+    /** Các lần ghi xảy ra trong lúc reload (áp dụng lại lên bảng mới). Được bảo vệ bởi lock. */
+    private List<LanGhi> ghiTrongLucNap;
+    private volatile boolean sanSang;
+
+    private record LanGhi(int loaiPhiId, int toaNhaId, int ky, int[] hoGiaDinhIds, int[] chiSoMoi) {}
+
+    public ChiSoHistoryStore(TieuThuRepository repo) {
+        this.repo = repo;
+    }
+
+    // ===== Nạp / cập nhật =====
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        reload();
+    }
+
+    /**
+     * Nạp lại toàn bộ lịch sử chỉ số từ DB.
+     * @return số bản ghi đã nạp
+     */
+    public synchronized int reload() {
+        long batDau = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            ghiTrongLucNap = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        Map<Integer, BangChiSo> moi = new HashMap<>();
+        int[] soBanGhi = {0};
+        repo.streamLichSu(r -> {
+            moi.computeIfAbsent(r.loaiPhiId(), k -> new BangChiSo())
+                .ghi(r.hoGiaDinhId(), r.toaNhaId(), kyIndex(r.thang(), r.nam()), r.chiSoMoi());
+            soBanGhi[0]++;
+        });
+
+        lock.writeLock().lock();
+        try {
+            for (LanGhi g : ghiTrongLucNap) {
+                apDung(moi, g);
+            }
+            ghiTrongLucNap = null;
+            theoPhi = moi;
+            sanSang = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Đã nạp {} chỉ số điện/nước ({} loại phí) vào bộ nhớ trong {} ms",
+            soBanGhi[0], moi.size(), (System.nanoTime() - batDau) / 1_000_000);
+        return soBanGhi[0];
+    }
+
+    /**
+     * Ghi chỉ số của một đợt nhập liệu (cùng tòa nhà, loại phí, tháng).
+     * Trong transaction: chỉ áp dụng khi transaction commit thành công.
+     *
+     * @param hoGiaDinhIds và chiSoMoi song song theo chỉ số mảng
+     */
+    public void ghiSauCommit(int loaiPhiId, int toaNhaId, int thang, int nam, int[] hoGiaDinhIds, int[] chiSoMoi) {
+        LanGhi lanGhi = new LanGhi(loaiPhiId, toaNhaId, kyIndex(thang, nam), hoGiaDinhIds, chiSoMoi);
+        Runnable action = () -> ghi(lanGhi);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_COMMITTED) {
+                        action.run();
+                    }
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private void ghi(LanGhi lanGhi) {
+        lock.writeLock().lock();
+        try {
+            apDung(theoPhi, lanGhi);
+            if (ghiTrongLucNap != null) {
+                // reload đang đọc DB, có thể chưa thấy lần ghi này
+                ghiTrongLucNap.add(lanGhi);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static void apDung(Map<Integer, BangChiSo> bangTheoPhi, LanGhi g) {
+        BangChiSo bang = bangTheoPhi.computeIfAbsent(g.loaiPhiId(), k -> new BangChiSo());
+        for (int i = 0; i < g.hoGiaDinhIds().length; i++) {
+            bang.ghi(g.hoGiaDinhIds()[i], g.toaNhaId(), g.ky(), g.chiSoMoi()[i]);
+        }
+    }
+
+    // ===== Đọc =====
+
+    public boolean isSanSang() {
+        return sanSang;
+    }
+
+    /**
+     * Tiêu thụ của các hộ trong tòa nhà cho từng tháng liên tiếp bắt đầu từ (thang, nam).
+     *
+     * @return mảng [tháng][hộ đã có chỉ số tháng đó] (mảng rỗng nếu tháng không có dữ liệu)
+     */
+    public int[][] tieuThuTheoThang(int loaiPhiId, int toaNhaId, int thang, int nam, int soThang) {
+        int kyDau = kyIndex(thang, nam);
+        int[][] result = new int[soThang][];
+        lock.readLock().lock();
+        try {
+            BangChiSo bang = theoPhi.get(loaiPhiId);
+            for (int t = 0; t < soThang; t++) {
+                result[t] = bang != null ? bang.tieuThu(toaNhaId, kyDau + t) : new int[0];
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Tiêu thụ của từng hộ trong soThang tháng liền TRƯỚC kỳ (thang, nam), chỉ các tháng có chỉ số.
+     * Dùng làm lịch sử để phát hiện chỉ số bất thường khi nhập liệu.
+     *
+     * @return mảng song song với hoGiaDinhIds (mảng rỗng nếu hộ chưa có lịch sử)
+     */
+    public int[][] lichSuTieuThu(int loaiPhiId, int[] hoGiaDinhIds, int thang, int nam, int soThang) {
+        int ky = kyIndex(thang, nam);
+        int[][] result = new int[hoGiaDinhIds.length][];
+        lock.readLock().lock();
+        try {
+            BangChiSo bang = theoPhi.get(loaiPhiId);
+            for (int i = 0; i < hoGiaDinhIds.length; i++) {
+                result[i] = bang != null ? bang.lichSu(hoGiaDinhIds[i], ky, soThang) : new int[0];
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Số hộ có lịch sử chỉ số trong bộ nhớ (mọi loại phí).
+     */
+    public Map<Integer, Integer> soHoTheoPhi() {
+        lock.readLock().lock();
+        try {
+            Map<Integer, Integer> result = new HashMap<>();
+            theoPhi.forEach((loaiPhiId, bang) -> result.put(loaiPhiId, bang.soDong));
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Tháng dưới dạng số nguyên liên tục (nam * 12 + thang - 1).
+     */
+    static int kyIndex(int thang, int nam) {
+        return nam * 12 + thang - 1;
+    }
+
+    // ===== Bảng một loại phí =====
+
+    /**
+     * Lịch sử chỉ số của một loại phí: mỗi hộ một mảng int theo tháng.
+     * Không thread-safe; ChiSoHistoryStore giữ lock khi truy cập.
+     */
+    static final class BangChiSo {
+
+        /** kyIndex của cột 0 (-1 = chưa có dữ liệu). */
+        private int kyGoc = -1;
+        private int soDong;
+        private int[] hoIds = new int[64];
+        private int[] toaNhaIds = new int[64];
+        private int[][] chiSo = new int[64][];
+        private final Map<Integer, Integer> dongTheoHo = new HashMap<>();
+        private final Map<Integer, DanhSachInt> dongTheoToaNha = new HashMap<>();
+
+        void ghi(int hoGiaDinhId, int toaNhaId, int ky, int giaTri) {
+            if (kyGoc < 0) {
+                kyGoc = ky;
+            } else if (ky < kyGoc) {
+                dichPhai(kyGoc - ky);
+            }
+            int dong = dong(hoGiaDinhId, toaNhaId);
+            int cot = ky - kyGoc;
+            int[] hang = chiSo[dong];
+            if (cot >= hang.length) {
+                int cu = hang.length;
+                hang = Arrays.copyOf(hang, Math.max(cot + 1, cu + cu / 2 + 12));
+                Arrays.fill(hang, cu, hang.length, TRONG);
+                chiSo[dong] = hang;
+            }
+            hang[cot] = giaTri;
+        }
+
+        /**
+         * Tiêu thụ tháng ky của các hộ trong tòa nhà (chỉ hộ đã có chỉ số tháng đó).
+         * Chỉ số trước = ô gần nhất trước đó, chưa có lịch sử -> 0.
+         */
+        int[] tieuThu(int toaNhaId, int ky) {
+            DanhSachInt dongs = dongTheoToaNha.get(toaNhaId);
+            int cot = ky - kyGoc;
+            if (dongs == null || kyGoc < 0 || cot < 0) return new int[0];
+
+            int[] result = new int[dongs.size];
+            int n = 0;
+            for (int i = 0; i < dongs.size; i++) {
+                int[] hang = chiSo[dongs.values[i]];
+                if (cot >= hang.length || hang[cot] == TRONG) continue;
+                int truoc = 0;
+                for (int k = cot - 1; k >= 0; k--) {
+                    if (hang[k] != TRONG) {
+                        truoc = hang[k];
+                        break;
+                    }
+                }
+                result[n++] = Math.max(0, hang[cot] - truoc);
+            }
+            return n == result.length ? result : Arrays.copyOf(result, n);
+        }
+
+        /**
+         * Tiêu thụ của một hộ trong các tháng [ky - soThang, ky - 1] có chỉ số.
+         */
+        int[] lichSu(int hoGiaDinhId, int ky, int soThang) {
+            Integer dong = dongTheoHo.get(hoGiaDinhId);
+            if (dong == null) return new int[0];
+            int[] hang = chiSo[dong];
+            int den = Math.min(ky - kyGoc, hang.length);
+            int tu = Math.max(0, ky - kyGoc - soThang);
+            if (den <= tu) return new int[0];
+
+            // Chỉ số trước tháng đầu của cửa sổ
+            int truoc = 0;
+            for (int k = tu - 1; k >= 0; k--) {
+                if (hang[k] != TRONG) {
+                    truoc = hang[k];
+                    break;
+                }
+            }
+            int[] result = new int[den - tu];
+            int n = 0;
+            for (int c = tu; c < den; c++) {
+                if (hang[c] == TRONG) continue;
+                result[n++] = Math.max(0, hang[c] - truoc);
+                truoc = hang[c];
+            }
+            return n == result.length ? result : Arrays.copyOf(result, n);
+        }
+
+        private int dong(int hoGiaDinhId, int toaNhaId) {
+            Integer dong = dongTheoHo.get(hoGiaDinhId);
+            if (dong != null) {
+                if (toaNhaIds[dong] != toaNhaId) {
+                    // Hộ chuyển tòa nhà
+                    dongTheoToaNha.get(toaNhaIds[dong]).remove(dong);
+                    dongTheoToaNha.computeIfAbsent(toaNhaId, k -> new DanhSachInt()).add(dong);
+                    toaNhaIds[dong] = toaNhaId;
+                }
+                return dong;
+            }
+            if (soDong == hoIds.length) {
+                int moi = soDong * 2;
+                hoIds = Arrays.copyOf(hoIds, moi);
+                toaNhaIds = Arrays.copyOf(toaNhaIds, moi);
+                chiSo = Arrays.copyOf(chiSo, moi);
+            }
+            int d = soDong++;
+            hoIds[d] = hoGiaDinhId;
+            toaNhaIds[d] = toaNhaId;
+            chiSo[d] = new int[0];
+            dongTheoHo.put(hoGiaDinhId, d);
+            dongTheoToaNha.computeIfAbsent(toaNhaId, k -> new DanhSachInt()).add(d);
+            return d;
+        }
+
+        /** Dời cột gốc về trước khi có chỉ số cũ hơn tháng đầu tiên. */
+        private void dichPhai(int soCot) {
+            for (int d = 0; d < soDong; d++) {
+                int[] cu = chiSo[d];
+                int[] hang = new int[cu.length + soCot];
+                Arrays.fill(hang, 0, soCot, TRONG);
+                System.arraycopy(cu, 0, hang, soCot, cu.length);
+                chiSo[d] = hang;
+            }
+            kyGoc -= soCot;
+        }
+    }
+
+    /**
+     * Danh sách int có thể mở rộng (tránh List<Integer>).
+     */
+    static final class DanhSachInt {
+        int[] values = new int[16];
+        int size;
+
+        void add(int v) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = v;
+        }
+
+        void remove(int v) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == v) {
+                    System.arraycopy(values, i + 1, values, i, size - i - 1);
+                    size--;
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,559 @@
+package com.nhom33.quanlychungcu.service;
+
+import com.nhom33.quanlychungcu.entity.HoGiaDinh;
+import com.nhom33.quanlychungcu.entity.NhanKhau;
+import com.nhom33.quanlychungcu.repository.CuDanSearchRepository;
+import com.nhom33.quanlychungcu.repository.CuDanSearchRepository.HoGiaDinhRow;
+import com.nhom33.quanlychungcu.repository.CuDanSearchRepository.NhanKhauRow;
+import com.nhom33.quanlychungcu.util.SearchText;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Chỉ mục tìm kiếm nhân khẩu / hộ gia đình trong bộ nhớ (inverted index), không dấu.
+ *
+ * CẤU TRÚC (mỗi loại một chỉ mục):
+ * - Từ điển token đã chuẩn hóa (SearchText) sắp xếp trong TreeMap -> danh sách ID tăng dần
+ * - Tìm theo tiền tố: "ngu" khớp mọi token bắt đầu bằng "ngu" (một khoảng liên tiếp của TreeMap)
+ * - Nhiều token: giao các tập ID (BitSet) của từng token, không duyệt từng bản ghi
+ * - NhanKhau: HoTen, SoCCCD; HoGiaDinh: MaHoGiaDinh, TenChuHo, SoCanHo
+ *
+ * VÒNG ĐỜI (như ChiSoHistoryStore):
+ * - Nạp toàn bộ khi ứng dụng sẵn sàng (hai câu SQL đọc tuần tự)
+ * - NhanKhauService / HoGiaDinhService cập nhật SAU KHI transaction commit
+ * - reload() để nạp lại khi dữ liệu bị sửa ngoài ứng dụng
+ *
+ * Đọc song song dưới read lock; ghi dưới write lock. Chưa nạp xong -> isSanSang() = false,
+ * các service quay về truy vấn DB.
+ *
+ * SẮP XẾP: kết quả sắp theo Sort của request nếu mọi thuộc tính đều có trong chỉ mục
+ * (SAP_XEP_HO / SAP_XEP_NK; chuỗi so theo collation tiếng Việt không phân biệt hoa thường, NULL trước
+ * khi tăng dần như SQL Server, cùng khóa thì theo ID). Thuộc tính khác -> service truy vấn DB.
+ */
+@Component
+public class CuDanSearchIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(CuDanSearchIndex.class);
+
+    /** Trường trong chỉ mục NhanKhau. */
+    public static final int NK_HO_TEN = 0;
+    public static final int NK_CCCD = 1;
+    /** Trường trong chỉ mục HoGiaDinh. */
+    public static final int HO_MA = 0;
+    public static final int HO_CHU_HO = 1;
+    public static final int HO_CAN_HO = 2;
+    /** Token truy vấn khớp ở bất kỳ trường nào. */
+    public static final int MOI_TRUONG = -1;
+
+    /** Thuộc tính entity sắp xếp được trên chỉ mục -> giá trị trong bản ghi. */
+    private static final Map<String, Function<HoGiaDinhRow, Object>> SAP_XEP_HO = Map.of(
+        "id", HoGiaDinhRow::id,
+        "maHoGiaDinh", HoGiaDinhRow::maHoGiaDinh,
+        "tenChuHo", HoGiaDinhRow::tenChuHo,
+        "soCanHo", HoGiaDinhRow::soCanHo,
+        "trangThai", HoGiaDinhRow::trangThai);
+    private static final Map<String, Function<NhanKhauRow, Object>> SAP_XEP_NK = Map.of(
+        "id", NhanKhauRow::id,
+        "hoTen", NhanKhauRow::hoTen,
+        "soCCCD", NhanKhauRow::soCCCD,
+        "gioiTinh", NhanKhauRow::gioiTinh,
+        "trangThai", NhanKhauRow::trangThai);
+    private static final Locale TIENG_VIET = Locale.forLanguageTag("vi-VN");
+
+    private final CuDanSearchRepository repo;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** Được bảo vệ bởi lock. */
+    private BoChiMuc bo = new BoChiMuc();
+    /** Các lần ghi xảy ra trong lúc reload (áp dụng lại lên chỉ mục mới). Được bảo vệ bởi lock. */
+    private List<Consumer<BoChiMuc>> ghiTrongLucNap;
+    private volatile boolean sanSang;
+
+    private static final class BoChiMuc {
+        final ChiMuc<NhanKhauRow> nhanKhau = new ChiMuc<>();
+        final ChiMuc<HoGiaDinhRow> hoGiaDinh = new ChiMuc<>();
+    }
+
+    public CuDanSearchIndex(CuDanSearchRepository repo) {
+        this.repo = repo;
+    }
+
+    // ===== Nạp / cập nhật =====
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        reload();
+    }
+
+    /**
+     * Nạp lại toàn bộ chỉ mục từ DB.
+     * @return số bản ghi đã nạp (nhân khẩu + hộ gia đình)
+     */
+    public synchronized int reload() {
+        long batDau = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            ghiTrongLucNap = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        BoChiMuc moi = new BoChiMuc();
+        repo.streamHoGiaDinh(r -> moi.hoGiaDinh.put(r.id(), r, truong(r)));
+        repo.streamNhanKhau(r -> moi.nhanKhau.put(r.id(), r, truong(r)));
+
+        lock.writeLock().lock();
+        try {
+            for (Consumer<BoChiMuc> g : ghiTrongLucNap) {
+                g.accept(moi);
+            }
+            ghiTrongLucNap = null;
+            bo = moi;
+            sanSang = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Đã nạp chỉ mục tìm kiếm: {} nhân khẩu, {} hộ gia đình ({} token) trong {} ms",
+            moi.nhanKhau.size(), moi.hoGiaDinh.size(), moi.nhanKhau.soToken() + moi.hoGiaDinh.soToken(),
+            (System.nanoTime() - batDau) / 1_000_000);
+        return moi.nhanKhau.size() + moi.hoGiaDinh.size();
+    }
+
+    public void luuNhanKhau(NhanKhau nk) {
+        HoGiaDinh ho = nk.getHoGiaDinh();
+        NhanKhauRow row = new NhanKhauRow(nk.getId(), ho != null ? ho.getId() : 0,
+            ho != null && ho.getToaNha() != null ? ho.getToaNha().getId() : null,
+            nk.getHoTen(), nk.getSoCCCD(), nk.getGioiTinh(), nk.getTrangThai());
+        String[][] truong = truong(row);
+        ghiSauCommit(b -> b.nhanKhau.put(row.id(), row, truong));
+    }
+
+    public void xoaNhanKhau(int id) {
+        ghiSauCommit(b -> b.nhanKhau.remove(id));
+    }
+
+    public void luuHoGiaDinh(HoGiaDinh ho) {
+        HoGiaDinhRow row = new HoGiaDinhRow(ho.getId(), ho.getToaNha() != null ? ho.getToaNha().getId() : null,
+            ho.getMaHoGiaDinh(), ho.getTenChuHo(), ho.getSoCanHo(), ho.getTrangThai());
+        String[][] truong = truong(row);
+        ghiSauCommit(b -> b.hoGiaDinh.put(row.id(), row, truong));
+    }
+
+    /**
+     * Xóa hộ và các nhân khẩu của hộ (xóa theo cascade).
+     */
+    public void xoaHoGiaDinh(int id) {
+        ghiSauCommit(b -> {
+            b.hoGiaDinh.remove(id);
+            b.nhanKhau.removeIf(r -> r.hoGiaDinhId() == id);
+        });
+    }
+
+    /**
+     * Trong transaction: chỉ áp dụng khi transaction commit thành công.
+     */
+    private void ghiSauCommit(Consumer<BoChiMuc> lanGhi) {
+        Runnable action = () -> ghi(lanGhi);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_COMMITTED) {
+                        action.run();
+                    }
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private void ghi(Consumer<BoChiMuc> lanGhi) {
+        lock.writeLock().lock();
+        try {
+            lanGhi.accept(bo);
+            if (ghiTrongLucNap != null) {
+                // reload đang đọc DB, có thể chưa thấy lần ghi này
+                ghiTrongLucNap.add(lanGhi);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static String[][] truong(NhanKhauRow r) {
+        return new String[][] { SearchText.tokens(r.hoTen()), SearchText.tokens(r.soCCCD()) };
+    }
+
+    private static String[][] truong(HoGiaDinhRow r) {
+        return new String[][] {
+            SearchText.tokens(r.maHoGiaDinh()), SearchText.tokens(r.tenChuHo()), SearchText.tokens(r.soCanHo())
+        };
+    }
+
+    // ===== Đọc =====
+
+    public boolean isSanSang() {
+        return sanSang;
+    }
+
+    /**
+     * Sort chỉ gồm thuộc tính có trong chỉ mục nhân khẩu (không sắp xếp cũng được).
+     */
+    public static boolean sapXepDuocNhanKhau(Sort sort) {
+        return sort.stream().allMatch(o -> SAP_XEP_NK.containsKey(o.getProperty()));
+    }
+
+    /**
+     * Sort chỉ gồm thuộc tính có trong chỉ mục hộ gia đình (không sắp xếp cũng được).
+     */
+    public static boolean sapXepDuocHoGiaDinh(Sort sort) {
+        return sort.stream().allMatch(o -> SAP_XEP_HO.containsKey(o.getProperty()));
+    }
+
+    /**
+     * ID các nhân khẩu có họ tên khớp mọi token của hoTen, theo thứ tự sort (không sắp xếp = ID tăng dần).
+     *
+     * @param loc  điều kiện thêm trên bản ghi (null = không lọc)
+     * @param sort chỉ gồm thuộc tính thỏa sapXepDuocNhanKhau
+     */
+    public int[] timNhanKhau(String hoTen, Predicate<NhanKhauRow> loc, Sort sort) {
+        TruyVan q = new TruyVan().them(NK_HO_TEN, hoTen);
+        lock.readLock().lock();
+        try {
+            return sapXep(bo.nhanKhau, bo.nhanKhau.tim(q, loc, 0), sort, SAP_XEP_NK);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * ID các hộ có mã hộ / tên chủ hộ khớp (tham số null = bỏ qua), theo thứ tự sort
+     * (không sắp xếp = ID tăng dần).
+     *
+     * @param sort chỉ gồm thuộc tính thỏa sapXepDuocHoGiaDinh
+     */
+    public int[] timHoGiaDinh(String maHoGiaDinh, String tenChuHo, Predicate<HoGiaDinhRow> loc, Sort sort) {
+        TruyVan q = new TruyVan().them(HO_MA, maHoGiaDinh).them(HO_CHU_HO, tenChuHo);
+        lock.readLock().lock();
+        try {
+            return sapXep(bo.hoGiaDinh, bo.hoGiaDinh.tim(q, loc, 0), sort, SAP_XEP_HO);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gợi ý khi gõ: token khớp ở bất kỳ trường nào (họ tên, CCCD); khớp trọn token xếp trước.
+     */
+    public List<NhanKhauRow> goiYNhanKhau(String q, Predicate<NhanKhauRow> loc, int limit) {
+        TruyVan truyVan = new TruyVan().them(MOI_TRUONG, q);
+        lock.readLock().lock();
+        try {
+            return bo.nhanKhau.lay(bo.nhanKhau.tim(truyVan, loc, limit));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gợi ý khi gõ: token khớp ở bất kỳ trường nào (mã hộ, chủ hộ, căn hộ); khớp trọn token xếp trước.
+     */
+    public List<HoGiaDinhRow> goiYHoGiaDinh(String q, Predicate<HoGiaDinhRow> loc, int limit) {
+        TruyVan truyVan = new TruyVan().them(MOI_TRUONG, q);
+        lock.readLock().lock();
+        try {
+            return bo.hoGiaDinh.lay(bo.hoGiaDinh.tim(truyVan, loc, limit));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Một trang kết quả từ danh sách ID: chỉ nạp các bản ghi của trang (theo khóa chính),
+     * giữ thứ tự của danh sách ID (đã sắp xếp).
+     */
+    public static <T> Page<T> toPage(int[] ids, Pageable pageable,
+                                     Function<List<Integer>, List<T>> findAllById, Function<T, Integer> idOf) {
+        int from = (int) Math.min(pageable.getOffset(), ids.length);
+        int to = Math.min(from + pageable.getPageSize(), ids.length);
+        List<Integer> pageIds = Arrays.stream(ids, from, to).boxed().toList();
+        Map<Integer, T> byId = new HashMap<>();
+        for (T t : findAllById.apply(pageIds)) {
+            byId.put(idOf.apply(t), t);
+        }
+        List<T> content = pageIds.stream().map(byId::get).filter(Objects::nonNull).toList();
+        return new PageImpl<>(content, pageable, ids.length);
+    }
+
+    /**
+     * Sắp xếp ID theo giá trị trong bản ghi (gọi dưới read lock). Cùng khóa -> ID tăng dần để phân trang ổn định.
+     */
+    private static <D> int[] sapXep(ChiMuc<D> chiMuc, int[] ids, Sort sort, Map<String, Function<D, Object>> khoa) {
+        if (sort.isUnsorted() || ids.length < 2) return ids;
+        Collator collator = Collator.getInstance(TIENG_VIET);
+        collator.setStrength(Collator.SECONDARY);
+        Comparator<Object> giaTri = Comparator.nullsFirst((a, b) -> a instanceof String sa && b instanceof String sb
+            ? collator.compare(sa, sb)
+            : Integer.compare((Integer) a, (Integer) b));
+
+        Comparator<D> theoSort = null;
+        for (Sort.Order order : sort) {
+            Comparator<D> c = Comparator.comparing(khoa.get(order.getProperty()), giaTri);
+            if (order.isDescending()) c = c.reversed();
+            theoSort = theoSort == null ? c : theoSort.thenComparing(c);
+        }
+        Comparator<Integer> cmp = Comparator.comparing(chiMuc::get, theoSort);
+        return Arrays.stream(ids).boxed()
+            .sorted(cmp.thenComparing(Comparator.naturalOrder()))
+            .mapToInt(Integer::intValue)
+            .toArray();
+    }
+
+    // ===== Truy vấn =====
+
+    /**
+     * Danh sách (trường, token) phải khớp đồng thời.
+     */
+    static final class TruyVan {
+        private final List<Integer> truong = new ArrayList<>(4);
+        private final List<String> token = new ArrayList<>(4);
+
+        TruyVan them(int truongId, String text) {
+            for (String t : SearchText.tokens(text)) {
+                truong.add(truongId);
+                token.add(t);
+            }
+            return this;
+        }
+    }
+
+    // ===== Chỉ mục một loại =====
+
+    /**
+     * Inverted index của một loại bản ghi. Không thread-safe; CuDanSearchIndex giữ lock khi truy cập.
+     *
+     * Bản ghi lưu trong mảng theo ID (ID tự tăng nên gần như liên tục), không qua HashMap.
+     */
+    static final class ChiMuc<D> {
+
+        private Object[] docs = new Object[64];
+        /** ID -> token theo từng trường. */
+        private String[][][] tokenTheoId = new String[64][][];
+        private final TreeMap<String, DanhSachId> tuDien = new TreeMap<>();
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        int soToken() {
+            return tuDien.size();
+        }
+
+        void put(int id, D doc, String[][] truong) {
+            remove(id);
+            if (id >= docs.length) {
+                int moi = Math.max(id + 1, docs.length + (docs.length >> 1));
+                docs = Arrays.copyOf(docs, moi);
+                tokenTheoId = Arrays.copyOf(tokenTheoId, moi);
+            }
+            docs[id] = doc;
+            tokenTheoId[id] = truong;
+            size++;
+            for (String[] tokens : truong) {
+                for (String t : tokens) {
+                    tuDien.computeIfAbsent(t, k -> new DanhSachId()).add(id);
+                }
+            }
+        }
+
+        void remove(int id) {
+            if (id >= docs.length || docs[id] == null) return;
+            for (String[] tokens : tokenTheoId[id]) {
+                for (String t : tokens) {
+                    DanhSachId ds = tuDien.get(t);
+                    if (ds != null && ds.remove(id) && ds.size == 0) {
+                        tuDien.remove(t);
+                    }
+                }
+            }
+            docs[id] = null;
+            tokenTheoId[id] = null;
+            size--;
+        }
+
+        @SuppressWarnings("unchecked")
+        void removeIf(Predicate<D> dieuKien) {
+            for (int id = 0; id < docs.length; id++) {
+                if (docs[id] != null && dieuKien.test((D) docs[id])) {
+                    remove(id);
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        D get(int id) {
+            return (D) docs[id];
+        }
+
+        @SuppressWarnings("unchecked")
+        List<D> lay(int[] ids) {
+            List<D> result = new ArrayList<>(ids.length);
+            for (int id : ids) {
+                result.add((D) docs[id]);
+            }
+            return result;
+        }
+
+        /**
+         * Giao các tập ID của từng token truy vấn (mỗi tập = hợp các token trong từ điển có tiền tố đó).
+         *
+         * @param limit 0 = mọi kết quả theo ID tăng dần;
+         *              > 0 = tối đa limit kết quả, bản ghi khớp trọn mọi token xếp trước
+         */
+        int[] tim(TruyVan q, Predicate<D> loc, int limit) {
+            int n = q.token.size();
+            if (n == 0) return new int[0];
+
+            BitSet khop = null;
+            BitSet tron = null;
+            boolean kiemTruong = false;
+            for (int i = 0; i < n; i++) {
+                String token = q.token.get(i);
+                BitSet b = new BitSet(docs.length);
+                for (DanhSachId ds : khoang(token).values()) {
+                    ds.setBits(b);
+                }
+                if (khop == null) khop = b; else khop.and(b);
+                if (khop.isEmpty()) return new int[0];
+
+                if (limit > 0) {
+                    BitSet e = new BitSet(docs.length);
+                    DanhSachId ds = tuDien.get(token);
+                    if (ds != null) ds.setBits(e);
+                    if (tron == null) tron = e; else tron.and(e);
+                }
+                kiemTruong |= q.truong.get(i) != MOI_TRUONG;
+            }
+
+            DanhSachId ketQua = new DanhSachId();
+            if (limit <= 0) {
+                chon(khop, q, kiemTruong, loc, Integer.MAX_VALUE, ketQua);
+            } else {
+                tron.and(khop);
+                khop.andNot(tron);
+                chon(tron, q, kiemTruong, loc, limit, ketQua);
+                chon(khop, q, kiemTruong, loc, limit, ketQua);
+            }
+            return Arrays.copyOf(ketQua.ids, ketQua.size);
+        }
+
+        /**
+         * Duyệt tập ứng viên theo ID tăng dần, kiểm tra trường (nếu truy vấn chỉ định trường) và điều kiện lọc.
+         */
+        @SuppressWarnings("unchecked")
+        private void chon(BitSet ungVien, TruyVan q, boolean kiemTruong, Predicate<D> loc,
+                          int limit, DanhSachId ketQua) {
+            for (int id = ungVien.nextSetBit(0); id >= 0 && ketQua.size < limit; id = ungVien.nextSetBit(id + 1)) {
+                if (kiemTruong && !khopTruong(tokenTheoId[id], q)) continue;
+                if (loc != null && !loc.test((D) docs[id])) continue;
+                ketQua.append(id);
+            }
+        }
+
+        private static boolean khopTruong(String[][] truong, TruyVan q) {
+            for (int i = 0; i < q.token.size(); i++) {
+                int f = q.truong.get(i);
+                if (f == MOI_TRUONG) continue;
+                boolean co = false;
+                for (String t : truong[f]) {
+                    if (t.startsWith(q.token.get(i))) {
+                        co = true;
+                        break;
+                    }
+                }
+                if (!co) return false;
+            }
+            return true;
+        }
+
+        private NavigableMap<String, DanhSachId> khoang(String prefix) {
+            return tuDien.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+        }
+    }
+
+    /**
+     * Danh sách ID tăng dần trên mảng int nguyên thủy.
+     */
+    static final class DanhSachId {
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            if (size == 0 || ids[size - 1] < id) {
+                append(id);
+                return;
+            }
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos >= 0) return;
+            pos = -pos - 1;
+            grow();
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            ids[pos] = id;
+            size++;
+        }
+
+        void append(int id) {
+            grow();
+            ids[size++] = id;
+        }
+
+        boolean remove(int id) {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos < 0) return false;
+            System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+            size--;
+            return true;
+        }
+
+        void setBits(BitSet b) {
+            for (int i = 0; i < size; i++) {
+                b.set(ids[i]);
+            }
+        }
+
+        private void grow() {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size + (size >> 1) + 4);
+            }
+        }
+    }
+}
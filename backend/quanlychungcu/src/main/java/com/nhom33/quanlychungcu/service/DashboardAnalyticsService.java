@@ -0,0 +1,242 @@
+package com.nhom33.quanlychungcu.service;
+
+import com.nhom33.quanlychungcu.repository.ThongKeDotThuRepository;
+import com.nhom33.quanlychungcu.repository.ThongKeDotThuRepository.ThanhToanThangRow;
+import com.nhom33.quanlychungcu.repository.ThongKeDotThuRepository.ToaNhaThangRow;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Service: Dashboard tổng hợp toàn bộ danh mục tòa nhà theo tháng (time-series).
+ *
+ * LOGIC:
+ * - Phải thu / đã thu lấy từ bảng thống kê ThongKeDotThu (GROUP BY tòa nhà × tháng, một câu SQL)
+ * - Tiền thực nhận lấy từ LichSuThanhToan theo tháng nộp (GROUP BY tòa nhà × tháng, một câu SQL)
+ * - Ghép hai kết quả trong bộ nhớ thành lưới đầy đủ tòa nhà × tháng (tháng không có dữ liệu = 0)
+ * - Kết quả được cache theo (khoảng tháng, tập tòa nhà) và gắn phiên bản dữ liệu thống kê (đọc từ DB);
+ *   cache tự hết hiệu lực khi có thanh toán/tính tiền mới hoặc quá TTL
+ * - Chỉ đọc: đợt thu cũ chưa có dòng thống kê được bổ sung lúc khởi động (ThongKeDotThuService)
+ *
+ * MULTI-TENANCY: ADMIN/ACCOUNTANT xem tất cả, MANAGER chỉ thấy tòa nhà của mình.
+ */
+@Service
+public class DashboardAnalyticsService {
+
+    /** Khoảng tối đa cho một lần truy vấn. */
+    public static final int MAX_SO_THANG = 60;
+
+    /** Số kết quả tối đa giữ trong cache. */
+    private static final int MAX_CACHE_ENTRIES = 200;
+
+    private final ThongKeDotThuRepository thongKeRepo;
+    private final ThongKeDotThuService thongKeService;
+    private final SecurityHelper securityHelper;
+    private final long cacheTtlMs;
+
+    private final Map<String, CacheEntry> cache = new ConcurrentHashMap<>();
+
+    public DashboardAnalyticsService(ThongKeDotThuRepository thongKeRepo,
+                                     ThongKeDotThuService thongKeService,
+                                     SecurityHelper securityHelper,
+                                     @Value("${app.analytics.cache-ttl-seconds:300}") long cacheTtlSeconds) {
+        this.thongKeRepo = thongKeRepo;
+        this.thongKeService = thongKeService;
+        this.securityHelper = securityHelper;
+        this.cacheTtlMs = cacheTtlSeconds * 1000;
+    }
+
+    // ===== DTO =====
+
+    /**
+     * Số liệu một tháng.
+     *
+     * @param tyLeThu   đã thu / phải thu (%)
+     * @param thanhToan tiền thực nhận trong tháng (theo ngày nộp)
+     */
+    public record DiemThang(String thang, BigDecimal phaiThu, BigDecimal daThu, BigDecimal conNo,
+                            BigDecimal tyLeThu, int soHoaDon, BigDecimal thanhToan, int soGiaoDich) {}
+
+    public record ChuoiToaNha(int toaNhaId, String tenToaNha, List<DiemThang> series) {}
+
+    /**
+     * Kết quả dashboard. phienBan dùng làm ETag phía controller.
+     */
+    public record DashboardDanhMuc(String tuThang, String denThang, List<String> thang,
+                                   List<ChuoiToaNha> toaNha, List<DiemThang> tongHop, String phienBan) {}
+
+    private record CacheEntry(String phienBan, long taoLuc, DashboardDanhMuc data) {}
+
+    // ===== Public API =====
+
+    /**
+     * Dashboard tòa nhà × tháng trong khoảng [tuThang, denThang].
+     *
+     * @param toaNhaIds lọc thêm theo tòa nhà (null/rỗng = mọi tòa nhà được phép xem)
+     */
+    public DashboardDanhMuc getDashboard(YearMonth tuThang, YearMonth denThang, Collection<Integer> toaNhaIds) {
+        if (tuThang == null || denThang == null) {
+            throw new IllegalArgumentException("Cần truyền tuThang và denThang (yyyy-MM)");
+        }
+        if (tuThang.isAfter(denThang)) {
+            throw new IllegalArgumentException("tuThang phải trước hoặc bằng denThang");
+        }
+        long soThang = tuThang.until(denThang, ChronoUnit.MONTHS) + 1;
+        if (soThang > MAX_SO_THANG) {
+            throw new IllegalArgumentException("Khoảng thời gian tối đa " + MAX_SO_THANG + " tháng");
+        }
+
+        // null = không giới hạn tòa nhà (chỉ khi được xem tất cả và không lọc)
+        Set<Integer> phamVi = resolvePhamVi(toaNhaIds);
+        if (phamVi != null && phamVi.isEmpty()) {
+            return build(tuThang, denThang, List.of(), List.of(), thongKeService.getPhienBan());
+        }
+
+        String key = tuThang + "|" + denThang + "|" + (phamVi == null ? "*" : new TreeSet<>(phamVi));
+        // Đọc phiên bản TRƯỚC dữ liệu: dữ liệu trả về không bao giờ cũ hơn phiên bản gắn kèm
+        String phienBan = thongKeService.getPhienBan();
+        CacheEntry entry = cache.get(key);
+        if (entry != null && entry.phienBan().equals(phienBan)
+                && System.currentTimeMillis() - entry.taoLuc() < cacheTtlMs) {
+            return entry.data();
+        }
+
+        List<ToaNhaThangRow> phaiThu = thongKeRepo.sumTheoToaNhaThang(ky(tuThang), ky(denThang), phamVi);
+        List<ThanhToanThangRow> thanhToan = thongKeRepo.sumThanhToanTheoToaNhaThang(
+            tuThang.atDay(1), denThang.plusMonths(1).atDay(1), phamVi);
+
+        DashboardDanhMuc data = build(tuThang, denThang, phaiThu, thanhToan, phienBan);
+
+        if (cache.size() >= MAX_CACHE_ENTRIES) {
+            cache.clear();
+        }
+        cache.put(key, new CacheEntry(phienBan, System.currentTimeMillis(), data));
+        return data;
+    }
+
+    // ===== Helpers =====
+
+    /**
+     * Tập tòa nhà được phép xem, giao với bộ lọc của request.
+     * @return null nếu không cần lọc theo tòa nhà
+     */
+    private Set<Integer> resolvePhamVi(Collection<Integer> toaNhaIds) {
+        boolean coLoc = toaNhaIds != null && !toaNhaIds.isEmpty();
+        if (securityHelper.canViewAll()) {
+            return coLoc ? new HashSet<>(toaNhaIds) : null;
+        }
+        Set<Integer> duocXem = new HashSet<>(securityHelper.getAccessibleBuildingIds());
+        if (coLoc) {
+            duocXem.retainAll(toaNhaIds);
+        }
+        return duocXem;
+    }
+
+    private static DashboardDanhMuc build(YearMonth tuThang, YearMonth denThang,
+                                          List<ToaNhaThangRow> phaiThu, List<ThanhToanThangRow> thanhToan,
+                                          String phienBan) {
+        List<YearMonth> months = new ArrayList<>();
+        for (YearMonth m = tuThang; !m.isAfter(denThang); m = m.plusMonths(1)) {
+            months.add(m);
+        }
+        int n = months.size();
+        Map<Integer, Integer> kyIndex = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            kyIndex.put(ky(months.get(i)), i);
+        }
+
+        // Lưới tòa nhà × tháng (giữ thứ tự theo tên tòa nhà)
+        Map<Integer, Luoi> theoToaNha = new HashMap<>();
+        for (ToaNhaThangRow r : phaiThu) {
+            Integer idx = kyIndex.get(r.kyThang());
+            if (idx == null) continue;
+            Luoi luoi = theoToaNha.computeIfAbsent(r.toaNhaId(), id -> new Luoi(id, n));
+            luoi.tenToaNha = r.tenToaNha();
+            luoi.phaiThu[idx] = luoi.phaiThu[idx].add(r.tongPhaiThu());
+            luoi.daThu[idx] = luoi.daThu[idx].add(r.tongDaThu());
+            luoi.soHoaDon[idx] += r.soHoaDon();
+        }
+        for (ThanhToanThangRow r : thanhToan) {
+            Integer idx = kyIndex.get(r.kyThang());
+            if (idx == null) continue;
+            Luoi luoi = theoToaNha.computeIfAbsent(r.toaNhaId(), id -> new Luoi(id, n));
+            luoi.tenToaNha = r.tenToaNha();
+            luoi.thanhToan[idx] = luoi.thanhToan[idx].add(r.soTien());
+            luoi.soGiaoDich[idx] += r.soGiaoDich();
+        }
+
+        Luoi tong = new Luoi(0, n);
+        List<ChuoiToaNha> chuoi = new ArrayList<>();
+        List<Luoi> danhSach = new ArrayList<>(theoToaNha.values());
+        danhSach.sort(Comparator.comparing((Luoi l) -> l.tenToaNha != null ? l.tenToaNha : "")
+            .thenComparingInt(l -> l.toaNhaId));
+        for (Luoi luoi : danhSach) {
+            tong.cong(luoi);
+            chuoi.add(new ChuoiToaNha(luoi.toaNhaId, luoi.tenToaNha, luoi.toSeries(months)));
+        }
+
+        return new DashboardDanhMuc(tuThang.toString(), denThang.toString(),
+            months.stream().map(YearMonth::toString).toList(),
+            chuoi, tong.toSeries(months), phienBan);
+    }
+
+    /**
+     * Mảng số liệu theo tháng của một tòa nhà (hoặc tổng).
+     */
+    private static final class Luoi {
+        final int toaNhaId;
+        String tenToaNha;
+        final BigDecimal[] phaiThu;
+        final BigDecimal[] daThu;
+        final BigDecimal[] thanhToan;
+        final int[] soHoaDon;
+        final int[] soGiaoDich;
+
+        Luoi(int toaNhaId, int n) {
+            this.toaNhaId = toaNhaId;
+            this.phaiThu = zeros(n);
+            this.daThu = zeros(n);
+            this.thanhToan = zeros(n);
+            this.soHoaDon = new int[n];
+            this.soGiaoDich = new int[n];
+        }
+
+        void cong(Luoi other) {
+            for (int i = 0; i < phaiThu.length; i++) {
+                phaiThu[i] = phaiThu[i].add(other.phaiThu[i]);
+                daThu[i] = daThu[i].add(other.daThu[i]);
+                thanhToan[i] = thanhToan[i].add(other.thanhToan[i]);
+                soHoaDon[i] += other.soHoaDon[i];
+                soGiaoDich[i] += other.soGiaoDich[i];
+            }
+        }
+
+        List<DiemThang> toSeries(List<YearMonth> months) {
+            List<DiemThang> series = new ArrayList<>(months.size());
+            for (int i = 0; i < months.size(); i++) {
+                BigDecimal tyLe = phaiThu[i].compareTo(BigDecimal.ZERO) > 0
+                    ? daThu[i].multiply(BigDecimal.valueOf(100)).divide(phaiThu[i], 2, RoundingMode.HALF_UP)
+                    : BigDecimal.ZERO;
+                series.add(new DiemThang(months.get(i).toString(), phaiThu[i], daThu[i],
+                    phaiThu[i].subtract(daThu[i]), tyLe, soHoaDon[i], thanhToan[i], soGiaoDich[i]));
+            }
+            return series;
+        }
+
+        private static BigDecimal[] zeros(int n) {
+            BigDecimal[] arr = new BigDecimal[n];
+            Arrays.fill(arr, BigDecimal.ZERO);
+            return arr;
+        }
+    }
+
+    private static int ky(YearMonth m) {
+        return m.getYear() * 100 + m.getMonthValue();
+    }
+}
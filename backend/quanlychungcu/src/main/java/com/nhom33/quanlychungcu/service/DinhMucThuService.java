@@ -1,10 +1,13 @@
 package com.nhom33.quanlychungcu.service;
 
+import com.nhom33.quanlychungcu.dto.DinhMucBulkRequestDTO;
 import com.nhom33.quanlychungcu.entity.DinhMucThu;
 import com.nhom33.quanlychungcu.entity.HoGiaDinh;
 import com.nhom33.quanlychungcu.entity.LoaiPhi;
-import com.nhom33.quanlychungcu.entity.ToaNha;
 import com.nhom33.quanlychungcu.exception.ResourceNotFoundException;
+import com.nhom33.quanlychungcu.repository.DinhMucBulkRepository;
+import com.nhom33.quanlychungcu.repository.DinhMucBulkRepository.DongGhi;
+import com.nhom33.quanlychungcu.repository.DinhMucBulkRepository.PhamVi;
 import com.nhom33.quanlychungcu.repository.DinhMucThuRepository;
 import com.nhom33.quanlychungcu.repository.HoGiaDinhRepository;
 import com.nhom33.quanlychungcu.repository.LoaiPhiRepository;
@@ -12,6 +15,7 @@ import com.nhom33.quanlychungcu.repository.ToaNhaRepository;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.lang.NonNull;
+import org.springframework.security.access.AccessDeniedException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -38,18 +42,27 @@ public class DinhMucThuService {
     private final LoaiPhiRepository loaiPhiRepo;
     private final ToaNhaRepository toaNhaRepo;
     private final BangGiaService bangGiaService;
+    private final InvoiceDeltaService invoiceDeltaService;
+    private final DinhMucBulkRepository dinhMucBulkRepo;
+    private final SecurityHelper securityHelper;
 
     public DinhMucThuService(
             DinhMucThuRepository repo,
             HoGiaDinhRepository hoGiaDinhRepo,
             LoaiPhiRepository loaiPhiRepo,
             ToaNhaRepository toaNhaRepo,
-            BangGiaService bangGiaService) {
+            BangGiaService bangGiaService,
+            InvoiceDeltaService invoiceDeltaService,
+            DinhMucBulkRepository dinhMucBulkRepo,
+            SecurityHelper securityHelper) {
         this.repo = repo;
         this.hoGiaDinhRepo = hoGiaDinhRepo;
         this.loaiPhiRepo = loaiPhiRepo;
         this.toaNhaRepo = toaNhaRepo;
         this.bangGiaService = bangGiaService;
+        this.invoiceDeltaService = invoiceDeltaService;
+        this.dinhMucBulkRepo = dinhMucBulkRepo;
+        this.securityHelper = securityHelper;
     }
 
     // ===== CREATE =====
@@ -75,7 +88,9 @@ public class DinhMucThuService {
         dinhMuc.setHoGiaDinh(hoGiaDinh);
         dinhMuc.setLoaiPhi(loaiPhi);
         
-        return repo.save(dinhMuc);
+        DinhMucThu saved = repo.saveAndFlush(dinhMuc);
+        invoiceDeltaService.onDinhMucChanged(loaiPhi.getId(), List.of(hoGiaDinh.getId()));
+        return saved;
     }
 
     // ===== UPDATE =====
@@ -88,7 +103,7 @@ public class DinhMucThuService {
         exist.setSoLuong(updated.getSoLuong());
         exist.setGhiChu(updated.getGhiChu());
         
-        return repo.save(exist);
+        return saveAndRecalculate(exist);
     }
 
     /**
@@ -100,17 +115,31 @@ public class DinhMucThuService {
             .orElseThrow(() -> new ResourceNotFoundException("Không tìm thấy định mức thu với ID: " + id));
         
         exist.setSoLuong(soLuong);
-        return repo.save(exist);
+        return saveAndRecalculate(exist);
     }
 
     // ===== DELETE =====
 
     @Transactional
     public void delete(@NonNull Integer id) {
-        if (!repo.existsById(id)) {
-            throw new ResourceNotFoundException("Không tìm thấy định mức thu với ID: " + id);
-        }
-        repo.deleteById(id);
+        DinhMucThu exist = repo.findById(id)
+            .orElseThrow(() -> new ResourceNotFoundException("Không tìm thấy định mức thu với ID: " + id));
+        Integer hoGiaDinhId = exist.getHoGiaDinh().getId();
+        Integer loaiPhiId = exist.getLoaiPhi().getId();
+
+        repo.delete(exist);
+        repo.flush();
+        invoiceDeltaService.onDinhMucChanged(loaiPhiId, List.of(hoGiaDinhId));
+    }
+
+    /**
+     * Lưu định mức rồi tính lại các hóa đơn chưa kết thúc của hộ cho loại phí này.
+     * Flush trước để câu SQL tính lại (JDBC) thấy giá trị mới.
+     */
+    private DinhMucThu saveAndRecalculate(DinhMucThu dinhMuc) {
+        DinhMucThu saved = repo.saveAndFlush(dinhMuc);
+        invoiceDeltaService.onDinhMucChanged(saved.getLoaiPhi().getId(), List.of(saved.getHoGiaDinh().getId()));
+        return saved;
     }
 
     // ===== READ =====
@@ -134,8 +163,14 @@ public class DinhMucThuService {
 
     // ===== BULK ACTIONS =====
 
+    /**
+     * Kết quả cấp định mức hàng loạt.
+     */
+    public record KetQuaDinhMucBulk(int soThemMoi, int soCapNhat) {}
+
     /**
      * Tạo định mức hàng loạt cho tất cả hộ gia đình trong một tòa nhà.
+     * Hộ đã có định mức cho loại phí này được giữ nguyên.
      * 
      * @param toaNhaId   ID tòa nhà
      * @param loaiPhiId  ID loại phí
@@ -144,53 +179,88 @@ public class DinhMucThuService {
      */
     @Transactional
     public int createBulkByToaNha(@NonNull Integer toaNhaId, @NonNull Integer loaiPhiId, Double soLuong) {
-        // Validate tòa nhà
-        ToaNha toaNha = toaNhaRepo.findById(toaNhaId)
-            .orElseThrow(() -> new ResourceNotFoundException("Không tìm thấy tòa nhà với ID: " + toaNhaId));
-        
-        // Validate loại phí
-        LoaiPhi loaiPhi = loaiPhiRepo.findById(loaiPhiId)
-            .orElseThrow(() -> new ResourceNotFoundException("Không tìm thấy loại phí với ID: " + loaiPhiId));
-        
-        // Lấy tất cả hộ gia đình trong tòa nhà
-        List<HoGiaDinh> households = hoGiaDinhRepo.findByToaNhaId(toaNhaId);
-        
-        int count = 0;
-        for (HoGiaDinh household : households) {
-            // Kiểm tra đã có định mức chưa
-            if (repo.findByHoGiaDinhIdAndLoaiPhiId(household.getId(), loaiPhiId).isEmpty()) {
-                DinhMucThu dinhMuc = new DinhMucThu();
-                dinhMuc.setHoGiaDinh(household);
-                dinhMuc.setLoaiPhi(loaiPhi);
-                dinhMuc.setSoLuong(soLuong != null ? soLuong : 1.0);
-                repo.save(dinhMuc);
-                count++;
-            }
-        }
-        
-        return count;
+        return apDung(toaNhaId, loaiPhiId, new PhamVi(toaNhaId, null, null, null, null),
+            false, soLuong != null ? soLuong : 1.0, 0, true, false, null).soThemMoi();
     }
 
     /**
-     * Cập nhật số lượng hàng loạt cho tất cả hộ gia đình trong tòa nhà.
+     * Cập nhật số lượng hàng loạt cho tất cả hộ gia đình trong tòa nhà (chỉ hộ đã có định mức).
+     *
+     * @return Số định mức có số lượng thay đổi
      */
     @Transactional
     public int updateBulkByToaNha(@NonNull Integer toaNhaId, @NonNull Integer loaiPhiId, Double soLuong) {
-        // Lấy tất cả hộ gia đình trong tòa nhà
-        List<HoGiaDinh> households = hoGiaDinhRepo.findByToaNhaId(toaNhaId);
-        
-        int count = 0;
-        for (HoGiaDinh household : households) {
-            Optional<DinhMucThu> existing = repo.findByHoGiaDinhIdAndLoaiPhiId(household.getId(), loaiPhiId);
-            if (existing.isPresent()) {
-                DinhMucThu dinhMuc = existing.get();
-                dinhMuc.setSoLuong(soLuong);
-                repo.save(dinhMuc);
-                count++;
+        if (soLuong == null) {
+            throw new IllegalArgumentException("Số lượng không được để trống");
+        }
+        return apDung(toaNhaId, loaiPhiId, new PhamVi(toaNhaId, null, null, null, null),
+            false, soLuong, 0, false, true, null).soCapNhat();
+    }
+
+    /**
+     * Áp dụng một quy tắc định mức cho các hộ của tòa nhà (cả tòa, theo khoảng tầng, trạng thái
+     * hoặc danh sách hộ) bằng một câu MERGE; số lượng theo diện tích được tính trong SQL.
+     */
+    @Transactional
+    public KetQuaDinhMucBulk apDungHangLoat(@NonNull DinhMucBulkRequestDTO request) {
+        Integer toaNhaId = request.toaNhaId();
+        if (!securityHelper.canManageBuilding(toaNhaId)) {
+            throw new AccessDeniedException("Bạn không có quyền quản lý tòa nhà này");
+        }
+
+        String quyTac = request.quyTac() != null ? request.quyTac() : DinhMucBulkRequestDTO.QUY_TAC_CO_DINH;
+        boolean theoDienTich = switch (quyTac) {
+            case DinhMucBulkRequestDTO.QUY_TAC_CO_DINH -> false;
+            case DinhMucBulkRequestDTO.QUY_TAC_DIEN_TICH -> true;
+            default -> throw new IllegalArgumentException("Quy tắc định mức không hợp lệ: " + quyTac);
+        };
+        String cheDo = request.cheDo() != null ? request.cheDo() : DinhMucBulkRequestDTO.CHE_DO_THEM_MOI;
+        switch (cheDo) {
+            case DinhMucBulkRequestDTO.CHE_DO_THEM_MOI, DinhMucBulkRequestDTO.CHE_DO_CAP_NHAT,
+                 DinhMucBulkRequestDTO.CHE_DO_GHI_DE -> { }
+            default -> throw new IllegalArgumentException("Chế độ ghi không hợp lệ: " + cheDo);
+        }
+        boolean themMoi = !DinhMucBulkRequestDTO.CHE_DO_CAP_NHAT.equals(cheDo);
+        boolean capNhat = !DinhMucBulkRequestDTO.CHE_DO_THEM_MOI.equals(cheDo);
+
+        if (request.tuTang() != null && request.denTang() != null && request.tuTang() > request.denTang()) {
+            throw new IllegalArgumentException("Tầng bắt đầu phải nhỏ hơn hoặc bằng tầng kết thúc");
+        }
+        List<Integer> hoGiaDinhIds = request.hoGiaDinhIds();
+        if (hoGiaDinhIds != null) {
+            if (hoGiaDinhIds.isEmpty()) {
+                return new KetQuaDinhMucBulk(0, 0);
+            }
+            if (hoGiaDinhIds.size() > DinhMucBulkRepository.MAX_HO_GIA_DINH_IDS) {
+                throw new IllegalArgumentException("Tối đa " + DinhMucBulkRepository.MAX_HO_GIA_DINH_IDS
+                    + " hộ mỗi lần, hãy lọc theo tầng hoặc cả tòa nhà");
             }
         }
-        
-        return count;
+
+        double soLuong = request.soLuong() != null ? request.soLuong() : 1.0;
+        double heSo = request.heSo() != null ? request.heSo() : 1.0;
+        PhamVi phamVi = new PhamVi(toaNhaId, request.tuTang(), request.denTang(), request.trangThaiHo(), hoGiaDinhIds);
+        return apDung(toaNhaId, request.loaiPhiId(), phamVi, theoDienTich, soLuong, heSo,
+            themMoi, capNhat, request.ghiChu());
+    }
+
+    /**
+     * MERGE định mức rồi tính lại hóa đơn chưa kết thúc của đúng các hộ đã thêm/sửa.
+     */
+    private KetQuaDinhMucBulk apDung(Integer toaNhaId, Integer loaiPhiId, PhamVi phamVi, boolean theoDienTich,
+                                    double soLuong, double heSo, boolean themMoi, boolean capNhat, String ghiChu) {
+        toaNhaRepo.findById(toaNhaId)
+            .orElseThrow(() -> new ResourceNotFoundException("Không tìm thấy tòa nhà với ID: " + toaNhaId));
+        loaiPhiRepo.findById(loaiPhiId)
+            .orElseThrow(() -> new ResourceNotFoundException("Không tìm thấy loại phí với ID: " + loaiPhiId));
+
+        List<DongGhi> daGhi = dinhMucBulkRepo.merge(loaiPhiId, phamVi, theoDienTich, soLuong, heSo,
+            themMoi, capNhat, ghiChu);
+
+        List<Integer> hoIds = daGhi.stream().map(DongGhi::hoGiaDinhId).toList();
+        invoiceDeltaService.onDinhMucChanged(loaiPhiId, hoIds);
+        int soThemMoi = (int) daGhi.stream().filter(DongGhi::themMoi).count();
+        return new KetQuaDinhMucBulk(soThemMoi, daGhi.size() - soThemMoi);
     }
 
     // ===== PRICE CALCULATION =====
@@ -0,0 +1,168 @@
+package com.nhom33.quanlychungcu.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongPredicate;
+import java.util.function.Supplier;
+
+/**
+ * Cache đơn giá áp dụng theo (loaiPhi, toaNha) cho BangGiaService.getDonGiaApDung.
+ *
+ * LOGIC:
+ * - Khóa = (loaiPhiId, toaNhaId), toaNhaId có thể null (chỉ dùng giá mặc định)
+ * - Giá trị = đơn giá đã resolve (BangGiaDichVu > LoaiPhi.DonGia > 0)
+ * - Xóa cache chính xác theo khóa bị ảnh hưởng, không xóa toàn bộ:
+ *   + upsert/xóa bảng giá một cặp -> xóa đúng cặp đó
+ *   + đổi giá/xóa loại phí -> xóa mọi cặp của loại phí
+ *   + xóa bảng giá của tòa nhà -> xóa mọi cặp của tòa nhà
+ * - Nếu đang trong transaction, xóa thêm một lần SAU KHI COMMIT để tránh
+ *   thread khác nạp lại giá cũ trong lúc transaction chưa commit
+ * - Mỗi lần xóa tăng "phiên xóa" (invalidation stamp). Thread nạp giá ghi nhớ phiên trước khi query,
+ *   lưu kết quả rồi kiểm tra lại: phiên đã đổi thì gỡ đúng phần tử vừa lưu (giá có thể đã cũ).
+ *   Xóa luôn tăng phiên TRƯỚC khi gỡ khóa, nên lần lưu muộn nào cũng bị một trong hai bên gỡ
+ * - Mỗi phần tử hết hạn sau ttl (kể cả khi giá bị sửa thẳng trong DB, không qua service)
+ */
+@Component
+public class DonGiaCache {
+
+    /** Đánh dấu toaNhaId = null trong khóa. */
+    private static final int KHONG_CO_TOA_NHA = -1;
+
+    /** Giá đã nạp kèm thời điểm hết hạn (System.nanoTime). So sánh theo identity khi gỡ. */
+    private static final class Entry {
+        final BigDecimal donGia;
+        final long hetHan;
+
+        Entry(BigDecimal donGia, long hetHan) {
+            this.donGia = donGia;
+            this.hetHan = hetHan;
+        }
+    }
+
+    private final Map<Long, Entry> cache = new ConcurrentHashMap<>();
+    private final AtomicLong phienXoa = new AtomicLong();
+    private final long ttlNanos;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public DonGiaCache(@Value("${app.don-gia-cache.ttl-seconds:600}") long ttlSeconds) {
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(Math.max(1, ttlSeconds));
+    }
+
+    /**
+     * Lấy đơn giá từ cache, nếu chưa có (hoặc đã hết hạn) thì gọi loader (query DB) và lưu lại.
+     */
+    public BigDecimal get(Integer loaiPhiId, Integer toaNhaId, Supplier<BigDecimal> loader) {
+        long key = key(loaiPhiId, toaNhaId);
+        long now = System.nanoTime();
+        Entry entry = cache.get(key);
+        if (entry != null && now - entry.hetHan < 0) {
+            hits.increment();
+            return entry.donGia;
+        }
+        misses.increment();
+        long phien = phienXoa.get();
+        BigDecimal donGia = loader.get();
+        if (donGia != null) {
+            Entry moi = new Entry(donGia, System.nanoTime() + ttlNanos);
+            cache.put(key, moi);
+            if (phienXoa.get() != phien) {
+                // Có lần xóa chen giữa lúc query: không giữ giá có thể đã cũ
+                cache.remove(key, moi);
+            }
+        }
+        return donGia;
+    }
+
+    // ===== Invalidate =====
+
+    /**
+     * Xóa cache của một cặp (loaiPhi, toaNha).
+     */
+    public void evict(Integer loaiPhiId, Integer toaNhaId) {
+        if (loaiPhiId == null) return;
+        long key = key(loaiPhiId, toaNhaId);
+        runNowAndAfterCommit(() -> {
+            phienXoa.incrementAndGet();
+            if (cache.remove(key) != null) evictions.increment();
+        });
+    }
+
+    /**
+     * Xóa cache mọi tòa nhà của một loại phí (đổi giá mặc định, xóa loại phí).
+     */
+    public void evictLoaiPhi(Integer loaiPhiId) {
+        if (loaiPhiId == null) return;
+        runNowAndAfterCommit(() -> removeIf(k -> (int) (k >>> 32) == loaiPhiId));
+    }
+
+    /**
+     * Xóa cache mọi loại phí của một tòa nhà.
+     */
+    public void evictToaNha(Integer toaNhaId) {
+        if (toaNhaId == null) return;
+        runNowAndAfterCommit(() -> removeIf(k -> (int) k == toaNhaId));
+    }
+
+    public void evictAll() {
+        runNowAndAfterCommit(() -> {
+            phienXoa.incrementAndGet();
+            evictions.add(cache.size());
+            cache.clear();
+        });
+    }
+
+    /**
+     * Thống kê hit/miss của cache.
+     */
+    public Map<String, Object> getStatistics() {
+        long h = hits.sum();
+        long m = misses.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("soPhanTu", cache.size());
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("evictions", evictions.sum());
+        stats.put("tyLeHit", h + m > 0 ? Math.round(h * 10000.0 / (h + m)) / 100.0 : 0.0);
+        return stats;
+    }
+
+    // ===== Helper =====
+
+    private void removeIf(LongPredicate predicate) {
+        phienXoa.incrementAndGet();
+        cache.keySet().removeIf(k -> {
+            boolean match = predicate.test(k);
+            if (match) evictions.increment();
+            return match;
+        });
+    }
+
+    private void runNowAndAfterCommit(Runnable action) {
+        action.run();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    action.run();
+                }
+            });
+        }
+    }
+
+    private static long key(Integer loaiPhiId, Integer toaNhaId) {
+        int toaNha = toaNhaId != null ? toaNhaId : KHONG_CO_TOA_NHA;
+        return ((long) loaiPhiId << 32) | (toaNha & 0xffffffffL);
+    }
+}
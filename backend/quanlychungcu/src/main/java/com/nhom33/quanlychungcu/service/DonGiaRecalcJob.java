@@ -0,0 +1,80 @@
+package com.nhom33.quanlychungcu.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Job nền: tính lại hóa đơn khi giá MẶC ĐỊNH của một loại phí đổi.
+ *
+ * Đổi LoaiPhi.DonGia (hoặc xóa mọi bảng giá riêng của loại phí) ảnh hưởng mọi đợt thu chưa kết thúc
+ * của mọi tòa nhà, nên không chạy trong request lưu giá:
+ * - Service phát sự kiện GiaMacDinhDoi trong transaction lưu giá
+ * - SAU KHI COMMIT, loại phí được đưa vào invoiceDeltaExecutor, tính lại trong transaction riêng
+ * - Loại phí đang chờ trong hàng đợi không bị xếp thêm lần nữa (lần chạy sau đọc giá mới nhất)
+ * - Transaction lưu giá rollback -> không có gì chạy
+ */
+@Component
+public class DonGiaRecalcJob {
+
+    private static final Logger log = LoggerFactory.getLogger(DonGiaRecalcJob.class);
+
+    private final InvoiceDeltaService invoiceDeltaService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TaskExecutor executor;
+
+    /** Loại phí đã xếp hàng nhưng chưa bắt đầu tính. */
+    private final Set<Integer> dangCho = ConcurrentHashMap.newKeySet();
+
+    public DonGiaRecalcJob(InvoiceDeltaService invoiceDeltaService,
+                           ApplicationEventPublisher eventPublisher,
+                           @Qualifier("invoiceDeltaExecutor") TaskExecutor executor) {
+        this.invoiceDeltaService = invoiceDeltaService;
+        this.eventPublisher = eventPublisher;
+        this.executor = executor;
+    }
+
+    /**
+     * Sự kiện: giá mặc định của loại phí đã đổi trong transaction hiện tại.
+     */
+    public record GiaMacDinhDoi(int loaiPhiId) {}
+
+    /**
+     * Gọi trong transaction lưu giá; việc tính lại chạy sau khi commit.
+     */
+    public void schedule(int loaiPhiId) {
+        eventPublisher.publishEvent(new GiaMacDinhDoi(loaiPhiId));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onGiaMacDinhDoi(GiaMacDinhDoi event) {
+        int loaiPhiId = event.loaiPhiId();
+        if (!dangCho.add(loaiPhiId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> run(loaiPhiId));
+        } catch (TaskRejectedException e) {
+            dangCho.remove(loaiPhiId);
+            log.error("Hàng đợi tính lại hóa đơn đầy, bỏ qua loại phí {} (chạy tính tiền lại đợt thu nếu cần)",
+                loaiPhiId, e);
+        }
+    }
+
+    private void run(int loaiPhiId) {
+        dangCho.remove(loaiPhiId);
+        try {
+            invoiceDeltaService.onDonGiaChanged(loaiPhiId, null);
+        } catch (Exception e) {
+            log.error("Lỗi tính lại hóa đơn theo giá mặc định của loại phí {}", loaiPhiId, e);
+        }
+    }
+}
@@ -1,9 +1,13 @@
 package com.nhom33.quanlychungcu.service;
 
+import com.nhom33.quanlychungcu.dto.DotThuListDTO;
 import com.nhom33.quanlychungcu.dto.DotThuLoaiPhiDTO;
+import com.nhom33.quanlychungcu.dto.DotThuPhiDTO;
 import com.nhom33.quanlychungcu.entity.*;
 import com.nhom33.quanlychungcu.exception.ResourceNotFoundException;
 import com.nhom33.quanlychungcu.repository.*;
+import com.nhom33.quanlychungcu.util.KeysetCursor;
+import com.nhom33.quanlychungcu.util.KeysetPage;
 // SecurityHelper is in the same package
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
@@ -15,6 +19,7 @@ import org.springframework.transaction.annotation.Transactional;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.function.IntConsumer;
 
 /**
  * Service: Quản lý Đợt Thu.
@@ -36,13 +41,13 @@ public class DotThuService {
     private final DotThuLoaiPhiRepository dotThuLoaiPhiRepo;
     private final LoaiPhiRepository loaiPhiRepo;
     private final ToaNhaRepository toaNhaRepo;
-    private final HoGiaDinhRepository hoGiaDinhRepo;
     private final HoaDonRepository hoaDonRepo;
-    private final ChiTietHoaDonRepository chiTietHoaDonRepo;
-    private final DinhMucThuRepository dinhMucThuRepo;
-    private final ChiSoDienNuocService chiSoService;
+    private final InvoiceCalculationEngine invoiceEngine;
     private final BangGiaService bangGiaService;
     private final SecurityHelper securityHelper;
+    private final KeysetRepository keysetRepo;
+    private final DotThuReadRepository readRepo;
+    private final ThongKeDotThuService thongKeService;
     
     // Danh sách từ khóa loại phí biến đổi (cần ghi chỉ số theo tháng)
     // Sử dụng contains() để match: "Phí điện", "Điện", "Tiền điện", v.v.
@@ -52,7 +57,7 @@ public class DotThuService {
      * Kiểm tra tên loại phí có phải phí biến đổi (Điện/Nước) không.
      * Match không phân biệt hoa thường, kiểm tra chứa từ khóa.
      */
-    private boolean isUtilityFeeByName(String tenLoaiPhi) {
+    static boolean isUtilityFeeByName(String tenLoaiPhi) {
         if (tenLoaiPhi == null) return false;
         String lowerName = tenLoaiPhi.toLowerCase();
         return UTILITY_FEE_KEYWORDS.stream().anyMatch(lowerName::contains);
@@ -62,24 +67,24 @@ public class DotThuService {
                          DotThuLoaiPhiRepository dotThuLoaiPhiRepo,
                          LoaiPhiRepository loaiPhiRepo,
                          ToaNhaRepository toaNhaRepo,
-                         HoGiaDinhRepository hoGiaDinhRepo,
                          HoaDonRepository hoaDonRepo,
-                         ChiTietHoaDonRepository chiTietHoaDonRepo,
-                         DinhMucThuRepository dinhMucThuRepo,
-                         ChiSoDienNuocService chiSoService,
+                         InvoiceCalculationEngine invoiceEngine,
                          BangGiaService bangGiaService,
-                         SecurityHelper securityHelper) {
+                         SecurityHelper securityHelper,
+                         KeysetRepository keysetRepo,
+                         DotThuReadRepository readRepo,
+                         ThongKeDotThuService thongKeService) {
         this.repo = repo;
         this.dotThuLoaiPhiRepo = dotThuLoaiPhiRepo;
         this.loaiPhiRepo = loaiPhiRepo;
         this.toaNhaRepo = toaNhaRepo;
-        this.hoGiaDinhRepo = hoGiaDinhRepo;
         this.hoaDonRepo = hoaDonRepo;
-        this.chiTietHoaDonRepo = chiTietHoaDonRepo;
-        this.dinhMucThuRepo = dinhMucThuRepo;
-        this.chiSoService = chiSoService;
+        this.invoiceEngine = invoiceEngine;
         this.bangGiaService = bangGiaService;
         this.securityHelper = securityHelper;
+        this.keysetRepo = keysetRepo;
+        this.readRepo = readRepo;
+        this.thongKeService = thongKeService;
     }
     
     // ===== Multi-tenancy helper methods =====
@@ -136,6 +141,8 @@ public class DotThuService {
         }
         
         DotThu saved = repo.save(dotThu);
+        // Dòng thống kê có ngay từ đầu (số hộ của tòa nhà), báo cáo không phải tạo khi đọc
+        thongKeService.onDotThuRecalculated(saved.getId());
         
         // KHÔNG tự động thêm phí - Admin sẽ tự chọn loại phí cần thu
         // Đợt thu mới tạo sẽ rỗng danh sách phí
@@ -156,6 +163,12 @@ public class DotThuService {
         if (updated.getNgayKetThuc().isBefore(updated.getNgayBatDau())) {
             throw new IllegalArgumentException("Ngày kết thúc phải sau ngày bắt đầu");
         }
+
+        // Không cho thay đổi tòa nhà sau khi tạo (hóa đơn, số hộ thống kê đã tính theo tòa nhà cũ)
+        if (updated.getToaNha() != null && updated.getToaNha().getId() != null
+                && (exist.getToaNha() == null || !exist.getToaNha().getId().equals(updated.getToaNha().getId()))) {
+            throw new IllegalArgumentException("Không được thay đổi tòa nhà của đợt thu");
+        }
         
         // Nếu thay đổi tên, kiểm tra trùng trong cùng tòa nhà
         if (!exist.getTenDotThu().equals(updated.getTenDotThu())) {
@@ -169,13 +182,19 @@ public class DotThuService {
             }
         }
         
+        // SoHo chỉ theo dõi thêm/xóa hộ khi đợt thu chưa kết thúc: đổi ngày kết thúc -> tính lại số hộ
+        boolean doiNgayKetThuc = !updated.getNgayKetThuc().equals(exist.getNgayKetThuc());
+
         exist.setTenDotThu(updated.getTenDotThu());
         exist.setLoaiDotThu(updated.getLoaiDotThu());
         exist.setNgayBatDau(updated.getNgayBatDau());
         exist.setNgayKetThuc(updated.getNgayKetThuc());
-        // Không cho thay đổi tòa nhà sau khi tạo
-        
-        return repo.save(exist);
+
+        DotThu saved = repo.save(exist);
+        if (doiNgayKetThuc) {
+            thongKeService.onDotThuRecalculated(saved.getId());
+        }
+        return saved;
     }
 
     @Transactional
@@ -203,10 +222,10 @@ public class DotThuService {
         return dotThu;
     }
 
-    public Page<DotThu> findAll(@NonNull Pageable pageable) {
+    public Page<DotThuListDTO> findAll(@NonNull Pageable pageable) {
         // Multi-tenancy: Lọc theo tòa nhà nếu là MANAGER
         if (securityHelper.canViewAll()) {
-            return repo.findAll(pageable);
+            return readRepo.findAllList(pageable);
         }
         
         List<Integer> accessibleBuildingIds = securityHelper.getAccessibleBuildingIds();
@@ -214,7 +233,26 @@ public class DotThuService {
             return new PageImpl<>(new ArrayList<>(), pageable, 0);
         }
         
-        return repo.findByToaNhaIdIn(accessibleBuildingIds, pageable);
+        return readRepo.findListByToaNhaIdIn(accessibleBuildingIds, pageable);
+    }
+
+    /**
+     * Như findAll nhưng phân trang theo con trỏ, sắp theo (ngày bắt đầu, ID) giảm dần.
+     */
+    public KeysetPage<DotThuListDTO> seek(String cursor, int size, boolean approxTotal) {
+        int limit = KeysetPage.clampSize(size);
+        KeysetCursor after = KeysetCursor.decodeNgay(cursor, "dot-thu");
+
+        List<Integer> toaNhaIds = null;
+        if (!securityHelper.canViewAll()) {
+            toaNhaIds = securityHelper.getAccessibleBuildingIds();
+            if (toaNhaIds.isEmpty()) {
+                return KeysetPage.empty(limit);
+            }
+        }
+        Long tong = approxTotal && toaNhaIds == null ? keysetRepo.approxRowCount("DotThu") : null;
+        return KeysetPage.of(keysetRepo.seekDotThu(toaNhaIds, after, limit),
+            limit, "dot-thu", tong, readRepo::findByIds, DotThuListDTO::id);
     }
 
     public Page<DotThu> search(String tenDotThu, String loaiDotThu, Integer toaNhaId, LocalDate ngayBatDau, LocalDate ngayKetThuc, @NonNull Pageable pageable) {
@@ -347,10 +385,9 @@ public class DotThuService {
     /**
      * Lấy danh sách loại phí biến đổi (Điện/Nước) trong đợt thu.
      */
-    public List<DotThuLoaiPhi> getUtilityFeesInPeriod(Integer dotThuId) {
-        List<DotThuLoaiPhi> fees = dotThuLoaiPhiRepo.findByDotThuId(dotThuId);
-        return fees.stream()
-            .filter(f -> isUtilityFeeByName(f.getLoaiPhi().getTenLoaiPhi()))
+    public List<DotThuPhiDTO> getUtilityFeesInPeriod(Integer dotThuId) {
+        return readRepo.findPhiByDotThuId(dotThuId).stream()
+            .filter(f -> isUtilityFeeByName(f.loaiPhi().tenLoaiPhi()))
             .toList();
     }
     
@@ -374,220 +411,24 @@ public class DotThuService {
      * - Với mỗi loại phí trong đợt thu:
      *   + Nếu là phí biến đổi (Điện/Nước): Sử dụng Thang/Nam của đợt thu để lấy chỉ số
      *   + Nếu là phí cố định: Lấy từ DinhMucThu hoặc diện tích căn hộ
+     * - Phần tính toán được giao cho InvoiceCalculationEngine (đọc set-based + ghi batch)
      * 
      * @param dotThuId ID đợt thu (đã lưu sẵn thang và nam)
      * @return Thống kê kết quả tính tiền
      */
     @Transactional
     public Map<String, Object> calculateInvoices(Integer dotThuId) {
-        DotThu dotThu = repo.findById(dotThuId)
-            .orElseThrow(() -> new ResourceNotFoundException("Không tìm thấy đợt thu với ID: " + dotThuId));
-        
-        ToaNha toaNha = dotThu.getToaNha();
-        if (toaNha == null) {
-            throw new IllegalStateException("Đợt thu chưa được gán tòa nhà");
-        }
-        
-        // Lấy thang và nam từ đợt thu
-        Integer thang = dotThu.getThang();
-        Integer nam = dotThu.getNam();
-        if (thang == null || nam == null) {
-            throw new IllegalStateException("Đợt thu chưa được cấu hình Tháng/Năm để tính phí điện nước");
-        }
-        
-        Integer toaNhaId = toaNha.getId();
-        
-        // Lấy danh sách hộ gia đình
-        List<HoGiaDinh> danhSachHo = hoGiaDinhRepo.findByToaNhaId(toaNhaId);
-        
-        // Lấy danh sách loại phí trong đợt thu
-        List<DotThuLoaiPhi> danhSachPhi = dotThuLoaiPhiRepo.findByDotThuId(dotThuId);
-        
-        int soHoaDonTao = 0;
-        int soHoThieuChiSo = 0;
-        List<String> danhSachThieuChiSo = new ArrayList<>();
-        
-        for (HoGiaDinh ho : danhSachHo) {
-            // Tìm hoặc tạo hóa đơn
-            HoaDon hoaDon = hoaDonRepo.findByHoGiaDinhIdAndDotThuId(ho.getId(), dotThuId)
-                .orElseGet(() -> {
-                    HoaDon newHoaDon = new HoaDon();
-                    newHoaDon.setHoGiaDinh(ho);
-                    newHoaDon.setDotThu(dotThu);
-                    newHoaDon.setTrangThai("ChuaThanhToan");
-                    newHoaDon.setTongTienPhaiThu(BigDecimal.ZERO);
-                    newHoaDon.setSoTienDaDong(BigDecimal.ZERO);
-                    return hoaDonRepo.save(newHoaDon);
-                });
-            
-            BigDecimal tongTien = BigDecimal.ZERO;
-            boolean thieuChiSo = false;
-            
-            for (DotThuLoaiPhi config : danhSachPhi) {
-                LoaiPhi loaiPhi = config.getLoaiPhi();
-                BigDecimal donGia = bangGiaService.getDonGiaApDung(loaiPhi.getId(), toaNhaId);
-                BigDecimal thanhTien = BigDecimal.ZERO;
-                double soLuong = 0;
-                
-                if (isUtilityFeeByName(loaiPhi.getTenLoaiPhi())) {
-                    // Phí biến đổi -> Query chỉ số
-                    Integer tieuThu = chiSoService.getTieuThu(ho.getId(), loaiPhi.getId(), thang, nam);
-                    
-                    if (tieuThu == null) {
-                        // Chưa có chỉ số
-                        thieuChiSo = true;
-                        continue;
-                    }
-                    
-                    soLuong = tieuThu;
-                    thanhTien = donGia.multiply(BigDecimal.valueOf(tieuThu));
-                } else {
-                    // Phí cố định -> Lấy từ DinhMucThu của hộ gia đình
-                    Optional<DinhMucThu> dinhMucOpt = dinhMucThuRepo.findByHoGiaDinhIdAndLoaiPhiId(ho.getId(), loaiPhi.getId());
-                    if (dinhMucOpt.isPresent()) {
-                        soLuong = dinhMucOpt.get().getSoLuong();
-                    } else {
-                        // Mặc định = 1 nếu không có định mức
-                        soLuong = 1.0;
-                    }
-                    thanhTien = donGia.multiply(BigDecimal.valueOf(soLuong));
-                }
-                
-                // Tạo hoặc cập nhật chi tiết hóa đơn
-                ChiTietHoaDon chiTiet = chiTietHoaDonRepo
-                    .findByHoaDonIdAndLoaiPhiId(hoaDon.getId(), loaiPhi.getId())
-                    .orElseGet(() -> {
-                        ChiTietHoaDon newChiTiet = new ChiTietHoaDon();
-                        newChiTiet.setHoaDon(hoaDon);
-                        newChiTiet.setLoaiPhi(loaiPhi);
-                        return newChiTiet;
-                    });
-                
-                chiTiet.setSoLuong(soLuong);
-                chiTiet.setDonGia(donGia);
-                chiTiet.setThanhTien(thanhTien);
-                chiTietHoaDonRepo.save(chiTiet);
-                
-                tongTien = tongTien.add(thanhTien);
-            }
-            
-            // Cập nhật tổng tiền hóa đơn
-            hoaDon.setTongTienPhaiThu(tongTien);
-            if (tongTien.compareTo(hoaDon.getSoTienDaDong()) <= 0 && tongTien.compareTo(BigDecimal.ZERO) > 0) {
-                hoaDon.setTrangThai("DaThanhToan");
-            } else if (hoaDon.getSoTienDaDong().compareTo(BigDecimal.ZERO) > 0) {
-                hoaDon.setTrangThai("ThanhToanMotPhan");
-            } else {
-                hoaDon.setTrangThai("ChuaThanhToan");
-            }
-            hoaDonRepo.save(hoaDon);
-            
-            soHoaDonTao++;
-            
-            if (thieuChiSo) {
-                soHoThieuChiSo++;
-                danhSachThieuChiSo.add(ho.getMaHoGiaDinh());
-            }
-        }
-        
-        Map<String, Object> result = new HashMap<>();
-        result.put("success", true);
-        result.put("message", "Đã tính tiền cho " + soHoaDonTao + " hộ gia đình");
-        result.put("soHoaDonTao", soHoaDonTao);
-        result.put("soHoThieuChiSo", soHoThieuChiSo);
-        result.put("danhSachThieuChiSo", danhSachThieuChiSo);
-        result.put("thang", thang);
-        result.put("nam", nam);
-        
-        return result;
+        return calculateInvoicesWithMetrics(dotThuId, soHo -> {}).ketQua();
     }
     
     /**
-     * Lấy bảng kê chi tiết các khoản phí cho tất cả hộ gia đình trong đợt thu.
-     * 
-     * @param dotThuId ID đợt thu
-     * @return Bảng kê chi tiết { dotThuId, tenDotThu, toaNha, danhSach[], tongCong }
-     */
-    public Map<String, Object> getBangKe(Integer dotThuId) {
-        DotThu dotThu = repo.findById(dotThuId)
-            .orElseThrow(() -> new ResourceNotFoundException("Không tìm thấy đợt thu với ID: " + dotThuId));
-        
-        ToaNha toaNha = dotThu.getToaNha();
-        if (toaNha == null) {
-            throw new IllegalStateException("Đợt thu chưa được gán tòa nhà");
-        }
-        
-        // Lấy tất cả hóa đơn trong đợt thu (với eager fetch HoGiaDinh)
-        List<HoaDon> danhSachHoaDon = hoaDonRepo.findByDotThuIdWithHoGiaDinh(dotThuId);
-        
-        // Lấy danh sách loại phí trong đợt thu để có thứ tự
-        List<DotThuLoaiPhi> danhSachPhi = dotThuLoaiPhiRepo.findByDotThuId(dotThuId);
-        List<String> loaiPhiOrder = danhSachPhi.stream()
-            .map(dlp -> dlp.getLoaiPhi().getTenLoaiPhi())
-            .toList();
-        
-        BigDecimal tongCong = BigDecimal.ZERO;
-        List<Map<String, Object>> danhSachHo = new ArrayList<>();
-        
-        for (HoaDon hoaDon : danhSachHoaDon) {
-            HoGiaDinh ho = hoaDon.getHoGiaDinh();
-            
-            Map<String, Object> hoInfo = new HashMap<>();
-            hoInfo.put("hoaDonId", hoaDon.getId());
-            hoInfo.put("maHoGiaDinh", ho.getMaHoGiaDinh());
-            hoInfo.put("soCanHo", ho.getSoCanHo());
-            hoInfo.put("chuHo", ho.getTenChuHo());
-            
-            // Lấy chi tiết hóa đơn (với eager fetch LoaiPhi)
-            List<ChiTietHoaDon> chiTietList = chiTietHoaDonRepo.findByHoaDonIdWithLoaiPhi(hoaDon.getId());
-            List<Map<String, Object>> chiTietInfo = new ArrayList<>();
-            
-            for (ChiTietHoaDon ct : chiTietList) {
-                Map<String, Object> ctMap = new HashMap<>();
-                ctMap.put("tenLoaiPhi", ct.getLoaiPhi().getTenLoaiPhi());
-                ctMap.put("donViTinh", ct.getLoaiPhi().getDonViTinh());
-                ctMap.put("soLuong", ct.getSoLuong());
-                ctMap.put("donGia", ct.getDonGia());
-                ctMap.put("thanhTien", ct.getThanhTien());
-                chiTietInfo.add(ctMap);
-            }
-            
-            hoInfo.put("chiTiet", chiTietInfo);
-            hoInfo.put("tongTien", hoaDon.getTongTienPhaiThu());
-            hoInfo.put("daDong", hoaDon.getSoTienDaDong());
-            hoInfo.put("conNo", hoaDon.getTongTienPhaiThu().subtract(hoaDon.getSoTienDaDong()));
-            hoInfo.put("trangThai", hoaDon.getTrangThai());
-            
-            danhSachHo.add(hoInfo);
-            tongCong = tongCong.add(hoaDon.getTongTienPhaiThu());
-        }
-        
-        // Sắp xếp theo mã hộ
-        danhSachHo.sort((a, b) -> {
-            String maA = (String) a.get("maHoGiaDinh");
-            String maB = (String) b.get("maHoGiaDinh");
-            return maA.compareTo(maB);
-        });
-        
-        Map<String, Object> result = new HashMap<>();
-        result.put("dotThuId", dotThu.getId());
-        result.put("tenDotThu", dotThu.getTenDotThu());
-        result.put("toaNha", toaNha.getTenToaNha());
-        result.put("loaiPhiOrder", loaiPhiOrder);
-        result.put("danhSach", danhSachHo);
-        result.put("tongCong", tongCong);
-        result.put("soHoaDon", danhSachHoaDon.size());
-        
-        return result;
-    }
-
-    /**
-     * Export bảng kê ra file CSV (Excel-compatible).
-     * 
-     * @param dotThuId ID đợt thu
-     * @return byte[] nội dung file CSV
+     * Tính tiền giống calculateInvoices nhưng trả thêm số truy vấn SQL và thời gian xử lý
+     * (job chốt sổ nhiều tòa nhà ghi lại để theo dõi).
+     *
+     * @param tienDo nhận số hộ vừa tính xong sau mỗi khối ghi batch
      */
-    public byte[] exportBangKeToCSV(Integer dotThuId) {
+    @Transactional
+    public InvoiceCalculationEngine.KetQuaTinhTien calculateInvoicesWithMetrics(Integer dotThuId, IntConsumer tienDo) {
         DotThu dotThu = repo.findById(dotThuId)
             .orElseThrow(() -> new ResourceNotFoundException("Không tìm thấy đợt thu với ID: " + dotThuId));
         
@@ -595,98 +436,16 @@ public class DotThuService {
         if (toaNha == null) {
             throw new IllegalStateException("Đợt thu chưa được gán tòa nhà");
         }
-
-        // Lấy tất cả hóa đơn trong đợt thu
-        List<HoaDon> danhSachHoaDon = hoaDonRepo.findByDotThuIdWithHoGiaDinh(dotThuId);
         
-        // Lấy danh sách loại phí trong đợt thu
-        List<DotThuLoaiPhi> danhSachPhi = dotThuLoaiPhiRepo.findByDotThuId(dotThuId);
-        List<String> loaiPhiNames = danhSachPhi.stream()
-            .map(dlp -> dlp.getLoaiPhi().getTenLoaiPhi())
-            .toList();
-        
-        // Build CSV content
-        StringBuilder csv = new StringBuilder();
-        
-        // UTF-8 BOM để Excel hiển thị tiếng Việt đúng
-        csv.append("\uFEFF");
-        
-        // Header row
-        csv.append("STT,Mã hộ,Căn hộ,Chủ hộ");
-        for (String loaiPhi : loaiPhiNames) {
-            csv.append(",").append(escapeCSV(loaiPhi));
-        }
-        csv.append(",Tổng tiền,Đã đóng,Còn nợ,Trạng thái\n");
-        
-        // Data rows
-        int stt = 1;
-        BigDecimal tongCongPhaiThu = BigDecimal.ZERO;
-        BigDecimal tongCongDaDong = BigDecimal.ZERO;
-        
-        // Sắp xếp theo mã hộ
-        danhSachHoaDon.sort((a, b) -> a.getHoGiaDinh().getMaHoGiaDinh()
-            .compareTo(b.getHoGiaDinh().getMaHoGiaDinh()));
-        
-        for (HoaDon hoaDon : danhSachHoaDon) {
-            HoGiaDinh ho = hoaDon.getHoGiaDinh();
-            
-            csv.append(stt++);
-            csv.append(",").append(escapeCSV(ho.getMaHoGiaDinh()));
-            csv.append(",").append(escapeCSV(ho.getSoCanHo()));
-            csv.append(",").append(escapeCSV(ho.getTenChuHo()));
-            
-            // Chi tiết từng loại phí
-            List<ChiTietHoaDon> chiTietList = chiTietHoaDonRepo.findByHoaDonIdWithLoaiPhi(hoaDon.getId());
-            Map<String, BigDecimal> phiMap = new HashMap<>();
-            for (ChiTietHoaDon ct : chiTietList) {
-                phiMap.put(ct.getLoaiPhi().getTenLoaiPhi(), ct.getThanhTien());
-            }
-            
-            for (String loaiPhi : loaiPhiNames) {
-                BigDecimal thanhTien = phiMap.getOrDefault(loaiPhi, BigDecimal.ZERO);
-                csv.append(",").append(thanhTien);
-            }
-            
-            csv.append(",").append(hoaDon.getTongTienPhaiThu());
-            csv.append(",").append(hoaDon.getSoTienDaDong());
-            csv.append(",").append(hoaDon.getTongTienPhaiThu().subtract(hoaDon.getSoTienDaDong()));
-            
-            String trangThai = switch (hoaDon.getTrangThai()) {
-                case "DaThanhToan" -> "Đã thanh toán";
-                case "ThanhToanMotPhan" -> "Thanh toán một phần";
-                case "ChuaThanhToan" -> "Chưa thanh toán";
-                default -> hoaDon.getTrangThai();
-            };
-            csv.append(",").append(escapeCSV(trangThai));
-            csv.append("\n");
-            
-            tongCongPhaiThu = tongCongPhaiThu.add(hoaDon.getTongTienPhaiThu());
-            tongCongDaDong = tongCongDaDong.add(hoaDon.getSoTienDaDong());
+        // Lấy thang và nam từ đợt thu
+        if (dotThu.getThang() == null || dotThu.getNam() == null) {
+            throw new IllegalStateException("Đợt thu chưa được cấu hình Tháng/Năm để tính phí điện nước");
         }
         
-        // Summary row
-        csv.append("\n");
-        csv.append(",,,TỔNG CỘNG");
-        for (int i = 0; i < loaiPhiNames.size(); i++) {
-            csv.append(",");
-        }
-        csv.append(",").append(tongCongPhaiThu);
-        csv.append(",").append(tongCongDaDong);
-        csv.append(",").append(tongCongPhaiThu.subtract(tongCongDaDong));
-        csv.append(",\n");
+        // Đẩy các thay đổi JPA đang chờ trước khi engine đọc/ghi bằng JDBC
+        hoaDonRepo.flush();
         
-        return csv.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8);
-    }
-    
-    /**
-     * Escape CSV value (xử lý dấu phẩy và dấu ngoặc kép).
-     */
-    private String escapeCSV(String value) {
-        if (value == null) return "";
-        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
-            return "\"" + value.replace("\"", "\"\"") + "\"";
-        }
-        return value;
+        return invoiceEngine.calculate(dotThu, tienDo);
     }
 }
 
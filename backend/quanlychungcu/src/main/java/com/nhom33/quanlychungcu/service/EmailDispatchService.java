@@ -0,0 +1,143 @@
+package com.nhom33.quanlychungcu.service;
+
+import com.nhom33.quanlychungcu.exception.ResourceNotFoundException;
+import com.nhom33.quanlychungcu.repository.BangKeRepository;
+import com.nhom33.quanlychungcu.repository.BangKeRepository.KyThuRow;
+import com.nhom33.quanlychungcu.repository.EmailOutboxRepository;
+import com.nhom33.quanlychungcu.repository.EmailOutboxRepository.BatchRow;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Service: Đưa email vào hàng đợi gửi (EmailOutbox) và theo dõi tiến độ đợt gửi.
+ *
+ * Request web chỉ ghi hàng đợi (gửi hóa đơn cả đợt thu = một câu INSERT ... SELECT) rồi trả về ngay;
+ * việc render hóa đơn và gửi SMTP do EmailOutboxWorker làm ở nền.
+ *
+ * Khi app.notification.enabled=false worker không chạy: email vẫn vào hàng đợi (ChoGui) và được gửi
+ * khi bật lại; tiến độ đợt gửi báo dangTamDung = true để người dùng biết đợt gửi sẽ không tự hoàn tất.
+ */
+@Service
+public class EmailDispatchService {
+
+    private static final String TIEU_DE_HOA_DON = "Hóa đơn thanh toán #HD";
+    private static final String GHI_CHU_TAM_DUNG =
+        "Gửi email đang tắt (app.notification.enabled=false): email nằm chờ trong hàng đợi và sẽ được gửi khi bật lại";
+
+    private final EmailOutboxRepository outboxRepo;
+    private final BangKeRepository bangKeRepo;
+    private final SecurityHelper securityHelper;
+    private final ApplicationEventPublisher eventPublisher;
+    private final boolean enabled;
+
+    public EmailDispatchService(EmailOutboxRepository outboxRepo,
+                                BangKeRepository bangKeRepo,
+                                SecurityHelper securityHelper,
+                                ApplicationEventPublisher eventPublisher,
+                                @Value("${app.notification.enabled:false}") boolean enabled) {
+        this.outboxRepo = outboxRepo;
+        this.bangKeRepo = bangKeRepo;
+        this.securityHelper = securityHelper;
+        this.eventPublisher = eventPublisher;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Tiến độ một đợt gửi email.
+     *
+     * @param dangTamDung gửi email đang tắt (app.notification.enabled=false) và đợt gửi còn email chờ:
+     *                    các email này nằm trong hàng đợi cho tới khi bật lại
+     * @param ghiChu      giải thích cho dangTamDung, null nếu không tạm dừng
+     */
+    public record TienDoGui(long batchId, String loaiEmail, Integer dotThuId, int tongSo, int soBoQua,
+                            int choGui, int dangGui, int daGui, int loi, double phanTram, boolean hoanTat,
+                            boolean dangTamDung, String ghiChu, String nguoiTao, LocalDateTime ngayTao) {}
+
+    // ===== Đưa vào hàng đợi =====
+
+    /**
+     * Gửi hóa đơn của cả đợt thu cho các hộ có email.
+     */
+    @Transactional
+    public TienDoGui guiHoaDonDotThu(Integer dotThuId) {
+        KyThuRow dotThu = bangKeRepo.findKyThu(List.of(dotThuId)).stream().findFirst()
+            .orElseThrow(() -> new ResourceNotFoundException("Không tìm thấy đợt thu với ID: " + dotThuId));
+        if (dotThu.toaNhaId() == null) {
+            throw new IllegalStateException("Đợt thu chưa được gán tòa nhà");
+        }
+        if (!securityHelper.canManageBuilding(dotThu.toaNhaId())) {
+            throw new AccessDeniedException("Bạn không có quyền gửi hóa đơn của tòa nhà này");
+        }
+
+        long batchId = outboxRepo.taoBatch(EmailOutboxRepository.LOAI_HOA_DON, dotThuId,
+            securityHelper.getCurrentUser().getUsername());
+        int soEmail = outboxRepo.enqueueHoaDonDotThu(batchId, dotThuId, TIEU_DE_HOA_DON);
+        if (soEmail == 0) {
+            throw new IllegalStateException("Không có hộ nào trong đợt thu có email liên hệ");
+        }
+        eventPublisher.publishEvent(new EmailOutboxWorker.CoEmailMoi(batchId));
+        return getTienDo(batchId);
+    }
+
+    /**
+     * Gửi hóa đơn của một hộ (nội dung render lúc gửi).
+     * @return ID email trong hàng đợi
+     */
+    @Transactional
+    public long guiHoaDon(int hoaDonId, String email) {
+        long id = outboxRepo.enqueue(null, hoaDonId, email.trim(), TIEU_DE_HOA_DON + String.format("%06d", hoaDonId), null);
+        eventPublisher.publishEvent(new EmailOutboxWorker.CoEmailMoi(null));
+        return id;
+    }
+
+    /**
+     * Gửi email văn bản thường (thông báo), có thể gắn vào một đợt gửi.
+     */
+    @Transactional
+    public long guiVanBan(Long batchId, String email, String tieuDe, String noiDung) {
+        long id = outboxRepo.enqueue(batchId, null, email.trim(), tieuDe, noiDung);
+        eventPublisher.publishEvent(new EmailOutboxWorker.CoEmailMoi(batchId));
+        return id;
+    }
+
+    // ===== Tiến độ =====
+
+    public TienDoGui getTienDo(long batchId) {
+        BatchRow row = outboxRepo.findBatch(batchId)
+            .orElseThrow(() -> new ResourceNotFoundException("Không tìm thấy đợt gửi email với ID: " + batchId));
+        if (row.dotThuId() != null) {
+            checkView(row.dotThuId());
+        }
+        return toTienDo(row);
+    }
+
+    public List<TienDoGui> getTienDoByDotThu(Integer dotThuId) {
+        checkView(dotThuId);
+        return outboxRepo.findBatchByDotThu(dotThuId, 20).stream().map(this::toTienDo).toList();
+    }
+
+    private void checkView(Integer dotThuId) {
+        KyThuRow dotThu = bangKeRepo.findKyThu(List.of(dotThuId)).stream().findFirst()
+            .orElseThrow(() -> new ResourceNotFoundException("Không tìm thấy đợt thu với ID: " + dotThuId));
+        if (dotThu.toaNhaId() != null && !securityHelper.canViewAll()
+                && !securityHelper.canAccessBuilding(dotThu.toaNhaId())) {
+            throw new AccessDeniedException("Bạn không có quyền truy cập đợt thu của tòa nhà này");
+        }
+    }
+
+    private TienDoGui toTienDo(BatchRow r) {
+        int tong = r.choGui() + r.dangGui() + r.daGui() + r.loi();
+        int xong = r.daGui() + r.loi();
+        double phanTram = tong == 0 ? 100.0 : Math.round(xong * 1000.0 / tong) / 10.0;
+        boolean dangTamDung = !enabled && xong < tong;
+        return new TienDoGui(r.batchId(), r.loaiEmail(), r.dotThuId(), r.tongSo(), r.soBoQua(),
+            r.choGui(), r.dangGui(), r.daGui(), r.loi(), phanTram, xong == tong,
+            dangTamDung, dangTamDung ? GHI_CHU_TAM_DUNG : null, r.nguoiTao(), r.ngayTao());
+    }
+}
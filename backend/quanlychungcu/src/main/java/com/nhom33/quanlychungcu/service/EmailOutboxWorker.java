@@ -0,0 +1,325 @@
+package com.nhom33.quanlychungcu.service;
+
+import com.nhom33.quanlychungcu.exception.ResourceNotFoundException;
+import com.nhom33.quanlychungcu.repository.EmailOutboxRepository;
+import com.nhom33.quanlychungcu.repository.EmailOutboxRepository.EmailRow;
+import com.nhom33.quanlychungcu.repository.EmailOutboxRepository.KetQuaGui;
+import com.nhom33.quanlychungcu.util.TokenBucket;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.AddressException;
+import jakarta.mail.internet.MimeMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Worker nền gửi email từ bảng EmailOutbox.
+ *
+ * LOGIC:
+ * - app.email.outbox.workers vòng lặp chạy trên emailOutboxExecutor, mỗi vòng lấy một lô
+ *   (EmailOutboxRepository.claim, READPAST nên các worker không chờ nhau)
+ * - Cả lô gửi bằng MỘT lời gọi JavaMailSender.send(MimeMessage...): một kết nối SMTP cho cả lô,
+ *   số kết nối đồng thời tối đa = số worker
+ * - Tốc độ gửi chung của mọi worker giới hạn bằng token bucket (rate-per-second, burst)
+ * - Lỗi tạm thời: trả lại ChoGui với LanThuTiep = now + backoff * 2^(lần thử - 1) (có jitter,
+ *   tối đa max-backoff-ms); quá maxAttempts hoặc địa chỉ sai / hóa đơn không còn -> Loi
+ * - Chỉ chạy khi app.notification.enabled = true; tắt thì email nằm chờ trong hàng đợi
+ *   (tiến độ đợt gửi báo dangTamDung, xem EmailDispatchService.TienDoGui)
+ */
+@Component
+public class EmailOutboxWorker {
+
+    private static final Logger log = LoggerFactory.getLogger(EmailOutboxWorker.class);
+
+    /**
+     * Sự kiện: vừa đưa email mới vào hàng đợi (đánh thức worker sau khi transaction commit).
+     */
+    public record CoEmailMoi(Long batchId) {}
+
+    private final EmailOutboxRepository outboxRepo;
+    private final InvoiceService invoiceService;
+    private final JavaMailSender mailSender;
+    private final TaskExecutor executor;
+    private final TokenBucket rateLimiter;
+    private final boolean enabled;
+    private final String from;
+    private final int workers;
+    private final int batchSize;
+    private final long pollIntervalMs;
+    private final int maxAttempts;
+    private final long backoffMs;
+    private final long maxBackoffMs;
+    private final long staleSeconds;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition coViec = lock.newCondition();
+    private volatile boolean dangChay;
+
+    public EmailOutboxWorker(EmailOutboxRepository outboxRepo,
+                             InvoiceService invoiceService,
+                             JavaMailSender mailSender,
+                             @Qualifier("emailOutboxExecutor") TaskExecutor executor,
+                             @Value("${app.notification.enabled:false}") boolean enabled,
+                             @Value("${app.email.from:${spring.mail.username:}}") String from,
+                             @Value("${app.email.outbox.workers:2}") int workers,
+                             @Value("${app.email.outbox.batch-size:20}") int batchSize,
+                             @Value("${app.email.outbox.rate-per-second:5}") double ratePerSecond,
+                             @Value("${app.email.outbox.burst:20}") int burst,
+                             @Value("${app.email.outbox.poll-interval-ms:2000}") long pollIntervalMs,
+                             @Value("${app.email.outbox.max-attempts:5}") int maxAttempts,
+                             @Value("${app.email.outbox.backoff-ms:30000}") long backoffMs,
+                             @Value("${app.email.outbox.max-backoff-ms:1800000}") long maxBackoffMs,
+                             @Value("${app.email.outbox.stale-seconds:600}") long staleSeconds) {
+        this.outboxRepo = outboxRepo;
+        this.invoiceService = invoiceService;
+        this.mailSender = mailSender;
+        this.executor = executor;
+        this.rateLimiter = new TokenBucket(ratePerSecond, burst);
+        this.enabled = enabled;
+        this.from = from;
+        this.workers = workers;
+        this.batchSize = batchSize;
+        this.pollIntervalMs = pollIntervalMs;
+        this.maxAttempts = maxAttempts;
+        this.backoffMs = backoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.staleSeconds = staleSeconds;
+    }
+
+    // ===== Vòng đời =====
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            log.info("Email outbox: app.notification.enabled=false, workers not started (mails stay queued)");
+            return;
+        }
+        if (from == null || from.isBlank()) {
+            log.warn("Email outbox: app.email.from is not configured, workers not started");
+            return;
+        }
+        dangChay = true;
+        for (int i = 0; i < workers; i++) {
+            executor.execute(this::vongLap);
+        }
+        log.info("Email outbox: started {} workers (batch {})", workers, batchSize);
+    }
+
+    @PreDestroy
+    public void stop() {
+        dangChay = false;
+        danhThuc();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCoEmailMoi(CoEmailMoi event) {
+        danhThuc();
+    }
+
+    // ===== Xử lý =====
+
+    private void vongLap() {
+        while (dangChay) {
+            try {
+                int soDong = xuLyMotLo();
+                if (soDong < batchSize) {
+                    cho();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                // Lỗi DB khi lấy lô: nghỉ một nhịp rồi thử lại, không để worker chết
+                log.error("Email outbox: worker error", e);
+                try {
+                    cho();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Lấy và gửi một lô.
+     * @return số email đã lấy
+     */
+    int xuLyMotLo() throws InterruptedException {
+        List<EmailRow> lo = outboxRepo.claim(batchSize, LocalDateTime.now().minusSeconds(staleSeconds));
+        if (lo.isEmpty()) return 0;
+
+        List<KetQuaGui> ketQua = new ArrayList<>(lo.size());
+        List<EmailRow> canGui = new ArrayList<>(lo.size());
+        List<MimeMessage> messages = new ArrayList<>(lo.size());
+        for (EmailRow row : lo) {
+            try {
+                messages.add(taoMessage(row));
+                canGui.add(row);
+            } catch (ResourceNotFoundException e) {
+                // Hóa đơn đã bị xóa: thử lại cũng không được
+                ketQua.add(new KetQuaGui(row.id(), EmailOutboxRepository.LOI, catNgan(e.getMessage()), null));
+            } catch (Exception e) {
+                ketQua.add(thatBai(row, e));
+            }
+        }
+
+        if (!messages.isEmpty()) {
+            rateLimiter.acquire(messages.size());
+            Map<Object, Exception> loi = gui(messages);
+            for (int i = 0; i < messages.size(); i++) {
+                Exception e = loi.get(messages.get(i));
+                EmailRow row = canGui.get(i);
+                ketQua.add(e == null
+                    ? new KetQuaGui(row.id(), EmailOutboxRepository.DA_GUI, null, null)
+                    : thatBai(row, e));
+            }
+        }
+
+        outboxRepo.markBatch(ketQua);
+        return lo.size();
+    }
+
+    /**
+     * Gửi cả lô qua một kết nối SMTP.
+     * @return các message gửi lỗi (rỗng nếu gửi hết)
+     */
+    private Map<Object, Exception> gui(List<MimeMessage> messages) {
+        try {
+            mailSender.send(messages.toArray(new MimeMessage[0]));
+            return Map.of();
+        } catch (MailSendException e) {
+            if (!e.getFailedMessages().isEmpty()) {
+                return e.getFailedMessages();
+            }
+            return tatCaLoi(messages, e);
+        } catch (MailException e) {
+            // Không kết nối / xác thực được SMTP: cả lô thử lại sau
+            return tatCaLoi(messages, e);
+        }
+    }
+
+    private static Map<Object, Exception> tatCaLoi(List<MimeMessage> messages, Exception e) {
+        Map<Object, Exception> loi = new IdentityHashMap<>();
+        messages.forEach(m -> loi.put(m, e));
+        return loi;
+    }
+
+    private KetQuaGui thatBai(EmailRow row, Exception e) {
+        boolean diaChiSai = coNguyenNhan(e, AddressException.class);
+        boolean hetLuot = row.soLanThu() >= maxAttempts;
+        if (diaChiSai || hetLuot) {
+            log.error("Email outbox: mail {} to {} failed permanently: {}", row.id(), row.nguoiNhan(), e.getMessage());
+            return new KetQuaGui(row.id(), EmailOutboxRepository.LOI, catNgan(e.getMessage()), null);
+        }
+        log.warn("Email outbox: mail {} failed (attempt {}/{}): {}", row.id(), row.soLanThu(), maxAttempts, e.getMessage());
+        return new KetQuaGui(row.id(), EmailOutboxRepository.CHO_GUI, catNgan(e.getMessage()),
+            LocalDateTime.now().plusNanos(TimeUnit.MILLISECONDS.toNanos(backoff(row.soLanThu()))));
+    }
+
+    /**
+     * Thời gian chờ trước lần thử tiếp theo: tăng gấp đôi mỗi lần, cộng jitter tới 50%.
+     */
+    private long backoff(int soLanThu) {
+        long ms = backoffMs << Math.min(Math.max(soLanThu - 1, 0), 20);
+        ms = Math.min(ms, maxBackoffMs);
+        return ms + ThreadLocalRandom.current().nextLong(ms / 2 + 1);
+    }
+
+    // ===== Nội dung email =====
+
+    private MimeMessage taoMessage(EmailRow row) throws MessagingException {
+        MimeMessage message = mailSender.createMimeMessage();
+        if (row.hoaDonId() != null) {
+            InvoiceService.InvoiceDocument doc = invoiceService.renderDocument(row.hoaDonId());
+            MimeMessageHelper helper = new MimeMessageHelper(message, true, StandardCharsets.UTF_8.name());
+            helper.setFrom(from);
+            helper.setTo(row.nguoiNhan());
+            helper.setSubject(row.tieuDe());
+            helper.setText(noiDungHoaDon(doc), doc.html());
+            helper.addAttachment(InvoiceService.maHoaDon(doc.hoaDonId()) + ".pdf",
+                new ByteArrayResource(doc.pdf()), "application/pdf");
+        } else {
+            MimeMessageHelper helper = new MimeMessageHelper(message, false, StandardCharsets.UTF_8.name());
+            helper.setFrom(from);
+            helper.setTo(row.nguoiNhan());
+            helper.setSubject(row.tieuDe());
+            helper.setText(row.noiDung() != null ? row.noiDung() : "", false);
+        }
+        return message;
+    }
+
+    private static String noiDungHoaDon(InvoiceService.InvoiceDocument doc) {
+        return String.format(
+            "Kính gửi %s,\n\n" +
+            "Hệ thống gửi quý khách hóa đơn thanh toán:\n\n" +
+            "Mã hóa đơn: %s\n" +
+            "Đợt thu: %s\n" +
+            "Tổng tiền: %,.0f VNĐ\n\n" +
+            "Vui lòng xem chi tiết trong file đính kèm.\n\n" +
+            "Trân trọng,\nBan quản lý chung cư Blue Moon",
+            doc.chuHo(),
+            InvoiceService.maHoaDon(doc.hoaDonId()),
+            doc.tenDotThu(),
+            doc.tongTien() != null ? doc.tongTien().doubleValue() : 0d
+        );
+    }
+
+    // ===== Helpers =====
+
+    private void cho() throws InterruptedException {
+        lock.lock();
+        try {
+            if (dangChay) {
+                coViec.await(pollIntervalMs, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void danhThuc() {
+        lock.lock();
+        try {
+            coViec.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static boolean coNguyenNhan(Throwable e, Class<? extends Throwable> type) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (type.isInstance(t)) return true;
+            if (t instanceof MessagingException me && type.isInstance(me.getNextException())) return true;
+        }
+        return false;
+    }
+
+    private static String catNgan(String s) {
+        if (s == null) return null;
+        return s.length() <= 500 ? s : s.substring(0, 500);
+    }
+}
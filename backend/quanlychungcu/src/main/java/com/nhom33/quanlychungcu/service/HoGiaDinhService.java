@@ -2,6 +2,8 @@ package com.nhom33.quanlychungcu.service;
 
 import com.nhom33.quanlychungcu.entity.HoGiaDinh;
 import com.nhom33.quanlychungcu.exception.ResourceNotFoundException;
+import com.nhom33.quanlychungcu.exception.ServiceUnavailableException;
+import com.nhom33.quanlychungcu.repository.CuDanSearchRepository.HoGiaDinhRow;
 import com.nhom33.quanlychungcu.repository.HoGiaDinhRepository;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -9,13 +11,25 @@ import org.springframework.lang.NonNull;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
 @Service
 public class HoGiaDinhService {
 
     private final HoGiaDinhRepository repo;
+    private final CuDanSearchIndex searchIndex;
+    private final SecurityHelper securityHelper;
+    private final ThongKeDotThuService thongKeService;
 
-    public HoGiaDinhService(HoGiaDinhRepository repo) {
+    public HoGiaDinhService(HoGiaDinhRepository repo, CuDanSearchIndex searchIndex, SecurityHelper securityHelper,
+                            ThongKeDotThuService thongKeService) {
         this.repo = repo;
+        this.searchIndex = searchIndex;
+        this.securityHelper = securityHelper;
+        this.thongKeService = thongKeService;
     }
 
     @Transactional
@@ -28,7 +42,10 @@ public class HoGiaDinhService {
         }
 
         // Set ngày tạo sẽ được xử lý bởi @PrePersist
-        return repo.save(hoGiaDinh);
+        HoGiaDinh saved = repo.save(hoGiaDinh);
+        searchIndex.luuHoGiaDinh(saved);
+        thongKeService.onHoGiaDinhChanged(toaNhaId(saved), 1);
+        return saved;
     }
 
     @Transactional
@@ -55,15 +72,23 @@ public class HoGiaDinhService {
         exist.setTrangThai(updated.getTrangThai());
 
         // NgayCapNhat sẽ được set bởi @PreUpdate
-        return repo.save(exist);
+        HoGiaDinh saved = repo.save(exist);
+        searchIndex.luuHoGiaDinh(saved);
+        return saved;
     }
 
     @Transactional
     public void delete(@NonNull Integer id) {
-        if (!repo.existsById(id)) {
-            throw new ResourceNotFoundException("Không tìm thấy hộ gia đình với ID: " + id);
-        }
-        repo.deleteById(id);
+        HoGiaDinh exist = repo.findById(id)
+            .orElseThrow(() -> new ResourceNotFoundException("Không tìm thấy hộ gia đình với ID: " + id));
+        Integer toaNhaId = toaNhaId(exist);
+        repo.delete(exist);
+        searchIndex.xoaHoGiaDinh(id);
+        thongKeService.onHoGiaDinhChanged(toaNhaId, -1);
+    }
+
+    private static Integer toaNhaId(HoGiaDinh hoGiaDinh) {
+        return hoGiaDinh.getToaNha() != null ? hoGiaDinh.getToaNha().getId() : null;
     }
 
     public HoGiaDinh getById(@NonNull Integer id) {
@@ -84,6 +109,9 @@ public class HoGiaDinhService {
         if (tenChuHo == null || tenChuHo.isBlank()) {
             return repo.findAll(pageable);
         }
+        if (searchIndex.isSanSang() && CuDanSearchIndex.sapXepDuocHoGiaDinh(pageable.getSort())) {
+            return toPage(searchIndex.timHoGiaDinh(null, tenChuHo, null, pageable.getSort()), pageable);
+        }
         return repo.findByTenChuHoContainingIgnoreCase(tenChuHo, pageable);
     }
 
@@ -99,11 +127,41 @@ public class HoGiaDinhService {
         return repo.findByTrangThai(trangThai, pageable);
     }
 
+    /**
+     * Tìm kiếm đa điều kiện. Có mã hộ / tên chủ hộ -> tìm trên chỉ mục (không dấu, theo tiền tố từng từ),
+     * số căn hộ và trạng thái lọc ngay trên chỉ mục; DB chỉ nạp các bản ghi của trang.
+     * Sắp xếp theo thuộc tính không có trong chỉ mục -> truy vấn DB.
+     */
     public Page<HoGiaDinh> search(String maHoGiaDinh, String tenChuHo, String soCanHo, 
                                    String trangThai, @NonNull Pageable pageable) {
+        boolean coText = (maHoGiaDinh != null && !maHoGiaDinh.isBlank()) || (tenChuHo != null && !tenChuHo.isBlank());
+        if (coText && searchIndex.isSanSang() && CuDanSearchIndex.sapXepDuocHoGiaDinh(pageable.getSort())) {
+            Predicate<HoGiaDinhRow> loc = r -> (soCanHo == null || soCanHo.equalsIgnoreCase(r.soCanHo()))
+                && (trangThai == null || trangThai.equalsIgnoreCase(r.trangThai()));
+            return toPage(searchIndex.timHoGiaDinh(maHoGiaDinh, tenChuHo, loc, pageable.getSort()), pageable);
+        }
         return repo.search(maHoGiaDinh, tenChuHo, soCanHo, trangThai, pageable);
     }
 
+    /**
+     * Gợi ý khi gõ (mã hộ, tên chủ hộ hoặc số căn hộ), chỉ trong các tòa nhà user được truy cập.
+     */
+    public List<HoGiaDinhRow> goiY(String q, int limit) {
+        if (!searchIndex.isSanSang()) {
+            throw new ServiceUnavailableException("Chỉ mục tìm kiếm đang được nạp, vui lòng thử lại sau");
+        }
+        Predicate<HoGiaDinhRow> loc = null;
+        if (!securityHelper.canViewAll()) {
+            Set<Integer> toaNhaIds = new HashSet<>(securityHelper.getAccessibleBuildingIds());
+            loc = r -> toaNhaIds.contains(r.toaNhaId());
+        }
+        return searchIndex.goiYHoGiaDinh(q, loc, Math.max(1, Math.min(limit, 50)));
+    }
+
+    private Page<HoGiaDinh> toPage(int[] ids, Pageable pageable) {
+        return CuDanSearchIndex.toPage(ids, pageable, repo::findAllById, HoGiaDinh::getId);
+    }
+
     public long countByTrangThai(String trangThai) {
         return repo.countByTrangThai(trangThai);
     }
@@ -1,8 +1,12 @@
 package com.nhom33.quanlychungcu.service;
 
+import com.nhom33.quanlychungcu.dto.HoaDonListDTO;
 import com.nhom33.quanlychungcu.entity.*;
 import com.nhom33.quanlychungcu.exception.ResourceNotFoundException;
 import com.nhom33.quanlychungcu.repository.*;
+import com.nhom33.quanlychungcu.service.ThongKeDotThuService.HoaDonSnapshot;
+import com.nhom33.quanlychungcu.util.KeysetCursor;
+import com.nhom33.quanlychungcu.util.KeysetPage;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.lang.NonNull;
@@ -22,6 +26,11 @@ public class HoaDonService {
     private final ChiTietHoaDonRepository chiTietRepo;
     private final LichSuThanhToanRepository thanhToanRepo;
     private final BangGiaService bangGiaService;
+    private final ThongKeDotThuService thongKeService;
+    private final ThanhToanIdempotencyRepository idempotencyRepo;
+    private final OptimisticLockRetry optimisticLockRetry;
+    private final KeysetRepository keysetRepo;
+    private final HoaDonReadRepository readRepo;
 
     public HoaDonService(HoaDonRepository hoaDonRepo,
                         HoGiaDinhRepository hoGiaDinhRepo,
@@ -29,7 +38,12 @@ public class HoaDonService {
                         DinhMucThuRepository dinhMucRepo,
                         ChiTietHoaDonRepository chiTietRepo,
                         LichSuThanhToanRepository thanhToanRepo,
-                        BangGiaService bangGiaService) {
+                        BangGiaService bangGiaService,
+                        ThongKeDotThuService thongKeService,
+                        ThanhToanIdempotencyRepository idempotencyRepo,
+                        OptimisticLockRetry optimisticLockRetry,
+                        KeysetRepository keysetRepo,
+                        HoaDonReadRepository readRepo) {
         this.hoaDonRepo = hoaDonRepo;
         this.hoGiaDinhRepo = hoGiaDinhRepo;
         this.dotThuRepo = dotThuRepo;
@@ -37,6 +51,11 @@ public class HoaDonService {
         this.chiTietRepo = chiTietRepo;
         this.thanhToanRepo = thanhToanRepo;
         this.bangGiaService = bangGiaService;
+        this.thongKeService = thongKeService;
+        this.idempotencyRepo = idempotencyRepo;
+        this.optimisticLockRetry = optimisticLockRetry;
+        this.keysetRepo = keysetRepo;
+        this.readRepo = readRepo;
     }
 
     @Transactional
@@ -89,7 +108,9 @@ public class HoaDonService {
         }
 
         hoaDon.setTongTienPhaiThu(tongTien);
-        return hoaDonRepo.save(hoaDon);
+        hoaDon = hoaDonRepo.saveAndFlush(hoaDon);
+        thongKeService.onHoaDonChanged(idDotThu, null, HoaDonSnapshot.of(hoaDon));
+        return hoaDon;
     }
 
     @Transactional
@@ -97,20 +118,52 @@ public class HoaDonService {
         HoaDon hoaDon = hoaDonRepo.findById(id)
             .orElseThrow(() -> new ResourceNotFoundException("Không tìm thấy hóa đơn với ID: " + id));
         
+        HoaDonSnapshot truoc = HoaDonSnapshot.of(hoaDon);
         hoaDon.setTrangThai(trangThai);
-        return hoaDonRepo.save(hoaDon);
+        hoaDon = hoaDonRepo.saveAndFlush(hoaDon);
+        thongKeService.onHoaDonChanged(hoaDon.getDotThu().getId(), truoc, HoaDonSnapshot.of(hoaDon));
+        return hoaDon;
     }
 
-    @Transactional
     public LichSuThanhToan addPayment(Integer idHoaDon, BigDecimal soTien, String hinhThuc, String nguoiNop, String ghiChu) {
+        return addPayment(idHoaDon, soTien, hinhThuc, nguoiNop, ghiChu, null);
+    }
+
+    /**
+     * Ghi nhận một khoản thanh toán.
+     *
+     * Đồng thời: HoaDon có @Version, xung đột (quầy + VNPAY cùng lúc) được chạy lại trong
+     * transaction mới bởi OptimisticLockRetry, nên không mất cập nhật SoTienDaDong.
+     * Idempotency: cùng idempotencyKey chỉ ghi một lần, request lặp nhận lại giao dịch đã ghi.
+     *
+     * @param idempotencyKey null = không kiểm tra trùng
+     * @param nguoiNop       null = tên chủ hộ
+     */
+    public LichSuThanhToan addPayment(Integer idHoaDon, BigDecimal soTien, String hinhThuc, String nguoiNop,
+                                      String ghiChu, String idempotencyKey) {
+        if (idempotencyKey != null && (idempotencyKey.isBlank() || idempotencyKey.length() > 100)) {
+            throw new IllegalArgumentException("Idempotency-Key phải từ 1 đến 100 ký tự");
+        }
+        return optimisticLockRetry.execute(
+            () -> ghiThanhToan(idHoaDon, soTien, hinhThuc, nguoiNop, ghiChu, idempotencyKey));
+    }
+
+    private LichSuThanhToan ghiThanhToan(Integer idHoaDon, BigDecimal soTien, String hinhThuc, String nguoiNop,
+                                         String ghiChu, String idempotencyKey) {
+        if (idempotencyKey != null && !idempotencyRepo.tryClaim(idempotencyKey, idHoaDon)) {
+            return thanhToanDaGhi(idempotencyKey, idHoaDon);
+        }
+
         HoaDon hoaDon = hoaDonRepo.findById(idHoaDon)
             .orElseThrow(() -> new ResourceNotFoundException("Không tìm thấy hóa đơn với ID: " + idHoaDon));
 
+        HoaDonSnapshot truoc = HoaDonSnapshot.of(hoaDon);
+
         LichSuThanhToan thanhToan = new LichSuThanhToan();
         thanhToan.setHoaDon(hoaDon);
         thanhToan.setSoTien(soTien);
         thanhToan.setHinhThuc(hinhThuc);
-        thanhToan.setNguoiNop(nguoiNop);
+        thanhToan.setNguoiNop(nguoiNop != null ? nguoiNop : hoaDon.getTenChuHo());
         thanhToan.setGhiChu(ghiChu);
         
         thanhToan = thanhToanRepo.save(thanhToan);
@@ -130,25 +183,62 @@ public class HoaDonService {
             hoaDon.setTrangThai("Chưa đóng");
         }
         
-        hoaDonRepo.save(hoaDon);
+        // Version lệch (có thanh toán khác vừa commit) -> ObjectOptimisticLockingFailureException -> chạy lại
+        hoaDonRepo.saveAndFlush(hoaDon);
+        if (idempotencyKey != null) {
+            idempotencyRepo.ganThanhToan(idempotencyKey, thanhToan.getId());
+        }
+        thongKeService.onHoaDonChanged(hoaDon.getDotThu().getId(), truoc, HoaDonSnapshot.of(hoaDon));
         return thanhToan;
     }
 
+    /**
+     * Giao dịch đã ghi trước đó với cùng idempotency key.
+     */
+    private LichSuThanhToan thanhToanDaGhi(String idempotencyKey, Integer idHoaDon) {
+        ThanhToanIdempotencyRepository.IdempotencyRow row = idempotencyRepo.findByKey(idempotencyKey)
+            .orElseThrow(() -> new IllegalStateException("Thanh toán cùng Idempotency-Key đang được xử lý"));
+        if (row.hoaDonId() != idHoaDon) {
+            throw new IllegalArgumentException("Idempotency-Key đã được dùng cho hóa đơn khác");
+        }
+        if (row.thanhToanId() == null) {
+            throw new IllegalStateException("Thanh toán cùng Idempotency-Key đang được xử lý");
+        }
+        return thanhToanRepo.findById(row.thanhToanId())
+            .orElseThrow(() -> new ResourceNotFoundException("Không tìm thấy giao dịch với ID: " + row.thanhToanId()));
+    }
+
     public HoaDon getById(@NonNull Integer id) {
         return hoaDonRepo.findById(id)
             .orElseThrow(() -> new ResourceNotFoundException("Không tìm thấy hóa đơn với ID: " + id));
     }
 
-    public Page<HoaDon> findAll(@NonNull Pageable pageable) {
-        return hoaDonRepo.findAll(pageable);
+    public Page<HoaDonListDTO> findAll(@NonNull Pageable pageable) {
+        return readRepo.search(null, null, null, pageable);
     }
 
     public Page<HoaDon> findByHoGiaDinh(Integer idHoGiaDinh, @NonNull Pageable pageable) {
         return hoaDonRepo.findByHoGiaDinhIdWithDetails(idHoGiaDinh, pageable);
     }
 
-    public Page<HoaDon> search(Integer idHoGiaDinh, Integer idDotThu, String trangThai, @NonNull Pageable pageable) {
-        return hoaDonRepo.search(idHoGiaDinh, idDotThu, trangThai, pageable);
+    public Page<HoaDonListDTO> search(Integer idHoGiaDinh, Integer idDotThu, String trangThai, @NonNull Pageable pageable) {
+        return readRepo.search(idHoGiaDinh, idDotThu, trangThai, pageable);
+    }
+
+    /**
+     * Danh sách / tìm kiếm hóa đơn theo con trỏ (mới nhất trước), không COUNT(*) và không OFFSET.
+     *
+     * @param cursor      nextCursor của trang trước, null = trang đầu
+     * @param approxTotal true = kèm tổng ước lượng (chỉ khi không lọc)
+     */
+    public KeysetPage<HoaDonListDTO> seek(Integer idHoGiaDinh, Integer idDotThu, String trangThai,
+                                   String cursor, int size, boolean approxTotal) {
+        int limit = KeysetPage.clampSize(size);
+        KeysetCursor after = KeysetCursor.decode(cursor, "hoa-don");
+        boolean coLoc = idHoGiaDinh != null || idDotThu != null || trangThai != null;
+        Long tong = approxTotal && !coLoc ? keysetRepo.approxRowCount("HoaDon") : null;
+        return KeysetPage.of(keysetRepo.seekHoaDon(idHoGiaDinh, idDotThu, trangThai, after, limit),
+            limit, "hoa-don", tong, readRepo::findByIds, HoaDonListDTO::id);
     }
 
     public List<LichSuThanhToan> getLichSuThanhToan(Integer idHoaDon) {
@@ -0,0 +1,54 @@
+package com.nhom33.quanlychungcu.service;
+
+import com.nhom33.quanlychungcu.repository.ThanhToanIdempotencyRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+
+/**
+ * Job định kỳ: xóa khóa ThanhToanIdempotency cũ hơn cửa sổ gửi lại (app.payment.idempotency.retention-days).
+ *
+ * - Xóa theo lô SO_DONG_MOI_LO dòng, mỗi lô một transaction ngắn (auto-commit) để không giữ khóa bảng lâu
+ * - DELETE theo NgayTao không phụ thuộc trạng thái, nhiều instance cùng chạy chỉ xóa trùng lô, không sai dữ liệu
+ */
+@Component
+public class IdempotencyPurgeJob {
+
+    private static final Logger log = LoggerFactory.getLogger(IdempotencyPurgeJob.class);
+
+    static final int SO_DONG_MOI_LO = 5000;
+
+    private final ThanhToanIdempotencyRepository idempotencyRepo;
+    private final int soNgayGiu;
+
+    public IdempotencyPurgeJob(ThanhToanIdempotencyRepository idempotencyRepo,
+                               @Value("${app.payment.idempotency.retention-days:30}") int soNgayGiu) {
+        this.idempotencyRepo = idempotencyRepo;
+        this.soNgayGiu = Math.max(1, soNgayGiu);
+    }
+
+    @Scheduled(cron = "${app.payment.idempotency.purge-cron:-}")
+    public void chayTheoLich() {
+        long start = System.currentTimeMillis();
+        int tong = purge(LocalDateTime.now().minusDays(soNgayGiu));
+        log.info("Xóa {} khóa idempotency cũ hơn {} ngày trong {} ms", tong, soNgayGiu,
+            System.currentTimeMillis() - start);
+    }
+
+    /**
+     * @return tổng số khóa đã xóa
+     */
+    int purge(LocalDateTime moc) {
+        int tong = 0;
+        int daXoa;
+        do {
+            daXoa = idempotencyRepo.deleteTruoc(moc, SO_DONG_MOI_LO);
+            tong += daXoa;
+        } while (daXoa == SO_DONG_MOI_LO);
+        return tong;
+    }
+}
@@ -0,0 +1,226 @@
+package com.nhom33.quanlychungcu.service;
+
+import com.nhom33.quanlychungcu.entity.DotThu;
+import com.nhom33.quanlychungcu.repository.HoaDonBulkRepository;
+import com.nhom33.quanlychungcu.repository.HoaDonBulkRepository.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.function.IntConsumer;
+
+/**
+ * Engine tính tiền hóa đơn set-based cho một đợt thu.
+ *
+ * THAY VÌ query từng hộ × từng loại phí (hàng chục nghìn round-trip với tòa 1.200 căn),
+ * engine đọc toàn bộ dữ liệu đầu vào của đợt thu bằng một số câu SQL cố định:
+ * 1. Danh sách hộ của tòa nhà
+ * 2. Loại phí của đợt thu + đơn giá áp dụng (BangGiaDichVu > LoaiPhi.DonGia)
+ * 3. Tiêu thụ tháng của cả tòa nhà (phí Điện/Nước, TieuThuService - window function)
+ * 4. Định mức (phí cố định)
+ * 5. Hóa đơn + chi tiết đã có
+ * Sau đó tính toán trong bộ nhớ và ghi bằng JDBC batch insert/update, theo từng khối SO_HO_MOI_KHOI hộ
+ * (mỗi khối ghi xong thì báo tiến độ cho caller).
+ *
+ * Kết quả trả về giống hệt DotThuService.calculateInvoices trước đây.
+ */
+@Service
+public class InvoiceCalculationEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(InvoiceCalculationEngine.class);
+
+    /** Số hộ tính và ghi trong một khối (mỗi khối = một lần báo tiến độ). */
+    static final int SO_HO_MOI_KHOI = HoaDonBulkRepository.BATCH_SIZE;
+
+    private final HoaDonBulkRepository bulkRepo;
+    private final ThongKeDotThuService thongKeService;
+    private final TieuThuService tieuThuService;
+
+    public InvoiceCalculationEngine(HoaDonBulkRepository bulkRepo, ThongKeDotThuService thongKeService,
+                                    TieuThuService tieuThuService) {
+        this.bulkRepo = bulkRepo;
+        this.thongKeService = thongKeService;
+        this.tieuThuService = tieuThuService;
+    }
+
+    /**
+     * Kết quả tính tiền kèm số liệu đo đạc (số round-trip SQL, thời gian xử lý).
+     */
+    public record KetQuaTinhTien(Map<String, Object> ketQua, int soTruyVan, long thoiGianXuLyMs) {}
+
+    /**
+     * Tính tiền cho tất cả hộ trong tòa nhà của đợt thu.
+     * DotThu phải đã được validate (có tòa nhà, tháng, năm).
+     */
+    @Transactional
+    public KetQuaTinhTien calculate(DotThu dotThu) {
+        return calculate(dotThu, soHo -> {});
+    }
+
+    /**
+     * Như {@link #calculate(DotThu)}, báo tiến độ sau mỗi khối hộ đã ghi xong.
+     *
+     * @param tienDo nhận số hộ của khối vừa ghi (tổng các lần gọi = số hộ của tòa nhà)
+     */
+    @Transactional
+    public KetQuaTinhTien calculate(DotThu dotThu, IntConsumer tienDo) {
+        long batDau = System.nanoTime();
+        int soTruyVan = 0;
+
+        int dotThuId = dotThu.getId();
+        int toaNhaId = dotThu.getToaNha().getId();
+        int thang = dotThu.getThang();
+        int nam = dotThu.getNam();
+
+        // ===== 1. Đọc dữ liệu đầu vào =====
+        List<HoRow> danhSachHo = bulkRepo.findHoByToaNha(toaNhaId);
+        soTruyVan++;
+
+        List<PhiRow> danhSachPhi = bulkRepo.findPhiWithDonGia(dotThuId, toaNhaId);
+        soTruyVan++;
+
+        List<Integer> phiBienDoiIds = new ArrayList<>();
+        List<Integer> phiCoDinhIds = new ArrayList<>();
+        for (PhiRow phi : danhSachPhi) {
+            if (DotThuService.isUtilityFeeByName(phi.tenLoaiPhi())) {
+                phiBienDoiIds.add(phi.loaiPhiId());
+            } else {
+                phiCoDinhIds.add(phi.loaiPhiId());
+            }
+        }
+
+        // Tiêu thụ theo loại phí -> hộ
+        Map<Integer, TieuThuService.BangTieuThu> tieuThuTheoPhi = Map.of();
+        if (!phiBienDoiIds.isEmpty()) {
+            tieuThuTheoPhi = tieuThuService.tieuThuToaNha(toaNhaId, phiBienDoiIds, thang, nam);
+            soTruyVan++;
+        }
+
+        // Định mức theo (hộ, loại phí) - giữ bản ghi đầu tiên nếu trùng
+        Map<Long, Double> dinhMucMap = new HashMap<>();
+        if (!phiCoDinhIds.isEmpty()) {
+            for (DinhMucRow dm : bulkRepo.findDinhMucByToaNha(toaNhaId, phiCoDinhIds)) {
+                dinhMucMap.putIfAbsent(key(dm.hoGiaDinhId(), dm.loaiPhiId()),
+                    dm.soLuong() != null ? dm.soLuong() : 1.0);
+            }
+            soTruyVan++;
+        }
+
+        // ===== 2. Đảm bảo mỗi hộ có hóa đơn =====
+        Map<Integer, HoaDonRow> hoaDonTheoHo = new HashMap<>();
+        for (HoaDonRow hd : bulkRepo.findHoaDonByDotThu(dotThuId)) {
+            hoaDonTheoHo.put(hd.hoGiaDinhId(), hd);
+        }
+        soTruyVan++;
+
+        List<Integer> hoChuaCoHoaDon = danhSachHo.stream()
+            .map(HoRow::hoGiaDinhId)
+            .filter(id -> !hoaDonTheoHo.containsKey(id))
+            .toList();
+        if (!hoChuaCoHoaDon.isEmpty()) {
+            bulkRepo.insertHoaDonRong(dotThuId, hoChuaCoHoaDon, "ChuaThanhToan")
+                .forEach((hoId, hoaDonId) -> hoaDonTheoHo.put(hoId, new HoaDonRow(hoaDonId, hoId, BigDecimal.ZERO)));
+            soTruyVan += (hoChuaCoHoaDon.size() + HoaDonBulkRepository.BATCH_SIZE - 1) / HoaDonBulkRepository.BATCH_SIZE;
+        }
+
+        Map<Long, Integer> chiTietIdMap = new HashMap<>();
+        for (ChiTietRow ct : bulkRepo.findChiTietByDotThu(dotThuId)) {
+            chiTietIdMap.put(key(ct.hoaDonId(), ct.loaiPhiId()), ct.chiTietId());
+        }
+        soTruyVan++;
+
+        // ===== 3. Tính toán trong bộ nhớ và ghi batch, theo từng khối hộ =====
+        int soHoaDonTao = 0;
+        int soHoThieuChiSo = 0;
+        List<String> danhSachThieuChiSo = new ArrayList<>();
+
+        for (int from = 0; from < danhSachHo.size(); from += SO_HO_MOI_KHOI) {
+            List<HoRow> khoi = danhSachHo.subList(from, Math.min(from + SO_HO_MOI_KHOI, danhSachHo.size()));
+            List<ChiTietWrite> chiTietMoi = new ArrayList<>();
+            List<ChiTietWrite> chiTietCapNhat = new ArrayList<>();
+            List<HoaDonTotalWrite> hoaDonCapNhat = new ArrayList<>(khoi.size());
+
+            for (HoRow ho : khoi) {
+                HoaDonRow hoaDon = hoaDonTheoHo.get(ho.hoGiaDinhId());
+                BigDecimal tongTien = BigDecimal.ZERO;
+                boolean thieuChiSo = false;
+
+                for (PhiRow phi : danhSachPhi) {
+                    BigDecimal donGia = phi.donGiaApDung();
+                    long hoPhiKey = key(ho.hoGiaDinhId(), phi.loaiPhiId());
+                    double soLuong;
+                    BigDecimal thanhTien;
+
+                    if (DotThuService.isUtilityFeeByName(phi.tenLoaiPhi())) {
+                        int tieuThu = tieuThuTheoPhi.get(phi.loaiPhiId()).getOrDefault(ho.hoGiaDinhId(), -1);
+                        if (tieuThu < 0) {
+                            // Chưa có chỉ số tháng này
+                            thieuChiSo = true;
+                            continue;
+                        }
+                        soLuong = tieuThu;
+                        thanhTien = donGia.multiply(BigDecimal.valueOf(tieuThu));
+                    } else {
+                        // Mặc định = 1 nếu không có định mức
+                        soLuong = dinhMucMap.getOrDefault(hoPhiKey, 1.0);
+                        thanhTien = donGia.multiply(BigDecimal.valueOf(soLuong));
+                    }
+
+                    Integer chiTietId = chiTietIdMap.get(key(hoaDon.hoaDonId(), phi.loaiPhiId()));
+                    ChiTietWrite write = new ChiTietWrite(chiTietId, hoaDon.hoaDonId(), phi.loaiPhiId(),
+                        soLuong, donGia, thanhTien);
+                    if (chiTietId == null) {
+                        chiTietMoi.add(write);
+                    } else {
+                        chiTietCapNhat.add(write);
+                    }
+
+                    tongTien = tongTien.add(thanhTien);
+                }
+
+                hoaDonCapNhat.add(new HoaDonTotalWrite(hoaDon.hoaDonId(), tongTien));
+                soHoaDonTao++;
+
+                if (thieuChiSo) {
+                    soHoThieuChiSo++;
+                    danhSachThieuChiSo.add(ho.maHoGiaDinh());
+                }
+            }
+
+            // ===== 4. Ghi batch của khối =====
+            soTruyVan += bulkRepo.insertChiTiet(chiTietMoi);
+            soTruyVan += bulkRepo.updateChiTiet(chiTietCapNhat);
+            soTruyVan += bulkRepo.updateHoaDonTotals(hoaDonCapNhat);
+            tienDo.accept(khoi.size());
+        }
+
+        // ===== 5. Cập nhật thống kê đợt thu (cùng transaction) =====
+        thongKeService.onDotThuRecalculated(dotThuId);
+        soTruyVan++;
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("success", true);
+        result.put("message", "Đã tính tiền cho " + soHoaDonTao + " hộ gia đình");
+        result.put("soHoaDonTao", soHoaDonTao);
+        result.put("soHoThieuChiSo", soHoThieuChiSo);
+        result.put("danhSachThieuChiSo", danhSachThieuChiSo);
+        result.put("thang", thang);
+        result.put("nam", nam);
+
+        long thoiGianMs = (System.nanoTime() - batDau) / 1_000_000;
+        log.info("Tính tiền đợt thu {}: {} hộ × {} loại phí, {} truy vấn SQL, {} ms",
+            dotThuId, danhSachHo.size(), danhSachPhi.size(), soTruyVan, thoiGianMs);
+
+        return new KetQuaTinhTien(result, soTruyVan, thoiGianMs);
+    }
+
+    /**
+     * Ghép 2 ID int thành một khóa long (tránh tạo object khóa cho mỗi ô).
+     */
+    static long key(int a, int b) {
+        return ((long) a << 32) | (b & 0xffffffffL);
+    }
+}
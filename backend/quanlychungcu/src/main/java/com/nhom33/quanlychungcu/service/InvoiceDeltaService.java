@@ -0,0 +1,184 @@
+package com.nhom33.quanlychungcu.service;
+
+import com.nhom33.quanlychungcu.repository.HoaDonBulkRepository;
+import com.nhom33.quanlychungcu.repository.HoaDonBulkRepository.ChiTietWrite;
+import com.nhom33.quanlychungcu.repository.HoaDonBulkRepository.HoaDonTotalWrite;
+import com.nhom33.quanlychungcu.repository.InvoiceDeltaRepository;
+import com.nhom33.quanlychungcu.repository.InvoiceDeltaRepository.DeltaRow;
+import com.nhom33.quanlychungcu.repository.InvoiceDeltaRepository.TongHoaDonRow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Service: Tính lại hóa đơn theo thay đổi (delta) khi MỘT đầu vào thay đổi.
+ *
+ * Thay vì chạy lại InvoiceCalculationEngine cho cả tòa nhà, chỉ tính lại các dòng
+ * ChiTietHoaDon của (hộ, loại phí, đợt thu) bị ảnh hưởng và tổng tiền của hóa đơn cha:
+ * - Chỉ số Điện/Nước (ChiSoDienNuocService.saveAll): đợt thu của tháng đó + đợt thu kế tiếp dùng
+ *   chỉ số này làm chỉ số cũ
+ * - Định mức (DinhMucThuService): các đợt thu chưa kết thúc của hộ
+ * - Đơn giá (BangGiaService; giá mặc định qua DonGiaRecalcJob sau commit): các đợt thu chưa kết thúc
+ *   của tòa nhà / mọi tòa nhà
+ *
+ * Chỉ sửa hóa đơn ĐÃ được tính tiền, thuộc đợt thu chưa kết thúc và chưa đóng đủ (không tạo hóa đơn mới).
+ * Quy tắc tính giống hệt engine.
+ * Chi phí: 1 câu đọc ô bị ảnh hưởng + batch ghi chi tiết + 1 câu đọc tổng + batch ghi tổng.
+ */
+@Service
+public class InvoiceDeltaService {
+
+    private static final Logger log = LoggerFactory.getLogger(InvoiceDeltaService.class);
+
+    private final InvoiceDeltaRepository deltaRepo;
+    private final HoaDonBulkRepository bulkRepo;
+    private final ThongKeDotThuService thongKeService;
+    private final boolean enabled;
+
+    public InvoiceDeltaService(InvoiceDeltaRepository deltaRepo,
+                               HoaDonBulkRepository bulkRepo,
+                               ThongKeDotThuService thongKeService,
+                               @Value("${app.invoice.delta-recalc:true}") boolean enabled) {
+        this.deltaRepo = deltaRepo;
+        this.bulkRepo = bulkRepo;
+        this.thongKeService = thongKeService;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Kết quả một lần tính lại.
+     *
+     * @param soDongCapNhat số dòng ChiTietHoaDon được thêm/sửa
+     * @param soHoaDon      số hóa đơn thay đổi tổng tiền
+     * @param soDotThu      số đợt thu bị ảnh hưởng
+     * @param soTruyVan     số round-trip SQL
+     */
+    public record KetQuaTinhLai(int soDongCapNhat, int soHoaDon, int soDotThu, int soTruyVan) {
+        static final KetQuaTinhLai NONE = new KetQuaTinhLai(0, 0, 0, 0);
+    }
+
+    // ===== Public API =====
+
+    /**
+     * Chỉ số tháng (thang, nam) của các hộ vừa được nhập/sửa.
+     */
+    @Transactional
+    public KetQuaTinhLai onChiSoChanged(int loaiPhiId, int thang, int nam, Collection<Integer> hoGiaDinhIds) {
+        if (!enabled || hoGiaDinhIds == null || hoGiaDinhIds.isEmpty()) return KetQuaTinhLai.NONE;
+        List<DeltaRow> rows = deltaRepo.findTheoChiSo(loaiPhiId, nam * 100 + thang, hoGiaDinhIds,
+            LocalDate.now());
+        return apply("chỉ số " + thang + "/" + nam, rows, InvoiceDeltaRepository.soKhoi(hoGiaDinhIds.size()));
+    }
+
+    /**
+     * Định mức của các hộ cho một loại phí vừa thay đổi (thêm/sửa/xóa).
+     */
+    @Transactional
+    public KetQuaTinhLai onDinhMucChanged(int loaiPhiId, Collection<Integer> hoGiaDinhIds) {
+        if (!enabled || hoGiaDinhIds == null || hoGiaDinhIds.isEmpty()) return KetQuaTinhLai.NONE;
+        List<DeltaRow> rows = deltaRepo.findTheoDinhMuc(loaiPhiId, hoGiaDinhIds, LocalDate.now());
+        return apply("định mức", rows, InvoiceDeltaRepository.soKhoi(hoGiaDinhIds.size()));
+    }
+
+    /**
+     * Đơn giá của một loại phí vừa thay đổi.
+     *
+     * @param toaNhaId tòa nhà có bảng giá riêng thay đổi; null = giá mặc định (LoaiPhi.DonGia)
+     */
+    @Transactional
+    public KetQuaTinhLai onDonGiaChanged(int loaiPhiId, Integer toaNhaId) {
+        if (!enabled) return KetQuaTinhLai.NONE;
+        List<DeltaRow> rows = deltaRepo.findTheoDonGia(loaiPhiId, toaNhaId, LocalDate.now());
+        return apply("đơn giá", rows, 1);
+    }
+
+    // ===== Tính lại =====
+
+    private KetQuaTinhLai apply(String nguon, List<DeltaRow> rows, int soTruyVan) {
+        if (rows.isEmpty()) {
+            return new KetQuaTinhLai(0, 0, 0, soTruyVan);
+        }
+
+        List<ChiTietWrite> chiTietMoi = new ArrayList<>();
+        List<ChiTietWrite> chiTietCapNhat = new ArrayList<>();
+        Set<Integer> hoaDonThayDoi = new LinkedHashSet<>();
+        Map<Integer, Integer> dotThuTheoHoaDon = new HashMap<>();
+
+        for (DeltaRow row : rows) {
+            // Một hóa đơn có thể có nhiều dòng chi tiết trùng loại phí (dữ liệu cũ) -> chỉ xét dòng đầu
+            if (dotThuTheoHoaDon.putIfAbsent(row.hoaDonId(), row.dotThuId()) != null) continue;
+
+            BigDecimal donGia = row.donGiaApDung();
+            double soLuong;
+            if (DotThuService.isUtilityFeeByName(row.tenLoaiPhi())) {
+                if (row.chiSoMoi() == null) {
+                    // Chưa có chỉ số tháng này: engine cũng bỏ qua ô này
+                    continue;
+                }
+                int chiSoTruoc = row.chiSoTruoc() != null ? row.chiSoTruoc() : 0;
+                soLuong = Math.max(0, row.chiSoMoi() - chiSoTruoc);
+            } else {
+                // Mặc định = 1 nếu không có định mức
+                soLuong = row.dinhMuc() != null ? row.dinhMuc() : 1.0;
+            }
+            BigDecimal thanhTien = donGia.multiply(BigDecimal.valueOf(soLuong));
+
+            if (row.chiTietId() != null && khongDoi(row, soLuong, donGia, thanhTien)) {
+                continue;
+            }
+
+            ChiTietWrite write = new ChiTietWrite(row.chiTietId(), row.hoaDonId(), row.loaiPhiId(),
+                soLuong, donGia, thanhTien);
+            if (row.chiTietId() == null) {
+                chiTietMoi.add(write);
+            } else {
+                chiTietCapNhat.add(write);
+            }
+            hoaDonThayDoi.add(row.hoaDonId());
+        }
+
+        if (hoaDonThayDoi.isEmpty()) {
+            return new KetQuaTinhLai(0, 0, 0, soTruyVan);
+        }
+
+        soTruyVan += bulkRepo.insertChiTiet(chiTietMoi);
+        soTruyVan += bulkRepo.updateChiTiet(chiTietCapNhat);
+
+        // Tổng tiền hóa đơn = tổng chi tiết của các loại phí trong đợt thu (sau khi đã ghi)
+        List<HoaDonTotalWrite> tongCapNhat = new ArrayList<>();
+        for (TongHoaDonRow tong : deltaRepo.findTongHoaDon(hoaDonThayDoi)) {
+            if (tong.tongTienCu() != null && tong.tongTienCu().compareTo(tong.tongChiTiet()) == 0) continue;
+            // Trạng thái được tính trong câu UPDATE từ số đã đóng hiện tại (thanh toán có thể vừa commit)
+            tongCapNhat.add(new HoaDonTotalWrite(tong.hoaDonId(), tong.tongChiTiet()));
+        }
+        soTruyVan += InvoiceDeltaRepository.soKhoi(hoaDonThayDoi.size());
+        soTruyVan += bulkRepo.updateHoaDonTotals(tongCapNhat);
+
+        // Thống kê đợt thu (cùng transaction)
+        Set<Integer> dotThuIds = new TreeSet<>();
+        for (Integer hoaDonId : hoaDonThayDoi) {
+            dotThuIds.add(dotThuTheoHoaDon.get(hoaDonId));
+        }
+        for (Integer dotThuId : dotThuIds) {
+            thongKeService.onDotThuRecalculated(dotThuId);
+            soTruyVan++;
+        }
+
+        int soDong = chiTietMoi.size() + chiTietCapNhat.size();
+        log.info("Tính lại theo {}: {} dòng chi tiết, {} hóa đơn, {} đợt thu, {} truy vấn SQL",
+            nguon, soDong, tongCapNhat.size(), dotThuIds.size(), soTruyVan);
+        return new KetQuaTinhLai(soDong, tongCapNhat.size(), dotThuIds.size(), soTruyVan);
+    }
+
+    private static boolean khongDoi(DeltaRow row, double soLuong, BigDecimal donGia, BigDecimal thanhTien) {
+        return row.soLuongCu() != null && Double.compare(row.soLuongCu(), soLuong) == 0
+            && row.donGiaCu() != null && row.donGiaCu().compareTo(donGia) == 0
+            && row.thanhTienCu() != null && row.thanhTienCu().compareTo(thanhTien) == 0;
+    }
+}
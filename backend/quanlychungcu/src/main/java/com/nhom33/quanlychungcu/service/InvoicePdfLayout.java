@@ -0,0 +1,175 @@
+package com.nhom33.quanlychungcu.service;
+
+import com.nhom33.quanlychungcu.repository.InvoiceRenderRepository.DongIn;
+import com.nhom33.quanlychungcu.repository.InvoiceRenderRepository.HoaDonIn;
+import com.nhom33.quanlychungcu.util.PdfStreamWriter;
+import com.nhom33.quanlychungcu.util.PdfStreamWriter.Page;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Bố cục trang PDF của một hóa đơn (A4, cùng nội dung với template HTML).
+ *
+ * Hàm thuần: chỉ đọc HoaDonIn và trả về các trang đã dựng (chưa ghi), nên gọi song song được.
+ * Hóa đơn nhiều khoản hơn một trang thì bảng chi tiết được in tiếp sang trang sau.
+ */
+final class InvoicePdfLayout {
+
+    private static final float LEFT = 50f;
+    private static final float RIGHT = PdfStreamWriter.A4_WIDTH - 50f;
+    private static final float TOP = PdfStreamWriter.A4_HEIGHT - 50f;
+    private static final float BOTTOM = 50f;
+    private static final float ROW = 18f;
+    private static final float TOTALS_HEIGHT = 4 * ROW + 20f;
+
+    // Cột bảng chi tiết
+    private static final float COL_STT = LEFT + 5f;
+    private static final float COL_TEN = LEFT + 35f;
+    private static final float COL_TEN_WIDTH = 195f;
+    private static final float COL_SO_LUONG = LEFT + 235f;
+    private static final float COL_DON_GIA_RIGHT = RIGHT - 100f;
+    private static final float COL_THANH_TIEN_RIGHT = RIGHT - 5f;
+
+    private InvoicePdfLayout() {}
+
+    /**
+     * Các trang của một hóa đơn, thường chỉ một trang.
+     */
+    static List<Page> renderPages(HoaDonIn hd) {
+        List<Page> pages = new ArrayList<>(1);
+        Page page = new Page();
+        float y = header(page, hd);
+        y = tableHeader(page, y);
+
+        int stt = 1;
+        for (DongIn d : hd.dong()) {
+            if (y - ROW < BOTTOM) {
+                pages.add(page);
+                page = new Page();
+                y = tableHeader(page, continuation(page, hd));
+            }
+            y = row(page, y, stt++, d);
+        }
+
+        if (y - TOTALS_HEIGHT < BOTTOM) {
+            pages.add(page);
+            page = new Page();
+            y = continuation(page, hd);
+        }
+        totals(page, y - 20f, hd);
+        pages.add(page);
+        return pages;
+    }
+
+    /**
+     * File PDF hoàn chỉnh của một hóa đơn.
+     */
+    static byte[] renderPdf(HoaDonIn hd) {
+        return PdfStreamWriter.toPdf(renderPages(hd));
+    }
+
+    // ===== Các khối của trang =====
+
+    private static float header(Page page, HoaDonIn hd) {
+        float center = PdfStreamWriter.A4_WIDTH / 2;
+        page.textCenter(center, TOP - 10f, 18f, true, "HÓA ĐƠN THANH TOÁN");
+        String subtitle = hd.tenToaNha() != null ? "Chung cư Blue Moon - " + hd.tenToaNha() : "Chung cư Blue Moon";
+        page.textCenter(center, TOP - 30f, 11f, false, subtitle);
+        page.line(LEFT, TOP - 42f, RIGHT, TOP - 42f, 0.8f);
+
+        float y = TOP - 65f;
+        y = info(page, y, "Mã hóa đơn:", InvoiceService.maHoaDon(hd.hoaDonId()));
+        y = info(page, y, "Hộ gia đình:", hd.maHoGiaDinh() + " - " + nz(hd.chuHo()));
+        if (hd.soCanHo() != null) {
+            y = info(page, y, "Căn hộ:", hd.soCanHo());
+        }
+        y = info(page, y, "Đợt thu:", hd.tenDotThu());
+        y = info(page, y, "Ngày tạo:", InvoiceService.formatNgay(hd.ngayTao()));
+        return y - 10f;
+    }
+
+    private static float info(Page page, float y, String label, String value) {
+        page.text(LEFT, y, 10f, true, label);
+        page.text(LEFT + 90f, y, 10f, false, value);
+        return y - 16f;
+    }
+
+    /**
+     * Đầu trang tiếp theo của hóa đơn nhiều trang.
+     */
+    private static float continuation(Page page, HoaDonIn hd) {
+        page.text(LEFT, TOP - 10f, 10f, true,
+            InvoiceService.maHoaDon(hd.hoaDonId()) + " - " + hd.maHoGiaDinh() + " (tiếp theo)");
+        return TOP - 25f;
+    }
+
+    private static float tableHeader(Page page, float y) {
+        page.fillRect(LEFT, y - ROW, RIGHT - LEFT, ROW, 0.93f);
+        page.line(LEFT, y, RIGHT, y, 0.5f);
+        float base = y - 13f;
+        page.text(COL_STT, base, 9f, true, "STT");
+        page.text(COL_TEN, base, 9f, true, "Loại phí");
+        page.text(COL_SO_LUONG, base, 9f, true, "Số lượng");
+        page.textRight(COL_DON_GIA_RIGHT, base, 9f, true, "Đơn giá");
+        page.textRight(COL_THANH_TIEN_RIGHT, base, 9f, true, "Thành tiền");
+        page.line(LEFT, y - ROW, RIGHT, y - ROW, 0.5f);
+        return y - ROW;
+    }
+
+    private static float row(Page page, float y, int stt, DongIn d) {
+        float base = y - 13f;
+        page.text(COL_STT, base, 9f, false, Integer.toString(stt));
+        page.text(COL_TEN, base, 9f, false, fit(nz(d.tenLoaiPhi()), COL_TEN_WIDTH, 9f));
+        page.text(COL_SO_LUONG, base, 9f, false, InvoiceService.formatSoLuong(d));
+        page.textRight(COL_DON_GIA_RIGHT, base, 9f, false, tien(d.donGia()));
+        page.textRight(COL_THANH_TIEN_RIGHT, base, 9f, false, tien(d.thanhTien()));
+        page.line(LEFT, y - ROW, RIGHT, y - ROW, 0.3f);
+        return y - ROW;
+    }
+
+    private static void totals(Page page, float y, HoaDonIn hd) {
+        BigDecimal tong = nz(hd.tongTien());
+        BigDecimal daDong = nz(hd.daDong());
+        float labelRight = RIGHT - 120f;
+        page.textRight(labelRight, y, 10f, true, "Tổng tiền phải thu:");
+        page.textRight(RIGHT, y, 10f, false, tien(tong));
+        y -= ROW;
+        page.textRight(labelRight, y, 10f, true, "Số tiền đã đóng:");
+        page.textRight(RIGHT, y, 10f, false, tien(daDong));
+        y -= ROW;
+        page.textRight(labelRight, y, 12f, true, "Còn nợ:");
+        page.textRight(RIGHT, y, 12f, true, tien(tong.subtract(daDong)));
+        y -= ROW;
+        page.textRight(labelRight, y, 10f, true, "Trạng thái:");
+        page.textRight(RIGHT, y, 10f, false, nz(BangKeExportService.trangThaiLabel(hd.trangThai())));
+    }
+
+    // ===== Helpers =====
+
+    private static String tien(BigDecimal amount) {
+        return String.format(Locale.ROOT, "%,d VND", amount != null ? amount.longValue() : 0L);
+    }
+
+    /**
+     * Cắt chuỗi cho vừa độ rộng cột (thêm "...").
+     */
+    private static String fit(String value, float maxWidth, float size) {
+        if (PdfStreamWriter.textWidth(value, size, false) <= maxWidth) return value;
+        int end = value.length();
+        while (end > 0 && PdfStreamWriter.textWidth(value.substring(0, end) + "...", size, false) > maxWidth) {
+            end--;
+        }
+        return value.substring(0, end) + "...";
+    }
+
+    private static String nz(String value) {
+        return value != null ? value : "";
+    }
+
+    private static BigDecimal nz(BigDecimal value) {
+        return value != null ? value : BigDecimal.ZERO;
+    }
+}
@@ -1,104 +1,417 @@
 package com.nhom33.quanlychungcu.service;
 
-import com.nhom33.quanlychungcu.entity.HoaDon;
-import com.nhom33.quanlychungcu.entity.ChiTietHoaDon;
-import com.nhom33.quanlychungcu.repository.HoaDonRepository;
+import com.nhom33.quanlychungcu.exception.ResourceNotFoundException;
+import com.nhom33.quanlychungcu.repository.BangKeRepository;
+import com.nhom33.quanlychungcu.repository.BangKeRepository.KyThuRow;
+import com.nhom33.quanlychungcu.repository.InvoiceRenderRepository;
+import com.nhom33.quanlychungcu.repository.InvoiceRenderRepository.DongIn;
+import com.nhom33.quanlychungcu.repository.InvoiceRenderRepository.HoaDonIn;
+import com.nhom33.quanlychungcu.util.HtmlTemplate;
+import com.nhom33.quanlychungcu.util.PdfStreamWriter;
+import com.nhom33.quanlychungcu.util.PdfStreamWriter.Page;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.security.access.AccessDeniedException;
 import org.springframework.stereotype.Service;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
+/**
+ * Service: In hóa đơn (HTML / PDF), một hóa đơn hoặc cả đợt thu.
+ *
+ * - Dữ liệu mỗi hóa đơn đọc bằng một câu JOIN (InvoiceRenderRepository), không lazy load
+ * - HTML render từ template compile sẵn một lần (resources/invoice/hoa-don.html)
+ * - PDF là file PDF thật (PdfStreamWriter, font Unicode nhúng), bố cục trong InvoicePdfLayout
+ *
+ * In cả đợt thu (một PDF nhiều trang hoặc ZIP mỗi hóa đơn một file PDF):
+ * - Hóa đơn đọc tuần tự từ một câu JOIN, gom thành nhóm chunk-size hóa đơn
+ * - Mỗi nhóm render trên invoiceRenderExecutor (song song theo số core)
+ * - Thread đang stream ghi kết quả ra theo ĐÚNG thứ tự đọc; tối đa max-in-flight nhóm
+ *   đang render/chờ ghi, nên bộ nhớ không phụ thuộc số hóa đơn của đợt thu
+ */
 @Service
 public class InvoiceService {
 
-    private final HoaDonRepository hoaDonRepo;
+    private static final Logger log = LoggerFactory.getLogger(InvoiceService.class);
+    private static final DateTimeFormatter NGAY_TAO = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm");
+    /** Số hóa đơn đọc mỗi lần khi in cả đợt thu. */
+    private static final int SO_HOA_DON_MOI_TRANG = 200;
 
-    public InvoiceService(HoaDonRepository hoaDonRepo) {
-        this.hoaDonRepo = hoaDonRepo;
+    private final InvoiceRenderRepository renderRepo;
+    private final BangKeRepository bangKeRepo;
+    private final SecurityHelper securityHelper;
+    private final ThreadPoolTaskExecutor executor;
+    private final int chunkSize;
+    private final int maxInFlight;
+    private final HtmlTemplate template;
+
+    public InvoiceService(InvoiceRenderRepository renderRepo,
+                          BangKeRepository bangKeRepo,
+                          SecurityHelper securityHelper,
+                          @Qualifier("invoiceRenderExecutor") ThreadPoolTaskExecutor executor,
+                          @Value("${app.invoice.render.chunk-size:32}") int chunkSize,
+                          @Value("${app.invoice.render.max-in-flight:0}") int maxInFlight) {
+        this.renderRepo = renderRepo;
+        this.bangKeRepo = bangKeRepo;
+        this.securityHelper = securityHelper;
+        this.executor = executor;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.maxInFlight = maxInFlight > 0 ? maxInFlight : 2 * executor.getMaxPoolSize();
+        this.template = HtmlTemplate.fromClasspath("invoice/hoa-don.html");
     }
 
     /**
-     * Sinh hóa đơn PDF (sử dụng iText hoặc Apache PDFBox)
-     * Tạm thời trả về HTML, có thể chuyển sang PDF sau
+     * Định dạng file in cả đợt thu.
      */
+    public enum BatchFormat {
+        PDF("application/pdf", "pdf"),
+        ZIP("application/zip", "zip");
+
+        private final String contentType;
+        private final String extension;
+
+        BatchFormat(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        /**
+         * Parse tham số format từ request (mặc định PDF).
+         */
+        public static BatchFormat from(String value) {
+            if (value == null || value.isBlank()) return PDF;
+            try {
+                return BatchFormat.valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Định dạng in không hỗ trợ: " + value + " (pdf hoặc zip)");
+            }
+        }
+    }
+
+    // ===== Một hóa đơn =====
+
     public String generateInvoiceHtml(Integer idHoaDon) {
-        HoaDon hoaDon = hoaDonRepo.findById(idHoaDon)
-            .orElseThrow(() -> new RuntimeException("Không tìm thấy hóa đơn"));
-
-        StringBuilder html = new StringBuilder();
-        html.append("<!DOCTYPE html><html><head><meta charset='UTF-8'>");
-        html.append("<style>");
-        html.append("body { font-family: Arial, sans-serif; margin: 20px; }");
-        html.append("table { width: 100%; border-collapse: collapse; margin-top: 20px; }");
-        html.append("th, td { border: 1px solid #ddd; padding: 8px; text-align: left; }");
-        html.append("th { background-color: #f2f2f2; }");
-        html.append(".header { text-align: center; margin-bottom: 30px; }");
-        html.append(".total { font-weight: bold; font-size: 18px; }");
-        html.append("</style></head><body>");
-
-        html.append("<div class='header'>");
-        html.append("<h1>HÓA ĐƠN THANH TOÁN</h1>");
-        html.append("<p>Chung cư Blue Moon</p>");
-        html.append("</div>");
-
-        html.append("<div>");
-        html.append("<p><strong>Mã hóa đơn:</strong> HD").append(String.format("%06d", hoaDon.getId())).append("</p>");
-        html.append("<p><strong>Hộ gia đình:</strong> ").append(hoaDon.getHoGiaDinh().getMaHoGiaDinh()).append(" - ").append(hoaDon.getHoGiaDinh().getTenChuHo()).append("</p>");
-        html.append("<p><strong>Đợt thu:</strong> ").append(hoaDon.getDotThu().getTenDotThu()).append("</p>");
-        html.append("<p><strong>Ngày tạo:</strong> ").append(hoaDon.getNgayTao().format(DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm"))).append("</p>");
-        html.append("</div>");
-
-        html.append("<table>");
-        html.append("<thead><tr>");
-        html.append("<th>STT</th>");
-        html.append("<th>Loại phí</th>");
-        html.append("<th>Số lượng</th>");
-        html.append("<th>Đơn giá</th>");
-        html.append("<th>Thành tiền</th>");
-        html.append("</tr></thead><tbody>");
-
-        List<ChiTietHoaDon> chiTiets = hoaDon.getDanhSachChiTiet();
-        int stt = 1;
-        for (ChiTietHoaDon ct : chiTiets) {
-            html.append("<tr>");
-            html.append("<td>").append(stt++).append("</td>");
-            html.append("<td>").append(ct.getLoaiPhi().getTenLoaiPhi()).append("</td>");
-            html.append("<td>").append(ct.getSoLuong()).append(" ").append(ct.getLoaiPhi().getDonViTinh() != null ? ct.getLoaiPhi().getDonViTinh() : "").append("</td>");
-            html.append("<td>").append(formatCurrency(ct.getDonGia())).append("</td>");
-            html.append("<td>").append(formatCurrency(ct.getThanhTien())).append("</td>");
-            html.append("</tr>");
+        return template.render(toModel(load(idHoaDon)));
+    }
+
+    public byte[] generateInvoicePdf(Integer idHoaDon) {
+        return InvoicePdfLayout.renderPdf(load(idHoaDon));
+    }
+
+    /**
+     * Hóa đơn đã render đủ để gửi email (HTML + PDF đính kèm), đọc dữ liệu một lần.
+     */
+    public record InvoiceDocument(int hoaDonId, String chuHo, String tenDotThu, BigDecimal tongTien,
+                                  String html, byte[] pdf) {}
+
+    public InvoiceDocument renderDocument(Integer idHoaDon) {
+        HoaDonIn hd = load(idHoaDon);
+        return new InvoiceDocument(hd.hoaDonId(), hd.chuHo(), hd.tenDotThu(), hd.tongTien(),
+            template.render(toModel(hd)), InvoicePdfLayout.renderPdf(hd));
+    }
+
+    // ===== Cả đợt thu =====
+
+    /**
+     * In tất cả hóa đơn của đợt thu để stream về client.
+     * Kiểm tra đợt thu + quyền truy cập NGAY trong request (trước khi trả header).
+     */
+    public BangKeExportService.ExportFile exportDotThu(Integer dotThuId, BatchFormat format) {
+        KyThuRow dotThu = checkDotThu(dotThuId);
+        if (dotThu.toaNhaId() != null && !securityHelper.canViewAll()
+                && !securityHelper.canAccessBuilding(dotThu.toaNhaId())) {
+            throw new AccessDeniedException("Bạn không có quyền truy cập đợt thu của tòa nhà này");
+        }
+        String filename = "HoaDon_DotThu_" + dotThuId + "_" + LocalDate.now() + "." + format.getExtension();
+        return new BangKeExportService.ExportFile(filename, format.getContentType(),
+            out -> writeDotThu(dotThuId, format, out));
+    }
+
+    /**
+     * In tất cả hóa đơn của đợt thu ra file trên đĩa (dùng cho job nền, caller tự kiểm tra quyền).
+     */
+    public Path exportDotThuToFile(Integer dotThuId, BatchFormat format, Path file) throws IOException {
+        checkDotThu(dotThuId);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            writeDotThu(dotThuId, format, out);
         }
+        return file;
+    }
+
+    private KyThuRow checkDotThu(Integer dotThuId) {
+        List<KyThuRow> kyThu = bangKeRepo.findKyThu(List.of(dotThuId));
+        if (kyThu.isEmpty()) {
+            throw new ResourceNotFoundException("Không tìm thấy đợt thu với ID: " + dotThuId);
+        }
+        if (renderRepo.countByDotThu(dotThuId) == 0) {
+            throw new IllegalStateException("Đợt thu chưa có hóa đơn");
+        }
+        return kyThu.get(0);
+    }
 
-        html.append("</tbody></table>");
+    private void writeDotThu(int dotThuId, BatchFormat format, OutputStream out) throws IOException {
+        long start = System.currentTimeMillis();
+        BatchSink sink = format == BatchFormat.PDF ? new PdfSink(out) : new ZipSink(out);
+        RenderPipeline pipeline = new RenderPipeline(format, sink);
+        try {
+            // Đọc theo trang: kết nối DB được trả lại pool giữa các trang, không giữ suốt lúc ghi ra client
+            HoaDonIn cuoi = null;
+            List<HoaDonIn> trang;
+            do {
+                trang = renderRepo.findPageByDotThu(dotThuId, cuoi, SO_HOA_DON_MOI_TRANG);
+                trang.forEach(pipeline::accept);
+                cuoi = trang.isEmpty() ? cuoi : trang.get(trang.size() - 1);
+            } while (trang.size() == SO_HOA_DON_MOI_TRANG);
+            pipeline.finish();
+        } catch (UncheckedIOException e) {
+            pipeline.cancel();
+            throw e.getCause();
+        } catch (RuntimeException e) {
+            pipeline.cancel();
+            throw e;
+        }
+        sink.close();
+        log.info("In hóa đơn đợt thu {} ({}, {} hóa đơn) trong {} ms",
+            dotThuId, format, pipeline.soHoaDon, System.currentTimeMillis() - start);
+    }
 
-        html.append("<div style='margin-top: 20px; text-align: right;'>");
-        html.append("<p><strong>Tổng tiền phải thu:</strong> ").append(formatCurrency(hoaDon.getTongTienPhaiThu())).append("</p>");
-        html.append("<p><strong>Số tiền đã đóng:</strong> ").append(formatCurrency(hoaDon.getSoTienDaDong())).append("</p>");
-        html.append("<p class='total'><strong>Còn nợ:</strong> ").append(formatCurrency(hoaDon.getSoTienConNo())).append("</p>");
-        html.append("<p><strong>Trạng thái:</strong> ").append(hoaDon.getTrangThai()).append("</p>");
-        html.append("</div>");
+    // ===== Pipeline render song song =====
 
-        html.append("</body></html>");
+    /**
+     * Kết quả render một hóa đơn: các trang (PDF gộp) hoặc file PDF riêng (ZIP).
+     */
+    private record BanIn(String tenFile, List<Page> pages, byte[] pdf) {}
 
-        return html.toString();
+    private static BanIn render(HoaDonIn hd, BatchFormat format) {
+        List<Page> pages = InvoicePdfLayout.renderPages(hd);
+        if (format == BatchFormat.PDF) {
+            return new BanIn(null, pages, null);
+        }
+        String maHo = hd.maHoGiaDinh() != null ? hd.maHoGiaDinh().replaceAll("[^A-Za-z0-9_-]", "_") : "";
+        return new BanIn(maHoaDon(hd.hoaDonId()) + "_" + maHo + ".pdf", null, PdfStreamWriter.toPdf(pages));
     }
 
     /**
-     * Sinh PDF từ HTML (cần thêm dependency)
+     * Nhận hóa đơn theo thứ tự đọc (trên thread đang stream), gửi từng nhóm đi render
+     * và ghi kết quả ra sink theo đúng thứ tự đã gửi.
      */
-    public byte[] generateInvoicePdf(Integer idHoaDon) throws IOException {
-        String html = generateInvoiceHtml(idHoaDon);
-        // TODO: Convert HTML to PDF using iText hoặc Apache PDFBox
-        // Tạm thời trả về HTML dưới dạng bytes
-        return html.getBytes("UTF-8");
+    private final class RenderPipeline {
+
+        private final BatchFormat format;
+        private final BatchSink sink;
+        private final Deque<CompletableFuture<List<BanIn>>> inFlight = new ArrayDeque<>();
+        private List<HoaDonIn> chunk;
+        private int soHoaDon = 0;
+
+        RenderPipeline(BatchFormat format, BatchSink sink) {
+            this.format = format;
+            this.sink = sink;
+            this.chunk = new ArrayList<>(chunkSize);
+        }
+
+        void accept(HoaDonIn hd) {
+            chunk.add(hd);
+            if (chunk.size() >= chunkSize) {
+                submit();
+            }
+        }
+
+        void finish() {
+            if (!chunk.isEmpty()) {
+                submit();
+            }
+            while (!inFlight.isEmpty()) {
+                writeNext();
+            }
+        }
+
+        void cancel() {
+            inFlight.forEach(f -> f.cancel(true));
+            inFlight.clear();
+        }
+
+        private void submit() {
+            List<HoaDonIn> nhom = chunk;
+            chunk = new ArrayList<>(chunkSize);
+            inFlight.add(CompletableFuture.supplyAsync(() -> {
+                List<BanIn> result = new ArrayList<>(nhom.size());
+                for (HoaDonIn hd : nhom) {
+                    result.add(render(hd, format));
+                }
+                return result;
+            }, executor));
+            // Đủ số nhóm tối đa: ghi nhóm cũ nhất trước khi đọc tiếp (giới hạn bộ nhớ)
+            while (inFlight.size() > maxInFlight) {
+                writeNext();
+            }
+        }
+
+        private void writeNext() {
+            List<BanIn> nhom;
+            try {
+                nhom = inFlight.poll().join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException re ? re : new IllegalStateException(e.getCause());
+            }
+            try {
+                for (BanIn b : nhom) {
+                    sink.write(b);
+                    soHoaDon++;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private interface BatchSink {
+        void write(BanIn b) throws IOException;
+
+        /**
+         * Kết thúc file, KHÔNG đóng OutputStream gốc.
+         */
+        void close() throws IOException;
+    }
+
+    /**
+     * Một file PDF, mỗi hóa đơn một (hoặc vài) trang.
+     */
+    private static final class PdfSink implements BatchSink {
+
+        private final PdfStreamWriter writer;
+
+        PdfSink(OutputStream out) throws IOException {
+            this.writer = new PdfStreamWriter(out);
+        }
+
+        @Override
+        public void write(BanIn b) throws IOException {
+            for (Page page : b.pages()) {
+                writer.addPage(page);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    /**
+     * File ZIP, mỗi hóa đơn một file PDF.
+     */
+    private static final class ZipSink implements BatchSink {
+
+        private final ZipOutputStream zip;
+
+        ZipSink(OutputStream out) {
+            this.zip = new ZipOutputStream(out);
+            // Nội dung PDF đã nén Flate, nén lại chỉ tốn CPU
+            this.zip.setLevel(Deflater.BEST_SPEED);
+        }
+
+        @Override
+        public void write(BanIn b) throws IOException {
+            zip.putNextEntry(new ZipEntry(b.tenFile()));
+            zip.write(b.pdf());
+            zip.closeEntry();
+        }
+
+        @Override
+        public void close() throws IOException {
+            zip.finish();
+            zip.flush();
+        }
+    }
+
+    // ===== Helpers =====
+
+    private HoaDonIn load(Integer idHoaDon) {
+        return renderRepo.findHoaDon(idHoaDon)
+            .orElseThrow(() -> new ResourceNotFoundException("Không tìm thấy hóa đơn với ID: " + idHoaDon));
+    }
+
+    private static Map<String, Object> toModel(HoaDonIn hd) {
+        BigDecimal tongTien = hd.tongTien() != null ? hd.tongTien() : BigDecimal.ZERO;
+        BigDecimal daDong = hd.daDong() != null ? hd.daDong() : BigDecimal.ZERO;
+
+        List<Map<String, Object>> dong = new ArrayList<>(hd.dong().size());
+        int stt = 1;
+        for (DongIn d : hd.dong()) {
+            Map<String, Object> m = new HashMap<>();
+            m.put("stt", stt++);
+            m.put("tenLoaiPhi", d.tenLoaiPhi());
+            m.put("soLuong", formatSoLuong(d));
+            m.put("donGia", formatCurrency(d.donGia()));
+            m.put("thanhTien", formatCurrency(d.thanhTien()));
+            dong.add(m);
+        }
+
+        Map<String, Object> model = new HashMap<>();
+        model.put("toaNha", hd.tenToaNha());
+        model.put("maHoaDon", maHoaDon(hd.hoaDonId()));
+        model.put("maHo", hd.maHoGiaDinh());
+        model.put("chuHo", hd.chuHo());
+        model.put("canHo", hd.soCanHo());
+        model.put("dotThu", hd.tenDotThu());
+        model.put("ngayTao", formatNgay(hd.ngayTao()));
+        model.put("dong", dong);
+        model.put("tongTien", formatCurrency(tongTien));
+        model.put("daDong", formatCurrency(daDong));
+        model.put("conNo", formatCurrency(tongTien.subtract(daDong)));
+        model.put("trangThai", BangKeExportService.trangThaiLabel(hd.trangThai()));
+        return model;
+    }
+
+    static String maHoaDon(int hoaDonId) {
+        return String.format("HD%06d", hoaDonId);
+    }
+
+    static String formatNgay(LocalDateTime value) {
+        return value != null ? value.format(NGAY_TAO) : "";
+    }
+
+    /**
+     * Số lượng + đơn vị tính: bỏ phần thập phân ".0" (12.0 kWh -> 12 kWh).
+     */
+    static String formatSoLuong(DongIn d) {
+        if (d.soLuong() == null) return "";
+        String soLuong = BigDecimal.valueOf(d.soLuong()).stripTrailingZeros().toPlainString();
+        return d.donViTinh() != null ? soLuong + " " + d.donViTinh() : soLuong;
     }
 
-    private String formatCurrency(BigDecimal amount) {
+    private static String formatCurrency(BigDecimal amount) {
         if (amount == null) return "0 đ";
         return String.format("%,d đ", amount.longValue());
     }
 }
-
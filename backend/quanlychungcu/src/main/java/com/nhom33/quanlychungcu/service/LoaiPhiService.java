@@ -41,13 +41,18 @@ public class LoaiPhiService {
     private final BangGiaDichVuRepository bangGiaRepo;
     private final UserAccountRepository userRepo;
     private final SecurityHelper securityHelper;
+    private final DonGiaCache donGiaCache;
+    private final DonGiaRecalcJob donGiaRecalcJob;
 
     public LoaiPhiService(LoaiPhiRepository repo, BangGiaDichVuRepository bangGiaRepo, 
-                          UserAccountRepository userRepo, SecurityHelper securityHelper) {
+                          UserAccountRepository userRepo, SecurityHelper securityHelper,
+                          DonGiaCache donGiaCache, DonGiaRecalcJob donGiaRecalcJob) {
         this.repo = repo;
         this.bangGiaRepo = bangGiaRepo;
         this.userRepo = userRepo;
         this.securityHelper = securityHelper;
+        this.donGiaCache = donGiaCache;
+        this.donGiaRecalcJob = donGiaRecalcJob;
     }
     
     // ===== Multi-tenancy helper methods =====
@@ -133,6 +138,7 @@ public class LoaiPhiService {
         // Kiểm tra quyền
         checkFeeManagePermission(exist);
         
+        BigDecimal donGiaCu = exist.getDonGia();
         exist.setTenLoaiPhi(updated.getTenLoaiPhi());
         exist.setDonGia(updated.getDonGia());
         exist.setDonViTinh(updated.getDonViTinh());
@@ -141,7 +147,8 @@ public class LoaiPhiService {
         exist.setDangHoatDong(updated.getDangHoatDong());
         // Không thay đổi nguoiQuanLy
         
-        return repo.save(exist);
+        donGiaCache.evictLoaiPhi(id);
+        return saveAndRecalculate(exist, donGiaCu);
     }
 
     /**
@@ -155,13 +162,15 @@ public class LoaiPhiService {
         // Kiểm tra quyền
         checkFeeManagePermission(exist);
         
+        BigDecimal donGiaCu = exist.getDonGia();
         exist.setTenLoaiPhi(dto.getTenLoaiPhi());
         exist.setDonGia(dto.getDonGia());
         exist.setDonViTinh(dto.getDonViTinh());
         exist.setLoaiThu(dto.getLoai());
         exist.setMoTa(dto.getMoTa());
         
-        return repo.save(exist);
+        donGiaCache.evictLoaiPhi(id);
+        return saveAndRecalculate(exist, donGiaCu);
     }
 
     /**
@@ -175,8 +184,26 @@ public class LoaiPhiService {
         // Kiểm tra quyền
         checkFeeManagePermission(exist);
         
+        BigDecimal donGiaCu = exist.getDonGia();
         exist.setDonGia(donGia);
-        return repo.save(exist);
+        donGiaCache.evictLoaiPhi(id);
+        return saveAndRecalculate(exist, donGiaCu);
+    }
+
+    /**
+     * Lưu loại phí; nếu giá mặc định đổi thì xếp job tính lại hóa đơn của các đợt thu chưa kết thúc
+     * sau khi commit (tòa nhà có bảng giá riêng không bị ảnh hưởng).
+     */
+    private LoaiPhi saveAndRecalculate(LoaiPhi loaiPhi, BigDecimal donGiaCu) {
+        BigDecimal donGiaMoi = loaiPhi.getDonGia();
+        boolean doiGia = donGiaCu == null ? donGiaMoi != null
+            : donGiaMoi == null || donGiaCu.compareTo(donGiaMoi) != 0;
+        if (!doiGia) {
+            return repo.save(loaiPhi);
+        }
+        LoaiPhi saved = repo.save(loaiPhi);
+        donGiaRecalcJob.schedule(saved.getId());
+        return saved;
     }
 
     // ===== DELETE =====
@@ -197,6 +224,7 @@ public class LoaiPhiService {
         bangGiaRepo.deleteByLoaiPhiId(id);
         
         repo.deleteById(id);
+        donGiaCache.evictLoaiPhi(id);
     }
 
     /**
@@ -212,6 +240,7 @@ public class LoaiPhiService {
         checkFeeManagePermission(exist);
         
         exist.setDangHoatDong(false);
+        donGiaCache.evictLoaiPhi(id);
         return repo.save(exist);
     }
 
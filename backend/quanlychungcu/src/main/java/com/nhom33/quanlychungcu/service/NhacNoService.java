@@ -0,0 +1,206 @@
+package com.nhom33.quanlychungcu.service;
+
+import com.nhom33.quanlychungcu.exception.ResourceNotFoundException;
+import com.nhom33.quanlychungcu.repository.BangKeRepository;
+import com.nhom33.quanlychungcu.repository.BangKeRepository.KyThuRow;
+import com.nhom33.quanlychungcu.repository.EmailOutboxRepository;
+import com.nhom33.quanlychungcu.repository.EmailOutboxRepository.EmailWrite;
+import com.nhom33.quanlychungcu.repository.NhacNoRepository;
+import com.nhom33.quanlychungcu.repository.NhacNoRepository.CongNoHo;
+import com.nhom33.quanlychungcu.repository.NhacNoRepository.ThongBaoWrite;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Service: Nhắc nợ theo từng hộ.
+ *
+ * - Hộ còn nợ tìm bằng MỘT câu GROUP BY trên HoaDon (NhacNoRepository.findHoConNo),
+ *   không tính công nợ từng hộ trong Java
+ * - Mỗi hộ nhận một ThongBao riêng (ID_HoGiaDinh) + một email nếu có địa chỉ;
+ *   thông báo và email đều ghi bằng JDBC batch, email gửi ở nền qua EmailOutbox
+ * - Hộ đã được nhắc trong app.reminder.min-interval-days ngày gần nhất thì bỏ qua
+ * - Chạy tay theo đợt thu / tòa nhà, hoặc tự động theo app.reminder.cron (toàn hệ thống)
+ */
+@Service
+public class NhacNoService {
+
+    private static final Logger log = LoggerFactory.getLogger(NhacNoService.class);
+    private static final DateTimeFormatter NGAY = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+    private static final String HE_THONG = "Hệ thống";
+
+    private final NhacNoRepository nhacNoRepo;
+    private final EmailOutboxRepository emailRepo;
+    private final BangKeRepository bangKeRepo;
+    private final SecurityHelper securityHelper;
+    private final ApplicationEventPublisher eventPublisher;
+    private final BigDecimal toiThieu;
+    private final int khoangCachNgay;
+    private final boolean guiEmail;
+
+    public NhacNoService(NhacNoRepository nhacNoRepo,
+                         EmailOutboxRepository emailRepo,
+                         BangKeRepository bangKeRepo,
+                         SecurityHelper securityHelper,
+                         ApplicationEventPublisher eventPublisher,
+                         @Value("${app.reminder.min-debt:0}") BigDecimal toiThieu,
+                         @Value("${app.reminder.min-interval-days:7}") int khoangCachNgay,
+                         @Value("${app.reminder.email:true}") boolean guiEmail) {
+        this.nhacNoRepo = nhacNoRepo;
+        this.emailRepo = emailRepo;
+        this.bangKeRepo = bangKeRepo;
+        this.securityHelper = securityHelper;
+        this.eventPublisher = eventPublisher;
+        this.toiThieu = toiThieu;
+        this.khoangCachNgay = khoangCachNgay;
+        this.guiEmail = guiEmail;
+    }
+
+    /**
+     * Kết quả một lần nhắc nợ.
+     *
+     * @param emailBatchId đợt gửi email (theo dõi tiến độ qua /api/notification/email-batch), null nếu không gửi
+     */
+    public record KetQuaNhacNo(int soHo, BigDecimal tongNo, int soThongBao, int soEmail, int soKhongCoEmail,
+                               Long emailBatchId) {}
+
+    // ===== Public API =====
+
+    /**
+     * Nhắc các hộ còn nợ của một đợt thu.
+     */
+    @Transactional
+    public KetQuaNhacNo nhacNoDotThu(Integer dotThuId) {
+        KyThuRow dotThu = getDotThu(dotThuId);
+        checkManage(dotThu.toaNhaId());
+        return nhacNo(dotThuId, dotThu.toaNhaId(), dotThu.tenDotThu(), securityHelper.getCurrentUser().getUsername());
+    }
+
+    /**
+     * Nhắc các hộ còn nợ (mọi đợt thu) của một tòa nhà.
+     */
+    @Transactional
+    public KetQuaNhacNo nhacNoToaNha(Integer toaNhaId) {
+        checkManage(toaNhaId);
+        return nhacNo(null, toaNhaId, null, securityHelper.getCurrentUser().getUsername());
+    }
+
+    /**
+     * Danh sách hộ sẽ được nhắc (không ghi gì).
+     */
+    public List<CongNoHo> xemTruoc(Integer dotThuId, Integer toaNhaId) {
+        if (dotThuId != null) {
+            KyThuRow dotThu = getDotThu(dotThuId);
+            checkManage(dotThu.toaNhaId());
+            return nhacNoRepo.findHoConNo(dotThuId, dotThu.toaNhaId(), toiThieu, boQuaTu());
+        }
+        if (toaNhaId == null) {
+            throw new IllegalArgumentException("Cần truyền dotThuId hoặc toaNhaId");
+        }
+        checkManage(toaNhaId);
+        return nhacNoRepo.findHoConNo(null, toaNhaId, toiThieu, boQuaTu());
+    }
+
+    /**
+     * Job định kỳ: nhắc mọi hộ còn nợ trong hệ thống ("-" = tắt).
+     * Nhiều instance cùng lịch: chỉ instance giữ được khóa DB chạy, các instance khác bỏ qua lần này.
+     */
+    @Scheduled(cron = "${app.reminder.cron:-}")
+    @Transactional
+    public void chayTheoLich() {
+        if (!nhacNoRepo.tryKhoaChayTheoLich()) {
+            log.info("Nhắc nợ định kỳ: instance khác đang chạy, bỏ qua");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        KetQuaNhacNo kq = nhacNo(null, null, null, HE_THONG);
+        log.info("Nhắc nợ định kỳ: {} hộ, tổng nợ {}, {} email (batch {}) trong {} ms",
+            kq.soHo(), kq.tongNo(), kq.soEmail(), kq.emailBatchId(), System.currentTimeMillis() - start);
+    }
+
+    // ===== Xử lý =====
+
+    private KetQuaNhacNo nhacNo(Integer dotThuId, Integer toaNhaId, String tenDotThu, String nguoiTao) {
+        List<CongNoHo> dsHo = nhacNoRepo.findHoConNo(dotThuId, toaNhaId, toiThieu, boQuaTu());
+        if (dsHo.isEmpty()) {
+            return new KetQuaNhacNo(0, BigDecimal.ZERO, 0, 0, 0, null);
+        }
+
+        String tieuDe = tenDotThu != null ? "Nhắc nợ phí chung cư - " + tenDotThu : "Nhắc nợ phí chung cư";
+        List<ThongBaoWrite> thongBao = new ArrayList<>(dsHo.size());
+        List<EmailWrite> emails = new ArrayList<>(dsHo.size());
+        BigDecimal tongNo = BigDecimal.ZERO;
+        for (CongNoHo ho : dsHo) {
+            String noiDung = noiDung(ho, tenDotThu);
+            thongBao.add(new ThongBaoWrite(ho.toaNhaId(), ho.hoGiaDinhId(), tieuDe, noiDung, nguoiTao));
+            if (ho.email() != null && !ho.email().isBlank()) {
+                emails.add(new EmailWrite(ho.email().trim(), tieuDe, noiDung));
+            }
+            tongNo = tongNo.add(ho.tongNo());
+        }
+
+        int soThongBao = nhacNoRepo.insertThongBao(thongBao);
+
+        Long batchId = null;
+        if (guiEmail && !emails.isEmpty()) {
+            batchId = emailRepo.taoBatch(EmailOutboxRepository.LOAI_NHAC_NO, dotThuId, nguoiTao);
+            emailRepo.enqueueBatch(batchId, emails, dsHo.size() - emails.size());
+            eventPublisher.publishEvent(new EmailOutboxWorker.CoEmailMoi(batchId));
+        }
+
+        return new KetQuaNhacNo(dsHo.size(), tongNo, soThongBao, batchId != null ? emails.size() : 0,
+            dsHo.size() - emails.size(), batchId);
+    }
+
+    private static String noiDung(CongNoHo ho, String tenDotThu) {
+        StringBuilder sb = new StringBuilder(320);
+        sb.append("Kính gửi ").append(ho.chuHo() != null ? ho.chuHo() : "Quý cư dân").append(",\n\n");
+        sb.append("Ban quản lý xin thông báo hộ ").append(ho.maHoGiaDinh()).append(" hiện còn nợ ")
+          .append(String.format("%,d đ", ho.tongNo().longValue()));
+        if (tenDotThu != null) {
+            sb.append(" của đợt thu ").append(tenDotThu);
+        } else {
+            sb.append(" (").append(ho.soHoaDon()).append(" hóa đơn");
+            if (ho.hanSomNhat() != null) {
+                sb.append(", hạn sớm nhất ").append(ho.hanSomNhat().format(NGAY));
+            }
+            sb.append(')');
+        }
+        sb.append(".\n\nVui lòng thanh toán sớm để tránh phát sinh phí trễ hạn.\n");
+        sb.append("Nếu đã thanh toán, xin vui lòng bỏ qua thông báo này.\n\n");
+        sb.append("Trân trọng,\nBan quản lý");
+        return sb.toString();
+    }
+
+    // ===== Helpers =====
+
+    private LocalDateTime boQuaTu() {
+        return khoangCachNgay > 0 ? LocalDateTime.now().minusDays(khoangCachNgay) : null;
+    }
+
+    private KyThuRow getDotThu(Integer dotThuId) {
+        KyThuRow dotThu = bangKeRepo.findKyThu(List.of(dotThuId)).stream().findFirst()
+            .orElseThrow(() -> new ResourceNotFoundException("Không tìm thấy đợt thu với ID: " + dotThuId));
+        if (dotThu.toaNhaId() == null) {
+            throw new IllegalStateException("Đợt thu chưa được gán tòa nhà");
+        }
+        return dotThu;
+    }
+
+    private void checkManage(Integer toaNhaId) {
+        if (!securityHelper.canManageBuilding(toaNhaId)) {
+            throw new AccessDeniedException("Bạn không có quyền nhắc nợ cho tòa nhà này");
+        }
+    }
+}
@@ -1,27 +1,44 @@
 package com.nhom33.quanlychungcu.service;
 
+import com.nhom33.quanlychungcu.dto.NhanKhauListDTO;
 import com.nhom33.quanlychungcu.entity.HoGiaDinh;
 import com.nhom33.quanlychungcu.entity.NhanKhau;
 import com.nhom33.quanlychungcu.exception.ResourceNotFoundException;
+import com.nhom33.quanlychungcu.exception.ServiceUnavailableException;
+import com.nhom33.quanlychungcu.repository.CuDanSearchRepository.NhanKhauRow;
 import com.nhom33.quanlychungcu.repository.HoGiaDinhRepository;
+import com.nhom33.quanlychungcu.repository.KeysetRepository;
 import com.nhom33.quanlychungcu.repository.NhanKhauRepository;
+import com.nhom33.quanlychungcu.util.KeysetCursor;
+import com.nhom33.quanlychungcu.util.KeysetPage;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.lang.NonNull;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
 
 @Service
 public class NhanKhauService {
 
     private final NhanKhauRepository repo;
     private final HoGiaDinhRepository hoGiaDinhRepo;
+    private final CuDanSearchIndex searchIndex;
+    private final SecurityHelper securityHelper;
+    private final KeysetRepository keysetRepo;
 
-    public NhanKhauService(NhanKhauRepository repo, HoGiaDinhRepository hoGiaDinhRepo) {
+    public NhanKhauService(NhanKhauRepository repo, HoGiaDinhRepository hoGiaDinhRepo,
+                           CuDanSearchIndex searchIndex, SecurityHelper securityHelper,
+                           KeysetRepository keysetRepo) {
         this.repo = repo;
         this.hoGiaDinhRepo = hoGiaDinhRepo;
+        this.searchIndex = searchIndex;
+        this.securityHelper = securityHelper;
+        this.keysetRepo = keysetRepo;
     }
 
     @Transactional
@@ -60,7 +77,9 @@ public class NhanKhauService {
             }
         }
 
-        return repo.save(nhanKhau);
+        NhanKhau saved = repo.save(nhanKhau);
+        searchIndex.luuNhanKhau(saved);
+        return saved;
     }
 
     @Transactional
@@ -104,7 +123,9 @@ public class NhanKhauService {
         exist.setNgayChuyenDen(updated.getNgayChuyenDen());
         exist.setTrangThai(updated.getTrangThai());
 
-        return repo.save(exist);
+        NhanKhau saved = repo.save(exist);
+        searchIndex.luuNhanKhau(saved);
+        return saved;
     }
 
     @Transactional
@@ -120,6 +141,7 @@ public class NhanKhauService {
         }
 
         repo.deleteById(id);
+        searchIndex.xoaNhanKhau(id);
     }
 
     public NhanKhau getById(@NonNull Integer id) {
@@ -132,24 +154,74 @@ public class NhanKhauService {
             .orElseThrow(() -> new ResourceNotFoundException("Không tìm thấy nhân khẩu với CCCD: " + soCCCD));
     }
 
-    public Page<NhanKhau> findAll(@NonNull Pageable pageable) {
-        return repo.findAll(pageable);
+    public Page<NhanKhauListDTO> findAll(@NonNull Pageable pageable) {
+        return repo.findAllList(pageable);
     }
 
-    public List<NhanKhau> findByHoGiaDinh(@NonNull Integer idHoGiaDinh) {
-        return repo.findByHoGiaDinhId(idHoGiaDinh);
+    /**
+     * Danh sách nhân khẩu theo con trỏ, sắp theo ID hoặc (họ tên, ID).
+     *
+     * @param sortBy "id" hoặc "hoTen"
+     */
+    public KeysetPage<NhanKhauListDTO> seek(String sortBy, String cursor, int size, boolean approxTotal) {
+        int limit = KeysetPage.clampSize(size);
+        boolean theoHoTen = "hoTen".equalsIgnoreCase(sortBy);
+        String loai = theoHoTen ? "nhan-khau.hoTen" : "nhan-khau";
+        KeysetCursor after = KeysetCursor.decode(cursor, loai);
+        Long tong = approxTotal ? keysetRepo.approxRowCount("NhanKhau") : null;
+        return KeysetPage.of(keysetRepo.seekNhanKhau(theoHoTen, after, limit),
+            limit, loai, tong, repo::findListByIds, NhanKhauListDTO::id);
     }
 
-    public Page<NhanKhau> searchByHoTen(String hoTen, @NonNull Pageable pageable) {
+    public List<NhanKhauListDTO> findByHoGiaDinh(@NonNull Integer idHoGiaDinh) {
+        return repo.findListByHoGiaDinhId(idHoGiaDinh);
+    }
+
+    public Page<NhanKhauListDTO> searchByHoTen(String hoTen, @NonNull Pageable pageable) {
         if (hoTen == null || hoTen.isBlank()) {
-            return repo.findAll(pageable);
+            return repo.findAllList(pageable);
+        }
+        if (searchIndex.isSanSang() && CuDanSearchIndex.sapXepDuocNhanKhau(pageable.getSort())) {
+            return toPage(searchIndex.timNhanKhau(hoTen, null, pageable.getSort()), pageable);
         }
-        return repo.findByHoTenContainingIgnoreCase(hoTen, pageable);
+        return repo.searchList(hoTen, null, null, null, null, pageable);
     }
 
-    public Page<NhanKhau> search(String hoTen, String soCCCD, String gioiTinh, 
+    /**
+     * Tìm kiếm đa điều kiện. Có họ tên -> tìm trên chỉ mục (không dấu, theo tiền tố từng từ),
+     * các điều kiện còn lại lọc ngay trên chỉ mục; DB chỉ nạp các bản ghi của trang.
+     * Sắp xếp theo thuộc tính không có trong chỉ mục -> truy vấn DB.
+     */
+    public Page<NhanKhauListDTO> search(String hoTen, String soCCCD, String gioiTinh, 
                                   String trangThai, Integer idHoGiaDinh, @NonNull Pageable pageable) {
-        return repo.search(hoTen, soCCCD, gioiTinh, trangThai, idHoGiaDinh, pageable);
+        if (hoTen != null && !hoTen.isBlank() && searchIndex.isSanSang()
+                && CuDanSearchIndex.sapXepDuocNhanKhau(pageable.getSort())) {
+            Predicate<NhanKhauRow> loc = r -> (soCCCD == null || soCCCD.equals(r.soCCCD()))
+                && (gioiTinh == null || gioiTinh.equalsIgnoreCase(r.gioiTinh()))
+                && (trangThai == null || trangThai.equalsIgnoreCase(r.trangThai()))
+                && (idHoGiaDinh == null || idHoGiaDinh == r.hoGiaDinhId());
+            return toPage(searchIndex.timNhanKhau(hoTen, loc, pageable.getSort()), pageable);
+        }
+        return repo.searchList(hoTen, soCCCD, gioiTinh, trangThai, idHoGiaDinh, pageable);
+    }
+
+    /**
+     * Gợi ý khi gõ (họ tên hoặc số CCCD), chỉ trong các tòa nhà user được truy cập.
+     */
+    public List<NhanKhauRow> goiY(String q, int limit) {
+        if (!searchIndex.isSanSang()) {
+            throw new ServiceUnavailableException("Chỉ mục tìm kiếm đang được nạp, vui lòng thử lại sau");
+        }
+        Predicate<NhanKhauRow> loc = null;
+        if (!securityHelper.canViewAll()) {
+            Set<Integer> toaNhaIds = new HashSet<>(securityHelper.getAccessibleBuildingIds());
+            loc = r -> toaNhaIds.contains(r.toaNhaId());
+        }
+        return searchIndex.goiYNhanKhau(q, loc, Math.max(1, Math.min(limit, 50)));
+    }
+
+    private Page<NhanKhauListDTO> toPage(int[] ids, Pageable pageable) {
+        return CuDanSearchIndex.toPage(ids, pageable, repo::findListByIds, NhanKhauListDTO::id);
     }
 
     public long countByHoGiaDinh(@NonNull Integer idHoGiaDinh) {
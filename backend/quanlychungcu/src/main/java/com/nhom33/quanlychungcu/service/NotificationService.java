@@ -7,14 +7,14 @@ import com.nhom33.quanlychungcu.entity.ToaNha;
 import com.nhom33.quanlychungcu.exception.ResourceNotFoundException;
 import com.nhom33.quanlychungcu.repository.HoGiaDinhRepository;
 import com.nhom33.quanlychungcu.repository.HoaDonRepository;
+import com.nhom33.quanlychungcu.repository.KeysetRepository;
 import com.nhom33.quanlychungcu.repository.ThongBaoRepository;
 import com.nhom33.quanlychungcu.repository.ToaNhaRepository;
-import org.springframework.beans.factory.annotation.Value;
+import com.nhom33.quanlychungcu.util.KeysetCursor;
+import com.nhom33.quanlychungcu.util.KeysetPage;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
-import org.springframework.mail.SimpleMailMessage;
-import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -40,30 +40,24 @@ public class NotificationService {
     private final HoaDonRepository hoaDonRepo;
     private final HoGiaDinhRepository hoGiaDinhRepo;
     private final ToaNhaRepository toaNhaRepo;
-    private final JavaMailSender mailSender;
-    private final InvoiceService invoiceService;
+    private final EmailDispatchService emailDispatchService;
     private final SecurityHelper securityHelper;
-
-    @Value("${spring.mail.username:}")
-    private String fromEmail;
-
-    @Value("${app.notification.enabled:false}")
-    private boolean emailEnabled;
+    private final KeysetRepository keysetRepo;
 
     public NotificationService(ThongBaoRepository thongBaoRepo,
                               HoaDonRepository hoaDonRepo,
                               HoGiaDinhRepository hoGiaDinhRepo,
                               ToaNhaRepository toaNhaRepo,
-                              JavaMailSender mailSender,
-                              InvoiceService invoiceService,
-                              SecurityHelper securityHelper) {
+                              EmailDispatchService emailDispatchService,
+                              SecurityHelper securityHelper,
+                              KeysetRepository keysetRepo) {
         this.thongBaoRepo = thongBaoRepo;
         this.hoaDonRepo = hoaDonRepo;
         this.hoGiaDinhRepo = hoGiaDinhRepo;
         this.toaNhaRepo = toaNhaRepo;
-        this.mailSender = mailSender;
-        this.invoiceService = invoiceService;
+        this.emailDispatchService = emailDispatchService;
         this.securityHelper = securityHelper;
+        this.keysetRepo = keysetRepo;
     }
 
     /**
@@ -120,6 +114,25 @@ public class NotificationService {
         return thongBaoRepo.findByToaNhaIdIn(toaNhaIds, pageable);
     }
 
+    /**
+     * Như findAll nhưng phân trang theo con trỏ (mới nhất trước).
+     */
+    public KeysetPage<ThongBao> seek(String cursor, int size, boolean approxTotal) {
+        int limit = KeysetPage.clampSize(size);
+        KeysetCursor after = KeysetCursor.decode(cursor, "thong-bao");
+
+        List<Integer> toaNhaIds = null;
+        if (!securityHelper.canViewAll()) {
+            toaNhaIds = securityHelper.getAccessibleBuildingIds();
+            if (toaNhaIds.isEmpty()) {
+                return KeysetPage.empty(limit);
+            }
+        }
+        Long tong = approxTotal && toaNhaIds == null ? keysetRepo.approxRowCount("ThongBao") : null;
+        return KeysetPage.of(keysetRepo.seekThongBao(toaNhaIds, after, limit),
+            limit, "thong-bao", tong, thongBaoRepo::findAllById, ThongBao::getId);
+    }
+
     /**
      * Tìm kiếm thông báo.
      */
@@ -200,64 +213,20 @@ public class NotificationService {
     }
 
     /**
-     * Gửi email
-     */
-    private void sendEmail(String to, String subject, String content) {
-        if (!emailEnabled || fromEmail == null || fromEmail.isEmpty()) {
-            System.out.println("Email không được bật hoặc chưa cấu hình. Nội dung:");
-            System.out.println("To: " + to);
-            System.out.println("Subject: " + subject);
-            System.out.println("Content: " + content);
-            return;
-        }
-
-        try {
-            SimpleMailMessage message = new SimpleMailMessage();
-            message.setFrom(fromEmail);
-            message.setTo(to);
-            message.setSubject(subject);
-            message.setText(content);
-            mailSender.send(message);
-        } catch (Exception e) {
-            throw new RuntimeException("Lỗi gửi email: " + e.getMessage(), e);
-        }
-    }
-
-    /**
-     * Gửi hóa đơn qua email
+     * Gửi hóa đơn qua email: đưa vào hàng đợi gửi, worker nền render HTML + PDF và gửi SMTP.
+     *
+     * @return ID email trong hàng đợi
      */
     @Transactional
-    public void sendInvoiceByEmail(Integer idHoaDon) {
+    public long sendInvoiceByEmail(Integer idHoaDon) {
         HoaDon hoaDon = hoaDonRepo.findById(idHoaDon)
-            .orElseThrow(() -> new RuntimeException("Không tìm thấy hóa đơn"));
+            .orElseThrow(() -> new ResourceNotFoundException("Không tìm thấy hóa đơn với ID: " + idHoaDon));
 
         HoGiaDinh hoGiaDinh = hoaDon.getHoGiaDinh();
-        if (hoGiaDinh.getEmailLienHe() == null || hoGiaDinh.getEmailLienHe().isEmpty()) {
-            throw new RuntimeException("Hộ gia đình chưa có email");
+        if (hoGiaDinh.getEmailLienHe() == null || hoGiaDinh.getEmailLienHe().isBlank()) {
+            throw new IllegalStateException("Hộ gia đình chưa có email");
         }
 
-        String subject = "Hóa đơn thanh toán #" + hoaDon.getId();
-        String htmlContent = invoiceService.generateInvoiceHtml(idHoaDon);
-
-        // TODO: Gửi email với HTML content và PDF đính kèm
-        // Hiện tại chỉ gửi text
-        String textContent = String.format(
-            "Kính gửi %s,\n\n" +
-            "Hệ thống gửi quý khách hóa đơn thanh toán:\n\n" +
-            "Mã hóa đơn: HD%06d\n" +
-            "Đợt thu: %s\n" +
-            "Tổng tiền: %,.0f VNĐ\n\n" +
-            "Vui lòng xem chi tiết trong file đính kèm.\n\n" +
-            "Trân trọng,\nBan quản lý chung cư Blue Moon",
-            hoGiaDinh.getTenChuHo(),
-            hoaDon.getId(),
-            hoaDon.getDotThu().getTenDotThu(),
-            hoaDon.getTongTienPhaiThu().doubleValue()
-        );
-
-        if (emailEnabled) {
-            sendEmail(hoGiaDinh.getEmailLienHe(), subject, textContent);
-        }
+        return emailDispatchService.guiHoaDon(hoaDon.getId(), hoGiaDinh.getEmailLienHe());
     }
 }
-
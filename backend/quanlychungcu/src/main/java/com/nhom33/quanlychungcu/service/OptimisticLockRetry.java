@@ -0,0 +1,68 @@
+package com.nhom33.quanlychungcu.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Chạy một thao tác ghi trong transaction riêng, tự chạy lại khi xung đột optimistic lock (@Version).
+ *
+ * Mỗi lần thử là một transaction mới (đọc lại hóa đơn), nghỉ ngắn có jitter giữa các lần
+ * để các request đồng thời trên cùng hóa đơn không đụng nhau lần nữa.
+ * Nếu đã ở trong transaction của caller thì chỉ chạy một lần: không thể rollback riêng phần này.
+ */
+@Component
+public class OptimisticLockRetry {
+
+    private static final Logger log = LoggerFactory.getLogger(OptimisticLockRetry.class);
+
+    private final TransactionTemplate transactionTemplate;
+    private final int maxAttempts;
+    private final long backoffMs;
+
+    public OptimisticLockRetry(PlatformTransactionManager transactionManager,
+                               @Value("${app.payment.retry.max-attempts:4}") int maxAttempts,
+                               @Value("${app.payment.retry.backoff-ms:20}") long backoffMs) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMs = backoffMs;
+    }
+
+    /**
+     * @throws OptimisticLockingFailureException khi vẫn xung đột sau maxAttempts lần
+     */
+    public <T> T execute(Supplier<T> action) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return action.get();
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transactionTemplate.execute(status -> action.get());
+            } catch (OptimisticLockingFailureException e) {
+                if (attempt >= maxAttempts) {
+                    log.warn("Optimistic lock conflict after {} attempts: {}", attempt, e.getMessage());
+                    throw e;
+                }
+                nghi(attempt);
+            }
+        }
+    }
+
+    private void nghi(int attempt) {
+        long ms = backoffMs * attempt + ThreadLocalRandom.current().nextLong(backoffMs + 1);
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Bị ngắt khi chờ ghi lại thanh toán", ie);
+        }
+    }
+}
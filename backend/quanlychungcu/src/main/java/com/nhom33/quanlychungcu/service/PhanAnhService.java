@@ -5,10 +5,13 @@ import com.nhom33.quanlychungcu.entity.PhanHoi;
 import com.nhom33.quanlychungcu.entity.ToaNha;
 import com.nhom33.quanlychungcu.entity.UserAccount;
 import com.nhom33.quanlychungcu.exception.ResourceNotFoundException;
+import com.nhom33.quanlychungcu.repository.KeysetRepository;
 import com.nhom33.quanlychungcu.repository.PhanAnhRepository;
 import com.nhom33.quanlychungcu.repository.PhanHoiRepository;
 import com.nhom33.quanlychungcu.repository.ToaNhaRepository;
 import com.nhom33.quanlychungcu.repository.UserToaNhaRepository;
+import com.nhom33.quanlychungcu.util.KeysetCursor;
+import com.nhom33.quanlychungcu.util.KeysetPage;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
@@ -36,17 +39,20 @@ public class PhanAnhService {
     private final ToaNhaRepository toaNhaRepo;
     private final UserToaNhaRepository userToaNhaRepo;
     private final SecurityHelper securityHelper;
+    private final KeysetRepository keysetRepo;
 
     public PhanAnhService(PhanAnhRepository phanAnhRepo,
                          PhanHoiRepository phanHoiRepo,
                          ToaNhaRepository toaNhaRepo,
                          UserToaNhaRepository userToaNhaRepo,
-                         SecurityHelper securityHelper) {
+                         SecurityHelper securityHelper,
+                         KeysetRepository keysetRepo) {
         this.phanAnhRepo = phanAnhRepo;
         this.phanHoiRepo = phanHoiRepo;
         this.toaNhaRepo = toaNhaRepo;
         this.userToaNhaRepo = userToaNhaRepo;
         this.securityHelper = securityHelper;
+        this.keysetRepo = keysetRepo;
     }
 
     /**
@@ -151,6 +157,33 @@ public class PhanAnhService {
         return new PageImpl<>(new ArrayList<>(), pageable, 0);
     }
 
+    /**
+     * Như findAll nhưng phân trang theo con trỏ (mới nhất trước), cùng quy tắc phân quyền.
+     */
+    public KeysetPage<PhanAnh> seek(String cursor, int size, boolean approxTotal) {
+        int limit = KeysetPage.clampSize(size);
+        KeysetCursor after = KeysetCursor.decode(cursor, "phan-anh");
+
+        List<Integer> toaNhaIds = null;
+        Integer userId = null;
+        if (!securityHelper.canViewAll()) {
+            if (securityHelper.isManager()) {
+                toaNhaIds = securityHelper.getAccessibleBuildingIds();
+                if (toaNhaIds.isEmpty()) {
+                    return KeysetPage.empty(limit);
+                }
+            } else {
+                userId = securityHelper.getCurrentUserId();
+                if (userId == null) {
+                    return KeysetPage.empty(limit);
+                }
+            }
+        }
+        Long tong = approxTotal && securityHelper.canViewAll() ? keysetRepo.approxRowCount("PhanAnh") : null;
+        return KeysetPage.of(keysetRepo.seekPhanAnh(toaNhaIds, userId, after, limit),
+            limit, "phan-anh", tong, phanAnhRepo::findAllById, PhanAnh::getId);
+    }
+
     /**
      * Lấy phản ánh theo tòa nhà (cho Manager).
      */
@@ -1,7 +1,7 @@
 package com.nhom33.quanlychungcu.service;
 
 import com.nhom33.quanlychungcu.repository.HoaDonRepository;
-import com.nhom33.quanlychungcu.repository.DotThuRepository;
+import com.nhom33.quanlychungcu.repository.ThongKeDotThuRepository.ThongKeRow;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
@@ -14,45 +14,38 @@ import java.util.Map;
 public class ReportService {
 
     private final HoaDonRepository hoaDonRepo;
-    private final DotThuRepository dotThuRepo;
-    private final com.nhom33.quanlychungcu.repository.HoGiaDinhRepository hoGiaDinhRepo;
+    private final ThongKeDotThuService thongKeService;
 
-    public ReportService(HoaDonRepository hoaDonRepo, DotThuRepository dotThuRepo, com.nhom33.quanlychungcu.repository.HoGiaDinhRepository hoGiaDinhRepo) {
+    public ReportService(HoaDonRepository hoaDonRepo, ThongKeDotThuService thongKeService) {
         this.hoaDonRepo = hoaDonRepo;
-        this.dotThuRepo = dotThuRepo;
-        this.hoGiaDinhRepo = hoGiaDinhRepo;
+        this.thongKeService = thongKeService;
     }
 
     /**
-     * Thống kê theo đợt thu
+     * Thống kê theo đợt thu.
+     * Đọc một dòng từ bảng thống kê được duy trì sẵn (ThongKeDotThu), không quét HoaDon.
      */
     public Map<String, Object> getStatisticsByDotThu(Integer idDotThu) {
-        BigDecimal tongPhaiThu = hoaDonRepo.sumTongTienPhaiThuByDotThu(idDotThu);
-        BigDecimal tongDaThu = hoaDonRepo.sumSoTienDaDongByDotThu(idDotThu);
-        
-        if (tongPhaiThu == null) tongPhaiThu = BigDecimal.ZERO;
-        if (tongDaThu == null) tongDaThu = BigDecimal.ZERO;
+        ThongKeRow thongKe = thongKeService.getByDotThu(idDotThu);
+
+        BigDecimal tongPhaiThu = thongKe.tongPhaiThu();
+        BigDecimal tongDaThu = thongKe.tongDaThu();
         
         BigDecimal tongConNo = tongPhaiThu.subtract(tongDaThu);
-        BigDecimal tyLeHoanThanh = tongPhaiThu.compareTo(BigDecimal.ZERO) > 0
-            ? tongDaThu.multiply(BigDecimal.valueOf(100)).divide(tongPhaiThu, 2, RoundingMode.HALF_UP)
-            : BigDecimal.ZERO;
+        BigDecimal tyLeHoanThanh = tyLe(tongDaThu, tongPhaiThu);
         
-        Long soHoChuaDong = hoaDonRepo.countByDotThuAndTrangThai(idDotThu, "Chưa đóng");
-        Long soHoDangNo = hoaDonRepo.countByDotThuAndTrangThai(idDotThu, "Đang nợ");
-        Long soHoDaDong = hoaDonRepo.countByDotThuAndTrangThai(idDotThu, "Đã đóng");
-        
-        // Fix: Lấy tổng số hộ thực tế từ DB thay vì cộng các hóa đơn
-        long tongSoHo = hoGiaDinhRepo.count();
+        // Số hộ thực tế của tòa nhà (duy trì trong ThongKeDotThu khi thêm/xóa hộ), không phải số hóa đơn
+        long tongSoHo = thongKe.soHo();
         
         Map<String, Object> result = new HashMap<>();
         result.put("tongPhaiThu", tongPhaiThu);
         result.put("tongDaThu", tongDaThu);
         result.put("tongConNo", tongConNo);
         result.put("tyLeHoanThanh", tyLeHoanThanh);
-        result.put("soHoChuaDong", soHoChuaDong);
-        result.put("soHoDangNo", soHoDangNo);
-        result.put("soHoDaDong", soHoDaDong);
+        result.put("soHoChuaDong", (long) thongKe.soChuaDong());
+        result.put("soHoDangNo", (long) thongKe.soDangNo());
+        result.put("soHoDaDong", (long) thongKe.soDaDong());
+        result.put("soHoaDon", thongKe.soHoaDon());
         result.put("tongSoHo", tongSoHo);
         
         return result;
@@ -84,30 +77,18 @@ public class ReportService {
     }
 
     /**
-     * Thống kê tổng hợp theo tháng
+     * Thống kê tổng hợp theo tháng.
+     * Cộng các dòng ThongKeDotThu của đợt thu trong tháng bằng một câu SQL (không lặp từng đợt thu).
      */
     public Map<String, Object> getStatisticsByMonth(int year, int month) {
         LocalDate startDate = LocalDate.of(year, month, 1);
         LocalDate endDate = startDate.withDayOfMonth(startDate.lengthOfMonth());
         
-        // Lấy các đợt thu trong tháng
-        var dotThus = dotThuRepo.findByNgayBatDauLessThanEqualAndNgayKetThucGreaterThanEqual(endDate, startDate);
-        
-        BigDecimal tongPhaiThu = BigDecimal.ZERO;
-        BigDecimal tongDaThu = BigDecimal.ZERO;
-        
-        for (var dotThu : dotThus) {
-            BigDecimal phaiThu = hoaDonRepo.sumTongTienPhaiThuByDotThu(dotThu.getId());
-            BigDecimal daThu = hoaDonRepo.sumSoTienDaDongByDotThu(dotThu.getId());
-            
-            if (phaiThu != null) tongPhaiThu = tongPhaiThu.add(phaiThu);
-            if (daThu != null) tongDaThu = tongDaThu.add(daThu);
-        }
+        ThongKeRow thongKe = thongKeService.sumByKhoangNgay(startDate, endDate);
         
+        BigDecimal tongPhaiThu = thongKe.tongPhaiThu();
+        BigDecimal tongDaThu = thongKe.tongDaThu();
         BigDecimal tongConNo = tongPhaiThu.subtract(tongDaThu);
-        BigDecimal tyLeHoanThanh = tongPhaiThu.compareTo(BigDecimal.ZERO) > 0
-            ? tongDaThu.multiply(BigDecimal.valueOf(100)).divide(tongPhaiThu, 2, RoundingMode.HALF_UP)
-            : BigDecimal.ZERO;
         
         Map<String, Object> result = new HashMap<>();
         result.put("thang", month);
@@ -115,9 +96,26 @@ public class ReportService {
         result.put("tongPhaiThu", tongPhaiThu);
         result.put("tongDaThu", tongDaThu);
         result.put("tongConNo", tongConNo);
-        result.put("tyLeHoanThanh", tyLeHoanThanh);
+        result.put("tyLeHoanThanh", tyLe(tongDaThu, tongPhaiThu));
         
         return result;
     }
+
+    /**
+     * Xây lại toàn bộ bảng thống kê từ HoaDon.
+     */
+    public Map<String, Object> rebuildStatistics() {
+        int soDotThu = thongKeService.rebuildAll();
+        Map<String, Object> result = new HashMap<>();
+        result.put("message", "Đã xây lại thống kê");
+        result.put("soDotThu", soDotThu);
+        return result;
+    }
+
+    private static BigDecimal tyLe(BigDecimal daThu, BigDecimal phaiThu) {
+        return phaiThu.compareTo(BigDecimal.ZERO) > 0
+            ? daThu.multiply(BigDecimal.valueOf(100)).divide(phaiThu, 2, RoundingMode.HALF_UP)
+            : BigDecimal.ZERO;
+    }
 }
 
@@ -1,91 +1,123 @@
 package com.nhom33.quanlychungcu.service;
 
 import com.nhom33.quanlychungcu.entity.Role;
-import com.nhom33.quanlychungcu.entity.ToaNha;
 import com.nhom33.quanlychungcu.entity.UserAccount;
-import com.nhom33.quanlychungcu.repository.ToaNhaRepository;
+import com.nhom33.quanlychungcu.repository.ToaNhaAclRepository;
 import com.nhom33.quanlychungcu.repository.UserAccountRepository;
 import com.nhom33.quanlychungcu.repository.UserToaNhaRepository;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.function.Supplier;
 
 /**
  * Helper class để xử lý logic phân quyền Multi-Tenancy.
- * 
+ *
  * Logic phân quyền:
  * - ADMIN: Xem/quản lý tất cả dữ liệu
  * - MANAGER: Chỉ xem/quản lý dữ liệu của tòa nhà mình quản lý
  * - ACCOUNTANT: Xem tất cả (để làm báo cáo), nhưng không quản lý tòa nhà
  * - RESIDENT: Xem dữ liệu của tòa nhà được gắn vào (qua UserToaNha)
+ *
+ * HIỆU NĂNG:
+ * - User đăng nhập và danh sách tòa nhà được phép (ResolvedPrincipal) chỉ
+ *   query MỘT lần mỗi HTTP request, lưu trong request attribute
+ * - Mọi hàm kiểm tra quyền trả lời từ ResolvedPrincipal trong bộ nhớ
+ * - Ngoài HTTP request (thread nền) thì tính lại mỗi lần gọi
+ * - Với JWT stateless, id + role lấy từ claim nên không query bảng Users
  */
 @Component
 public class SecurityHelper {
 
+    private static final String ATTR_USER = SecurityHelper.class.getName() + ".USER";
+    private static final String ATTR_PRINCIPAL = SecurityHelper.class.getName() + ".PRINCIPAL";
+    private static final String ATTR_ALL_TOA_NHA = SecurityHelper.class.getName() + ".ALL_TOA_NHA";
+
     private final UserAccountRepository userRepo;
-    private final ToaNhaRepository toaNhaRepo;
+    private final ToaNhaAclRepository toaNhaAclRepo;
     private final UserToaNhaRepository userToaNhaRepo;
 
-    public SecurityHelper(UserAccountRepository userRepo, 
-                          ToaNhaRepository toaNhaRepo,
+    public SecurityHelper(UserAccountRepository userRepo,
+                          ToaNhaAclRepository toaNhaAclRepo,
                           UserToaNhaRepository userToaNhaRepo) {
         this.userRepo = userRepo;
-        this.toaNhaRepo = toaNhaRepo;
+        this.toaNhaAclRepo = toaNhaAclRepo;
         this.userToaNhaRepo = userToaNhaRepo;
     }
 
     /**
-     * Lấy user đang đăng nhập
+     * Thông tin phân quyền của user đang đăng nhập.
+     * toaNhaIds = null với ADMIN (được truy cập tất cả tòa nhà).
      */
-    public UserAccount getCurrentUser() {
-        try {
-            String username = SecurityContextHolder.getContext().getAuthentication().getName();
-            return userRepo.findByUsername(username).orElse(null);
-        } catch (Exception e) {
-            return null;
+    public record ResolvedPrincipal(Integer userId, String username, Role role, Set<Integer> toaNhaIds) {
+
+        public boolean hasRole(Role r) {
+            return role == r;
+        }
+
+        public boolean isMemberOf(Integer toaNhaId) {
+            return toaNhaIds != null && toaNhaIds.contains(toaNhaId);
         }
     }
 
+    /**
+     * Lấy user đang đăng nhập (cache theo request)
+     */
+    public UserAccount getCurrentUser() {
+        String username = currentUsername();
+        if (username == null) return null;
+        return perRequest(ATTR_USER, username, () -> userRepo.findByUsername(username).orElse(null));
+    }
+
+    /**
+     * Lấy thông tin phân quyền đã resolve của user đang đăng nhập (cache theo request).
+     */
+    public ResolvedPrincipal getPrincipal() {
+        String username = currentUsername();
+        if (username == null) return null;
+        return perRequest(ATTR_PRINCIPAL, username, () -> resolvePrincipal(authenticatedUser()));
+    }
+
     /**
      * Lấy ID của user đang đăng nhập
      */
     public Integer getCurrentUserId() {
-        UserAccount user = getCurrentUser();
-        return user != null ? user.getId() : null;
+        ResolvedPrincipal p = getPrincipal();
+        return p != null ? p.userId() : null;
     }
 
     /**
      * Kiểm tra user có phải Admin hệ thống không
      */
     public boolean isSystemAdmin() {
-        UserAccount user = getCurrentUser();
-        return user != null && user.getRole() == Role.ADMIN;
+        return hasRole(Role.ADMIN);
     }
 
     /**
      * Kiểm tra user có phải Manager không
      */
     public boolean isManager() {
-        UserAccount user = getCurrentUser();
-        return user != null && user.getRole() == Role.MANAGER;
+        return hasRole(Role.MANAGER);
     }
 
     /**
      * Kiểm tra user có phải Accountant không
      */
     public boolean isAccountant() {
-        UserAccount user = getCurrentUser();
-        return user != null && user.getRole() == Role.ACCOUNTANT;
+        return hasRole(Role.ACCOUNTANT);
     }
 
     /**
      * Kiểm tra user có phải Resident không
      */
     public boolean isResident() {
-        UserAccount user = getCurrentUser();
-        return user != null && user.getRole() == Role.RESIDENT;
+        return hasRole(Role.RESIDENT);
     }
 
     /**
@@ -94,8 +126,7 @@ public class SecurityHelper {
      * - ACCOUNTANT: Kế toán, cần xem tất cả để làm báo cáo
      */
     public boolean canViewAll() {
-        UserAccount user = getCurrentUser();
-        return user != null && (user.getRole() == Role.ADMIN || user.getRole() == Role.ACCOUNTANT);
+        return hasRole(Role.ADMIN) || hasRole(Role.ACCOUNTANT);
     }
 
     /**
@@ -105,32 +136,18 @@ public class SecurityHelper {
      * - ACCOUNTANT/RESIDENT: Tòa nhà được gắn vào (qua UserToaNha)
      */
     public List<Integer> getAccessibleBuildingIds() {
-        UserAccount user = getCurrentUser();
-        
-        if (user == null) {
+        ResolvedPrincipal p = getPrincipal();
+
+        if (p == null) {
             return List.of();
         }
 
         // Admin xem tất cả
-        if (user.getRole() == Role.ADMIN) {
-            return toaNhaRepo.findAll().stream()
-                .map(ToaNha::getId)
-                .collect(Collectors.toList());
-        }
-
-        // Manager xem tòa nhà mình sở hữu/quản lý
-        if (user.getRole() == Role.MANAGER) {
-            return toaNhaRepo.findByNguoiQuanLyId(user.getId()).stream()
-                .map(ToaNha::getId)
-                .collect(Collectors.toList());
-        }
-
-        // ACCOUNTANT/RESIDENT xem tòa nhà được gắn vào (qua UserToaNha)
-        if (user.getRole() == Role.ACCOUNTANT || user.getRole() == Role.RESIDENT) {
-            return userToaNhaRepo.findToaNhaIdsByUserId(user.getId());
+        if (p.hasRole(Role.ADMIN)) {
+            return perRequest(ATTR_ALL_TOA_NHA, p.username(), toaNhaAclRepo::findAllIds);
         }
 
-        return List.of();
+        return p.toaNhaIds() != null ? new ArrayList<>(p.toaNhaIds()) : List.of();
     }
 
     /**
@@ -138,28 +155,17 @@ public class SecurityHelper {
      */
     public boolean canAccessBuilding(Integer toaNhaId) {
         if (toaNhaId == null) return false;
-        
-        UserAccount user = getCurrentUser();
-        if (user == null) return false;
+
+        ResolvedPrincipal p = getPrincipal();
+        if (p == null) return false;
 
         // Admin truy cập tất cả
-        if (user.getRole() == Role.ADMIN) {
+        if (p.hasRole(Role.ADMIN)) {
             return true;
         }
 
-        // Manager chỉ truy cập tòa nhà mình sở hữu
-        if (user.getRole() == Role.MANAGER) {
-            return toaNhaRepo.findById(toaNhaId)
-                .map(t -> t.getNguoiQuanLy() != null && t.getNguoiQuanLy().getId().equals(user.getId()))
-                .orElse(false);
-        }
-
-        // ACCOUNTANT/RESIDENT truy cập tòa nhà được gắn vào (qua UserToaNha)
-        if (user.getRole() == Role.ACCOUNTANT || user.getRole() == Role.RESIDENT) {
-            return userToaNhaRepo.existsByUserIdAndToaNhaId(user.getId(), toaNhaId);
-        }
-
-        return false;
+        // Manager: tòa nhà mình sở hữu; ACCOUNTANT/RESIDENT: tòa nhà được gắn vào
+        return p.isMemberOf(toaNhaId);
     }
 
     /**
@@ -169,22 +175,81 @@ public class SecurityHelper {
      */
     public boolean canManageBuilding(Integer toaNhaId) {
         if (toaNhaId == null) return false;
-        
-        UserAccount user = getCurrentUser();
-        if (user == null) return false;
+
+        ResolvedPrincipal p = getPrincipal();
+        if (p == null) return false;
 
         // Admin quản lý tất cả
-        if (user.getRole() == Role.ADMIN) {
+        if (p.hasRole(Role.ADMIN)) {
             return true;
         }
 
         // Manager chỉ quản lý tòa nhà của mình
-        if (user.getRole() == Role.MANAGER) {
-            return toaNhaRepo.findById(toaNhaId)
-                .map(t -> t.getNguoiQuanLy() != null && t.getNguoiQuanLy().getId().equals(user.getId()))
-                .orElse(false);
+        return p.hasRole(Role.MANAGER) && p.isMemberOf(toaNhaId);
+    }
+
+    // ===== Helper =====
+
+    private boolean hasRole(Role role) {
+        ResolvedPrincipal p = getPrincipal();
+        return p != null && p.hasRole(role);
+    }
+
+    /**
+     * Query danh sách tòa nhà theo vai trò (chỉ chạy một lần mỗi request).
+     */
+    private ResolvedPrincipal resolvePrincipal(UserAccount user) {
+        if (user == null) return null;
+
+        Set<Integer> toaNhaIds;
+        if (user.getRole() == Role.ADMIN) {
+            toaNhaIds = null;
+        } else if (user.getRole() == Role.MANAGER) {
+            toaNhaIds = Set.copyOf(toaNhaAclRepo.findIdsByNguoiQuanLy(user.getId()));
+        } else if (user.getRole() == Role.ACCOUNTANT || user.getRole() == Role.RESIDENT) {
+            toaNhaIds = Set.copyOf(userToaNhaRepo.findToaNhaIdsByUserId(user.getId()));
+        } else {
+            toaNhaIds = Set.of();
         }
+        return new ResolvedPrincipal(user.getId(), user.getUsername(), user.getRole(), toaNhaIds);
+    }
 
-        return false;
+    /**
+     * User dùng để resolve quyền: lấy thẳng từ Authentication nếu principal đã có
+     * id + role (JWT stateless dựng từ claim), tránh query lại bảng Users.
+     */
+    private UserAccount authenticatedUser() {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth != null && auth.getPrincipal() instanceof UserAccount user
+                && user.getId() != null && user.getRole() != null) {
+            return user;
+        }
+        return getCurrentUser();
+    }
+
+    private String currentUsername() {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        return auth != null ? auth.getName() : null;
+    }
+
+    /**
+     * Lấy giá trị từ request attribute, tính bằng loader nếu chưa có.
+     * Giá trị gắn với username để không dùng nhầm nếu Authentication đổi giữa request.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T perRequest(String key, String username, Supplier<T> loader) {
+        RequestAttributes attrs = RequestContextHolder.getRequestAttributes();
+        if (attrs == null) {
+            return loader.get();
+        }
+        Object cached = attrs.getAttribute(key, RequestAttributes.SCOPE_REQUEST);
+        if (cached instanceof Cached<?> c && c.username().equals(username)) {
+            return (T) c.value();
+        }
+        T value = loader.get();
+        attrs.setAttribute(key, new Cached<>(username, value), RequestAttributes.SCOPE_REQUEST);
+        return value;
     }
+
+    private record Cached<T>(String username, T value) {}
 }
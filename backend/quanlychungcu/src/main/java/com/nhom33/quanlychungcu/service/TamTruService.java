@@ -1,5 +1,6 @@
 package com.nhom33.quanlychungcu.service;
 
+import com.nhom33.quanlychungcu.dto.TamTruListDTO;
 import com.nhom33.quanlychungcu.entity.TamTru;
 import com.nhom33.quanlychungcu.exception.ResourceNotFoundException;
 import com.nhom33.quanlychungcu.repository.TamTruRepository;
@@ -49,9 +50,11 @@ public class TamTruService {
         return repo.findById(id).orElseThrow(() -> new ResourceNotFoundException("TamTru not found: " + id));
     }
 
-    public Page<TamTru> searchByName(String hoTen, @NonNull Pageable pageable) {
-        if (hoTen == null || hoTen.isBlank()) return repo.findAll(pageable);
-        return repo.findByHoTenContainingIgnoreCase(hoTen, pageable);
+    /**
+     * Danh sách tạm trú (read model), lọc theo họ tên nhân khẩu.
+     */
+    public Page<TamTruListDTO> searchByName(String hoTen, @NonNull Pageable pageable) {
+        return repo.searchList(hoTen == null || hoTen.isBlank() ? null : hoTen.trim(), pageable);
     }
 
     public Page<TamTru> findAll(@NonNull Pageable pageable) {
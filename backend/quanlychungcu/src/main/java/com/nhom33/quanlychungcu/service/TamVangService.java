@@ -1,5 +1,6 @@
 package com.nhom33.quanlychungcu.service;
 
+import com.nhom33.quanlychungcu.dto.TamVangListDTO;
 import com.nhom33.quanlychungcu.entity.TamVang;
 import com.nhom33.quanlychungcu.exception.ResourceNotFoundException;
 import com.nhom33.quanlychungcu.repository.TamVangRepository;
@@ -44,8 +45,10 @@ public class TamVangService {
         return repo.findById(id).orElseThrow(() -> new ResourceNotFoundException("TamVang not found: " + id));
     }
 
-    public Page<TamVang> searchByNoiDen(String noiDen, @NonNull Pageable pageable) {
-        if (noiDen == null || noiDen.isBlank()) return repo.findAll(pageable);
-        return repo.findByNoiDenContainingIgnoreCase(noiDen, pageable);
+    /**
+     * Danh sách tạm vắng (read model), lọc theo nơi đến.
+     */
+    public Page<TamVangListDTO> searchByNoiDen(String noiDen, @NonNull Pageable pageable) {
+        return repo.searchList(noiDen == null || noiDen.isBlank() ? null : noiDen.trim(), pageable);
     }
 }
@@ -0,0 +1,176 @@
+package com.nhom33.quanlychungcu.service;
+
+import com.nhom33.quanlychungcu.entity.HoaDon;
+import com.nhom33.quanlychungcu.repository.ThongKeDotThuRepository;
+import com.nhom33.quanlychungcu.repository.ThongKeDotThuRepository.ThongKeRow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Service: Thống kê thu phí theo đợt thu, được duy trì tăng dần (materialized).
+ *
+ * Thay vì SUM/COUNT trên HoaDon mỗi lần mở dashboard, mỗi thao tác ghi hóa đơn
+ * cập nhật luôn dòng ThongKeDotThu trong CÙNG transaction:
+ * - Thêm hóa đơn / thanh toán / đổi trạng thái: onHoaDonChanged (UPDATE cộng chênh lệch)
+ * - Tạo đợt thu / tính tiền cả đợt thu: onDotThuRecalculated (tính lại một dòng từ HoaDon)
+ * - Thêm/xóa hộ gia đình: onHoGiaDinhChanged (số hộ của các đợt thu chưa kết thúc)
+ *
+ * Các hàm đọc chỉ đọc. Đợt thu chưa có dòng thống kê (dữ liệu có từ trước bảng này)
+ * được bổ sung một lần khi ứng dụng khởi động.
+ */
+@Service
+public class ThongKeDotThuService {
+
+    private static final Logger log = LoggerFactory.getLogger(ThongKeDotThuService.class);
+
+    private final ThongKeDotThuRepository repo;
+
+    public ThongKeDotThuService(ThongKeDotThuRepository repo) {
+        this.repo = repo;
+    }
+
+    /**
+     * Nhóm trạng thái hóa đơn dùng cho thống kê.
+     */
+    public enum NhomTrangThai {
+        CHUA_DONG, DANG_NO, DA_DONG;
+
+        /**
+         * Gom cả 2 bộ giá trị đang dùng: "Đã đóng"/"Đang nợ"/"Chưa đóng" và "DaThanhToan"/"ThanhToanMotPhan"/"ChuaThanhToan".
+         */
+        public static NhomTrangThai of(String trangThai) {
+            if (trangThai == null) return CHUA_DONG;
+            return switch (trangThai) {
+                case "Đã đóng", "DaThanhToan" -> DA_DONG;
+                case "Đang nợ", "ThanhToanMotPhan" -> DANG_NO;
+                default -> CHUA_DONG;
+            };
+        }
+    }
+
+    /**
+     * Trạng thái hóa đơn dùng để tính chênh lệch (chụp trước và sau khi sửa).
+     */
+    public record HoaDonSnapshot(BigDecimal tongPhaiThu, BigDecimal daDong, String trangThai) {
+        public static HoaDonSnapshot of(HoaDon hoaDon) {
+            return new HoaDonSnapshot(hoaDon.getTongTienPhaiThu(), hoaDon.getSoTienDaDong(), hoaDon.getTrangThai());
+        }
+    }
+
+    // ===== Cập nhật =====
+
+    /**
+     * Ghi nhận thay đổi của một hóa đơn.
+     *
+     * Caller phải flush HoaDon trước khi gọi (nhánh refresh đọc lại từ bảng HoaDon).
+     *
+     * @param truoc null nếu là hóa đơn mới
+     * @param sau   null nếu hóa đơn bị xóa
+     */
+    @Transactional
+    public void onHoaDonChanged(Integer dotThuId, HoaDonSnapshot truoc, HoaDonSnapshot sau) {
+        if (dotThuId == null) return;
+
+        int soHoaDon = (sau != null ? 1 : 0) - (truoc != null ? 1 : 0);
+        BigDecimal phaiThu = tien(sau, true).subtract(tien(truoc, true));
+        BigDecimal daThu = tien(sau, false).subtract(tien(truoc, false));
+
+        int[] nhom = new int[NhomTrangThai.values().length];
+        if (truoc != null) nhom[NhomTrangThai.of(truoc.trangThai()).ordinal()]--;
+        if (sau != null) nhom[NhomTrangThai.of(sau.trangThai()).ordinal()]++;
+
+        int updated = repo.applyDelta(dotThuId, soHoaDon, phaiThu, daThu,
+            nhom[NhomTrangThai.CHUA_DONG.ordinal()],
+            nhom[NhomTrangThai.DANG_NO.ordinal()],
+            nhom[NhomTrangThai.DA_DONG.ordinal()]);
+
+        if (updated == 0) {
+            // Chưa có dòng thống kê -> tính đầy đủ một lần (thay đổi hiện tại đã nằm trong HoaDon)
+            repo.refresh(dotThuId);
+        }
+    }
+
+    /**
+     * Tạo dòng thống kê cho đợt thu mới, hoặc tính lại sau khi tính tiền (ghi hàng loạt) cả đợt thu.
+     */
+    @Transactional
+    public void onDotThuRecalculated(Integer dotThuId) {
+        repo.refresh(dotThuId);
+    }
+
+    /**
+     * Hộ gia đình được thêm (+1) hoặc xóa (-1) khỏi tòa nhà.
+     */
+    @Transactional
+    public void onHoGiaDinhChanged(Integer toaNhaId, int soHo) {
+        if (toaNhaId == null || soHo == 0) return;
+        repo.applySoHoDelta(toaNhaId, soHo);
+    }
+
+    /**
+     * Bổ sung dòng thống kê cho các đợt thu chưa có (dữ liệu cũ) một lần khi khởi động,
+     * thay vì tạo trong lúc đọc.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        try {
+            int soDong = repo.createMissingAll();
+            if (soDong > 0) {
+                log.info("Đã bổ sung thống kê cho {} đợt thu", soDong);
+            }
+        } catch (Exception e) {
+            log.error("Không bổ sung được thống kê đợt thu khi khởi động", e);
+        }
+    }
+
+    /**
+     * Xây lại toàn bộ bảng thống kê (dùng khi dữ liệu HoaDon bị sửa ngoài ứng dụng).
+     */
+    @Transactional
+    public int rebuildAll() {
+        int soDotThu = repo.rebuildAll();
+        log.info("Đã xây lại thống kê cho {} đợt thu", soDotThu);
+        return soDotThu;
+    }
+
+    // ===== Đọc =====
+
+    /**
+     * Thống kê một đợt thu (đọc một dòng theo khóa chính).
+     * Đợt thu không tồn tại -> thống kê rỗng (giữ hành vi của báo cáo cũ).
+     */
+    @Transactional(readOnly = true)
+    public ThongKeRow getByDotThu(Integer dotThuId) {
+        return repo.findByDotThu(dotThuId).orElse(ThongKeRow.EMPTY);
+    }
+
+    /**
+     * Tổng thống kê các đợt thu giao với khoảng ngày.
+     */
+    @Transactional(readOnly = true)
+    public ThongKeRow sumByKhoangNgay(LocalDate tuNgay, LocalDate denNgay) {
+        return repo.sumByKhoangNgay(tuNgay, denNgay);
+    }
+
+    /**
+     * Phiên bản dữ liệu thống kê đã commit, đọc từ DB (dùng cho cache/ETag của báo cáo).
+     * Giống nhau trên mọi instance và không lặp lại sau restart.
+     */
+    @Transactional(readOnly = true)
+    public String getPhienBan() {
+        return repo.phienBan();
+    }
+
+    private static BigDecimal tien(HoaDonSnapshot s, boolean phaiThu) {
+        if (s == null) return BigDecimal.ZERO;
+        BigDecimal value = phaiThu ? s.tongPhaiThu() : s.daDong();
+        return value != null ? value : BigDecimal.ZERO;
+    }
+}
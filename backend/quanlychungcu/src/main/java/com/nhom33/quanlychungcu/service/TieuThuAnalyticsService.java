@@ -0,0 +1,135 @@
+package com.nhom33.quanlychungcu.service;
+
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.stereotype.Service;
+
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+/**
+ * Service: Phân tích tiêu thụ điện/nước của cả tòa nhà.
+ *
+ * Đọc hoàn toàn từ ChiSoHistoryStore (mảng int trong bộ nhớ), không truy vấn SQL Server:
+ * - Chuỗi theo tháng: số hộ, tổng, trung bình, nhỏ nhất, lớn nhất
+ * - Phân vị tiêu thụ của một tháng (p50, p90, ...)
+ *
+ * MULTI-TENANCY: ADMIN/ACCOUNTANT xem tất cả, MANAGER chỉ xem tòa nhà của mình.
+ */
+@Service
+public class TieuThuAnalyticsService {
+
+    /** Khoảng tối đa cho một chuỗi tiêu thụ. */
+    public static final int MAX_SO_THANG = 120;
+
+    private static final List<Double> PHAN_VI_MAC_DINH = List.of(50.0, 90.0, 99.0);
+
+    private final ChiSoHistoryStore store;
+    private final SecurityHelper securityHelper;
+
+    public TieuThuAnalyticsService(ChiSoHistoryStore store, SecurityHelper securityHelper) {
+        this.store = store;
+        this.securityHelper = securityHelper;
+    }
+
+    // ===== DTO =====
+
+    /**
+     * Tiêu thụ của tòa nhà trong một tháng (chỉ tính hộ đã nhập chỉ số tháng đó).
+     */
+    public record DiemTieuThu(String thang, int soHo, long tongTieuThu, double trungBinh, int nhoNhat, int lonNhat) {}
+
+    public record ChuoiTieuThu(int toaNhaId, int loaiPhiId, List<DiemTieuThu> series) {}
+
+    public record GiaTriPhanVi(double p, double giaTri) {}
+
+    public record PhanViTieuThu(int toaNhaId, int loaiPhiId, String thang, int soHo, List<GiaTriPhanVi> phanVi) {}
+
+    // ===== Public API =====
+
+    /**
+     * Chuỗi tiêu thụ theo tháng trong khoảng [tuThang, denThang].
+     */
+    public ChuoiTieuThu getChuoi(int toaNhaId, int loaiPhiId, YearMonth tuThang, YearMonth denThang) {
+        if (tuThang == null || denThang == null) {
+            throw new IllegalArgumentException("Cần truyền tuThang và denThang (yyyy-MM)");
+        }
+        if (tuThang.isAfter(denThang)) {
+            throw new IllegalArgumentException("tuThang phải trước hoặc bằng denThang");
+        }
+        long soThang = tuThang.until(denThang, ChronoUnit.MONTHS) + 1;
+        if (soThang > MAX_SO_THANG) {
+            throw new IllegalArgumentException("Khoảng thời gian tối đa " + MAX_SO_THANG + " tháng");
+        }
+        kiemTra(toaNhaId);
+
+        int[][] theoThang = store.tieuThuTheoThang(loaiPhiId, toaNhaId,
+            tuThang.getMonthValue(), tuThang.getYear(), (int) soThang);
+
+        List<DiemTieuThu> series = new ArrayList<>(theoThang.length);
+        for (int t = 0; t < theoThang.length; t++) {
+            int[] values = theoThang[t];
+            long tong = 0;
+            int min = Integer.MAX_VALUE;
+            int max = 0;
+            for (int v : values) {
+                tong += v;
+                if (v < min) min = v;
+                if (v > max) max = v;
+            }
+            int soHo = values.length;
+            series.add(new DiemTieuThu(tuThang.plusMonths(t).toString(), soHo, tong,
+                soHo > 0 ? (double) tong / soHo : 0, soHo > 0 ? min : 0, max));
+        }
+        return new ChuoiTieuThu(toaNhaId, loaiPhiId, series);
+    }
+
+    /**
+     * Phân vị tiêu thụ của một tháng (nội suy tuyến tính giữa hai giá trị kề nhau).
+     *
+     * @param phanVi các phân vị cần tính (0-100); null/rỗng = 50, 90, 99
+     */
+    public PhanViTieuThu getPhanVi(int toaNhaId, int loaiPhiId, YearMonth thang, List<Double> phanVi) {
+        if (thang == null) {
+            throw new IllegalArgumentException("Cần truyền thang (yyyy-MM)");
+        }
+        List<Double> ps = phanVi == null || phanVi.isEmpty() ? PHAN_VI_MAC_DINH : phanVi;
+        for (Double p : ps) {
+            if (p == null || p < 0 || p > 100) {
+                throw new IllegalArgumentException("Phân vị phải từ 0 đến 100");
+            }
+        }
+        kiemTra(toaNhaId);
+
+        int[] values = store.tieuThuTheoThang(loaiPhiId, toaNhaId, thang.getMonthValue(), thang.getYear(), 1)[0];
+        Arrays.sort(values);
+
+        List<GiaTriPhanVi> result = new ArrayList<>(ps.size());
+        for (double p : ps) {
+            result.add(new GiaTriPhanVi(p, phanVi(values, p)));
+        }
+        return new PhanViTieuThu(toaNhaId, loaiPhiId, thang.toString(), values.length, result);
+    }
+
+    // ===== Helpers =====
+
+    private void kiemTra(int toaNhaId) {
+        if (!securityHelper.canViewAll() && !securityHelper.canAccessBuilding(toaNhaId)) {
+            throw new AccessDeniedException("Bạn không có quyền xem dữ liệu của tòa nhà này");
+        }
+        if (!store.isSanSang()) {
+            throw new IllegalStateException("Dữ liệu chỉ số đang được nạp, vui lòng thử lại sau");
+        }
+    }
+
+    /**
+     * Phân vị p (0-100) của mảng đã sắp xếp; mảng rỗng -> 0.
+     */
+    static double phanVi(int[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        double viTri = p / 100.0 * (sorted.length - 1);
+        int duoi = (int) Math.floor(viTri);
+        int tren = Math.min(duoi + 1, sorted.length - 1);
+        return sorted[duoi] + (viTri - duoi) * (sorted[tren] - sorted[duoi]);
+    }
+}
@@ -0,0 +1,134 @@
+package com.nhom33.quanlychungcu.service;
+
+import com.nhom33.quanlychungcu.repository.TieuThuRepository;
+import com.nhom33.quanlychungcu.repository.TieuThuRepository.ChiSoKyRow;
+import com.nhom33.quanlychungcu.repository.TieuThuRepository.NhapLieuRow;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+
+/**
+ * Service: Tra cứu tiêu thụ điện/nước theo kỳ.
+ *
+ * Chỉ số hiện tại, chỉ số trước và tiêu thụ của cả tòa nhà được tính trong MỘT câu SQL
+ * (window function LAG / ROW_NUMBER, xem TieuThuRepository), thay cho 2-3 query mỗi hộ
+ * của ChiSoDienNuocService.getTieuThu trước đây.
+ *
+ * Quy tắc (giữ nguyên): tiêu thụ = max(0, chỉ số tháng - chỉ số gần nhất trước tháng),
+ * chưa có lịch sử -> chỉ số trước = 0; chưa nhập chỉ số tháng -> không có tiêu thụ.
+ */
+@Service
+public class TieuThuService {
+
+    private final TieuThuRepository repo;
+
+    public TieuThuService(TieuThuRepository repo) {
+        this.repo = repo;
+    }
+
+    /**
+     * Bảng tiêu thụ theo hộ của một loại phí trong một kỳ (chỉ các hộ đã nhập chỉ số tháng).
+     *
+     * Khóa int nguyên thủy: mảng hoGiaDinhId đã sắp xếp + tìm kiếm nhị phân,
+     * không tạo Integer/Map.Entry cho mỗi hộ.
+     */
+    public static final class BangTieuThu {
+
+        static final BangTieuThu EMPTY = new BangTieuThu(new int[0], new int[0]);
+
+        private final int[] hoGiaDinhIds;
+        private final int[] tieuThu;
+
+        private BangTieuThu(int[] hoGiaDinhIds, int[] tieuThu) {
+            this.hoGiaDinhIds = hoGiaDinhIds;
+            this.tieuThu = tieuThu;
+        }
+
+        static BangTieuThu of(List<ChiSoKyRow> rows) {
+            List<ChiSoKyRow> coChiSo = rows.stream()
+                .filter(r -> r.chiSoMoi() != null)
+                .sorted(Comparator.comparingInt(ChiSoKyRow::hoGiaDinhId))
+                .toList();
+            int[] ids = new int[coChiSo.size()];
+            int[] values = new int[coChiSo.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ChiSoKyRow r = coChiSo.get(i);
+                ids[i] = r.hoGiaDinhId();
+                values[i] = TieuThuService.tieuThu(r.chiSoMoi(), r.chiSoTruoc());
+            }
+            return new BangTieuThu(ids, values);
+        }
+
+        /** Hộ đã có chỉ số tháng. */
+        public boolean contains(int hoGiaDinhId) {
+            return Arrays.binarySearch(hoGiaDinhIds, hoGiaDinhId) >= 0;
+        }
+
+        /** Tiêu thụ của hộ, hoặc macDinh nếu hộ chưa nhập chỉ số tháng. */
+        public int getOrDefault(int hoGiaDinhId, int macDinh) {
+            int idx = Arrays.binarySearch(hoGiaDinhIds, hoGiaDinhId);
+            return idx >= 0 ? tieuThu[idx] : macDinh;
+        }
+
+        public int size() {
+            return hoGiaDinhIds.length;
+        }
+    }
+
+    // ===== Public API =====
+
+    /**
+     * Tiêu thụ kỳ (thang, nam) của cả tòa nhà cho nhiều loại phí (một câu SQL).
+     *
+     * @return loaiPhiId -> bảng tiêu thụ (loại phí không có dữ liệu vẫn có bảng rỗng)
+     */
+    @Transactional(readOnly = true)
+    public Map<Integer, BangTieuThu> tieuThuToaNha(int toaNhaId, Collection<Integer> loaiPhiIds, int thang, int nam) {
+        if (loaiPhiIds.isEmpty()) return Map.of();
+        Map<Integer, List<ChiSoKyRow>> theoPhi = new HashMap<>();
+        for (ChiSoKyRow row : repo.findByToaNha(toaNhaId, loaiPhiIds, thang, nam)) {
+            theoPhi.computeIfAbsent(row.loaiPhiId(), k -> new ArrayList<>()).add(row);
+        }
+        Map<Integer, BangTieuThu> result = new HashMap<>();
+        for (Integer loaiPhiId : loaiPhiIds) {
+            List<ChiSoKyRow> rows = theoPhi.get(loaiPhiId);
+            result.put(loaiPhiId, rows != null ? BangTieuThu.of(rows) : BangTieuThu.EMPTY);
+        }
+        return result;
+    }
+
+    /**
+     * Tiêu thụ kỳ (thang, nam) của cả tòa nhà cho một loại phí.
+     */
+    @Transactional(readOnly = true)
+    public BangTieuThu tieuThuToaNha(int toaNhaId, int loaiPhiId, int thang, int nam) {
+        return tieuThuToaNha(toaNhaId, List.of(loaiPhiId), thang, nam).get(loaiPhiId);
+    }
+
+    /**
+     * Tiêu thụ của một hộ (một câu SQL).
+     *
+     * @return null nếu hộ chưa nhập chỉ số tháng này
+     */
+    @Transactional(readOnly = true)
+    public Integer getTieuThu(int hoGiaDinhId, int loaiPhiId, int thang, int nam) {
+        List<ChiSoKyRow> rows = repo.findByHo(hoGiaDinhId, loaiPhiId, thang, nam);
+        if (rows.isEmpty() || rows.get(0).chiSoMoi() == null) {
+            return null;
+        }
+        return tieuThu(rows.get(0).chiSoMoi(), rows.get(0).chiSoTruoc());
+    }
+
+    /**
+     * Dữ liệu màn hình nhập chỉ số: mọi hộ của tòa nhà + chỉ số tháng + chỉ số trước (một câu SQL).
+     */
+    @Transactional(readOnly = true)
+    public List<NhapLieuRow> nhapLieu(int toaNhaId, int loaiPhiId, int thang, int nam) {
+        return repo.findNhapLieu(toaNhaId, loaiPhiId, thang, nam);
+    }
+
+    static int tieuThu(int chiSoMoi, Integer chiSoTruoc) {
+        return Math.max(0, chiSoMoi - (chiSoTruoc != null ? chiSoTruoc : 0));
+    }
+}
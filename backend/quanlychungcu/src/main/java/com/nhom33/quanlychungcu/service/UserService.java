@@ -1,5 +1,6 @@
 package com.nhom33.quanlychungcu.service;
 
+import com.nhom33.quanlychungcu.config.TokenVersionStore;
 import com.nhom33.quanlychungcu.entity.Role;
 import com.nhom33.quanlychungcu.entity.UserAccount;
 import com.nhom33.quanlychungcu.repository.UserAccountRepository;
@@ -16,10 +17,13 @@ public class UserService {
 
     private final UserAccountRepository userRepo;
     private final PasswordEncoder passwordEncoder;
+    private final TokenVersionStore tokenVersionStore;
 
-    public UserService(UserAccountRepository userRepo, PasswordEncoder passwordEncoder) {
+    public UserService(UserAccountRepository userRepo, PasswordEncoder passwordEncoder,
+                       TokenVersionStore tokenVersionStore) {
         this.userRepo = userRepo;
         this.passwordEncoder = passwordEncoder;
+        this.tokenVersionStore = tokenVersionStore;
     }
 
     public List<UserAccount> getAllUsers() {
@@ -35,12 +39,20 @@ public class UserService {
         UserAccount user = userRepo.findById(id)
                 .orElseThrow(() -> new IllegalArgumentException("User not found: " + id));
         
+        // Đổi quyền hoặc mật khẩu -> thu hồi token cũ (role nằm trong claim của JWT)
+        boolean revokeTokens = user.getRole() != role;
+        
         user.setFullName(fullName);
         user.setEmail(email);
         user.setRole(role);
         
         if (password != null && !password.isBlank()) {
             user.setPassword(passwordEncoder.encode(password));
+            revokeTokens = true;
+        }
+        
+        if (revokeTokens) {
+            tokenVersionStore.revoke(id);
         }
         
         return userRepo.save(user);
@@ -52,5 +64,6 @@ public class UserService {
             throw new IllegalArgumentException("User not found: " + id);
         }
         userRepo.deleteById(id);
+        tokenVersionStore.revoke(id);
     }
 }
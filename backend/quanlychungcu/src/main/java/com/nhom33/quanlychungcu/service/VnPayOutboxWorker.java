@@ -0,0 +1,199 @@
+package com.nhom33.quanlychungcu.service;
+
+import com.nhom33.quanlychungcu.exception.BadRequestException;
+import com.nhom33.quanlychungcu.exception.ResourceNotFoundException;
+import com.nhom33.quanlychungcu.repository.VnPayOutboxRepository;
+import com.nhom33.quanlychungcu.repository.VnPayOutboxRepository.KetQuaWrite;
+import com.nhom33.quanlychungcu.repository.VnPayOutboxRepository.OutboxRow;
+import jakarta.annotation.PreDestroy;
+import jakarta.validation.ValidationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Worker nền ghi nhận thanh toán VNPAY từ bảng VnPayCallbackOutbox.
+ *
+ * LOGIC:
+ * - app.vnpay.outbox.workers vòng lặp chạy trên vnpayOutboxExecutor, mỗi vòng lấy một lô
+ *   (VnPayOutboxRepository.claim, READPAST nên các worker không chờ nhau)
+ * - Mỗi giao dịch ghi trong transaction riêng (VnPayService.apDungGiaoDich), một giao dịch lỗi
+ *   không ảnh hưởng giao dịch khác; kết quả cả lô cập nhật bằng một batch
+ * - Trùng vnp_TransactionNo: khóa idempotency -> TrungLap, không cộng tiền lần hai
+ * - Lỗi vĩnh viễn (hóa đơn không còn, dữ liệu không hợp lệ, vi phạm ràng buộc): Loi ngay, không thử lại
+ * - Lỗi tạm thời: trả lại ChoXuLy, quá maxAttempts -> Loi
+ * - Hàng đợi rỗng: chờ tín hiệu CoGiaoDichMoi (callback vừa ghi) hoặc tối đa poll-interval-ms
+ */
+@Component
+public class VnPayOutboxWorker {
+
+    private static final Logger log = LoggerFactory.getLogger(VnPayOutboxWorker.class);
+
+    /**
+     * Sự kiện: callback vừa ghi giao dịch mới vào outbox (đánh thức worker).
+     */
+    public record CoGiaoDichMoi(String maGiaoDich) {}
+
+    private final VnPayOutboxRepository outboxRepo;
+    private final VnPayService vnPayService;
+    private final TaskExecutor executor;
+    private final int workers;
+    private final int batchSize;
+    private final long pollIntervalMs;
+    private final int maxAttempts;
+    private final long staleSeconds;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition coViec = lock.newCondition();
+    private volatile boolean dangChay;
+
+    public VnPayOutboxWorker(VnPayOutboxRepository outboxRepo,
+                             VnPayService vnPayService,
+                             @Qualifier("vnpayOutboxExecutor") TaskExecutor executor,
+                             @Value("${app.vnpay.outbox.workers:2}") int workers,
+                             @Value("${app.vnpay.outbox.batch-size:50}") int batchSize,
+                             @Value("${app.vnpay.outbox.poll-interval-ms:1000}") long pollIntervalMs,
+                             @Value("${app.vnpay.outbox.max-attempts:5}") int maxAttempts,
+                             @Value("${app.vnpay.outbox.stale-seconds:300}") long staleSeconds) {
+        this.outboxRepo = outboxRepo;
+        this.vnPayService = vnPayService;
+        this.executor = executor;
+        this.workers = workers;
+        this.batchSize = batchSize;
+        this.pollIntervalMs = pollIntervalMs;
+        this.maxAttempts = maxAttempts;
+        this.staleSeconds = staleSeconds;
+    }
+
+    // ===== Vòng đời =====
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        dangChay = true;
+        for (int i = 0; i < workers; i++) {
+            executor.execute(this::vongLap);
+        }
+        log.info("VNPAY outbox: started {} workers (batch {})", workers, batchSize);
+    }
+
+    @PreDestroy
+    public void stop() {
+        dangChay = false;
+        danhThuc();
+    }
+
+    @EventListener
+    public void onCoGiaoDichMoi(CoGiaoDichMoi event) {
+        danhThuc();
+    }
+
+    // ===== Xử lý =====
+
+    private void vongLap() {
+        while (dangChay) {
+            try {
+                int soDong = xuLyMotLo();
+                if (soDong < batchSize) {
+                    cho();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                // Lỗi DB khi lấy lô: nghỉ một nhịp rồi thử lại, không để worker chết
+                log.error("VNPAY outbox: worker error", e);
+                try {
+                    cho();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Lấy và xử lý một lô.
+     * @return số dòng đã lấy
+     */
+    int xuLyMotLo() {
+        List<OutboxRow> lo = outboxRepo.claim(batchSize, LocalDateTime.now().minusSeconds(staleSeconds));
+        if (lo.isEmpty()) return 0;
+
+        List<KetQuaWrite> ketQua = new ArrayList<>(lo.size());
+        for (OutboxRow row : lo) {
+            ketQua.add(xuLy(row));
+        }
+        outboxRepo.markBatch(ketQua);
+        return lo.size();
+    }
+
+    private KetQuaWrite xuLy(OutboxRow row) {
+        try {
+            boolean moi = vnPayService.apDungGiaoDich(row);
+            return new KetQuaWrite(row.id(), moi ? VnPayOutboxRepository.THANH_CONG : VnPayOutboxRepository.TRUNG_LAP, null);
+        } catch (Exception e) {
+            if (laLoiVinhVien(e)) {
+                // Thử lại cũng cho cùng kết quả: chuyển Loi ngay để không chiếm lượt của worker
+                log.error("VNPAY outbox: transaction {} rejected: {}", row.maGiaoDich(), e.getMessage());
+                return new KetQuaWrite(row.id(), VnPayOutboxRepository.LOI, catNgan(e.getMessage()));
+            }
+            boolean hetLuot = row.soLanThu() >= maxAttempts;
+            log.warn("VNPAY outbox: transaction {} failed (attempt {}/{}): {}",
+                row.maGiaoDich(), row.soLanThu(), maxAttempts, e.getMessage());
+            return new KetQuaWrite(row.id(),
+                hetLuot ? VnPayOutboxRepository.LOI : VnPayOutboxRepository.CHO_XU_LY, catNgan(e.getMessage()));
+        }
+    }
+
+    /**
+     * Lỗi không phụ thuộc thời điểm chạy: hóa đơn không tồn tại, dữ liệu giao dịch không hợp lệ
+     * (BadRequest / validation / IllegalArgument) hoặc vi phạm ràng buộc dữ liệu.
+     * Lỗi kết nối, timeout, deadlock, xung đột version... được coi là tạm thời.
+     */
+    static boolean laLoiVinhVien(Throwable e) {
+        return e instanceof ResourceNotFoundException
+            || e instanceof BadRequestException
+            || e instanceof IllegalArgumentException
+            || e instanceof ValidationException
+            || e instanceof DataIntegrityViolationException;
+    }
+
+    private void cho() throws InterruptedException {
+        lock.lock();
+        try {
+            if (dangChay) {
+                coViec.await(pollIntervalMs, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void danhThuc() {
+        lock.lock();
+        try {
+            coViec.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static String catNgan(String s) {
+        if (s == null) return null;
+        return s.length() <= 500 ? s : s.substring(0, 500);
+    }
+}
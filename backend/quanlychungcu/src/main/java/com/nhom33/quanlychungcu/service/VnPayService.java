@@ -7,17 +7,23 @@ import com.nhom33.quanlychungcu.exception.BadRequestException;
 import com.nhom33.quanlychungcu.exception.ResourceNotFoundException;
 import com.nhom33.quanlychungcu.repository.HoaDonRepository;
 import com.nhom33.quanlychungcu.repository.LichSuThanhToanRepository;
+import com.nhom33.quanlychungcu.repository.ThanhToanIdempotencyRepository;
+import com.nhom33.quanlychungcu.repository.VnPayOutboxRepository;
 import com.nhom33.quanlychungcu.util.VnPayHelper;
+import com.nhom33.quanlychungcu.util.VnPaySigner;
 import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Service xử lý thanh toán VNPAY.
@@ -26,7 +32,8 @@ import java.util.Map;
  * 1. Frontend gọi createPaymentUrl() để lấy URL redirect sang VNPAY
  * 2. User thanh toán trên trang VNPAY
  * 3. VNPAY redirect về vnp_ReturnUrl với kết quả
- * 4. Backend xử lý kết quả: validate checksum -> cập nhật DB -> redirect frontend
+ * 4. Backend xử lý kết quả: validate checksum -> ghi vào outbox -> redirect frontend ngay
+ * 5. VnPayOutboxWorker ghi LichSuThanhToan + cập nhật HoaDon; frontend hỏi trạng thái qua getTrangThai()
  */
 @Service
 public class VnPayService {
@@ -34,15 +41,33 @@ public class VnPayService {
     private static final Logger log = LoggerFactory.getLogger(VnPayService.class);
 
     private final VnPayConfig vnPayConfig;
+    private final VnPaySigner vnPaySigner;
     private final HoaDonRepository hoaDonRepo;
     private final LichSuThanhToanRepository lichSuRepo;
+    private final ThongKeDotThuService thongKeService;
+    private final ThanhToanIdempotencyRepository idempotencyRepo;
+    private final OptimisticLockRetry optimisticLockRetry;
+    private final VnPayOutboxRepository outboxRepo;
+    private final ApplicationEventPublisher eventPublisher;
 
     public VnPayService(VnPayConfig vnPayConfig, 
+                        VnPaySigner vnPaySigner,
                         HoaDonRepository hoaDonRepo,
-                        LichSuThanhToanRepository lichSuRepo) {
+                        LichSuThanhToanRepository lichSuRepo,
+                        ThongKeDotThuService thongKeService,
+                        ThanhToanIdempotencyRepository idempotencyRepo,
+                        OptimisticLockRetry optimisticLockRetry,
+                        VnPayOutboxRepository outboxRepo,
+                        ApplicationEventPublisher eventPublisher) {
         this.vnPayConfig = vnPayConfig;
+        this.vnPaySigner = vnPaySigner;
         this.hoaDonRepo = hoaDonRepo;
         this.lichSuRepo = lichSuRepo;
+        this.thongKeService = thongKeService;
+        this.idempotencyRepo = idempotencyRepo;
+        this.optimisticLockRetry = optimisticLockRetry;
+        this.outboxRepo = outboxRepo;
+        this.eventPublisher = eventPublisher;
     }
 
     /**
@@ -89,8 +114,8 @@ public class VnPayService {
             throw new BadRequestException("Số tiền thanh toán không được lớn hơn số tiền còn nợ: " + conNo);
         }
 
-        // Build params theo spec VNPAY
-        Map<String, String> vnpParams = new HashMap<>();
+        // Build params theo spec VNPAY (TreeMap: đã sắp xếp theo tên cho chuỗi ký)
+        Map<String, String> vnpParams = new TreeMap<>();
         vnpParams.put("vnp_Version", VnPayConfig.VNP_VERSION);
         vnpParams.put("vnp_Command", VnPayConfig.VNP_COMMAND);
         vnpParams.put("vnp_TmnCode", vnPayConfig.getVnpTmnCode());
@@ -105,11 +130,7 @@ public class VnPayService {
         vnpParams.put("vnp_CreateDate", VnPayHelper.getVnpCreateDate());
         vnpParams.put("vnp_ExpireDate", VnPayHelper.getVnpExpireDate());
 
-        String paymentUrl = VnPayHelper.buildPaymentUrl(
-            vnPayConfig.getVnpPayUrl(), 
-            vnpParams, 
-            vnPayConfig.getVnpHashSecret()
-        );
+        String paymentUrl = vnPaySigner.buildPaymentUrl(vnPayConfig.getVnpPayUrl(), vnpParams);
 
         log.info("Created VNPAY payment URL for HoaDon {}, Amount: {}", hoaDonId, amount);
         return paymentUrl;
@@ -123,10 +144,9 @@ public class VnPayService {
      * @param request HttpServletRequest chứa params từ VNPAY
      * @return VnPayResult chứa thông tin kết quả
      */
-    @Transactional
     public VnPayResult processPaymentReturn(HttpServletRequest request) {
-        // Extract tất cả params từ request
-        Map<String, String> params = new HashMap<>();
+        // Extract tất cả params từ request (TreeMap: kiểm tra chữ ký không cần sắp xếp lại)
+        Map<String, String> params = new TreeMap<>();
         request.getParameterMap().forEach((key, values) -> {
             if (values != null && values.length > 0) {
                 params.put(key, values[0]);
@@ -136,7 +156,7 @@ public class VnPayService {
         log.info("Processing VNPAY return: {}", params);
 
         // === BƯỚC 1: Validate Checksum ===
-        boolean isValidChecksum = VnPayHelper.validateChecksum(params, vnPayConfig.getVnpHashSecret());
+        boolean isValidChecksum = vnPaySigner.verify(params);
         if (!isValidChecksum) {
             log.error("VNPAY Checksum validation FAILED! Possible security breach.");
             return new VnPayResult(false, "CHECKSUM_FAILED", "Chữ ký không hợp lệ. Giao dịch bị từ chối vì lý do bảo mật.", null);
@@ -171,15 +191,103 @@ public class VnPayService {
             return new VnPayResult(false, vnpResponseCode, errorMessage, hoaDonId);
         }
 
-        // === BƯỚC 3: GIAO DỊCH THÀNH CÔNG - Cập nhật Database ===
+        if (vnpTransactionNo == null || vnpTransactionNo.isBlank()) {
+            log.error("VNPAY return without vnp_TransactionNo for HoaDon {}", hoaDonId);
+            return new VnPayResult(false, "INVALID_TXNNO", "Thiếu mã giao dịch VNPAY", hoaDonId);
+        }
+
+        // === BƯỚC 3: GIAO DỊCH THÀNH CÔNG - Ghi vào outbox, worker nền cập nhật Database ===
+        // Chỉ một INSERT trên luồng callback; callback lặp cùng vnp_TransactionNo bị bỏ qua
+        boolean moi = outboxRepo.enqueue(new VnPayOutboxRepository.OutboxWrite(vnpTransactionNo, vnpTxnRef,
+            hoaDonId, amount, vnpBankCode, vnpResponseCode, vnpOrderInfo));
+        if (moi) {
+            eventPublisher.publishEvent(new VnPayOutboxWorker.CoGiaoDichMoi(vnpTransactionNo));
+            log.info("VNPAY transaction {} queued for HoaDon {}: {} VND", vnpTransactionNo, hoaDonId, amount);
+        } else {
+            log.warn("Duplicate VNPAY callback ignored: {}", vnpTransactionNo);
+        }
+
+        return new VnPayResult(true, "00", "Đã nhận kết quả thanh toán, hệ thống đang ghi nhận", hoaDonId,
+            vnpTransactionNo);
+    }
+
+    // ===== Ghi nhận thanh toán (worker outbox gọi) =====
+
+    /**
+     * Ghi nhận một giao dịch từ outbox: transaction riêng, chạy lại khi xung đột @Version
+     * với thanh toán khác trên cùng hóa đơn.
+     *
+     * @return true nếu vừa ghi, false nếu giao dịch đã được ghi trước đó
+     */
+    public boolean apDungGiaoDich(VnPayOutboxRepository.OutboxRow row) {
+        return optimisticLockRetry.execute(() -> ghiNhanThanhToan(row.hoaDonId(), row.soTien(),
+            row.maGiaoDich(), row.maNganHang(), row.maPhanHoi(), row.thongTin()));
+    }
+
+    /**
+     * Trạng thái thanh toán VNPAY của hóa đơn cho frontend polling.
+     *
+     * @param maGiaoDich vnp_TransactionNo (null = chỉ trả về các giao dịch gần nhất)
+     */
+    public Map<String, Object> getTrangThai(Integer hoaDonId, String maGiaoDich) {
         HoaDon hoaDon = hoaDonRepo.findById(hoaDonId)
             .orElseThrow(() -> new ResourceNotFoundException("Không tìm thấy hóa đơn với ID: " + hoaDonId));
 
-        // Kiểm tra duplicate (tránh xử lý lại nếu user F5)
-        boolean isDuplicate = lichSuRepo.existsByMaGiaoDichVnpay(vnpTransactionNo);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("hoaDonId", hoaDonId);
+        result.put("trangThaiHoaDon", hoaDon.getTrangThai());
+        result.put("tongTienPhaiThu", hoaDon.getTongTienPhaiThu());
+        result.put("soTienDaDong", hoaDon.getSoTienDaDong());
+        result.put("soTienConNo", hoaDon.getSoTienConNo());
+
+        if (maGiaoDich != null) {
+            VnPayOutboxRepository.OutboxRow row = outboxRepo.findByMaGiaoDich(maGiaoDich)
+                .filter(r -> r.hoaDonId() == hoaDonId)
+                .orElseThrow(() -> new ResourceNotFoundException("Không tìm thấy giao dịch VNPAY: " + maGiaoDich));
+            result.put("giaoDich", toMap(row));
+            result.put("dangXuLy", dangXuLy(row));
+        } else {
+            List<VnPayOutboxRepository.OutboxRow> rows = outboxRepo.findByHoaDon(hoaDonId, 10);
+            result.put("danhSachGiaoDich", rows.stream().map(VnPayService::toMap).toList());
+            result.put("dangXuLy", rows.stream().anyMatch(VnPayService::dangXuLy));
+        }
+        return result;
+    }
+
+    private static boolean dangXuLy(VnPayOutboxRepository.OutboxRow row) {
+        return VnPayOutboxRepository.CHO_XU_LY.equals(row.trangThai())
+            || VnPayOutboxRepository.DANG_XU_LY.equals(row.trangThai());
+    }
+
+    private static Map<String, Object> toMap(VnPayOutboxRepository.OutboxRow row) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("maGiaoDich", row.maGiaoDich());
+        map.put("soTien", row.soTien());
+        map.put("maNganHang", row.maNganHang());
+        map.put("trangThai", row.trangThai());
+        map.put("loi", row.loi());
+        map.put("ngayTao", row.ngayTao());
+        map.put("ngayXuLy", row.ngayXuLy());
+        return map;
+    }
+
+    /**
+     * Ghi lịch sử + cộng tiền vào hóa đơn (trong transaction của OptimisticLockRetry).
+     *
+     * Chống xử lý lặp (callback lặp, outbox bị lấy lại sau khi worker dừng giữa chừng):
+     * INSERT khóa 'VNPAY:' + vnp_TransactionNo trước khi ghi.
+     */
+    private boolean ghiNhanThanhToan(Integer hoaDonId, BigDecimal amount, String vnpTransactionNo,
+                                     String vnpBankCode, String vnpResponseCode, String vnpOrderInfo) {
+        HoaDon hoaDon = hoaDonRepo.findById(hoaDonId)
+            .orElseThrow(() -> new ResourceNotFoundException("Không tìm thấy hóa đơn với ID: " + hoaDonId));
+
+        // Kiểm tra duplicate: khóa idempotency + giao dịch ghi trước khi có bảng khóa
+        boolean isDuplicate = !idempotencyRepo.tryClaim("VNPAY:" + vnpTransactionNo, hoaDonId)
+            || lichSuRepo.existsByMaGiaoDichVnpay(vnpTransactionNo);
         if (isDuplicate) {
             log.warn("Duplicate VNPAY transaction detected: {}", vnpTransactionNo);
-            return new VnPayResult(true, "00", "Giao dịch đã được xử lý trước đó", hoaDonId);
+            return false;
         }
 
         // 3a. Lưu lịch sử thanh toán
@@ -192,9 +300,10 @@ public class VnPayService {
         lichSu.setMaGiaoDichVnpay(vnpTransactionNo);
         lichSu.setMaNganHang(vnpBankCode);
         lichSu.setMaPhanHoi(vnpResponseCode);
-        lichSuRepo.save(lichSu);
+        lichSu = lichSuRepo.save(lichSu);
 
-        // 3b. Cập nhật hóa đơn
+        // 3b. Cập nhật hóa đơn (Version lệch -> ObjectOptimisticLockingFailureException -> chạy lại)
+        ThongKeDotThuService.HoaDonSnapshot truoc = ThongKeDotThuService.HoaDonSnapshot.of(hoaDon);
         BigDecimal soTienDaDongMoi = hoaDon.getSoTienDaDong().add(amount);
         hoaDon.setSoTienDaDong(soTienDaDongMoi);
 
@@ -204,11 +313,15 @@ public class VnPayService {
         } else if (soTienDaDongMoi.compareTo(BigDecimal.ZERO) > 0) {
             hoaDon.setTrangThai("ThanhToanMotPhan");
         }
-        hoaDonRepo.save(hoaDon);
+        hoaDonRepo.saveAndFlush(hoaDon);
+        idempotencyRepo.ganThanhToan("VNPAY:" + vnpTransactionNo, lichSu.getId());
 
-        log.info("VNPAY transaction SUCCESS for HoaDon {}: {} VND via {}", hoaDonId, amount, vnpBankCode);
+        // 3c. Cập nhật thống kê đợt thu (cùng transaction)
+        thongKeService.onHoaDonChanged(hoaDon.getDotThu().getId(), truoc,
+            ThongKeDotThuService.HoaDonSnapshot.of(hoaDon));
 
-        return new VnPayResult(true, "00", "Thanh toán thành công", hoaDonId);
+        log.info("VNPAY transaction SUCCESS for HoaDon {}: {} VND via {}", hoaDonId, amount, vnpBankCode);
+        return true;
     }
 
     /**
@@ -219,12 +332,18 @@ public class VnPayService {
         private final String responseCode;
         private final String message;
         private final Integer hoaDonId;
+        private final String maGiaoDich;
 
         public VnPayResult(boolean success, String responseCode, String message, Integer hoaDonId) {
+            this(success, responseCode, message, hoaDonId, null);
+        }
+
+        public VnPayResult(boolean success, String responseCode, String message, Integer hoaDonId, String maGiaoDich) {
             this.success = success;
             this.responseCode = responseCode;
             this.message = message;
             this.hoaDonId = hoaDonId;
+            this.maGiaoDich = maGiaoDich;
         }
 
         public boolean isSuccess() {
@@ -242,5 +361,10 @@ public class VnPayService {
         public Integer getHoaDonId() {
             return hoaDonId;
         }
+
+        /** vnp_TransactionNo, dùng để hỏi trạng thái ghi nhận. */
+        public String getMaGiaoDich() {
+            return maGiaoDich;
+        }
     }
 }
@@ -0,0 +1,54 @@
+package com.nhom33.quanlychungcu.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Ghi CSV (UTF-8 có BOM để Excel hiển thị tiếng Việt đúng) theo từng dòng.
+ */
+public class CsvStreamWriter implements TabularWriter {
+
+    private final Writer writer;
+
+    public CsvStreamWriter(OutputStream out) throws IOException {
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        writer.write('\uFEFF');
+    }
+
+    @Override
+    public void writeRow(List<?> cells) throws IOException {
+        for (int i = 0; i < cells.size(); i++) {
+            if (i > 0) writer.write(',');
+            writer.write(format(cells.get(i)));
+        }
+        writer.write('\n');
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.flush();
+    }
+
+    private static String format(Object value) {
+        if (value == null) return "";
+        if (value instanceof BigDecimal bd) return bd.toPlainString();
+        if (value instanceof Number) return value.toString();
+        return escape(value.toString());
+    }
+
+    /**
+     * Escape CSV value (xử lý dấu phẩy, dấu ngoặc kép và xuống dòng).
+     */
+    private static String escape(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+}
@@ -0,0 +1,164 @@
+package com.nhom33.quanlychungcu.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Template HTML đơn giản, parse (compile) MỘT lần thành danh sách đoạn, render nhiều lần.
+ *
+ * Cú pháp:
+ * - {{ten}}: giá trị của khóa "ten" trong model, HTML-escape; null -> chuỗi rỗng
+ * - {{#ten}}...{{/ten}}: lặp qua danh sách Map (khóa trong phần tử che khóa của model ngoài),
+ *   hoặc hiện một lần nếu giá trị là Boolean.TRUE / khác null
+ *
+ * Template sau khi compile không đổi nên dùng chung được giữa nhiều thread.
+ */
+public final class HtmlTemplate {
+
+    private sealed interface Node permits Text, Var, Section {}
+
+    private record Text(String value) implements Node {}
+
+    private record Var(String name) implements Node {}
+
+    private record Section(String name, List<Node> children) implements Node {}
+
+    private final List<Node> nodes;
+    private final int sizeHint;
+
+    private HtmlTemplate(List<Node> nodes, int sizeHint) {
+        this.nodes = nodes;
+        this.sizeHint = sizeHint;
+    }
+
+    // ===== Compile =====
+
+    public static HtmlTemplate compile(String source) {
+        Deque<Section> open = new ArrayDeque<>();
+        List<Node> root = new ArrayList<>();
+        List<Node> current = root;
+
+        int pos = 0;
+        while (pos < source.length()) {
+            int start = source.indexOf("{{", pos);
+            if (start < 0) {
+                current.add(new Text(source.substring(pos)));
+                break;
+            }
+            int end = source.indexOf("}}", start + 2);
+            if (end < 0) {
+                throw new IllegalArgumentException("Template thiếu '}}' tại vị trí " + start);
+            }
+            if (start > pos) {
+                current.add(new Text(source.substring(pos, start)));
+            }
+            String tag = source.substring(start + 2, end).trim();
+            if (tag.startsWith("#")) {
+                Section section = new Section(tag.substring(1).trim(), new ArrayList<>());
+                current.add(section);
+                open.push(section);
+                current = section.children();
+            } else if (tag.startsWith("/")) {
+                String name = tag.substring(1).trim();
+                if (open.isEmpty() || !open.peek().name().equals(name)) {
+                    throw new IllegalArgumentException("Template đóng section '" + name + "' không khớp tại vị trí " + start);
+                }
+                open.pop();
+                current = open.isEmpty() ? root : open.peek().children();
+            } else if (tag.isEmpty()) {
+                throw new IllegalArgumentException("Template có thẻ rỗng tại vị trí " + start);
+            } else {
+                current.add(new Var(tag));
+            }
+            pos = end + 2;
+        }
+        if (!open.isEmpty()) {
+            throw new IllegalArgumentException("Template chưa đóng section '" + open.peek().name() + "'");
+        }
+        return new HtmlTemplate(List.copyOf(root), source.length() + source.length() / 2);
+    }
+
+    /**
+     * Đọc và compile template trong classpath (src/main/resources).
+     */
+    public static HtmlTemplate fromClasspath(String path) {
+        try (InputStream in = HtmlTemplate.class.getClassLoader().getResourceAsStream(path)) {
+            if (in == null) {
+                throw new IllegalStateException("Không tìm thấy template: " + path);
+            }
+            return compile(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Không đọc được template: " + path, e);
+        }
+    }
+
+    // ===== Render =====
+
+    public String render(Map<String, ?> model) {
+        StringBuilder sb = new StringBuilder(sizeHint);
+        Deque<Map<String, ?>> scopes = new ArrayDeque<>();
+        scopes.push(model);
+        render(nodes, scopes, sb);
+        return sb.toString();
+    }
+
+    private static void render(List<Node> nodes, Deque<Map<String, ?>> scopes, StringBuilder out) {
+        for (Node node : nodes) {
+            if (node instanceof Text t) {
+                out.append(t.value());
+            } else if (node instanceof Var v) {
+                Object value = lookup(scopes, v.name());
+                if (value != null) {
+                    escape(value.toString(), out);
+                }
+            } else if (node instanceof Section s) {
+                Object value = lookup(scopes, s.name());
+                if (value instanceof Iterable<?> items) {
+                    for (Object item : items) {
+                        if (item instanceof Map<?, ?> map) {
+                            @SuppressWarnings("unchecked")
+                            Map<String, ?> scope = (Map<String, ?>) map;
+                            scopes.push(scope);
+                            render(s.children(), scopes, out);
+                            scopes.pop();
+                        } else {
+                            render(s.children(), scopes, out);
+                        }
+                    }
+                } else if (value != null && !Boolean.FALSE.equals(value)) {
+                    render(s.children(), scopes, out);
+                }
+            }
+        }
+    }
+
+    private static Object lookup(Deque<Map<String, ?>> scopes, String name) {
+        for (Map<String, ?> scope : scopes) {
+            if (scope.containsKey(name)) {
+                return scope.get(name);
+            }
+        }
+        return null;
+    }
+
+    private static void escape(String value, StringBuilder out) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '<' -> out.append("&lt;");
+                case '>' -> out.append("&gt;");
+                case '&' -> out.append("&amp;");
+                case '"' -> out.append("&quot;");
+                case '\'' -> out.append("&#39;");
+                default -> out.append(c);
+            }
+        }
+    }
+}
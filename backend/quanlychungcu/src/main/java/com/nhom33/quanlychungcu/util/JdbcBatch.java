@@ -0,0 +1,29 @@
+package com.nhom33.quanlychungcu.util;
+
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+import java.util.List;
+
+/**
+ * Gửi một câu SQL với nhiều bộ tham số bằng JDBC batch, chia theo khối để mỗi lần gửi không quá lớn.
+ * Dùng chung cho các repository JDBC ghi hàng loạt.
+ */
+public final class JdbcBatch {
+
+    private JdbcBatch() {}
+
+    /**
+     * @return số khối đã gửi (để thống kê số round-trip)
+     */
+    public static int execute(NamedParameterJdbcTemplate jdbc, String sql, List<SqlParameterSource> params,
+                              int batchSize) {
+        int soBatch = 0;
+        for (int from = 0; from < params.size(); from += batchSize) {
+            List<SqlParameterSource> chunk = params.subList(from, Math.min(from + batchSize, params.size()));
+            jdbc.batchUpdate(sql, chunk.toArray(new SqlParameterSource[0]));
+            soBatch++;
+        }
+        return soBatch;
+    }
+}
@@ -0,0 +1,76 @@
+package com.nhom33.quanlychungcu.util;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Con trỏ phân trang kiểu keyset (seek): vị trí dòng cuối của trang trước = (khóa sắp xếp, ID).
+ *
+ * Client chỉ nhận chuỗi mờ (Base64 URL-safe của "loại|ID|khóa"), gửi lại nguyên vẹn để lấy trang sau.
+ * "loại" là tên danh sách, con trỏ của danh sách này không dùng được cho danh sách khác.
+ *
+ * @param sortKey null khi danh sách chỉ sắp xếp theo ID
+ */
+public record KeysetCursor(String sortKey, int id) {
+
+    private static final char SEP = '|';
+
+    public String encode(String loai) {
+        String raw = loai + SEP + id + SEP + (sortKey != null ? sortKey : "");
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Giải mã con trỏ do encode(loai) sinh ra.
+     *
+     * @return null nếu token rỗng (trang đầu)
+     */
+    public static KeysetCursor decode(String token, String loai) {
+        if (token == null || token.isBlank()) {
+            return null;
+        }
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(token.trim()), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Con trỏ phân trang không hợp lệ");
+        }
+        int p1 = raw.indexOf(SEP);
+        int p2 = p1 < 0 ? -1 : raw.indexOf(SEP, p1 + 1);
+        if (p2 < 0 || !raw.substring(0, p1).equals(loai)) {
+            throw new IllegalArgumentException("Con trỏ phân trang không hợp lệ");
+        }
+        int id;
+        try {
+            id = Integer.parseInt(raw.substring(p1 + 1, p2));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Con trỏ phân trang không hợp lệ");
+        }
+        String key = raw.substring(p2 + 1);
+        return new KeysetCursor(key.isEmpty() ? null : key, id);
+    }
+
+    /**
+     * Giải mã con trỏ của danh sách sắp xếp theo ngày: khóa phải là ngày yyyy-MM-dd.
+     *
+     * @return null nếu token rỗng (trang đầu)
+     * @throws IllegalArgumentException khóa thiếu hoặc sai định dạng
+     */
+    public static KeysetCursor decodeNgay(String token, String loai) {
+        KeysetCursor cursor = decode(token, loai);
+        if (cursor == null) {
+            return null;
+        }
+        if (cursor.sortKey() == null) {
+            throw new IllegalArgumentException("Con trỏ phân trang không hợp lệ");
+        }
+        try {
+            LocalDate.parse(cursor.sortKey());
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Con trỏ phân trang không hợp lệ");
+        }
+        return cursor;
+    }
+}
@@ -0,0 +1,60 @@
+package com.nhom33.quanlychungcu.util;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Một trang phân trang keyset: không có số trang và không đếm tổng chính xác (không COUNT(*), không OFFSET).
+ *
+ * @param nextCursor   con trỏ để lấy trang sau, null nếu đã hết
+ * @param approxTotal  tổng số dòng ước lượng (từ metadata của bảng), null nếu không yêu cầu hoặc danh sách có lọc
+ */
+public record KeysetPage<T>(List<T> content, int size, String nextCursor, boolean hasNext, Long approxTotal) {
+
+    public static final int MAX_SIZE = 200;
+
+    /**
+     * Khóa của một dòng đọc được khi seek: ID + giá trị cột sắp xếp (dạng chuỗi, null nếu sắp theo ID).
+     */
+    public record Key(int id, String sortKey) {}
+
+    /**
+     * Dựng trang từ danh sách khóa (đã đọc thừa 1 dòng để biết còn trang sau),
+     * nạp entity theo khóa chính rồi giữ đúng thứ tự của khóa.
+     */
+    public static <T> KeysetPage<T> of(List<Key> keys, int size, String loai, Long approxTotal,
+                                       Function<List<Integer>, List<T>> findAllById, Function<T, Integer> idOf) {
+        boolean hasNext = keys.size() > size;
+        List<Key> trang = hasNext ? keys.subList(0, size) : keys;
+        List<Integer> ids = trang.stream().map(Key::id).toList();
+
+        Map<Integer, T> byId = new HashMap<>();
+        if (!ids.isEmpty()) {
+            for (T t : findAllById.apply(ids)) {
+                byId.put(idOf.apply(t), t);
+            }
+        }
+        List<T> content = ids.stream().map(byId::get).filter(Objects::nonNull).toList();
+
+        String next = null;
+        if (hasNext) {
+            Key last = trang.get(trang.size() - 1);
+            next = new KeysetCursor(last.sortKey(), last.id()).encode(loai);
+        }
+        return new KeysetPage<>(content, size, next, hasNext, approxTotal);
+    }
+
+    /**
+     * Kích thước trang hợp lệ: 1..MAX_SIZE.
+     */
+    public static int clampSize(int size) {
+        return Math.max(1, Math.min(size, MAX_SIZE));
+    }
+
+    public static <T> KeysetPage<T> empty(int size) {
+        return new KeysetPage<>(List.of(), size, null, false, 0L);
+    }
+}
@@ -0,0 +1,227 @@
+package com.nhom33.quanlychungcu.util;
+
+import com.lowagie.text.Document;
+import com.lowagie.text.DocumentException;
+import com.lowagie.text.PageSize;
+import com.lowagie.text.pdf.BaseFont;
+import com.lowagie.text.pdf.PdfContentByte;
+import com.lowagie.text.pdf.PdfWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+
+/**
+ * Ghi file PDF khổ A4 theo kiểu streaming (OpenPDF), chữ tiếng Việt đủ dấu.
+ *
+ * - Font DejaVu Sans (resources/fonts) được nhúng dạng subset, mã hóa Identity-H (Unicode),
+ *   nên file hiển thị đúng trên mọi trình đọc PDF mà không cần font cài sẵn trên máy
+ * - Nội dung trang được dựng bằng {@link Page} (danh sách lệnh vẽ, không dùng chung trạng thái,
+ *   dựng song song được trên nhiều thread), rồi vẽ vào file trong addPage
+ * - Trang trước được ghi ra OutputStream khi sang trang mới, writer chỉ giữ tham chiếu tới các trang,
+ *   nên bộ nhớ không phụ thuộc số trang; subset font được ghi một lần khi close()
+ *
+ * Mỗi writer chỉ dùng trên một thread. BaseFont đọc file font khi ghi subset nên không dùng chung
+ * giữa các thread: mỗi thread giữ một bộ font riêng (nạp từ byte[] đã đọc sẵn).
+ */
+public class PdfStreamWriter implements Closeable {
+
+    public static final float A4_WIDTH = PageSize.A4.getWidth();
+    public static final float A4_HEIGHT = PageSize.A4.getHeight();
+
+    private static final byte[] FONT_REGULAR = readFont("fonts/DejaVuSans.ttf");
+    private static final byte[] FONT_BOLD = readFont("fonts/DejaVuSans-Bold.ttf");
+
+    private static final ThreadLocal<Fonts> FONTS = ThreadLocal.withInitial(
+        () -> new Fonts(createFont("DejaVuSans.ttf", FONT_REGULAR), createFont("DejaVuSans-Bold.ttf", FONT_BOLD)));
+
+    private record Fonts(BaseFont regular, BaseFont bold) {
+        BaseFont get(boolean isBold) {
+            return isBold ? bold : regular;
+        }
+    }
+
+    private final Document document;
+    private final PdfWriter writer;
+    private final Fonts fonts;
+    private int pageCount = 0;
+    private boolean closed = false;
+
+    public PdfStreamWriter(OutputStream out) throws IOException {
+        this.fonts = FONTS.get();
+        this.document = new Document(PageSize.A4, 0, 0, 0, 0);
+        try {
+            this.writer = PdfWriter.getInstance(document, out);
+        } catch (DocumentException e) {
+            throw new IOException("Không tạo được file PDF", e);
+        }
+        // Không đóng OutputStream gốc (giống TabularWriter); nội dung trang nén nhanh
+        writer.setCloseStream(false);
+        writer.setCompressionLevel(Deflater.BEST_SPEED);
+        document.open();
+    }
+
+    // ===== Public API =====
+
+    /**
+     * Thêm một trang A4.
+     */
+    public void addPage(Page page) throws IOException {
+        if (pageCount > 0) {
+            document.newPage();
+        }
+        Canvas canvas = new Canvas(writer.getDirectContent(), fonts);
+        for (Consumer<Canvas> op : page.ops) {
+            op.accept(canvas);
+        }
+        // Trang chỉ có khoảng trắng vẫn được tính là một trang
+        writer.setPageEmpty(false);
+        pageCount++;
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Kết thúc file PDF. KHÔNG đóng OutputStream gốc (giống TabularWriter).
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        if (pageCount == 0) {
+            // PDF phải có ít nhất một trang: đợt thu không có hóa đơn -> một trang trắng
+            writer.setPageEmpty(false);
+        }
+        try {
+            document.close();
+        } catch (RuntimeException e) {
+            throw new IOException("Lỗi ghi file PDF", e);
+        }
+    }
+
+    /**
+     * Tạo file PDF hoàn chỉnh trong bộ nhớ từ các trang đã dựng (dùng cho file nhỏ: một hóa đơn).
+     */
+    public static byte[] toPdf(List<Page> pages) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(32 * 1024);
+        try (PdfStreamWriter writer = new PdfStreamWriter(buffer)) {
+            for (Page page : pages) {
+                writer.addPage(page);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    // ===== Page =====
+
+    /**
+     * Dựng nội dung một trang: tọa độ tính bằng point, gốc (0, 0) ở góc dưới bên trái.
+     * Chỉ ghi lại các lệnh vẽ; lệnh được thực hiện khi trang được thêm vào writer.
+     */
+    public static final class Page {
+
+        private final List<Consumer<Canvas>> ops = new ArrayList<>(64);
+
+        public Page text(float x, float y, float size, boolean bold, String value) {
+            if (value == null || value.isEmpty()) return this;
+            String s = value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+            ops.add(c -> c.text(x, y, size, bold, s));
+            return this;
+        }
+
+        /**
+         * Chữ căn phải tại xRight (dùng cho cột số tiền).
+         */
+        public Page textRight(float xRight, float y, float size, boolean bold, String value) {
+            return text(xRight - textWidth(value, size, bold), y, size, bold, value);
+        }
+
+        public Page textCenter(float xCenter, float y, float size, boolean bold, String value) {
+            return text(xCenter - textWidth(value, size, bold) / 2, y, size, bold, value);
+        }
+
+        public Page line(float x1, float y1, float x2, float y2, float width) {
+            ops.add(c -> c.line(x1, y1, x2, y2, width));
+            return this;
+        }
+
+        /**
+         * Hình chữ nhật tô màu xám (gray: 0 = đen, 1 = trắng).
+         */
+        public Page fillRect(float x, float y, float w, float h, float gray) {
+            ops.add(c -> c.fillRect(x, y, w, h, gray));
+            return this;
+        }
+    }
+
+    /**
+     * Vẽ lên trang hiện tại của writer.
+     */
+    private record Canvas(PdfContentByte cb, Fonts fonts) {
+
+        void text(float x, float y, float size, boolean bold, String value) {
+            cb.beginText();
+            cb.setFontAndSize(fonts.get(bold), size);
+            cb.setTextMatrix(x, y);
+            cb.showText(value);
+            cb.endText();
+        }
+
+        void line(float x1, float y1, float x2, float y2, float width) {
+            cb.setLineWidth(width);
+            cb.moveTo(x1, y1);
+            cb.lineTo(x2, y2);
+            cb.stroke();
+        }
+
+        void fillRect(float x, float y, float w, float h, float gray) {
+            cb.saveState();
+            cb.setGrayFill(gray);
+            cb.rectangle(x, y, w, h);
+            cb.fill();
+            cb.restoreState();
+        }
+    }
+
+    // ===== Text helpers =====
+
+    /**
+     * Độ rộng chuỗi (point) theo metric của font nhúng.
+     */
+    public static float textWidth(String value, float size, boolean bold) {
+        if (value == null || value.isEmpty()) return 0f;
+        return FONTS.get().get(bold).getWidthPoint(value, size);
+    }
+
+    // ===== Font =====
+
+    private static byte[] readFont(String path) {
+        try (InputStream in = PdfStreamWriter.class.getClassLoader().getResourceAsStream(path)) {
+            if (in == null) {
+                throw new IllegalStateException("Không tìm thấy font " + path);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Không đọc được font " + path, e);
+        }
+    }
+
+    private static BaseFont createFont(String name, byte[] ttf) {
+        try {
+            return BaseFont.createFont(name, BaseFont.IDENTITY_H, BaseFont.EMBEDDED, false, ttf, null);
+        } catch (DocumentException | IOException e) {
+            throw new IllegalStateException("Không khởi tạo được font " + name, e);
+        }
+    }
+}
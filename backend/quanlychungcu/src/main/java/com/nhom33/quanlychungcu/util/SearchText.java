@@ -0,0 +1,86 @@
+package com.nhom33.quanlychungcu.util;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Chuẩn hóa văn bản tiếng Việt cho tìm kiếm không dấu.
+ *
+ * - Bỏ dấu (NFD + bỏ ký tự tổ hợp), đ/Đ -> d, chữ thường
+ * - Tách token theo ký tự không phải chữ/số
+ * - Token lẫn chữ và số (HO001, A101) thêm các phần con ("ho", "001") để tìm được "001", "101"
+ *
+ * "Nguyễn Văn Đức" -> [nguyen, van, duc]
+ */
+public final class SearchText {
+
+    private SearchText() {
+    }
+
+    /**
+     * Bỏ dấu và chuyển chữ thường (giữ nguyên các ký tự khác).
+     */
+    public static String normalize(String s) {
+        if (s == null || s.isEmpty()) return "";
+        String lower = s.toLowerCase(Locale.ROOT);
+        if (isAscii(lower)) return lower;
+
+        String nfd = Normalizer.normalize(lower, Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(nfd.length());
+        for (int i = 0; i < nfd.length(); i++) {
+            char c = nfd.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) continue;
+            sb.append(c == 'đ' ? 'd' : c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Các token (đã chuẩn hóa, không trùng) của một chuỗi.
+     */
+    public static String[] tokens(String s) {
+        String norm = normalize(s);
+        if (norm.isEmpty()) return new String[0];
+
+        List<String> result = new ArrayList<>(4);
+        int start = -1;
+        for (int i = 0; i <= norm.length(); i++) {
+            boolean chuSo = i < norm.length() && Character.isLetterOrDigit(norm.charAt(i));
+            if (chuSo && start < 0) {
+                start = i;
+            } else if (!chuSo && start >= 0) {
+                them(result, norm.substring(start, i));
+                start = -1;
+            }
+        }
+        return result.toArray(String[]::new);
+    }
+
+    // ===== Helpers =====
+
+    private static void them(List<String> result, String token) {
+        if (!result.contains(token)) result.add(token);
+
+        // Tách chỗ chuyển chữ <-> số
+        int start = 0;
+        for (int i = 1; i <= token.length(); i++) {
+            if (i == token.length()
+                    || Character.isDigit(token.charAt(i)) != Character.isDigit(token.charAt(i - 1))) {
+                if (start > 0 || i < token.length()) {
+                    String phan = token.substring(start, i);
+                    if (!result.contains(phan)) result.add(phan);
+                }
+                start = i;
+            }
+        }
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,45 @@
+package com.nhom33.quanlychungcu.util;
+
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+/**
+ * Cấp ID từ các sequence tăng theo khối (HoaDon_SEQ, ChiTietHoaDon_SEQ, DinhMucThu_SEQ, LichSuThanhToan_SEQ)
+ * cho các câu INSERT bằng JDBC, theo đúng quy ước của Hibernate (optimizer pooled):
+ * mỗi giá trị v lấy từ sequence giữ riêng khối ID [v - ALLOCATION_SIZE + 1, v].
+ * Sequence bắt đầu từ ALLOCATION_SIZE nên khối đầu tiên là [1, ALLOCATION_SIZE].
+ *
+ * Nhờ vậy INSERT JDBC và entity JPA dùng chung một sequence mà không trùng ID,
+ * và n dòng chỉ tiêu tốn ceil(n / ALLOCATION_SIZE) giá trị sequence
+ * (DEFAULT NEXT VALUE FOR tiêu tốn cả một khối cho mỗi dòng).
+ */
+public final class SequenceBlock {
+
+    /** Bước tăng của các sequence, cũng là allocationSize của @SequenceGenerator trên entity. */
+    public static final int ALLOCATION_SIZE = 50;
+
+    private SequenceBlock() {}
+
+    /**
+     * Giữ soLuong ID liên tiếp của sequence.
+     *
+     * @return ID đầu tiên; các ID được cấp là [id đầu, id đầu + soLuong - 1]
+     */
+    public static int capId(NamedParameterJdbcTemplate jdbc, String sequence, int soLuong) {
+        if (soLuong <= 0) {
+            throw new IllegalArgumentException("Số ID cần cấp phải lớn hơn 0");
+        }
+        // Các khối của những giá trị liên tiếp nằm liền nhau: giá trị đầu f -> ID từ f - ALLOCATION_SIZE + 1
+        String sql = """
+            SET NOCOUNT ON;
+            DECLARE @dau SQL_VARIANT;
+            EXEC sys.sp_sequence_get_range @sequence_name = :sequence, @range_size = :soKhoi,
+                                           @range_first_value = @dau OUTPUT;
+            SELECT CAST(@dau AS INT);
+            """;
+        int soKhoi = (soLuong + ALLOCATION_SIZE - 1) / ALLOCATION_SIZE;
+        Integer dau = jdbc.queryForObject(sql,
+            new MapSqlParameterSource("sequence", sequence).addValue("soKhoi", soKhoi), Integer.class);
+        return dau - ALLOCATION_SIZE + 1;
+    }
+}
@@ -0,0 +1,64 @@
+package com.nhom33.quanlychungcu.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Ghi dữ liệu dạng bảng (header + các dòng) tuần tự ra OutputStream.
+ *
+ * Mỗi dòng được ghi ngay khi gọi writeRow, không giữ dữ liệu trong bộ nhớ,
+ * nên dùng được cho export rất lớn qua StreamingResponseBody.
+ * close() chỉ kết thúc định dạng file, KHÔNG đóng OutputStream gốc.
+ */
+public interface TabularWriter extends Closeable {
+
+    /**
+     * Ghi một dòng. Giá trị null -> ô trống, Number -> ô số, còn lại -> chuỗi.
+     */
+    void writeRow(List<?> cells) throws IOException;
+
+    /**
+     * Định dạng file hỗ trợ.
+     */
+    enum Format {
+        CSV("text/csv; charset=UTF-8", "csv"),
+        XLSX("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", "xlsx");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        /**
+         * Parse tham số format từ request (mặc định CSV).
+         */
+        public static Format from(String value) {
+            if (value == null || value.isBlank()) return CSV;
+            try {
+                return Format.valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Định dạng export không hỗ trợ: " + value + " (csv hoặc xlsx)");
+            }
+        }
+    }
+
+    /**
+     * Tạo writer theo định dạng.
+     */
+    static TabularWriter open(Format format, OutputStream out, String sheetName) throws IOException {
+        return format == Format.XLSX ? new XlsxStreamWriter(out, sheetName) : new CsvStreamWriter(out);
+    }
+}
@@ -0,0 +1,49 @@
+package com.nhom33.quanlychungcu.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Giới hạn tốc độ kiểu token bucket, dùng chung giữa nhiều thread.
+ *
+ * Token được nạp đều ratePerSecond mỗi giây, tích tối đa burst token.
+ * acquire(n) chờ cho tới khi đủ n token (n lớn hơn burst vẫn được, chỉ chờ lâu hơn).
+ */
+public class TokenBucket {
+
+    private final double ratePerNano;
+    private final double burst;
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(double ratePerSecond, int burst) {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("ratePerSecond phải > 0");
+        }
+        this.ratePerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Lấy n token, chờ nếu chưa đủ.
+     */
+    public void acquire(int permits) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            refill();
+            // Cho phép nợ token: thread sau sẽ chờ phần nợ này, tốc độ trung bình vẫn đúng
+            tokens -= permits;
+            waitNanos = tokens >= 0 ? 0 : (long) (-tokens / ratePerNano);
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefill) * ratePerNano);
+        lastRefill = now;
+    }
+}
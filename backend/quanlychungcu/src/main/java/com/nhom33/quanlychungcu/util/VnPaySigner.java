@@ -0,0 +1,131 @@
+package com.nhom33.quanlychungcu.util;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Ký / kiểm tra chữ ký HMAC-SHA512 theo chuẩn VNPAY, dùng chung cho PaymentService và VnPayService.
+ *
+ * - Mỗi thread giữ một Mac đã init sẵn với HashSecret (Mac không thread-safe, doFinal tự reset),
+ *   không gọi Mac.getInstance / tạo SecretKeySpec mỗi lần ký
+ * - Chuỗi ký (canonical query) dựng trong MỘT lượt duyệt tham số đã sắp xếp theo tên
+ * - Hex encode vào mảng char cấp phát một lần, không tạo String cho từng byte
+ */
+public class VnPaySigner {
+
+    public static final String SECURE_HASH = "vnp_SecureHash";
+    public static final String SECURE_HASH_TYPE = "vnp_SecureHashType";
+
+    private static final String ALGORITHM = "HmacSHA512";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final ThreadLocal<Mac> mac;
+
+    public VnPaySigner(String hashSecret) {
+        if (hashSecret == null || hashSecret.isEmpty()) {
+            throw new IllegalArgumentException("Chưa cấu hình vnpay.hash-secret");
+        }
+        SecretKeySpec key = new SecretKeySpec(hashSecret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        // Kiểm tra thuật toán/khóa ngay khi khởi tạo thay vì lỗi ở lần ký đầu tiên
+        newMac(key);
+        this.mac = ThreadLocal.withInitial(() -> newMac(key));
+    }
+
+    // ===== Public API =====
+
+    /**
+     * Chữ ký hex (chữ thường) của chuỗi dữ liệu.
+     */
+    public String sign(String data) {
+        byte[] hash = mac.get().doFinal(data.getBytes(StandardCharsets.UTF_8));
+        return toHex(hash);
+    }
+
+    /**
+     * Chuỗi query chuẩn VNPAY: tham số sắp xếp theo tên, bỏ giá trị rỗng, URL-encode giá trị.
+     * Cùng chuỗi này vừa là dữ liệu ký vừa là query của URL thanh toán.
+     */
+    public String canonicalQuery(Map<String, String> params) {
+        SortedMap<String, String> sorted = params instanceof SortedMap<String, String> sm ? sm : new TreeMap<>(params);
+        StringBuilder sb = new StringBuilder(sorted.size() * 32);
+        for (Map.Entry<String, String> e : sorted.entrySet()) {
+            String name = e.getKey();
+            String value = e.getValue();
+            if (value == null || value.isEmpty() || SECURE_HASH.equals(name) || SECURE_HASH_TYPE.equals(name)) {
+                continue;
+            }
+            if (sb.length() > 0) sb.append('&');
+            sb.append(URLEncoder.encode(name, StandardCharsets.UTF_8))
+              .append('=')
+              .append(URLEncoder.encode(value, StandardCharsets.UTF_8));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * URL thanh toán đã ký: baseUrl?query&vnp_SecureHash=...
+     */
+    public String buildPaymentUrl(String baseUrl, Map<String, String> params) {
+        String query = canonicalQuery(params);
+        String hash = sign(query);
+        return new StringBuilder(baseUrl.length() + query.length() + hash.length() + 17)
+            .append(baseUrl).append('?').append(query)
+            .append('&').append(SECURE_HASH).append('=').append(hash)
+            .toString();
+    }
+
+    /**
+     * Kiểm tra chữ ký của tham số VNPAY trả về (không sửa map truyền vào).
+     * So sánh thời gian hằng, không phân biệt hoa thường của chuỗi hex.
+     */
+    public boolean verify(Map<String, String> params) {
+        String received = params.get(SECURE_HASH);
+        if (received == null || received.isEmpty()) {
+            return false;
+        }
+        String expected = sign(canonicalQuery(params));
+        return MessageDigest.isEqual(
+            expected.getBytes(StandardCharsets.US_ASCII),
+            toLowerAscii(received).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    // ===== Helpers =====
+
+    private static Mac newMac(SecretKeySpec key) {
+        try {
+            Mac m = Mac.getInstance(ALGORITHM);
+            m.init(key);
+            return m;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Không khởi tạo được " + ALGORITHM, e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0, j = 0; i < bytes.length; i++) {
+            int v = bytes[i] & 0xff;
+            out[j++] = HEX[v >>> 4];
+            out[j++] = HEX[v & 0x0f];
+        }
+        return new String(out);
+    }
+
+    private static String toLowerAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                return s.toLowerCase(Locale.ROOT);
+            }
+        }
+        return s;
+    }
+}
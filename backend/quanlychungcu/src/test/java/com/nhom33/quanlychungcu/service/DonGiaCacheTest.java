@@ -0,0 +1,47 @@
+package com.nhom33.quanlychungcu.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Giá nạp trong lúc có lần xóa cache chen vào không được giữ lại.
+ */
+class DonGiaCacheTest {
+
+    private final DonGiaCache cache = new DonGiaCache(600);
+
+    @Test
+    void giaNapTruocKhiXoaKhongDuocGiu() {
+        AtomicInteger soLanNap = new AtomicInteger();
+
+        // Loader đọc giá cũ, rồi (trước khi kịp lưu) thread khác đổi giá và xóa cache
+        BigDecimal cu = cache.get(1, 7, () -> {
+            soLanNap.incrementAndGet();
+            cache.evict(1, 7);
+            return new BigDecimal("3000");
+        });
+        BigDecimal moi = cache.get(1, 7, () -> {
+            soLanNap.incrementAndGet();
+            return new BigDecimal("3500");
+        });
+
+        assertThat(cu).isEqualByComparingTo("3000");
+        assertThat(moi).isEqualByComparingTo("3500");
+        assertThat(soLanNap).hasValue(2);
+    }
+
+    @Test
+    void xoaTheoLoaiPhiChiXoaKhoaCuaLoaiPhiDo() {
+        cache.get(1, 7, () -> BigDecimal.ONE);
+        cache.get(2, 7, () -> BigDecimal.TEN);
+
+        cache.evictLoaiPhi(1);
+
+        assertThat(cache.get(1, 7, () -> new BigDecimal("2"))).isEqualByComparingTo("2");
+        assertThat(cache.get(2, 7, () -> BigDecimal.ZERO)).isEqualByComparingTo(BigDecimal.TEN);
+    }
+}
@@ -0,0 +1,122 @@
+package com.nhom33.quanlychungcu.service;
+
+import com.icegreen.greenmail.junit5.GreenMailExtension;
+import com.icegreen.greenmail.util.GreenMailUtil;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import com.nhom33.quanlychungcu.repository.EmailOutboxRepository;
+import com.nhom33.quanlychungcu.repository.EmailOutboxRepository.EmailRow;
+import com.nhom33.quanlychungcu.repository.EmailOutboxRepository.KetQuaGui;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.mockito.ArgumentCaptor;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Worker gửi email qua SMTP thật (GreenMail): lấy lô -> render hóa đơn -> gửi -> DaGui,
+ * và nhánh lỗi SMTP -> trả lại hàng đợi với backoff / Loi khi hết lượt.
+ */
+class EmailOutboxWorkerTest {
+
+    private static final long BACKOFF_MS = 30_000;
+    private static final int MAX_ATTEMPTS = 3;
+
+    @RegisterExtension
+    static final GreenMailExtension greenMail = new GreenMailExtension(ServerSetupTest.SMTP);
+
+    private final EmailOutboxRepository outboxRepo = mock(EmailOutboxRepository.class);
+    private final InvoiceService invoiceService = mock(InvoiceService.class);
+
+    @Test
+    void guiLoHoaDonVaVanBanQuaSmtp() throws Exception {
+        when(outboxRepo.claim(anyInt(), any())).thenReturn(List.of(
+            new EmailRow(1, 10L, 7, "ho101@bluemoon.local", "Hóa đơn thanh toán #HD000007", null, 1),
+            new EmailRow(2, 10L, null, "ho102@bluemoon.local", "Thông báo", "Lịch cắt nước ngày 20", 1)));
+        when(invoiceService.renderDocument(7)).thenReturn(new InvoiceService.InvoiceDocument(
+            7, "Nguyễn Văn An", "Tháng 10/2026", new BigDecimal("1250000"),
+            "<html><body>HD000007</body></html>", "%PDF-1.4 test".getBytes(StandardCharsets.ISO_8859_1)));
+
+        int soDong = worker(smtp(greenMail.getSmtp().getPort())).xuLyMotLo();
+
+        assertThat(soDong).isEqualTo(2);
+        assertThat(ketQua()).extracting(KetQuaGui::id, KetQuaGui::trangThai)
+            .containsExactlyInAnyOrder(
+                tuple(1L, EmailOutboxRepository.DA_GUI),
+                tuple(2L, EmailOutboxRepository.DA_GUI));
+
+        MimeMessage[] received = greenMail.getReceivedMessages();
+        assertThat(received).hasSize(2);
+        MimeMessage hoaDon = received[0].getAllRecipients()[0].toString().startsWith("ho101") ? received[0] : received[1];
+        assertThat(hoaDon.getSubject()).isEqualTo("Hóa đơn thanh toán #HD000007");
+        assertThat(hoaDon.getContent()).isInstanceOf(MimeMultipart.class);
+        assertThat(GreenMailUtil.getBody(hoaDon)).contains("HD000007.pdf");
+    }
+
+    @Test
+    void loiSmtpTraLaiHangDoiVoiBackoff() throws Exception {
+        when(outboxRepo.claim(anyInt(), any())).thenReturn(List.of(
+            new EmailRow(3, null, null, "ho103@bluemoon.local", "Thông báo", "Nội dung", 2)));
+        greenMail.stop();
+
+        LocalDateTime truoc = LocalDateTime.now();
+        worker(smtp(greenMail.getSmtp().getPort())).xuLyMotLo();
+
+        KetQuaGui kq = ketQua().get(0);
+        assertThat(kq.trangThai()).isEqualTo(EmailOutboxRepository.CHO_GUI);
+        assertThat(kq.loi()).isNotBlank();
+        // Lần thử thứ 2: chờ backoff * 2, cộng jitter tối đa 50%
+        assertThat(kq.lanThuTiep()).isAfterOrEqualTo(truoc.plusNanos(2 * BACKOFF_MS * 1_000_000))
+            .isBefore(LocalDateTime.now().plusNanos(3 * BACKOFF_MS * 1_000_000 + 1_000_000));
+    }
+
+    @Test
+    void loiSmtpHetLuotThiChuyenLoi() throws Exception {
+        when(outboxRepo.claim(anyInt(), any())).thenReturn(List.of(
+            new EmailRow(4, null, null, "ho104@bluemoon.local", "Thông báo", "Nội dung", MAX_ATTEMPTS)));
+        greenMail.stop();
+
+        worker(smtp(greenMail.getSmtp().getPort())).xuLyMotLo();
+
+        KetQuaGui kq = ketQua().get(0);
+        assertThat(kq.trangThai()).isEqualTo(EmailOutboxRepository.LOI);
+        assertThat(kq.lanThuTiep()).isNull();
+    }
+
+    // ===== Helpers =====
+
+    private EmailOutboxWorker worker(JavaMailSenderImpl mailSender) {
+        return new EmailOutboxWorker(outboxRepo, invoiceService, mailSender, new SyncTaskExecutor(),
+            true, "no-reply@bluemoon.local", 1, 20, 1000, 100, 100, MAX_ATTEMPTS, BACKOFF_MS, 1_800_000, 600);
+    }
+
+    private static JavaMailSenderImpl smtp(int port) {
+        JavaMailSenderImpl sender = new JavaMailSenderImpl();
+        sender.setHost("localhost");
+        sender.setPort(port);
+        sender.getJavaMailProperties().put("mail.smtp.connectiontimeout", "2000");
+        sender.getJavaMailProperties().put("mail.smtp.timeout", "2000");
+        return sender;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<KetQuaGui> ketQua() {
+        ArgumentCaptor<List<KetQuaGui>> captor = ArgumentCaptor.forClass(List.class);
+        verify(outboxRepo).markBatch(captor.capture());
+        return captor.getValue();
+    }
+}
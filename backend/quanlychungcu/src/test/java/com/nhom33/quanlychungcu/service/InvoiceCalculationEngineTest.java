@@ -0,0 +1,299 @@
+package com.nhom33.quanlychungcu.service;
+
+import com.nhom33.quanlychungcu.entity.DotThu;
+import com.nhom33.quanlychungcu.entity.ToaNha;
+import com.nhom33.quanlychungcu.repository.HoaDonBulkRepository;
+import com.nhom33.quanlychungcu.repository.HoaDonBulkRepository.*;
+import com.nhom33.quanlychungcu.repository.TieuThuRepository;
+import com.nhom33.quanlychungcu.repository.TieuThuRepository.ChiSoKyRow;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * InvoiceCalculationEngine phải cho cùng kết quả với vòng lặp từng hộ × từng loại phí
+ * của DotThuService.calculateInvoices cũ (được chép lại ở legacyCalculate làm chuẩn so sánh).
+ */
+class InvoiceCalculationEngineTest {
+
+    private static final int TOA_NHA_ID = 7;
+    private static final int DOT_THU_ID = 30;
+    private static final int THANG = 5;
+    private static final int NAM = 2026;
+
+    private HoaDonBulkRepository bulkRepo;
+    private TieuThuRepository tieuThuRepo;
+    private ThongKeDotThuService thongKeService;
+    private InvoiceCalculationEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        bulkRepo = mock(HoaDonBulkRepository.class);
+        tieuThuRepo = mock(TieuThuRepository.class);
+        thongKeService = mock(ThongKeDotThuService.class);
+        engine = new InvoiceCalculationEngine(bulkRepo, thongKeService, new TieuThuService(tieuThuRepo));
+    }
+
+    // ===== Fixture =====
+
+    /** Loại phí: đơn giá mặc định + giá riêng của tòa nhà (null nếu không có). */
+    record Phi(int id, String ten, BigDecimal donGia, BigDecimal donGiaRieng) {
+        BigDecimal donGiaApDung() {
+            return donGiaRieng != null ? donGiaRieng : donGia;
+        }
+    }
+
+    /** Chỉ số: chiSoMoi null = chưa nhập tháng này (nhưng có lịch sử). */
+    record ChiSo(int hoId, int loaiPhiId, Integer chiSoMoi, Integer chiSoTruoc) {}
+
+    record HoaDonCu(int hoaDonId, int hoId, BigDecimal soTienDaDong, Map<Integer, Integer> chiTietTheoPhi) {}
+
+    record Fixture(List<HoRow> ho, List<Phi> phi, List<ChiSo> chiSo, List<DinhMucRow> dinhMuc, List<HoaDonCu> hoaDon) {}
+
+    /** Tòa nhà nhỏ có đủ các trường hợp: giá riêng, thiếu chỉ số, chưa có lịch sử, có/không định mức, đã đóng tiền. */
+    private static Fixture toaNhaMau() {
+        List<HoRow> ho = List.of(
+            new HoRow(101, "A101"), new HoRow(102, "A102"), new HoRow(103, "A103"), new HoRow(104, "A104"));
+        List<Phi> phi = List.of(
+            new Phi(1, "Tiền Điện", new BigDecimal("3500"), null),
+            new Phi(2, "Tiền nước", new BigDecimal("15000"), new BigDecimal("12000")),
+            new Phi(3, "Phí dịch vụ", new BigDecimal("7000"), null),
+            new Phi(4, "Gửi xe máy", new BigDecimal("100000"), new BigDecimal("90000")));
+        List<ChiSo> chiSo = List.of(
+            new ChiSo(101, 1, 250, 200),
+            new ChiSo(101, 2, 40, 31),
+            new ChiSo(102, 1, 90, null),      // tháng đầu tiên: chỉ số trước = 0
+            new ChiSo(102, 2, 12, 15),        // đồng hồ thay mới: tiêu thụ âm -> 0
+            new ChiSo(103, 1, null, 500),     // chưa nhập tháng này
+            new ChiSo(104, 1, 610, 600));     // 104 thiếu nước
+        List<DinhMucRow> dinhMuc = List.of(
+            new DinhMucRow(101, 4, 2.0),
+            new DinhMucRow(102, 3, 75.5),
+            new DinhMucRow(104, 4, 3.0));
+        List<HoaDonCu> hoaDon = List.of(
+            new HoaDonCu(9001, 101, new BigDecimal("500000"), Map.of(3, 5001)),
+            new HoaDonCu(9002, 102, new BigDecimal("10000000"), Map.of()));
+        return new Fixture(ho, phi, chiSo, dinhMuc, hoaDon);
+    }
+
+    // ===== Kết quả chuẩn: vòng lặp cũ =====
+
+    // Trạng thái hóa đơn do câu UPDATE tính từ SoTienDaDong hiện tại (HoaDonBulkRepository), không so ở đây
+    record KetQua(Map<String, Object> ketQua, Map<Integer, BigDecimal> tongTienTheoHo,
+                  Map<String, BigDecimal> thanhTienTheoHoPhi) {}
+
+    /**
+     * Chép lại logic DotThuService.calculateInvoices trước khi có engine (tìm/tạo hóa đơn từng hộ,
+     * getTieuThu / findByHoGiaDinhIdAndLoaiPhiId từng loại phí).
+     */
+    private static KetQua legacyCalculate(Fixture f) {
+        Map<Integer, BigDecimal> tongTien = new TreeMap<>();
+        Map<String, BigDecimal> thanhTienHoPhi = new TreeMap<>();
+        int soHoaDonTao = 0;
+        int soHoThieuChiSo = 0;
+        List<String> danhSachThieuChiSo = new ArrayList<>();
+
+        for (HoRow ho : f.ho()) {
+            BigDecimal tong = BigDecimal.ZERO;
+            boolean thieuChiSo = false;
+
+            for (Phi phi : f.phi()) {
+                BigDecimal donGia = phi.donGiaApDung();
+                double soLuong;
+                BigDecimal thanhTien;
+                if (DotThuService.isUtilityFeeByName(phi.ten())) {
+                    Integer tieuThu = f.chiSo().stream()
+                        .filter(c -> c.hoId() == ho.hoGiaDinhId() && c.loaiPhiId() == phi.id() && c.chiSoMoi() != null)
+                        .map(c -> Math.max(0, c.chiSoMoi() - (c.chiSoTruoc() != null ? c.chiSoTruoc() : 0)))
+                        .findFirst().orElse(null);
+                    if (tieuThu == null) {
+                        thieuChiSo = true;
+                        continue;
+                    }
+                    soLuong = tieuThu;
+                    thanhTien = donGia.multiply(BigDecimal.valueOf(tieuThu));
+                } else {
+                    Optional<DinhMucRow> dm = f.dinhMuc().stream()
+                        .filter(d -> d.hoGiaDinhId() == ho.hoGiaDinhId() && d.loaiPhiId() == phi.id())
+                        .findFirst();
+                    soLuong = dm.map(DinhMucRow::soLuong).orElse(1.0);
+                    thanhTien = donGia.multiply(BigDecimal.valueOf(soLuong));
+                }
+                thanhTienHoPhi.put(ho.hoGiaDinhId() + "/" + phi.id(), thanhTien);
+                tong = tong.add(thanhTien);
+            }
+
+            tongTien.put(ho.hoGiaDinhId(), tong);
+            soHoaDonTao++;
+            if (thieuChiSo) {
+                soHoThieuChiSo++;
+                danhSachThieuChiSo.add(ho.maHoGiaDinh());
+            }
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("success", true);
+        result.put("message", "Đã tính tiền cho " + soHoaDonTao + " hộ gia đình");
+        result.put("soHoaDonTao", soHoaDonTao);
+        result.put("soHoThieuChiSo", soHoThieuChiSo);
+        result.put("danhSachThieuChiSo", danhSachThieuChiSo);
+        result.put("thang", THANG);
+        result.put("nam", NAM);
+        return new KetQua(result, tongTien, thanhTienHoPhi);
+    }
+
+    // ===== Chạy engine trên fixture =====
+
+    private void stub(Fixture f) {
+        when(bulkRepo.findHoByToaNha(TOA_NHA_ID)).thenReturn(f.ho());
+        when(bulkRepo.findPhiWithDonGia(DOT_THU_ID, TOA_NHA_ID)).thenReturn(f.phi().stream()
+            .map(p -> new PhiRow(p.id(), p.ten(), p.donGiaApDung()))
+            .toList());
+        when(bulkRepo.findDinhMucByToaNha(eq(TOA_NHA_ID), anyCollection())).thenReturn(f.dinhMuc());
+        when(tieuThuRepo.findByToaNha(eq(TOA_NHA_ID), anyCollection(), eq(THANG), eq(NAM))).thenReturn(f.chiSo().stream()
+            .map(c -> new ChiSoKyRow(c.hoId(), c.loaiPhiId(), null, c.chiSoMoi(), c.chiSoTruoc()))
+            .toList());
+
+        // Hóa đơn có sẵn; hóa đơn rỗng tạo mới cho hộ X có ID 20000 + X
+        when(bulkRepo.findHoaDonByDotThu(DOT_THU_ID)).thenReturn(f.hoaDon().stream()
+            .map(h -> new HoaDonRow(h.hoaDonId(), h.hoId(), h.soTienDaDong()))
+            .toList());
+        when(bulkRepo.insertHoaDonRong(eq(DOT_THU_ID), anyList(), anyString())).thenAnswer(inv -> {
+            Map<Integer, Integer> hoaDonIdTheoHo = new LinkedHashMap<>();
+            for (Integer hoId : inv.<List<Integer>>getArgument(1)) {
+                hoaDonIdTheoHo.put(hoId, 20000 + hoId);
+            }
+            return hoaDonIdTheoHo;
+        });
+
+        List<ChiTietRow> chiTiet = new ArrayList<>();
+        for (HoaDonCu h : f.hoaDon()) {
+            h.chiTietTheoPhi().forEach((loaiPhiId, chiTietId) -> chiTiet.add(new ChiTietRow(chiTietId, h.hoaDonId(), loaiPhiId)));
+        }
+        when(bulkRepo.findChiTietByDotThu(DOT_THU_ID)).thenReturn(chiTiet);
+    }
+
+    private static DotThu dotThu() {
+        ToaNha toaNha = new ToaNha();
+        toaNha.setId(TOA_NHA_ID);
+        DotThu dotThu = new DotThu();
+        dotThu.setId(DOT_THU_ID);
+        dotThu.setToaNha(toaNha);
+        dotThu.setThang(THANG);
+        dotThu.setNam(NAM);
+        return dotThu;
+    }
+
+    @SuppressWarnings("unchecked")
+    private KetQua runEngine(Fixture f) {
+        InvoiceCalculationEngine.KetQuaTinhTien kq = engine.calculate(dotThu());
+
+        ArgumentCaptor<List<ChiTietWrite>> moi = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<List<ChiTietWrite>> capNhat = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<List<HoaDonTotalWrite>> tong = ArgumentCaptor.forClass(List.class);
+        verify(bulkRepo).insertChiTiet(moi.capture());
+        verify(bulkRepo).updateChiTiet(capNhat.capture());
+        verify(bulkRepo).updateHoaDonTotals(tong.capture());
+
+        Map<Integer, Integer> hoTheoHoaDon = new HashMap<>();
+        f.hoaDon().forEach(h -> hoTheoHoaDon.put(h.hoaDonId(), h.hoId()));
+        f.ho().forEach(h -> hoTheoHoaDon.putIfAbsent(20000 + h.hoGiaDinhId(), h.hoGiaDinhId()));
+
+        Map<String, BigDecimal> thanhTienHoPhi = new TreeMap<>();
+        List<ChiTietWrite> tatCa = new ArrayList<>(moi.getValue());
+        tatCa.addAll(capNhat.getValue());
+        for (ChiTietWrite w : tatCa) {
+            thanhTienHoPhi.put(hoTheoHoaDon.get(w.hoaDonId()) + "/" + w.loaiPhiId(), w.thanhTien());
+        }
+        Map<Integer, BigDecimal> tongTien = new TreeMap<>();
+        for (HoaDonTotalWrite w : tong.getValue()) {
+            tongTien.put(hoTheoHoaDon.get(w.hoaDonId()), w.tongTienPhaiThu());
+        }
+        return new KetQua(kq.ketQua(), tongTien, thanhTienHoPhi);
+    }
+
+    // ===== Tests =====
+
+    @Test
+    void ketQuaGiongVongLapCu() {
+        Fixture f = toaNhaMau();
+        stub(f);
+
+        KetQua cu = legacyCalculate(f);
+        KetQua moi = runEngine(f);
+
+        assertThat(moi.ketQua()).isEqualTo(cu.ketQua());
+        assertThat(moi.thanhTienTheoHoPhi()).isEqualTo(cu.thanhTienTheoHoPhi());
+        assertThat(moi.tongTienTheoHo()).isEqualTo(cu.tongTienTheoHo());
+        assertThat(moi.ketQua().get("danhSachThieuChiSo")).isEqualTo(List.of("A103", "A104"));
+        verify(thongKeService).onDotThuRecalculated(DOT_THU_ID);
+    }
+
+    @Test
+    void chiTietDaCoDuocCapNhatThayViThemMoi() {
+        Fixture f = toaNhaMau();
+        stub(f);
+
+        engine.calculate(dotThu());
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<ChiTietWrite>> capNhat = ArgumentCaptor.forClass(List.class);
+        verify(bulkRepo).updateChiTiet(capNhat.capture());
+        assertThat(capNhat.getValue()).extracting(ChiTietWrite::chiTietId).containsExactly(5001);
+        verify(bulkRepo).insertHoaDonRong(DOT_THU_ID, List.of(103, 104), "ChuaThanhToan");
+    }
+
+    /**
+     * Thay cho endpoint benchmark cũ: số round-trip SQL không phụ thuộc số hộ
+     * (tòa 1.200 căn vẫn chỉ tốn một số câu SQL cố định + số khối batch).
+     */
+    @Test
+    void soTruyVanKhongTangTheoSoHo() {
+        int soHo = 1200;
+        List<HoRow> ho = new ArrayList<>();
+        List<ChiSo> chiSo = new ArrayList<>();
+        for (int i = 1; i <= soHo; i++) {
+            ho.add(new HoRow(i, "H" + i));
+            chiSo.add(new ChiSo(i, 1, 100 + i, 100));
+        }
+        Fixture f = new Fixture(ho,
+            List.of(new Phi(1, "Điện", new BigDecimal("3500"), null), new Phi(3, "Phí dịch vụ", new BigDecimal("7000"), null)),
+            chiSo, List.of(), List.of());
+        stub(f);
+        when(bulkRepo.insertChiTiet(anyList())).thenAnswer(inv -> khoi(inv.getArgument(0)));
+        when(bulkRepo.updateChiTiet(anyList())).thenAnswer(inv -> khoi(inv.getArgument(0)));
+        when(bulkRepo.updateHoaDonTotals(anyList())).thenAnswer(inv -> khoi(inv.getArgument(0)));
+
+        InvoiceCalculationEngine.KetQuaTinhTien kq = engine.calculate(dotThu());
+
+        // 6 câu đọc + 3 khối tạo hóa đơn + 5 khối chi tiết (2.400 dòng) + 3 khối tổng tiền + 1 thống kê
+        assertThat(kq.soTruyVan()).isEqualTo(18);
+        assertThat(kq.ketQua().get("soHoaDonTao")).isEqualTo(soHo);
+    }
+
+    @Test
+    void baoTienDoSauMoiKhoiHo() {
+        List<HoRow> ho = new ArrayList<>();
+        for (int i = 1; i <= 1200; i++) {
+            ho.add(new HoRow(i, "H" + i));
+        }
+        stub(new Fixture(ho, List.of(new Phi(3, "Phí dịch vụ", new BigDecimal("7000"), null)),
+            List.of(), List.of(), List.of()));
+
+        List<Integer> tienDo = new ArrayList<>();
+        engine.calculate(dotThu(), tienDo::add);
+
+        assertThat(tienDo).containsExactly(500, 500, 200);
+    }
+
+    private static int khoi(List<?> rows) {
+        return (rows.size() + HoaDonBulkRepository.BATCH_SIZE - 1) / HoaDonBulkRepository.BATCH_SIZE;
+    }
+}
@@ -0,0 +1,72 @@
+package com.nhom33.quanlychungcu.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Chữ ký VNPAY: tham số đúng chữ ký được chấp nhận, tham số bị sửa thì bị từ chối.
+ * Chữ ký mẫu tính độc lập (HMAC-SHA512 trên chuỗi query đã sắp xếp, URL-encode kiểu form).
+ */
+class VnPaySignerTest {
+
+    private static final String SECRET = "TESTSECRETKEY0123456789";
+    private static final String CHU_KY = "3bcea488d2f659ebe94a482b1154bee845b5317241b8dd933e640162e038cd9c"
+        + "c3e01b9a4d27a1ea7b4bf7d4e3a8d551a9fc45854b46c5041e00ac47374d02be";
+
+    private final VnPaySigner signer = new VnPaySigner(SECRET);
+
+    @Test
+    void chapNhanChuKyDung() {
+        assertThat(signer.verify(thamSo(CHU_KY))).isTrue();
+        // Chuỗi hex chữ hoa và có kèm vnp_SecureHashType vẫn hợp lệ
+        Map<String, String> params = thamSo(CHU_KY.toUpperCase());
+        params.put(VnPaySigner.SECURE_HASH_TYPE, "HmacSHA512");
+        assertThat(signer.verify(params)).isTrue();
+    }
+
+    @Test
+    void tuChoiThamSoBiSua() {
+        Map<String, String> params = thamSo(CHU_KY);
+        params.put("vnp_Amount", "100000000");
+        assertThat(signer.verify(params)).isFalse();
+    }
+
+    @Test
+    void tuChoiChuKyBiSuaHoacThieu() {
+        String sua = CHU_KY.substring(0, CHU_KY.length() - 1) + "f";
+        assertThat(signer.verify(thamSo(sua))).isFalse();
+        assertThat(signer.verify(thamSo(null))).isFalse();
+    }
+
+    @Test
+    void urlThanhToanKyDungChuoiQuery() {
+        Map<String, String> params = thamSo(null);
+        String url = signer.buildPaymentUrl("https://sandbox.vnpayment.vn/paymentv2/vpcpay.html", params);
+
+        assertThat(url).isEqualTo("https://sandbox.vnpayment.vn/paymentv2/vpcpay.html?"
+            + "vnp_Amount=10000000&vnp_BankCode=NCB&vnp_OrderInfo=Thanh+toan+hoa+don+%2315"
+            + "&vnp_ResponseCode=00&vnp_TmnCode=DEMO1234&vnp_TransactionNo=14012345"
+            + "&vnp_TransactionStatus=00&vnp_TxnRef=15&vnp_SecureHash=" + CHU_KY);
+    }
+
+    private static Map<String, String> thamSo(String chuKy) {
+        Map<String, String> params = new HashMap<>();
+        params.put("vnp_Amount", "10000000");
+        params.put("vnp_BankCode", "NCB");
+        params.put("vnp_OrderInfo", "Thanh toan hoa don #15");
+        params.put("vnp_ResponseCode", "00");
+        params.put("vnp_TmnCode", "DEMO1234");
+        params.put("vnp_TransactionNo", "14012345");
+        params.put("vnp_TransactionStatus", "00");
+        params.put("vnp_TxnRef", "15");
+        params.put("vnp_CardType", "");
+        if (chuKy != null) {
+            params.put(VnPaySigner.SECURE_HASH, chuKy);
+        }
+        return params;
+    }
+}
@@ -0,0 +1,15 @@
+-- ============================================================================
+-- MIGRATION 001: Users.TokenVersion (thu hồi JWT lưu trong DB)
+-- Áp dụng cho database đã tạo từ sql_base.sql trước thay đổi này; chạy lại nhiều lần không sao.
+-- ============================================================================
+
+USE QuanLyChungCuDB;
+GO
+
+IF COL_LENGTH('dbo.Users', 'TokenVersion') IS NULL
+BEGIN
+    ALTER TABLE Users ADD TokenVersion INT NOT NULL
+        CONSTRAINT DF_Users_TokenVersion DEFAULT 0;
+    PRINT 'Đã thêm cột Users.TokenVersion';
+END
+GO
@@ -0,0 +1,28 @@
+-- ============================================================================
+-- MIGRATION 001a: Bảng ThongKeDotThu (thống kê đợt thu, duy trì cùng transaction với HoaDon)
+-- Áp dụng cho database đã tạo từ sql_base.sql trước thay đổi này; chạy lại nhiều lần không sao.
+-- Phải chạy trước 002/003 (hai migration đó thêm cột SoHo, PhienBan vào bảng này).
+--
+-- Bảng chỉ được ghi bằng JDBC (ThongKeDotThuRepository), ddl-auto=update không tạo.
+-- Dòng thống kê của các đợt thu đã có được ứng dụng bổ sung khi khởi động (createMissingAll).
+-- ============================================================================
+
+USE QuanLyChungCuDB;
+GO
+
+IF OBJECT_ID('dbo.ThongKeDotThu', 'U') IS NULL
+BEGIN
+    CREATE TABLE ThongKeDotThu (
+        ID_DotThu INT NOT NULL PRIMARY KEY,
+        SoHoaDon INT NOT NULL DEFAULT 0,
+        TongPhaiThu DECIMAL(18, 0) NOT NULL DEFAULT 0,
+        TongDaThu DECIMAL(18, 0) NOT NULL DEFAULT 0,
+        SoChuaDong INT NOT NULL DEFAULT 0,
+        SoDangNo INT NOT NULL DEFAULT 0,
+        SoDaDong INT NOT NULL DEFAULT 0,
+        NgayCapNhat DATETIME DEFAULT GETDATE(),
+        CONSTRAINT FK_ThongKeDotThu_DotThu FOREIGN KEY (ID_DotThu) REFERENCES DotThu(ID_DotThu) ON DELETE CASCADE
+    );
+    PRINT 'Đã tạo bảng ThongKeDotThu';
+END
+GO
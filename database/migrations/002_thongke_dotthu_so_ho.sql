@@ -0,0 +1,22 @@
+-- ============================================================================
+-- MIGRATION 002: ThongKeDotThu.SoHo (số hộ của tòa nhà cho báo cáo đợt thu)
+-- Áp dụng cho database đã tạo từ sql_base.sql trước thay đổi này; chạy lại nhiều lần không sao.
+-- ============================================================================
+
+USE QuanLyChungCuDB;
+GO
+
+IF COL_LENGTH('dbo.ThongKeDotThu', 'SoHo') IS NULL
+BEGIN
+    ALTER TABLE ThongKeDotThu ADD SoHo INT NOT NULL
+        CONSTRAINT DF_ThongKeDotThu_SoHo DEFAULT 0;
+    PRINT 'Đã thêm cột ThongKeDotThu.SoHo';
+END
+GO
+
+-- Điền số hộ hiện tại cho các dòng đã có
+UPDATE t
+SET SoHo = (SELECT COUNT(*) FROM HoGiaDinh h WHERE h.ID_ToaNha = d.ID_ToaNha)
+FROM ThongKeDotThu t
+JOIN DotThu d ON d.ID_DotThu = t.ID_DotThu;
+GO
@@ -0,0 +1,14 @@
+-- ============================================================================
+-- MIGRATION 003: ThongKeDotThu.PhienBan (ROWVERSION làm phiên bản cho ETag dashboard)
+-- Áp dụng cho database đã tạo từ sql_base.sql trước thay đổi này; chạy lại nhiều lần không sao.
+-- ============================================================================
+
+USE QuanLyChungCuDB;
+GO
+
+IF COL_LENGTH('dbo.ThongKeDotThu', 'PhienBan') IS NULL
+BEGIN
+    ALTER TABLE ThongKeDotThu ADD PhienBan ROWVERSION;
+    PRINT 'Đã thêm cột ThongKeDotThu.PhienBan';
+END
+GO
@@ -0,0 +1,115 @@
+-- ============================================================================
+-- MIGRATION 004: ID của HoaDon, ChiTietHoaDon, DinhMucThu, LichSuThanhToan lấy từ sequence (thay IDENTITY)
+-- Áp dụng cho database đã tạo từ sql_base.sql trước thay đổi này; chạy lại nhiều lần không sao.
+--
+-- Entity JPA cấp ID theo khối 50 từ <Bang>_SEQ (Hibernate pooled: giá trị v giữ khối [v - 49, v]),
+-- các INSERT bằng JDBC cũng cấp ID theo khối đó (SequenceBlock). SQL Server không bỏ được thuộc tính
+-- IDENTITY của cột nên cột ID được tạo lại (giữ nguyên giá trị), khóa ngoại trỏ tới bảng được tạo lại sau đó.
+-- Sequence được đặt lại để khối kế tiếp bắt đầu sau MAX(ID) hiện có.
+-- Nên dừng ứng dụng khi chạy (mỗi bảng chuyển trong một transaction).
+-- ============================================================================
+
+USE QuanLyChungCuDB;
+GO
+
+CREATE PROCEDURE #ChuyenIdentitySangSequence
+    @Bang SYSNAME,
+    @Cot SYSNAME,
+    @Sequence SYSNAME
+AS
+BEGIN
+    SET NOCOUNT ON;
+    SET XACT_ABORT ON;
+
+    DECLARE @bangDayDu NVARCHAR(300) = N'dbo.' + QUOTENAME(@Bang);
+    DECLARE @seqDayDu NVARCHAR(300) = N'dbo.' + QUOTENAME(@Sequence);
+    DECLARE @sql NVARCHAR(MAX);
+
+    -- 1. Sequence bước 50, bắt đầu từ 50 (khối đầu tiên là [1, 50])
+    IF OBJECT_ID(@seqDayDu, N'SO') IS NULL
+    BEGIN
+        SET @sql = N'CREATE SEQUENCE ' + @seqDayDu + N' AS INT START WITH 50 INCREMENT BY 50;';
+        EXEC (@sql);
+        PRINT N'Đã tạo sequence ' + @Sequence;
+    END
+
+    -- 2. Cột IDENTITY -> cột INT thường, DEFAULT lấy từ sequence (cho INSERT viết tay)
+    IF COLUMNPROPERTY(OBJECT_ID(@bangDayDu), @Cot, 'IsIdentity') = 1
+    BEGIN
+        DECLARE @fk TABLE (Ten SYSNAME, BangCon NVARCHAR(300), CotCon SYSNAME, KhiXoa NVARCHAR(60));
+        DECLARE @pk SYSNAME;
+        DECLARE @cotTam NVARCHAR(300) = @bangDayDu + N'.' + QUOTENAME(@Cot + N'_Moi');
+
+        BEGIN TRAN;
+
+        INSERT INTO @fk (Ten, BangCon, CotCon, KhiXoa)
+        SELECT fk.name, QUOTENAME(SCHEMA_NAME(t.schema_id)) + N'.' + QUOTENAME(t.name), c.name,
+               fk.delete_referential_action_desc
+        FROM sys.foreign_keys fk
+        JOIN sys.foreign_key_columns fkc ON fkc.constraint_object_id = fk.object_id
+        JOIN sys.tables t ON t.object_id = fk.parent_object_id
+        JOIN sys.columns c ON c.object_id = fkc.parent_object_id AND c.column_id = fkc.parent_column_id
+        WHERE fk.referenced_object_id = OBJECT_ID(@bangDayDu);
+
+        SELECT @sql = STRING_AGG(CAST(N'ALTER TABLE ' + BangCon + N' DROP CONSTRAINT ' + QUOTENAME(Ten)
+                                      AS NVARCHAR(MAX)), N'; ')
+        FROM @fk;
+        IF @sql IS NOT NULL EXEC (@sql);
+
+        SELECT @pk = name FROM sys.key_constraints
+        WHERE parent_object_id = OBJECT_ID(@bangDayDu) AND type = 'PK';
+        SET @sql = N'ALTER TABLE ' + @bangDayDu + N' DROP CONSTRAINT ' + QUOTENAME(@pk);
+        EXEC (@sql);
+
+        SET @sql = N'ALTER TABLE ' + @bangDayDu + N' ADD ' + QUOTENAME(@Cot + N'_Moi') + N' INT NULL;';
+        EXEC (@sql);
+        SET @sql = N'UPDATE ' + @bangDayDu + N' SET ' + QUOTENAME(@Cot + N'_Moi') + N' = ' + QUOTENAME(@Cot) + N';'
+                 + N'ALTER TABLE ' + @bangDayDu + N' DROP COLUMN ' + QUOTENAME(@Cot) + N';';
+        EXEC (@sql);
+        EXEC sp_rename @cotTam, @Cot, 'COLUMN';
+
+        SET @sql = N'ALTER TABLE ' + @bangDayDu + N' ALTER COLUMN ' + QUOTENAME(@Cot) + N' INT NOT NULL;'
+                 + N'ALTER TABLE ' + @bangDayDu + N' ADD CONSTRAINT ' + QUOTENAME(N'PK_' + @Bang)
+                 + N' PRIMARY KEY (' + QUOTENAME(@Cot) + N');'
+                 + N'ALTER TABLE ' + @bangDayDu + N' ADD CONSTRAINT ' + QUOTENAME(N'DF_' + @Bang + N'_ID')
+                 + N' DEFAULT (NEXT VALUE FOR ' + @seqDayDu + N') FOR ' + QUOTENAME(@Cot) + N';';
+        EXEC (@sql);
+
+        SET @sql = NULL;
+        SELECT @sql = STRING_AGG(CAST(N'ALTER TABLE ' + BangCon + N' WITH CHECK ADD CONSTRAINT ' + QUOTENAME(Ten)
+                                      + N' FOREIGN KEY (' + QUOTENAME(CotCon) + N') REFERENCES ' + @bangDayDu
+                                      + N' (' + QUOTENAME(@Cot) + N')'
+                                      + CASE KhiXoa WHEN N'CASCADE' THEN N' ON DELETE CASCADE' ELSE N'' END
+                                      AS NVARCHAR(MAX)), N'; ')
+        FROM @fk;
+        IF @sql IS NOT NULL EXEC (@sql);
+
+        COMMIT;
+        PRINT N'Đã chuyển ' + @Bang + N'.' + @Cot + N' từ IDENTITY sang ' + @Sequence;
+    END
+
+    -- 3. Khối kế tiếp của sequence phải nằm sau MAX(ID) và sau mọi khối đã cấp
+    DECLARE @maxId INT, @hienTai INT, @batDau INT;
+    SET @sql = N'SELECT @maxId = MAX(' + QUOTENAME(@Cot) + N') FROM ' + @bangDayDu + N';';
+    EXEC sp_executesql @sql, N'@maxId INT OUTPUT', @maxId = @maxId OUTPUT;
+    SELECT @hienTai = CAST(current_value AS INT) FROM sys.sequences WHERE object_id = OBJECT_ID(@seqDayDu);
+
+    SET @batDau = ISNULL(@maxId, 0) + 50;
+    IF @hienTai < @batDau
+    BEGIN
+        IF @batDau < @hienTai + 50 SET @batDau = @hienTai + 50;
+        SET @sql = N'ALTER SEQUENCE ' + @seqDayDu + N' RESTART WITH ' + CAST(@batDau AS NVARCHAR(20)) + N';';
+        EXEC (@sql);
+        PRINT N'Đã đặt lại ' + @Sequence + N' bắt đầu từ ' + CAST(@batDau AS NVARCHAR(20));
+    END
+END
+GO
+
+EXEC #ChuyenIdentitySangSequence N'HoaDon', N'ID_HoaDon', N'HoaDon_SEQ';
+EXEC #ChuyenIdentitySangSequence N'ChiTietHoaDon', N'ID_ChiTiet', N'ChiTietHoaDon_SEQ';
+EXEC #ChuyenIdentitySangSequence N'DinhMucThu', N'ID_DinhMuc', N'DinhMucThu_SEQ';
+EXEC #ChuyenIdentitySangSequence N'LichSuThanhToan', N'ID_GiaoDich', N'LichSuThanhToan_SEQ';
+GO
+
+DROP PROCEDURE #ChuyenIdentitySangSequence;
+GO
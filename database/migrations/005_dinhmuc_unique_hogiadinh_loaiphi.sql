@@ -0,0 +1,41 @@
+-- ============================================================================
+-- MIGRATION 005: UNIQUE (ID_HoGiaDinh, ID_LoaiPhi) trên DinhMucThu (khóa khớp của MERGE cấp định mức hàng loạt)
+-- Áp dụng cho database đã tạo từ sql_base.sql trước thay đổi này; chạy lại nhiều lần không sao.
+--
+-- Trước đây không có ràng buộc nên một hộ có thể có nhiều định mức cho cùng loại phí.
+-- Giữ lại định mức mới nhất (ID_DinhMuc lớn nhất), xóa các dòng trùng còn lại rồi mới thêm ràng buộc.
+-- ============================================================================
+
+USE QuanLyChungCuDB;
+GO
+
+IF OBJECT_ID('dbo.UQ_DinhMuc_HoGiaDinh_LoaiPhi', 'UQ') IS NULL
+BEGIN
+    SET XACT_ABORT ON;
+    BEGIN TRAN;
+
+    DELETE dm
+    FROM DinhMucThu dm WITH (TABLOCKX, HOLDLOCK)
+    WHERE EXISTS (
+        SELECT 1 FROM DinhMucThu moi
+        WHERE moi.ID_HoGiaDinh = dm.ID_HoGiaDinh
+          AND moi.ID_LoaiPhi = dm.ID_LoaiPhi
+          AND moi.ID_DinhMuc > dm.ID_DinhMuc
+    );
+    PRINT N'Đã xóa ' + CAST(@@ROWCOUNT AS NVARCHAR(20)) + N' định mức trùng (hộ, loại phí)';
+
+    ALTER TABLE DinhMucThu ADD CONSTRAINT UQ_DinhMuc_HoGiaDinh_LoaiPhi UNIQUE (ID_HoGiaDinh, ID_LoaiPhi);
+
+    COMMIT;
+    PRINT 'Đã thêm ràng buộc UQ_DinhMuc_HoGiaDinh_LoaiPhi';
+END
+GO
+
+-- Cấp định mức theo khoảng tầng trong tòa nhà
+IF NOT EXISTS (SELECT 1 FROM sys.indexes
+               WHERE name = 'IX_HoGiaDinh_ToaNha_SoTang' AND object_id = OBJECT_ID('dbo.HoGiaDinh'))
+BEGIN
+    CREATE INDEX IX_HoGiaDinh_ToaNha_SoTang ON HoGiaDinh(ID_ToaNha, SoTang);
+    PRINT 'Đã thêm index IX_HoGiaDinh_ToaNha_SoTang';
+END
+GO
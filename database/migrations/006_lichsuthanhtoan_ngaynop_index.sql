@@ -0,0 +1,15 @@
+-- ============================================================================
+-- MIGRATION 006: Index LichSuThanhToan(NgayNop) cho dashboard (tiền thực nhận theo tháng nộp)
+-- Áp dụng cho database đã tạo từ sql_base.sql trước thay đổi này; chạy lại nhiều lần không sao.
+-- ============================================================================
+
+USE QuanLyChungCuDB;
+GO
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes
+               WHERE name = 'IX_ThanhToan_NgayNop' AND object_id = OBJECT_ID('dbo.LichSuThanhToan'))
+BEGIN
+    CREATE INDEX IX_ThanhToan_NgayNop ON LichSuThanhToan(NgayNop) INCLUDE (ID_HoaDon, SoTien);
+    PRINT 'Đã thêm index IX_ThanhToan_NgayNop';
+END
+GO
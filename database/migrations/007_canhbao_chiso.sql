@@ -0,0 +1,42 @@
+-- ============================================================================
+-- MIGRATION 007: Bảng CanhBaoChiSo (cảnh báo chỉ số điện nước bất thường chờ duyệt)
+-- Áp dụng cho database đã tạo từ sql_base.sql trước thay đổi này; chạy lại nhiều lần không sao.
+-- Bảng chỉ được ghi bằng JDBC (CanhBaoChiSoRepository), ddl-auto=update không tạo.
+-- ============================================================================
+
+USE QuanLyChungCuDB;
+GO
+
+IF OBJECT_ID('dbo.CanhBaoChiSo', 'U') IS NULL
+BEGIN
+    CREATE TABLE CanhBaoChiSo (
+        ID_CanhBao INT IDENTITY(1,1) PRIMARY KEY,
+        ID_HoGiaDinh INT NOT NULL,
+        ID_LoaiPhi INT NOT NULL,
+        Thang INT NOT NULL,
+        Nam INT NOT NULL,
+        ChiSoCu INT NOT NULL,
+        ChiSoMoi INT NOT NULL,
+        TieuThu INT NOT NULL,
+        TrungVi FLOAT NOT NULL,        -- Trung vị tiêu thụ các tháng trước
+        MAD FLOAT NOT NULL,            -- Median absolute deviation
+        DiemBatThuong FLOAT NOT NULL,  -- Robust z-score = 0.6745 * (TieuThu - TrungVi) / MAD
+        TrangThai NVARCHAR(20) NOT NULL DEFAULT 'ChoDuyet',
+        NgayTao DATETIME DEFAULT GETDATE(),
+        NguoiDuyet NVARCHAR(100) NULL,
+        NgayDuyet DATETIME NULL,
+        CONSTRAINT FK_CanhBao_HoGiaDinh FOREIGN KEY (ID_HoGiaDinh) REFERENCES HoGiaDinh(ID_HoGiaDinh) ON DELETE CASCADE,
+        CONSTRAINT FK_CanhBao_LoaiPhi FOREIGN KEY (ID_LoaiPhi) REFERENCES LoaiPhi(ID_LoaiPhi) ON DELETE CASCADE,
+        CONSTRAINT UQ_CanhBao_ThangNam UNIQUE (ID_HoGiaDinh, ID_LoaiPhi, Thang, Nam)
+    );
+    PRINT 'Đã tạo bảng CanhBaoChiSo';
+END
+GO
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes
+               WHERE name = 'IX_CanhBao_ThangNam' AND object_id = OBJECT_ID('dbo.CanhBaoChiSo'))
+BEGIN
+    CREATE INDEX IX_CanhBao_ThangNam ON CanhBaoChiSo(Nam, Thang, TrangThai);
+    PRINT 'Đã thêm index IX_CanhBao_ThangNam';
+END
+GO
@@ -0,0 +1,69 @@
+-- ============================================================================
+-- MIGRATION 008: HoaDon.Version (optimistic locking), bảng ThanhToanIdempotency,
+--                UNIQUE mã giao dịch VNPAY trên LichSuThanhToan
+-- Áp dụng cho database đã tạo từ sql_base.sql trước thay đổi này; chạy lại nhiều lần không sao.
+--
+-- ddl-auto=update thêm cột NOT NULL không có DEFAULT nên thất bại trên bảng đã có dữ liệu: cột Version
+-- phải được thêm ở đây (có DEFAULT 0) trước khi chạy bản ứng dụng mới.
+-- ============================================================================
+
+USE QuanLyChungCuDB;
+GO
+
+IF COL_LENGTH('dbo.HoaDon', 'Version') IS NULL
+BEGIN
+    ALTER TABLE HoaDon ADD Version BIGINT NOT NULL
+        CONSTRAINT DF_HoaDon_Version DEFAULT 0;
+    PRINT 'Đã thêm cột HoaDon.Version';
+END
+GO
+
+IF OBJECT_ID('dbo.ThanhToanIdempotency', 'U') IS NULL
+BEGIN
+    CREATE TABLE ThanhToanIdempotency (
+        IdempotencyKey VARCHAR(100) NOT NULL PRIMARY KEY,
+        ID_HoaDon INT NOT NULL,
+        ID_GiaoDich INT NULL,            -- Giao dịch đã ghi (LichSuThanhToan)
+        NgayTao DATETIME DEFAULT GETDATE(),
+        CONSTRAINT FK_Idempotency_HoaDon FOREIGN KEY (ID_HoaDon) REFERENCES HoaDon(ID_HoaDon) ON DELETE CASCADE
+    );
+    PRINT 'Đã tạo bảng ThanhToanIdempotency';
+END
+GO
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes
+               WHERE name = 'IX_Idempotency_NgayTao' AND object_id = OBJECT_ID('dbo.ThanhToanIdempotency'))
+BEGIN
+    CREATE INDEX IX_Idempotency_NgayTao ON ThanhToanIdempotency(NgayTao);
+    PRINT 'Đã thêm index IX_Idempotency_NgayTao';
+END
+GO
+
+-- Một mã giao dịch VNPAY chỉ được ghi nhận một lần.
+-- Dữ liệu cũ có thể đã ghi trùng (callback lặp trước khi có khóa idempotency): mỗi dòng trùng đã cộng
+-- vào HoaDon.SoTienDaDong, nên KHÔNG tự xóa ở đây. Liệt kê các mã trùng và dừng; đối soát xong
+-- (xóa giao dịch thừa, trừ lại SoTienDaDong) thì chạy lại migration.
+IF NOT EXISTS (SELECT 1 FROM sys.indexes
+               WHERE name = 'UX_ThanhToan_MaGiaoDichVNPAY' AND object_id = OBJECT_ID('dbo.LichSuThanhToan'))
+BEGIN
+    IF EXISTS (SELECT 1 FROM LichSuThanhToan
+               WHERE MaGiaoDichVNPAY IS NOT NULL
+               GROUP BY MaGiaoDichVNPAY HAVING COUNT(*) > 1)
+    BEGIN
+        SELECT MaGiaoDichVNPAY, COUNT(*) AS SoDong, SUM(SoTien) AS TongTien,
+               STRING_AGG(CAST(ID_GiaoDich AS VARCHAR(20)), ', ') AS DanhSachGiaoDich
+        FROM LichSuThanhToan
+        WHERE MaGiaoDichVNPAY IS NOT NULL
+        GROUP BY MaGiaoDichVNPAY
+        HAVING COUNT(*) > 1;
+
+        RAISERROR (N'LichSuThanhToan có mã giao dịch VNPAY bị ghi trùng (xem danh sách trên). Đối soát rồi chạy lại migration 008.', 16, 1);
+    END
+    ELSE
+    BEGIN
+        CREATE UNIQUE INDEX UX_ThanhToan_MaGiaoDichVNPAY ON LichSuThanhToan(MaGiaoDichVNPAY)
+            WHERE MaGiaoDichVNPAY IS NOT NULL;
+        PRINT 'Đã thêm index UX_ThanhToan_MaGiaoDichVNPAY';
+    END
+END
+GO
@@ -0,0 +1,46 @@
+-- ============================================================================
+-- MIGRATION 009: Bảng VnPayCallbackOutbox (callback VNPAY ghi vào outbox, worker nền xử lý)
+-- Áp dụng cho database đã tạo từ sql_base.sql trước thay đổi này; chạy lại nhiều lần không sao.
+-- Bảng chỉ được ghi bằng JDBC (VnPayOutboxRepository), ddl-auto=update không tạo.
+-- ============================================================================
+
+USE QuanLyChungCuDB;
+GO
+
+IF OBJECT_ID('dbo.VnPayCallbackOutbox', 'U') IS NULL
+BEGIN
+    CREATE TABLE VnPayCallbackOutbox (
+        ID_Outbox BIGINT IDENTITY(1,1) NOT NULL PRIMARY KEY,
+        MaGiaoDichVNPAY VARCHAR(50) NOT NULL,
+        MaThamChieu VARCHAR(100) NOT NULL,     -- vnp_TxnRef (hoaDonId_timestamp)
+        ID_HoaDon INT NOT NULL,
+        SoTien DECIMAL(18, 0) NOT NULL,
+        MaNganHang VARCHAR(20),
+        MaPhanHoi VARCHAR(10),
+        ThongTin NVARCHAR(255),                -- vnp_OrderInfo
+        TrangThai VARCHAR(20) NOT NULL DEFAULT 'ChoXuLy',
+        SoLanThu INT NOT NULL DEFAULT 0,
+        Loi NVARCHAR(500),
+        NgayTao DATETIME DEFAULT GETDATE(),
+        NgayXuLy DATETIME NULL,
+        CONSTRAINT UQ_Outbox_MaGiaoDich UNIQUE (MaGiaoDichVNPAY)
+    );
+    PRINT 'Đã tạo bảng VnPayCallbackOutbox';
+END
+GO
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes
+               WHERE name = 'IX_Outbox_TrangThai' AND object_id = OBJECT_ID('dbo.VnPayCallbackOutbox'))
+BEGIN
+    CREATE INDEX IX_Outbox_TrangThai ON VnPayCallbackOutbox(TrangThai, ID_Outbox);
+    PRINT 'Đã thêm index IX_Outbox_TrangThai';
+END
+GO
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes
+               WHERE name = 'IX_Outbox_HoaDon' AND object_id = OBJECT_ID('dbo.VnPayCallbackOutbox'))
+BEGIN
+    CREATE INDEX IX_Outbox_HoaDon ON VnPayCallbackOutbox(ID_HoaDon, ID_Outbox);
+    PRINT 'Đã thêm index IX_Outbox_HoaDon';
+END
+GO
@@ -0,0 +1,60 @@
+-- ============================================================================
+-- MIGRATION 010: Bảng EmailBatch, EmailOutbox (hàng đợi email gửi nền)
+-- Áp dụng cho database đã tạo từ sql_base.sql trước thay đổi này; chạy lại nhiều lần không sao.
+-- Bảng chỉ được ghi bằng JDBC (EmailOutboxRepository), ddl-auto=update không tạo.
+-- ============================================================================
+
+USE QuanLyChungCuDB;
+GO
+
+IF OBJECT_ID('dbo.EmailBatch', 'U') IS NULL
+BEGIN
+    CREATE TABLE EmailBatch (
+        ID_Batch BIGINT IDENTITY(1,1) NOT NULL PRIMARY KEY,
+        LoaiEmail VARCHAR(30) NOT NULL,        -- HoaDon / ThongBao / NhacNo
+        ID_DotThu INT NULL,
+        TongSo INT NOT NULL DEFAULT 0,         -- Số email đưa vào hàng đợi
+        SoBoQua INT NOT NULL DEFAULT 0,        -- Số hộ bỏ qua (chưa có email)
+        NguoiTao NVARCHAR(100),
+        NgayTao DATETIME DEFAULT GETDATE()
+    );
+    PRINT 'Đã tạo bảng EmailBatch';
+END
+GO
+
+IF OBJECT_ID('dbo.EmailOutbox', 'U') IS NULL
+BEGIN
+    CREATE TABLE EmailOutbox (
+        ID_Email BIGINT IDENTITY(1,1) NOT NULL PRIMARY KEY,
+        ID_Batch BIGINT NULL,
+        ID_HoaDon INT NULL,
+        NguoiNhan VARCHAR(100) NOT NULL,
+        TieuDe NVARCHAR(255) NOT NULL,
+        NoiDung NVARCHAR(MAX),
+        TrangThai VARCHAR(20) NOT NULL DEFAULT 'ChoGui',
+        SoLanThu INT NOT NULL DEFAULT 0,
+        LanThuTiep DATETIME NOT NULL DEFAULT GETDATE(),
+        Loi NVARCHAR(500),
+        NgayTao DATETIME DEFAULT GETDATE(),
+        NgayGui DATETIME NULL,
+        CONSTRAINT FK_EmailOutbox_Batch FOREIGN KEY (ID_Batch) REFERENCES EmailBatch(ID_Batch) ON DELETE CASCADE
+    );
+    PRINT 'Đã tạo bảng EmailOutbox';
+END
+GO
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes
+               WHERE name = 'IX_EmailOutbox_Cho' AND object_id = OBJECT_ID('dbo.EmailOutbox'))
+BEGIN
+    CREATE INDEX IX_EmailOutbox_Cho ON EmailOutbox(TrangThai, LanThuTiep, ID_Email);
+    PRINT 'Đã thêm index IX_EmailOutbox_Cho';
+END
+GO
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes
+               WHERE name = 'IX_EmailOutbox_Batch' AND object_id = OBJECT_ID('dbo.EmailOutbox'))
+BEGIN
+    CREATE INDEX IX_EmailOutbox_Batch ON EmailOutbox(ID_Batch, TrangThai);
+    PRINT 'Đã thêm index IX_EmailOutbox_Batch';
+END
+GO
@@ -0,0 +1,17 @@
+-- ============================================================================
+-- MIGRATION 011: Index ThongBao(ID_HoGiaDinh, LoaiThongBao, NgayTao) cho nhắc nợ
+-- Áp dụng cho database đã tạo từ sql_base.sql trước thay đổi này; chạy lại nhiều lần không sao.
+-- NhacNoRepository.findHoConNo kiểm tra "hộ đã được nhắc gần đây" bằng NOT EXISTS theo hộ + loại + ngày.
+-- ============================================================================
+
+USE QuanLyChungCuDB;
+GO
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes
+               WHERE name = 'IX_ThongBao_HoGiaDinh_Loai' AND object_id = OBJECT_ID('dbo.ThongBao'))
+BEGIN
+    CREATE INDEX IX_ThongBao_HoGiaDinh_Loai ON ThongBao(ID_HoGiaDinh, LoaiThongBao, NgayTao)
+        WHERE ID_HoGiaDinh IS NOT NULL;
+    PRINT 'Đã thêm index IX_ThongBao_HoGiaDinh_Loai';
+END
+GO
@@ -0,0 +1,51 @@
+-- ============================================================================
+-- MIGRATION 012: Index cho phân trang keyset (/seek) của nhân khẩu, đợt thu, phản ánh
+-- Áp dụng cho database đã tạo từ sql_base.sql trước thay đổi này; chạy lại nhiều lần không sao.
+-- Thiếu các index này trang sau phải quét và sắp xếp lại thay vì seek từ con trỏ.
+-- ============================================================================
+
+USE QuanLyChungCuDB;
+GO
+
+-- Phân trang keyset theo (HoTen, ID)
+IF NOT EXISTS (SELECT 1 FROM sys.indexes
+               WHERE name = 'IX_NhanKhau_HoTen' AND object_id = OBJECT_ID('dbo.NhanKhau'))
+BEGIN
+    CREATE INDEX IX_NhanKhau_HoTen ON NhanKhau(HoTen, ID_NhanKhau);
+    PRINT 'Đã thêm index IX_NhanKhau_HoTen';
+END
+GO
+
+-- Phân trang keyset theo (NgayBatDau, ID) giảm dần
+IF NOT EXISTS (SELECT 1 FROM sys.indexes
+               WHERE name = 'IX_DotThu_NgayBatDau' AND object_id = OBJECT_ID('dbo.DotThu'))
+BEGIN
+    CREATE INDEX IX_DotThu_NgayBatDau ON DotThu(NgayBatDau DESC, ID_DotThu DESC);
+    PRINT 'Đã thêm index IX_DotThu_NgayBatDau';
+END
+GO
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes
+               WHERE name = 'IX_DotThu_ToaNha_NgayBatDau' AND object_id = OBJECT_ID('dbo.DotThu'))
+BEGIN
+    CREATE INDEX IX_DotThu_ToaNha_NgayBatDau ON DotThu(ID_ToaNha, NgayBatDau DESC, ID_DotThu DESC);
+    PRINT 'Đã thêm index IX_DotThu_ToaNha_NgayBatDau';
+END
+GO
+
+-- Danh sách phản ánh theo tòa / theo người gửi (khóa clustered ID_PhanAnh có sẵn trong index -> seek theo ID)
+IF NOT EXISTS (SELECT 1 FROM sys.indexes
+               WHERE name = 'IX_PhanAnh_ToaNha' AND object_id = OBJECT_ID('dbo.PhanAnh'))
+BEGIN
+    CREATE INDEX IX_PhanAnh_ToaNha ON PhanAnh(ID_ToaNha);
+    PRINT 'Đã thêm index IX_PhanAnh_ToaNha';
+END
+GO
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes
+               WHERE name = 'IX_PhanAnh_User' AND object_id = OBJECT_ID('dbo.PhanAnh'))
+BEGIN
+    CREATE INDEX IX_PhanAnh_User ON PhanAnh(ID_User);
+    PRINT 'Đã thêm index IX_PhanAnh_User';
+END
+GO
@@ -59,7 +59,8 @@ CREATE TABLE Users (
     FullName NVARCHAR(100),
     Email NVARCHAR(150),
     Role NVARCHAR(50) NOT NULL,  -- 'ADMIN', 'MANAGER', 'ACCOUNTANT', 'RESIDENT'
-    CreatedAt DATETIME DEFAULT GETDATE()
+    CreatedAt DATETIME DEFAULT GETDATE(),
+    TokenVersion INT NOT NULL DEFAULT 0  -- Tăng khi thu hồi token (đăng xuất, đổi mật khẩu/quyền)
 );
 
 -- ============================================================================
@@ -137,6 +138,9 @@ CREATE TABLE NhanKhau (
     CONSTRAINT UC_NhanKhau_SoCCCD UNIQUE (SoCCCD)
 );
 
+-- Phân trang keyset theo (HoTen, ID)
+CREATE INDEX IX_NhanKhau_HoTen ON NhanKhau(HoTen, ID_NhanKhau);
+
 -- Bảng Tạm trú (Liên kết với NhanKhau)
 -- LOGIC NGHIỆP VỤ:
 -- - Tạm trú = Người từ nơi khác đến ở tạm tại hộ gia đình
@@ -240,27 +244,40 @@ CREATE TABLE DotThu (
 );
 
 CREATE INDEX IX_DotThu_ToaNha ON DotThu(ID_ToaNha);
+-- Phân trang keyset theo (NgayBatDau, ID) giảm dần
+CREATE INDEX IX_DotThu_NgayBatDau ON DotThu(NgayBatDau DESC, ID_DotThu DESC);
+CREATE INDEX IX_DotThu_ToaNha_NgayBatDau ON DotThu(ID_ToaNha, NgayBatDau DESC, ID_DotThu DESC);
 
 -- Bảng Định mức thu
+-- ID của DinhMucThu, HoaDon, ChiTietHoaDon, LichSuThanhToan lấy từ sequence bước 50: mỗi giá trị v giữ khối
+-- ID [v - 49, v] (Hibernate pooled, SequenceBlock cho INSERT JDBC), bắt đầu từ 50 nên khối đầu là [1, 50].
+-- DEFAULT chỉ dành cho INSERT viết tay (mỗi dòng tốn một khối).
+CREATE SEQUENCE DinhMucThu_SEQ AS INT START WITH 50 INCREMENT BY 50;
 CREATE TABLE DinhMucThu (
-    ID_DinhMuc INT IDENTITY(1,1) NOT NULL PRIMARY KEY,
+    ID_DinhMuc INT NOT NULL CONSTRAINT DF_DinhMucThu_ID DEFAULT (NEXT VALUE FOR DinhMucThu_SEQ) PRIMARY KEY,
     ID_HoGiaDinh INT NOT NULL,
     ID_LoaiPhi INT NOT NULL,
     SoLuong FLOAT DEFAULT 1,
     GhiChu NVARCHAR(255),
     CONSTRAINT FK_DinhMuc_HoGiaDinh FOREIGN KEY (ID_HoGiaDinh) REFERENCES HoGiaDinh(ID_HoGiaDinh),
-    CONSTRAINT FK_DinhMuc_LoaiPhi FOREIGN KEY (ID_LoaiPhi) REFERENCES LoaiPhi(ID_LoaiPhi)
+    CONSTRAINT FK_DinhMuc_LoaiPhi FOREIGN KEY (ID_LoaiPhi) REFERENCES LoaiPhi(ID_LoaiPhi),
+    CONSTRAINT UQ_DinhMuc_HoGiaDinh_LoaiPhi UNIQUE (ID_HoGiaDinh, ID_LoaiPhi) -- Mỗi hộ 1 định mức/loại phí, khóa khớp của MERGE hàng loạt
 );
 
+-- Cấp định mức theo khoảng tầng trong tòa nhà
+CREATE INDEX IX_HoGiaDinh_ToaNha_SoTang ON HoGiaDinh(ID_ToaNha, SoTang);
+
 -- Bảng Hóa đơn
+CREATE SEQUENCE HoaDon_SEQ AS INT START WITH 50 INCREMENT BY 50;
 CREATE TABLE HoaDon (
-    ID_HoaDon INT IDENTITY(1,1) NOT NULL PRIMARY KEY,
+    ID_HoaDon INT NOT NULL CONSTRAINT DF_HoaDon_ID DEFAULT (NEXT VALUE FOR HoaDon_SEQ) PRIMARY KEY,
     ID_HoGiaDinh INT NOT NULL,
     ID_DotThu INT NOT NULL,
     TongTienPhaiThu DECIMAL(18, 0) DEFAULT 0,
     SoTienDaDong DECIMAL(18, 0) DEFAULT 0,
     TrangThai NVARCHAR(50) DEFAULT N'Chưa đóng',
     NgayTao DATETIME DEFAULT GETDATE(),
+    Version BIGINT NOT NULL DEFAULT 0, -- Optimistic locking (JPA @Version), tăng mỗi lần ghi
     CONSTRAINT FK_HoaDon_HoGiaDinh FOREIGN KEY (ID_HoGiaDinh) REFERENCES HoGiaDinh(ID_HoGiaDinh),
     CONSTRAINT FK_HoaDon_DotThu FOREIGN KEY (ID_DotThu) REFERENCES DotThu(ID_DotThu),
     CONSTRAINT UQ_HoaDon_HoGiaDinh_DotThu UNIQUE (ID_HoGiaDinh, ID_DotThu) -- Mỗi hộ chỉ có 1 hóa đơn/đợt thu
@@ -271,8 +288,9 @@ CREATE INDEX IX_HoaDon_DotThu ON HoaDon(ID_DotThu);
 CREATE INDEX IX_HoaDon_TrangThai ON HoaDon(TrangThai);
 
 -- Bảng Chi tiết hóa đơn
+CREATE SEQUENCE ChiTietHoaDon_SEQ AS INT START WITH 50 INCREMENT BY 50;
 CREATE TABLE ChiTietHoaDon (
-    ID_ChiTiet INT IDENTITY(1,1) NOT NULL PRIMARY KEY,
+    ID_ChiTiet INT NOT NULL CONSTRAINT DF_ChiTietHoaDon_ID DEFAULT (NEXT VALUE FOR ChiTietHoaDon_SEQ) PRIMARY KEY,
     ID_HoaDon INT NOT NULL,
     ID_LoaiPhi INT NOT NULL,
     SoLuong FLOAT,
@@ -286,8 +304,9 @@ CREATE TABLE ChiTietHoaDon (
 CREATE INDEX IX_ChiTiet_HoaDon ON ChiTietHoaDon(ID_HoaDon);
 
 -- Bảng Lịch sử thanh toán (Có CHECK constraint cho hình thức thanh toán)
+CREATE SEQUENCE LichSuThanhToan_SEQ AS INT START WITH 50 INCREMENT BY 50;
 CREATE TABLE LichSuThanhToan (
-    ID_GiaoDich INT IDENTITY(1,1) NOT NULL PRIMARY KEY,
+    ID_GiaoDich INT NOT NULL CONSTRAINT DF_LichSuThanhToan_ID DEFAULT (NEXT VALUE FOR LichSuThanhToan_SEQ) PRIMARY KEY,
     ID_HoaDon INT NOT NULL,
     SoTien DECIMAL(18, 0) NOT NULL,
     NgayNop DATETIME DEFAULT GETDATE(),
@@ -301,6 +320,51 @@ CREATE TABLE LichSuThanhToan (
     CONSTRAINT CK_HinhThucThanhToan CHECK (HinhThuc IN (N'TIEN_MAT', N'CHUYEN_KHOAN', N'VNPAY'))
 );
 
+CREATE INDEX IX_ThanhToan_NgayNop ON LichSuThanhToan(NgayNop) INCLUDE (ID_HoaDon, SoTien);
+-- Một mã giao dịch VNPAY chỉ được ghi nhận một lần
+CREATE UNIQUE INDEX UX_ThanhToan_MaGiaoDichVNPAY ON LichSuThanhToan(MaGiaoDichVNPAY) WHERE MaGiaoDichVNPAY IS NOT NULL;
+
+-- Bảng khóa idempotency cho ghi nhận thanh toán
+-- LOGIC NGHIỆP VỤ:
+-- - Mỗi lần ghi thanh toán (quầy: header Idempotency-Key, VNPAY: 'VNPAY:' + vnp_TransactionNo) INSERT khóa trước
+-- - Request trùng khóa (gửi lại / callback lặp) nhận lại giao dịch đã ghi, không cộng tiền lần hai
+-- - INSERT cùng khóa đồng thời chờ nhau trên PRIMARY KEY, không khóa toàn cục
+CREATE TABLE ThanhToanIdempotency (
+    IdempotencyKey VARCHAR(100) NOT NULL PRIMARY KEY,
+    ID_HoaDon INT NOT NULL,
+    ID_GiaoDich INT NULL,            -- Giao dịch đã ghi (LichSuThanhToan)
+    NgayTao DATETIME DEFAULT GETDATE(),
+    CONSTRAINT FK_Idempotency_HoaDon FOREIGN KEY (ID_HoaDon) REFERENCES HoaDon(ID_HoaDon) ON DELETE CASCADE
+);
+
+CREATE INDEX IX_Idempotency_NgayTao ON ThanhToanIdempotency(NgayTao);
+
+-- Bảng Outbox kết quả thanh toán VNPAY
+-- LOGIC NGHIỆP VỤ:
+-- - Callback VNPAY chỉ kiểm tra chữ ký rồi ghi vào đây (1 INSERT) và trả về ngay
+-- - Worker nền lấy từng lô ChoXuLy (READPAST, không chặn nhau), ghi LichSuThanhToan + cập nhật HoaDon
+-- - Mỗi vnp_TransactionNo chỉ có một dòng (callback lặp bị bỏ qua)
+-- - TrangThai: ChoXuLy -> DangXuLy -> ThanhCong / TrungLap / Loi
+CREATE TABLE VnPayCallbackOutbox (
+    ID_Outbox BIGINT IDENTITY(1,1) NOT NULL PRIMARY KEY,
+    MaGiaoDichVNPAY VARCHAR(50) NOT NULL,
+    MaThamChieu VARCHAR(100) NOT NULL,     -- vnp_TxnRef (hoaDonId_timestamp)
+    ID_HoaDon INT NOT NULL,
+    SoTien DECIMAL(18, 0) NOT NULL,
+    MaNganHang VARCHAR(20),
+    MaPhanHoi VARCHAR(10),
+    ThongTin NVARCHAR(255),                -- vnp_OrderInfo
+    TrangThai VARCHAR(20) NOT NULL DEFAULT 'ChoXuLy',
+    SoLanThu INT NOT NULL DEFAULT 0,
+    Loi NVARCHAR(500),
+    NgayTao DATETIME DEFAULT GETDATE(),
+    NgayXuLy DATETIME NULL,
+    CONSTRAINT UQ_Outbox_MaGiaoDich UNIQUE (MaGiaoDichVNPAY)
+);
+
+CREATE INDEX IX_Outbox_TrangThai ON VnPayCallbackOutbox(TrangThai, ID_Outbox);
+CREATE INDEX IX_Outbox_HoaDon ON VnPayCallbackOutbox(ID_HoaDon, ID_Outbox);
+
 -- ============================================================================
 -- PHẦN 5: QUẢN LÝ ĐIỆN NƯỚC
 -- ============================================================================
@@ -328,6 +392,34 @@ CREATE TABLE ChiSoDienNuoc (
 CREATE INDEX IX_ChiSo_HoGiaDinh_LoaiPhi ON ChiSoDienNuoc(ID_HoGiaDinh, ID_LoaiPhi);
 CREATE INDEX IX_ChiSo_ThangNam ON ChiSoDienNuoc(Thang, Nam);
 
+-- Bảng Cảnh báo chỉ số bất thường
+-- LOGIC NGHIỆP VỤ:
+-- - Khi nhập chỉ số, tiêu thụ mới được so với lịch sử của hộ (trung vị + MAD)
+-- - Chỉ số vẫn được lưu; dòng bất thường được ghi vào đây chờ duyệt (ChoDuyet -> DaXacNhan)
+-- - Nhập lại chỉ số hợp lệ cho cùng tháng sẽ xóa cảnh báo
+CREATE TABLE CanhBaoChiSo (
+    ID_CanhBao INT IDENTITY(1,1) PRIMARY KEY,
+    ID_HoGiaDinh INT NOT NULL,
+    ID_LoaiPhi INT NOT NULL,
+    Thang INT NOT NULL,
+    Nam INT NOT NULL,
+    ChiSoCu INT NOT NULL,
+    ChiSoMoi INT NOT NULL,
+    TieuThu INT NOT NULL,
+    TrungVi FLOAT NOT NULL,        -- Trung vị tiêu thụ các tháng trước
+    MAD FLOAT NOT NULL,            -- Median absolute deviation
+    DiemBatThuong FLOAT NOT NULL,  -- Robust z-score = 0.6745 * (TieuThu - TrungVi) / MAD
+    TrangThai NVARCHAR(20) NOT NULL DEFAULT 'ChoDuyet',
+    NgayTao DATETIME DEFAULT GETDATE(),
+    NguoiDuyet NVARCHAR(100) NULL,
+    NgayDuyet DATETIME NULL,
+    CONSTRAINT FK_CanhBao_HoGiaDinh FOREIGN KEY (ID_HoGiaDinh) REFERENCES HoGiaDinh(ID_HoGiaDinh) ON DELETE CASCADE,
+    CONSTRAINT FK_CanhBao_LoaiPhi FOREIGN KEY (ID_LoaiPhi) REFERENCES LoaiPhi(ID_LoaiPhi) ON DELETE CASCADE,
+    CONSTRAINT UQ_CanhBao_ThangNam UNIQUE (ID_HoGiaDinh, ID_LoaiPhi, Thang, Nam)
+);
+
+CREATE INDEX IX_CanhBao_ThangNam ON CanhBaoChiSo(Nam, Thang, TrangThai);
+
 -- Bảng cấu hình các khoản phí trong Đợt Thu
 CREATE TABLE DotThu_LoaiPhi (
     ID_Config INT IDENTITY(1,1) PRIMARY KEY,
@@ -355,6 +447,10 @@ CREATE TABLE PhanAnh (
     CONSTRAINT FK_PhanAnh_ToaNha FOREIGN KEY (ID_ToaNha) REFERENCES ToaNha(ID_ToaNha)
 );
 
+-- Danh sách theo tòa / theo người gửi (khóa clustered ID_PhanAnh có sẵn trong index -> seek theo ID)
+CREATE INDEX IX_PhanAnh_ToaNha ON PhanAnh(ID_ToaNha);
+CREATE INDEX IX_PhanAnh_User ON PhanAnh(ID_User);
+
 -- Bảng Phản hồi
 CREATE TABLE PhanHoi (
     ID_PhanHoi INT IDENTITY(1,1) NOT NULL PRIMARY KEY,
@@ -381,6 +477,60 @@ CREATE TABLE ThongBao (
 );
 
 CREATE INDEX IX_ThongBao_ToaNha ON ThongBao(ID_ToaNha);
+-- Nhắc nợ: kiểm tra hộ đã được nhắc gần đây (NOT EXISTS theo hộ + loại + ngày)
+CREATE INDEX IX_ThongBao_HoGiaDinh_Loai ON ThongBao(ID_HoGiaDinh, LoaiThongBao, NgayTao) WHERE ID_HoGiaDinh IS NOT NULL;
+
+-- Bảng Thống kê đợt thu (duy trì tăng dần cùng transaction với HoaDon - dùng cho báo cáo/dashboard)
+CREATE TABLE ThongKeDotThu (
+    ID_DotThu INT NOT NULL PRIMARY KEY,
+    SoHoaDon INT NOT NULL DEFAULT 0,
+    TongPhaiThu DECIMAL(18, 0) NOT NULL DEFAULT 0,
+    TongDaThu DECIMAL(18, 0) NOT NULL DEFAULT 0,
+    SoChuaDong INT NOT NULL DEFAULT 0,
+    SoDangNo INT NOT NULL DEFAULT 0,
+    SoDaDong INT NOT NULL DEFAULT 0,
+    SoHo INT NOT NULL DEFAULT 0,           -- Số hộ của tòa nhà (đợt thu chưa kết thúc: cập nhật khi thêm/xóa hộ)
+    NgayCapNhat DATETIME DEFAULT GETDATE(),
+    PhienBan ROWVERSION,                   -- Phiên bản dữ liệu cho cache/ETag của báo cáo
+    CONSTRAINT FK_ThongKeDotThu_DotThu FOREIGN KEY (ID_DotThu) REFERENCES DotThu(ID_DotThu) ON DELETE CASCADE
+);
+
+-- Bảng Đợt gửi email hàng loạt (vd: gửi hóa đơn cả đợt thu) - theo dõi tiến độ
+CREATE TABLE EmailBatch (
+    ID_Batch BIGINT IDENTITY(1,1) NOT NULL PRIMARY KEY,
+    LoaiEmail VARCHAR(30) NOT NULL,        -- HoaDon / ThongBao / NhacNo
+    ID_DotThu INT NULL,
+    TongSo INT NOT NULL DEFAULT 0,         -- Số email đưa vào hàng đợi
+    SoBoQua INT NOT NULL DEFAULT 0,        -- Số hộ bỏ qua (chưa có email)
+    NguoiTao NVARCHAR(100),
+    NgayTao DATETIME DEFAULT GETDATE()
+);
+
+-- Bảng Hàng đợi email (outbox)
+-- LOGIC:
+-- - Request chỉ INSERT vào đây rồi trả về ngay, không gửi SMTP trên thread web
+-- - Worker nền lấy từng lô ChoGui đã tới hạn (READPAST), gửi qua một kết nối SMTP
+-- - Lỗi tạm thời: thử lại sau LanThuTiep (backoff tăng dần), quá số lần -> Loi
+-- - ID_HoaDon != NULL: nội dung hóa đơn (HTML + PDF) render lúc gửi; ngược lại dùng NoiDung
+-- - TrangThai: ChoGui -> DangGui -> DaGui / Loi
+CREATE TABLE EmailOutbox (
+    ID_Email BIGINT IDENTITY(1,1) NOT NULL PRIMARY KEY,
+    ID_Batch BIGINT NULL,
+    ID_HoaDon INT NULL,
+    NguoiNhan VARCHAR(100) NOT NULL,
+    TieuDe NVARCHAR(255) NOT NULL,
+    NoiDung NVARCHAR(MAX),
+    TrangThai VARCHAR(20) NOT NULL DEFAULT 'ChoGui',
+    SoLanThu INT NOT NULL DEFAULT 0,
+    LanThuTiep DATETIME NOT NULL DEFAULT GETDATE(),
+    Loi NVARCHAR(500),
+    NgayTao DATETIME DEFAULT GETDATE(),
+    NgayGui DATETIME NULL,
+    CONSTRAINT FK_EmailOutbox_Batch FOREIGN KEY (ID_Batch) REFERENCES EmailBatch(ID_Batch) ON DELETE CASCADE
+);
+
+CREATE INDEX IX_EmailOutbox_Cho ON EmailOutbox(TrangThai, LanThuTiep, ID_Email);
+CREATE INDEX IX_EmailOutbox_Batch ON EmailOutbox(ID_Batch, TrangThai);
 
 -- ============================================================================
 -- PHẦN 7: VIEWS (BÁO CÁO)